@@ -0,0 +1,139 @@
+/**
+ * AllocationCheck.java - checks that the per-frame math allocates nothing
+ */
+
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that the operations performed for every mouse drag and every frame
+ * do not allocate memory, by measuring the bytes allocated by the current
+ * thread while each operation runs many times in a loop.
+ *
+ * Every operation is first measured once without reporting the result, so
+ * that both the operations and the measuring loop are compiled and the
+ * reported measurement reflects the code which runs while the program is
+ * drawing. The check exits with a nonzero status if any operation allocated,
+ * or if the virtual machine cannot measure the memory allocated by a thread.
+ *
+ * Run with {@code java AllocationCheck}.
+ */
+public class AllocationCheck {
+
+  /**
+   * An operation whose allocations are measured.
+   */
+  private interface Operation {
+    /**
+     * Runs this operation once.
+     *
+     * @param iteration
+     *          The number of times this operation has run so far.
+     */
+    void run(final int iteration);
+  }
+
+  /** The number of times each operation runs while it is measured. */
+  public static final int ITERATIONS = 1000000;
+
+  /** A value derived from the results, so that they are not optimized away. */
+  private static double sink = 0;
+
+  /**
+   * Runs the checks and prints the number of bytes allocated by each
+   * operation.
+   *
+   * @param args
+   *          This parameter is ignored.
+   */
+  public static void main(final String[] args) {
+    if (!(ManagementFactory.getThreadMXBean() instanceof
+        com.sun.management.ThreadMXBean)) {
+      System.err.println("Cannot measure the memory allocated by a thread");
+      System.exit(2);
+    }
+    final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    if (!threads.isThreadAllocatedMemorySupported()) {
+      System.err.println("Cannot measure the memory allocated by a thread");
+      System.exit(2);
+    }
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    final DragAccumulator dragAccumulator = new DragAccumulator();
+    final Quaternion rotation = new Quaternion();
+    final Quaternion scratch = new Quaternion();
+    final Quaternion step = new Quaternion();
+    step.setRotation(0.01f, 0, 0, 1);
+    final float[] matrix = new float[32];
+
+    final String[] names = { "DragAccumulator.add",
+        "DragAccumulator.applyTo", "Quaternion.multiply",
+        "Quaternion.preMultiply", "Quaternion.toMatrix" };
+    final Operation[] operations = { new Operation() {
+      @Override
+      public void run(final int iteration) {
+        dragAccumulator.add(iteration & 7, -(iteration & 3));
+      }
+    }, new Operation() {
+      @Override
+      public void run(final int iteration) {
+        dragAccumulator.add(1 + (iteration & 7), iteration & 3);
+        dragAccumulator.applyTo(rotation, scratch,
+            PA2.VIEWING_DEGREES_PER_PIXEL);
+      }
+    }, new Operation() {
+      @Override
+      public void run(final int iteration) {
+        rotation.multiply(step, rotation);
+        rotation.normalize();
+      }
+    }, new Operation() {
+      @Override
+      public void run(final int iteration) {
+        rotation.preMultiply(step);
+        rotation.normalize();
+      }
+    }, new Operation() {
+      @Override
+      public void run(final int iteration) {
+        rotation.toMatrix(matrix, iteration & 16);
+      }
+    } };
+
+    for (final Operation operation : operations) {
+      measure(threads, operation);
+    }
+    boolean allocated = false;
+    for (int i = 0; i < operations.length; ++i) {
+      final long bytes = measure(threads, operations[i]);
+      System.out.println(names[i] + ": " + bytes + " bytes");
+      allocated |= bytes > 0;
+    }
+    sink += matrix[0] + matrix[16] + dragAccumulator.drain();
+    System.out.println(allocated ? "FAILED" : "OK");
+    if (allocated) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Measures the number of bytes allocated by the current thread while the
+   * specified operation runs {@link #ITERATIONS} times.
+   *
+   * @param threads
+   *          The bean which measures the memory allocated by a thread.
+   * @param operation
+   *          The operation to measure.
+   * @return The number of bytes allocated while the operation ran.
+   */
+  private static long measure(final com.sun.management.ThreadMXBean threads,
+      final Operation operation) {
+    final long id = Thread.currentThread().getId();
+    final long before = threads.getThreadAllocatedBytes(id);
+    for (int i = 0; i < ITERATIONS; ++i) {
+      operation.run(i);
+    }
+    return threads.getThreadAllocatedBytes(id) - before;
+  }
+}
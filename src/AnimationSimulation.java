@@ -0,0 +1,106 @@
+/**
+ * AnimationSimulation.java - plays keyframe animations as a simulation
+ */
+
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A simulation which plays keyframe animations, so that animations can be
+ * evaluated on the simulation thread rather than the drawing thread.
+ *
+ * Another thread hands over an animation to play with
+ * {@link #play(KeyframeAnimation, long)}; the simulation picks it up at the
+ * start of its next step and plays it from the beginning. The animation must
+ * not be changed after it has been handed over.
+ */
+public class AnimationSimulation implements Simulation {
+
+  /** An animation which has been handed over, with its generation. */
+  private static final class Playback {
+    /** The animation to play, or {@code null} to stop playing. */
+    private final KeyframeAnimation animation;
+    /** The generation with which to tag the poses of the animation. */
+    private final long generation;
+
+    /**
+     * Instantiates this object with the specified animation and generation.
+     *
+     * @param animation
+     *          The animation to play, or {@code null} to stop playing.
+     * @param generation
+     *          The generation with which to tag the poses of the animation.
+     */
+    Playback(final KeyframeAnimation animation, final long generation) {
+      this.animation = animation;
+      this.generation = generation;
+    }
+  }
+
+  /** The animation being played, or {@code null} if there is none. */
+  private KeyframeAnimation animation = null;
+  /** The time elapsed since the current animation started, in seconds. */
+  private double elapsed = 0;
+  /** Whether the final pose of the current animation has been written. */
+  private boolean finished = true;
+  /** The generation of the animation being played. */
+  private volatile long generation = 0;
+  /** The animation most recently handed over and not yet picked up. */
+  private final AtomicReference<Playback> pending =
+      new AtomicReference<Playback>();
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@inheritDoc}
+   */
+  @Override
+  public long generation() {
+    return this.generation;
+  }
+
+  /**
+   * Hands over the specified animation to be played from its beginning,
+   * replacing whatever is being played.
+   *
+   * This method may be called from any thread.
+   *
+   * @param animation
+   *          The animation to play, or {@code null} to stop playing.
+   * @param generation
+   *          The generation with which to tag the poses of the animation.
+   */
+  public void play(final KeyframeAnimation animation, final long generation) {
+    this.pending.set(new Playback(animation, generation));
+  }
+
+  /**
+   * Advances the current animation, first picking up any animation which has
+   * been handed over, and writes its pose.
+   *
+   * @param seconds
+   *          {@inheritDoc}
+   * @param pose
+   *          {@inheritDoc}
+   * @return {@inheritDoc}
+   */
+  @Override
+  public boolean step(final double seconds, final double[] pose) {
+    final Playback playback = this.pending.getAndSet(null);
+    if (playback != null) {
+      this.animation = playback.animation;
+      this.generation = playback.generation;
+      this.elapsed = 0;
+      this.finished = this.animation == null;
+    } else {
+      this.elapsed += seconds;
+    }
+
+    if (this.finished) {
+      return false;
+    }
+    this.animation.evaluate(this.elapsed, pose);
+    this.finished = this.animation.isFinished(this.elapsed);
+    return true;
+  }
+}
@@ -0,0 +1,355 @@
+/**
+ * BakedSkeleton.java - a component hierarchy flattened into primitive arrays
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchy of {@link Component}s flattened into contiguous primitive arrays.
+ *
+ * The joints are stored in topological (pre-)order, so that the parent of
+ * every joint is stored at a smaller index than the joint itself. This allows
+ * the world transformation of every joint to be computed in a single linear
+ * pass over the arrays, without following any references between objects.
+ *
+ * A baked skeleton can be created from a tree of components with
+ * {@link #bake(Component)} and turned back into an equivalent tree of new
+ * components with {@link #unbake()}.
+ */
+public class BakedSkeleton {
+  /** The number of extents stored for each joint. */
+  private static final int EXTENTS_PER_JOINT = 6;
+
+  /**
+   * Flattens the hierarchy rooted at the specified component into a new baked
+   * skeleton.
+   *
+   * @param root
+   *          The root of the hierarchy to flatten.
+   * @return A baked skeleton containing the same joints as the hierarchy.
+   */
+  public static BakedSkeleton bake(final Component root) {
+    final List<Component> order = new ArrayList<Component>();
+    final List<Integer> parents = new ArrayList<Integer>();
+    collect(root, -1, order, parents);
+
+    final BakedSkeleton result = new BakedSkeleton(order.size());
+    for (int i = 0; i < result.size; ++i) {
+      final Component component = order.get(i);
+      result.parents[i] = parents.get(i);
+      result.names[i] = component.name();
+      result.displayables[i] = component.displayable();
+      result.colors[i] = component.color();
+      result.offsets[3 * i] = component.position().x();
+      result.offsets[3 * i + 1] = component.position().y();
+      result.offsets[3 * i + 2] = component.position().z();
+      result.angles[3 * i] = component.xAngle();
+      result.angles[3 * i + 1] = component.yAngle();
+      result.angles[3 * i + 2] = component.zAngle();
+      result.extents[EXTENTS_PER_JOINT * i] = component.xNegativeExtent();
+      result.extents[EXTENTS_PER_JOINT * i + 1] = component.xPositiveExtent();
+      result.extents[EXTENTS_PER_JOINT * i + 2] = component.yNegativeExtent();
+      result.extents[EXTENTS_PER_JOINT * i + 3] = component.yPositiveExtent();
+      result.extents[EXTENTS_PER_JOINT * i + 4] = component.zNegativeExtent();
+      result.extents[EXTENTS_PER_JOINT * i + 5] = component.zPositiveExtent();
+    }
+    return result;
+  }
+
+  /**
+   * Adds the specified component and all of its descendants to the specified
+   * list in pre-order, along with the index of the parent of each one.
+   *
+   * @param component
+   *          The component at which to start.
+   * @param parentIndex
+   *          The index of the parent of the component in the list, or -1 if
+   *          it is the root.
+   * @param order
+   *          The list to which to add the components.
+   * @param parents
+   *          The list to which to add the index of the parent of each
+   *          component.
+   */
+  private static void collect(final Component component,
+      final int parentIndex, final List<Component> order,
+      final List<Integer> parents) {
+    final int index = order.size();
+    order.add(component);
+    parents.add(parentIndex);
+    for (int i = 0; i < component.childCount(); ++i) {
+      collect(component.child(i), index, order, parents);
+    }
+  }
+
+  /** The current angles of each joint around the x, y, and z axes. */
+  private final double[] angles;
+  /** The color of each joint. */
+  private final FloatColor[] colors;
+  /** The displayable object drawn by each joint, possibly {@code null}. */
+  private final Displayable[] displayables;
+  /**
+   * The negative and positive extents of each joint around the x, y, and z
+   * axes, in that order.
+   */
+  private final double[] extents;
+  /**
+   * The transformation of each joint relative to its parent, as consecutive
+   * column major 4 by 4 matrices.
+   */
+  private final double[] localTransforms;
+  /** The name of each joint. */
+  private final String[] names;
+  /** The position of each joint relative to its parent. */
+  private final double[] offsets;
+  /** The index of the parent of each joint, or -1 for the root. */
+  private final int[] parents;
+  /** The number of joints in this skeleton. */
+  private final int size;
+  /**
+   * The transformation of each joint relative to the root of the skeleton, as
+   * consecutive column major 4 by 4 matrices.
+   */
+  private final double[] worldTransforms;
+
+  /**
+   * Instantiates this skeleton with room for the specified number of joints.
+   *
+   * @param size
+   *          The number of joints in this skeleton.
+   */
+  private BakedSkeleton(final int size) {
+    this.size = size;
+    this.parents = new int[size];
+    this.names = new String[size];
+    this.displayables = new Displayable[size];
+    this.colors = new FloatColor[size];
+    this.offsets = new double[3 * size];
+    this.angles = new double[3 * size];
+    this.extents = new double[EXTENTS_PER_JOINT * size];
+    this.localTransforms = new double[Matrix4d.SIZE * size];
+    this.worldTransforms = new double[Matrix4d.SIZE * size];
+  }
+
+  /**
+   * Gets the array of the angles of each joint around the x, y, and z axes,
+   * with the angles of joint {@code i} stored at indices {@code 3 * i} through
+   * {@code 3 * i + 2}.
+   *
+   * The returned array is the one used by this skeleton, so changes to it are
+   * reflected in the next call to {@link #updateWorldTransforms()}.
+   *
+   * @return The array of the angles of each joint.
+   */
+  public double[] angles() {
+    return this.angles;
+  }
+
+  /**
+   * Copies the current angles of each component in the hierarchy rooted at
+   * the specified component into this skeleton.
+   *
+   * The hierarchy must have the same structure as the one from which this
+   * skeleton was baked.
+   *
+   * @param root
+   *          The root of the hierarchy from which to read angles.
+   */
+  public void copyAnglesFrom(final Component root) {
+    this.copyAngles(root, 0, true);
+  }
+
+  /**
+   * Sets the angles of each component in the hierarchy rooted at the
+   * specified component to the angles of the corresponding joint in this
+   * skeleton.
+   *
+   * The hierarchy must have the same structure as the one from which this
+   * skeleton was baked.
+   *
+   * @param root
+   *          The root of the hierarchy whose angles will be set.
+   */
+  public void copyAnglesTo(final Component root) {
+    this.copyAngles(root, 0, false);
+  }
+
+  /**
+   * Copies angles between the specified component and its descendants and
+   * the joints of this skeleton starting at the specified index, in pre-order.
+   *
+   * @param component
+   *          The component at which to start.
+   * @param index
+   *          The index of the joint corresponding to the component.
+   * @param fromComponents
+   *          Whether to copy from the components into this skeleton, as
+   *          opposed to from this skeleton into the components.
+   * @return The index of the joint following the last descendant of the
+   *         component.
+   */
+  private int copyAngles(final Component component, final int index,
+      final boolean fromComponents) {
+    if (fromComponents) {
+      this.setAngles(index, component.xAngle(), component.yAngle(),
+          component.zAngle());
+    } else {
+      component.setAngles(this.angles[3 * index], this.angles[3 * index + 1],
+          this.angles[3 * index + 2]);
+    }
+    int next = index + 1;
+    for (int i = 0; i < component.childCount(); ++i) {
+      next = this.copyAngles(component.child(i), next, fromComponents);
+    }
+    return next;
+  }
+
+  /**
+   * Gets the index of the joint with the specified name.
+   *
+   * @param name
+   *          The name of the joint.
+   * @return The index of the joint with the specified name, or -1 if there is
+   *         no such joint.
+   */
+  public int indexOf(final String name) {
+    for (int i = 0; i < this.size; ++i) {
+      if (this.names[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Gets the name of the joint at the specified index.
+   *
+   * @param index
+   *          The index of the joint.
+   * @return The name of the joint at the specified index.
+   */
+  public String name(final int index) {
+    return this.names[index];
+  }
+
+  /**
+   * Gets the array of the position of each joint relative to its parent,
+   * with the position of joint {@code i} stored at indices {@code 3 * i}
+   * through {@code 3 * i + 2}.
+   *
+   * The returned array is owned by this skeleton and must not be modified.
+   *
+   * @return The array of the position of each joint.
+   */
+  public double[] offsets() {
+    return this.offsets;
+  }
+
+  /**
+   * Gets the index of the parent of the joint at the specified index.
+   *
+   * @param index
+   *          The index of the joint.
+   * @return The index of the parent of the joint, or -1 if it is the root.
+   */
+  public int parent(final int index) {
+    return this.parents[index];
+  }
+
+  /**
+   * Sets the angles of the joint at the specified index, ignoring its extents.
+   *
+   * @param index
+   *          The index of the joint.
+   * @param x
+   *          The angle around the x axis.
+   * @param y
+   *          The angle around the y axis.
+   * @param z
+   *          The angle around the z axis.
+   */
+  public void setAngles(final int index, final double x, final double y,
+      final double z) {
+    this.angles[3 * index] = x;
+    this.angles[3 * index + 1] = y;
+    this.angles[3 * index + 2] = z;
+  }
+
+  /**
+   * Gets the number of joints in this skeleton.
+   *
+   * @return The number of joints in this skeleton.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Creates a new tree of components equivalent to this skeleton, with the
+   * same names, positions, angles, extents, colors, and displayable objects.
+   *
+   * The displayable objects are shared between this skeleton and the new
+   * components, not copied.
+   *
+   * @return The root of the new tree of components.
+   */
+  public Component unbake() {
+    final Component[] components = new Component[this.size];
+    for (int i = 0; i < this.size; ++i) {
+      final Component component = new Component(new Point3D(
+          this.offsets[3 * i], this.offsets[3 * i + 1],
+          this.offsets[3 * i + 2]), this.displayables[i], this.names[i]);
+      component.setAngles(this.angles[3 * i], this.angles[3 * i + 1],
+          this.angles[3 * i + 2]);
+      component.setColor(this.colors[i]);
+      component.setXNegativeExtent(this.extents[EXTENTS_PER_JOINT * i]);
+      component.setXPositiveExtent(this.extents[EXTENTS_PER_JOINT * i + 1]);
+      component.setYNegativeExtent(this.extents[EXTENTS_PER_JOINT * i + 2]);
+      component.setYPositiveExtent(this.extents[EXTENTS_PER_JOINT * i + 3]);
+      component.setZNegativeExtent(this.extents[EXTENTS_PER_JOINT * i + 4]);
+      component.setZPositiveExtent(this.extents[EXTENTS_PER_JOINT * i + 5]);
+      components[i] = component;
+      if (this.parents[i] >= 0) {
+        components[this.parents[i]].addChild(component);
+      }
+    }
+    return components[0];
+  }
+
+  /**
+   * Recomputes the local and world transformations of every joint from the
+   * current angles, in a single pass over the joints in topological order.
+   */
+  public void updateWorldTransforms() {
+    for (int i = 0; i < this.size; ++i) {
+      final int matrix = Matrix4d.SIZE * i;
+      Matrix4d.setLocalTransform(this.localTransforms, matrix,
+          this.offsets[3 * i], this.offsets[3 * i + 1],
+          this.offsets[3 * i + 2], this.angles[3 * i], this.angles[3 * i + 1],
+          this.angles[3 * i + 2]);
+      final int parent = this.parents[i];
+      if (parent < 0) {
+        System.arraycopy(this.localTransforms, matrix, this.worldTransforms,
+            matrix, Matrix4d.SIZE);
+      } else {
+        Matrix4d.multiply(this.worldTransforms, Matrix4d.SIZE * parent,
+            this.localTransforms, matrix, this.worldTransforms, matrix);
+      }
+    }
+  }
+
+  /**
+   * Gets the array of the world transformations of each joint, as computed by
+   * the most recent call to {@link #updateWorldTransforms()}, with the matrix
+   * of joint {@code i} starting at index {@code 16 * i}.
+   *
+   * The returned array is owned by this skeleton and must not be modified.
+   *
+   * @return The array of the world transformations of each joint.
+   */
+  public double[] worldTransforms() {
+    return this.worldTransforms;
+  }
+}
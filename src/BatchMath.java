@@ -0,0 +1,215 @@
+/**
+ * BatchMath.java - quaternion and matrix operations on many values at once
+ */
+
+
+/**
+ * Quaternion and matrix operations applied to many values at once, stored in
+ * structure-of-arrays form.
+ *
+ * A batch of {@code n} quaternions is stored in a single array of length
+ * {@code 4 * n} as four consecutive planes: all the scalar components, then
+ * all the first vector components, then all the second, then all the third.
+ * A batch of {@code n} 4 by 4 matrices is stored in a single array of length
+ * {@code 16 * n} as sixteen consecutive planes, one for each element of the
+ * matrix in column major order.
+ *
+ * Each kernel is a simple loop over the values in a batch with no branches or
+ * dependencies between iterations, so that the just-in-time compiler can
+ * vectorize it. The arithmetic is performed in exactly the same order as in
+ * {@link Quaternion}, so the results are bit-for-bit identical to those of
+ * the corresponding single-quaternion methods.
+ */
+public final class BatchMath {
+
+  /**
+   * Copies the quaternion at the specified index in a batch into the
+   * specified quaternion.
+   *
+   * @param q
+   *          The batch of quaternions.
+   * @param n
+   *          The number of quaternions in the batch.
+   * @param index
+   *          The index of the quaternion to copy.
+   * @param dest
+   *          The quaternion into which to copy.
+   * @return The destination quaternion.
+   */
+  public static Quaternion getQuaternion(final float[] q, final int n,
+      final int index, final Quaternion dest) {
+    dest.set(q[index], q[n + index], q[2 * n + index], q[3 * n + index]);
+    return dest;
+  }
+
+  /**
+   * Computes the product {@code a[i] * b[i]} of each pair of quaternions in
+   * two batches, as in {@link Quaternion#multiply(Quaternion, Quaternion)}.
+   *
+   * The destination may be the same array as either operand.
+   *
+   * @param a
+   *          The batch of left operands.
+   * @param b
+   *          The batch of right operands.
+   * @param dest
+   *          The batch in which to store the products.
+   * @param n
+   *          The number of quaternions in each batch.
+   */
+  public static void multiplyQuaternions(final float[] a, final float[] b,
+      final float[] dest, final int n) {
+    final int x = n;
+    final int y = 2 * n;
+    final int z = 3 * n;
+    for (int i = 0; i < n; ++i) {
+      final float as = a[i];
+      final float ax = a[x + i];
+      final float ay = a[y + i];
+      final float az = a[z + i];
+      final float bs = b[i];
+      final float bx = b[x + i];
+      final float by = b[y + i];
+      final float bz = b[z + i];
+      dest[i] = as * bs - ax * bx - ay * by - az * bz;
+      dest[x + i] = (as * bx) + (bs * ax) + (ay * bz - az * by);
+      dest[y + i] = (as * by) + (bs * ay) + (az * bx - ax * bz);
+      dest[z + i] = (as * bz) + (bs * az) + (ax * by - ay * bx);
+    }
+  }
+
+  /**
+   * Computes the product {@code a[i] * b[i]} of each pair of 4 by 4 matrices
+   * in two batches.
+   *
+   * The destination must not be the same array as either operand.
+   *
+   * @param a
+   *          The batch of left operands.
+   * @param b
+   *          The batch of right operands.
+   * @param dest
+   *          The batch in which to store the products.
+   * @param n
+   *          The number of matrices in each batch.
+   */
+  public static void multiplyMatrices(final float[] a, final float[] b,
+      final float[] dest, final int n) {
+    for (int column = 0; column < 4; ++column) {
+      for (int row = 0; row < 4; ++row) {
+        final int d = (4 * column + row) * n;
+        final int a0 = row * n;
+        final int a1 = (4 + row) * n;
+        final int a2 = (8 + row) * n;
+        final int a3 = (12 + row) * n;
+        final int b0 = (4 * column) * n;
+        final int b1 = (4 * column + 1) * n;
+        final int b2 = (4 * column + 2) * n;
+        final int b3 = (4 * column + 3) * n;
+        for (int i = 0; i < n; ++i) {
+          dest[d + i] = a[a0 + i] * b[b0 + i] + a[a1 + i] * b[b1 + i]
+              + a[a2 + i] * b[b2 + i] + a[a3 + i] * b[b3 + i];
+        }
+      }
+    }
+  }
+
+  /**
+   * Normalizes each quaternion in a batch so that it is truly unit, as in
+   * {@link Quaternion#normalize()}.
+   *
+   * Quaternions whose norm is not greater than
+   * {@link Quaternion#ROUND_OFF_THRESHOLD} are left unchanged.
+   *
+   * @param q
+   *          The batch of quaternions to normalize.
+   * @param n
+   *          The number of quaternions in the batch.
+   */
+  public static void normalizeQuaternions(final float[] q, final int n) {
+    final int x = n;
+    final int y = 2 * n;
+    final int z = 3 * n;
+    for (int i = 0; i < n; ++i) {
+      final float s = q[i];
+      final float vx = q[x + i];
+      final float vy = q[y + i];
+      final float vz = q[z + i];
+      final float mag = (float) Math.sqrt(s * s + vx * vx + vy * vy + vz * vz);
+      final float divisor = mag > Quaternion.ROUND_OFF_THRESHOLD ? mag : 1;
+      q[i] = s / divisor;
+      q[x + i] = vx / divisor;
+      q[y + i] = vy / divisor;
+      q[z + i] = vz / divisor;
+    }
+  }
+
+  /**
+   * Converts each quaternion in a batch to the equivalent 4 by 4 rotation
+   * matrix, as in {@link Quaternion#toMatrix(float[], int)}.
+   *
+   * @param q
+   *          The batch of quaternions.
+   * @param m
+   *          The batch in which to store the matrices.
+   * @param n
+   *          The number of quaternions in the batch.
+   */
+  public static void quaternionsToMatrices(final float[] q, final float[] m,
+      final int n) {
+    final int x = n;
+    final int y = 2 * n;
+    final int z = 3 * n;
+    for (int i = 0; i < n; ++i) {
+      final float s = q[i];
+      final float a = q[x + i];
+      final float b = q[y + i];
+      final float c = q[z + i];
+
+      m[i] = 1 - 2 * b * b - 2 * c * c;
+      m[n + i] = 2 * a * b + 2 * s * c;
+      m[2 * n + i] = 2 * a * c - 2 * s * b;
+      m[3 * n + i] = 0.0f;
+
+      m[4 * n + i] = 2 * a * b - 2 * s * c;
+      m[5 * n + i] = 1 - 2 * a * a - 2 * c * c;
+      m[6 * n + i] = 2 * b * c + 2 * s * a;
+      m[7 * n + i] = 0.0f;
+
+      m[8 * n + i] = 2 * a * c + 2 * s * b;
+      m[9 * n + i] = 2 * b * c - 2 * s * a;
+      m[10 * n + i] = 1 - 2 * a * a - 2 * b * b;
+      m[11 * n + i] = 0.0f;
+
+      m[12 * n + i] = 0.0f;
+      m[13 * n + i] = 0.0f;
+      m[14 * n + i] = 0.0f;
+      m[15 * n + i] = 1.0f;
+    }
+  }
+
+  /**
+   * Copies the specified quaternion into a batch at the specified index.
+   *
+   * @param q
+   *          The batch of quaternions.
+   * @param n
+   *          The number of quaternions in the batch.
+   * @param index
+   *          The index at which to store the quaternion.
+   * @param source
+   *          The quaternion to copy.
+   */
+  public static void setQuaternion(final float[] q, final int n,
+      final int index, final Quaternion source) {
+    q[index] = source.s();
+    q[n + index] = source.x();
+    q[2 * n + index] = source.y();
+    q[3 * n + index] = source.z();
+  }
+
+  /** Instantiation is disallowed. */
+  private BatchMath() {
+    // intentionally unimplemented
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * BatchMathCheck.java - checks the batch kernels against single quaternions
+ */
+
+
+import java.util.Random;
+
+/**
+ * Checks that each kernel of {@link BatchMath} computes exactly the same
+ * results as the corresponding operation on single {@link Quaternion}
+ * objects, or for the matrix product, as a product of single matrices
+ * computed one element at a time.
+ *
+ * The inputs are random quaternions, some of them scaled below
+ * {@link Quaternion#ROUND_OFF_THRESHOLD} so that normalization leaves them
+ * unchanged. Every kernel runs many times over the same batch, so that the
+ * later runs use the code which the just-in-time compiler may have
+ * vectorized. The check exits with a nonzero status if any result differs in
+ * any bit.
+ *
+ * Run with {@code java BatchMathCheck}.
+ */
+public class BatchMathCheck {
+
+  /** The number of quaternions and matrices in each batch. */
+  public static final int COUNT = 1000;
+
+  /** The number of kernel runs over each batch. */
+  public static final int RUNS = 1000;
+
+  /** The seed of the random inputs, so that every run checks the same. */
+  public static final long SEED = 20;
+
+  /**
+   * Counts the elements which differ in any bit between the specified
+   * arrays.
+   *
+   * @param expected
+   *          The results of the single quaternion operations.
+   * @param actual
+   *          The results of the batch kernel.
+   * @return The number of elements which differ.
+   */
+  private static int differences(final float[] expected, final float[] actual) {
+    int count = 0;
+    for (int i = 0; i < expected.length; ++i) {
+      if (Float.floatToIntBits(expected[i]) != Float
+          .floatToIntBits(actual[i])) {
+        count += 1;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Runs the checks and prints the number of differing elements for each
+   * kernel.
+   *
+   * @param args
+   *          This parameter is ignored.
+   */
+  public static void main(final String[] args) {
+    final int n = COUNT;
+    final Random random = new Random(SEED);
+    final Quaternion[] left = new Quaternion[n];
+    final Quaternion[] right = new Quaternion[n];
+    final float[] a = new float[4 * n];
+    final float[] b = new float[4 * n];
+    for (int i = 0; i < n; ++i) {
+      final float scale = i % 10 == 0 ? 0.00001f : 2;
+      left[i] = new Quaternion(scale * (random.nextFloat() - 0.5f), scale
+          * (random.nextFloat() - 0.5f), scale * (random.nextFloat() - 0.5f),
+          scale * (random.nextFloat() - 0.5f));
+      right[i] = new Quaternion(2 * random.nextFloat() - 1,
+          2 * random.nextFloat() - 1, 2 * random.nextFloat() - 1,
+          2 * random.nextFloat() - 1);
+      BatchMath.setQuaternion(a, n, i, left[i]);
+      BatchMath.setQuaternion(b, n, i, right[i]);
+    }
+
+    // the results of the operations on single quaternions and matrices
+    final float[] products = new float[4 * n];
+    final float[] normalized = new float[4 * n];
+    final float[] matrices = new float[16 * n];
+    final float[] matrixProducts = new float[16 * n];
+    final Quaternion product = new Quaternion();
+    final Quaternion unit = new Quaternion();
+    final float[] leftMatrix = new float[16];
+    final float[] rightMatrix = new float[16];
+    for (int i = 0; i < n; ++i) {
+      BatchMath.setQuaternion(products, n, i,
+          left[i].multiply(right[i], product));
+      unit.set(left[i]);
+      unit.normalize();
+      BatchMath.setQuaternion(normalized, n, i, unit);
+      left[i].toMatrix(leftMatrix, 0);
+      right[i].toMatrix(rightMatrix, 0);
+      for (int element = 0; element < 16; ++element) {
+        matrices[element * n + i] = leftMatrix[element];
+      }
+      for (int column = 0; column < 4; ++column) {
+        for (int row = 0; row < 4; ++row) {
+          matrixProducts[(4 * column + row) * n + i] = leftMatrix[row]
+              * rightMatrix[4 * column] + leftMatrix[4 + row]
+              * rightMatrix[4 * column + 1] + leftMatrix[8 + row]
+              * rightMatrix[4 * column + 2] + leftMatrix[12 + row]
+              * rightMatrix[4 * column + 3];
+        }
+      }
+    }
+
+    // the results of the batch kernels
+    final float[] batchProducts = new float[4 * n];
+    final float[] batchNormalized = new float[4 * n];
+    final float[] batchMatrices = new float[16 * n];
+    final float[] rightMatrices = new float[16 * n];
+    final float[] batchMatrixProducts = new float[16 * n];
+    final String[] names = { "BatchMath.multiplyQuaternions",
+        "BatchMath.normalizeQuaternions", "BatchMath.quaternionsToMatrices",
+        "BatchMath.multiplyMatrices" };
+    final int[] counts = new int[names.length];
+    for (int run = 0; run < RUNS; ++run) {
+      BatchMath.multiplyQuaternions(a, b, batchProducts, n);
+      System.arraycopy(a, 0, batchNormalized, 0, a.length);
+      BatchMath.normalizeQuaternions(batchNormalized, n);
+      BatchMath.quaternionsToMatrices(a, batchMatrices, n);
+      BatchMath.quaternionsToMatrices(b, rightMatrices, n);
+      BatchMath.multiplyMatrices(batchMatrices, rightMatrices,
+          batchMatrixProducts, n);
+      counts[0] += differences(products, batchProducts);
+      counts[1] += differences(normalized, batchNormalized);
+      counts[2] += differences(matrices, batchMatrices);
+      counts[3] += differences(matrixProducts, batchMatrixProducts);
+    }
+
+    boolean differed = false;
+    for (int i = 0; i < names.length; ++i) {
+      System.out.println(names[i] + ": " + counts[i] + " of " + RUNS
+          * (i < 2 ? 4 * n : 16 * n) + " elements differ");
+      differed |= counts[i] > 0;
+    }
+    System.out.println(differed ? "FAILED" : "OK");
+    if (differed) {
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,428 @@
+/**
+ * ChainSolver.java - inverse kinematics for a chain of joints
+ */
+
+
+import java.util.List;
+
+/**
+ * Solves for the angles of a chain of joints, such as the joints of a finger,
+ * which bring a point on the last joint as close as possible to a target,
+ * using cyclic coordinate descent within the extents of each joint.
+ *
+ * Each iteration visits the joints from the end of the chain to its base,
+ * and for each axis around which the joint may turn, turns it by the angle
+ * which best points the end of the chain at the target, clamped to the
+ * extents of the joint around that axis. Axes whose negative extent is not
+ * less than their positive extent are locked and never turned. Since the
+ * extents can trap the chain in a local minimum, an iteration which hardly
+ * brings the end closer restarts the search from other angles spread over
+ * the extents, and the closest solution found is kept.
+ *
+ * The solver works on its own copy of the angles and transformations of the
+ * chain: {@link #load()} copies them from the components, {@link #solve}
+ * changes only the copy, and {@link #store()} copies the solution back. So
+ * several solvers may solve at the same time on different threads, as long
+ * as loading and storing are done on the thread which owns the components.
+ * Solving does not allocate any memory.
+ */
+public class ChainSolver {
+  /** The shortest distance considered when computing an angle. */
+  private static final double EPSILON = 1e-12;
+  /** The number of extents of each joint. */
+  private static final int EXTENTS_PER_JOINT = 6;
+  /** The fractional part of the golden ratio, for spreading restarts. */
+  private static final double GOLDEN_RATIO_FRACTION = 0.6180339887498949;
+  /**
+   * The fraction by which a pass must reduce the distance to the target for
+   * the solver not to be considered stuck in a local minimum.
+   */
+  private static final double STALL_FRACTION = 0.01;
+
+  /**
+   * Gets the tip of the shape drawn by the specified joint, in the
+   * coordinate system of the joint.
+   *
+   * @param joint
+   *          The joint.
+   * @return The top of its cylinder, or its origin if it does not draw a
+   *         rounded cylinder.
+   */
+  public static double[] tipOf(final Component joint) {
+    if (joint.displayable() instanceof RoundedCylinder) {
+      return new double[] { 0, 0,
+          ((RoundedCylinder) joint.displayable()).height() };
+    }
+    return new double[] { 0, 0, 0 };
+  }
+
+  /** The angles of each joint around the x, y, and z axes. */
+  private final double[] angles;
+  /** The world transformation of the parent of the first joint. */
+  private final double[] base = new double[Matrix4d.SIZE];
+  /** The angles which brought the end closest to the target so far. */
+  private final double[] bestAngles;
+  /** The point on the last joint to bring to the target. */
+  private final double[] effector;
+  /** The position of the end of the chain. */
+  private final double[] end = new double[3];
+  /** The distance from the end of the chain to the target. */
+  private double error = 0;
+  /** The extents of each joint, negative then positive for each axis. */
+  private final double[] extents;
+  /** The joints of the chain, from its base to its end. */
+  private final Component[] joints;
+  /** The position of each joint relative to its parent. */
+  private final double[] offsets;
+  /** A matrix in which to compute partial transformations. */
+  private final double[] scratch = new double[Matrix4d.SIZE];
+  /** The world transformation of each joint. */
+  private final double[] world;
+
+  /**
+   * Instantiates this solver for the specified chain, whose end is the tip
+   * of the last joint as given by {@link #tipOf(Component)}.
+   *
+   * @param joints
+   *          The joints of the chain, from its base to its end, each the
+   *          parent of the next.
+   */
+  public ChainSolver(final List<Component> joints) {
+    this(joints, tipOf(joints.get(joints.size() - 1)));
+  }
+
+  /**
+   * Instantiates this solver for the specified chain.
+   *
+   * @param joints
+   *          The joints of the chain, from its base to its end, each the
+   *          parent of the next.
+   * @param effector
+   *          The point to bring to the target, in the coordinate system of
+   *          the last joint.
+   * @throws IllegalArgumentException
+   *           If the chain is empty or a joint is not the parent of the next.
+   */
+  public ChainSolver(final List<Component> joints, final double[] effector) {
+    if (joints.isEmpty()) {
+      throw new IllegalArgumentException("Empty chain");
+    }
+    this.joints = joints.toArray(new Component[joints.size()]);
+    for (int i = 1; i < this.joints.length; ++i) {
+      if (this.joints[i].parent() != this.joints[i - 1]) {
+        throw new IllegalArgumentException(this.joints[i - 1].name()
+            + " is not the parent of " + this.joints[i].name());
+      }
+    }
+    this.effector = effector.clone();
+    this.angles = new double[JointRegistry.AXES * this.joints.length];
+    this.bestAngles = new double[this.angles.length];
+    this.offsets = new double[JointRegistry.AXES * this.joints.length];
+    this.extents = new double[EXTENTS_PER_JOINT * this.joints.length];
+    this.world = new double[Matrix4d.SIZE * this.joints.length];
+    for (int i = 0; i < this.joints.length; ++i) {
+      final Point3D position = this.joints[i].position();
+      this.offsets[3 * i] = position.x();
+      this.offsets[3 * i + 1] = position.y();
+      this.offsets[3 * i + 2] = position.z();
+    }
+  }
+
+  /**
+   * Gets the angles of the joints as most recently loaded or solved.
+   *
+   * The returned array is owned by this solver and must not be modified.
+   *
+   * @return The angles of each joint around the x, y, and z axes, three per
+   *         joint.
+   */
+  public double[] angles() {
+    return this.angles;
+  }
+
+  /**
+   * Gets the position of the end of the chain as most recently loaded or
+   * solved.
+   *
+   * The returned array is owned by this solver and must not be modified.
+   *
+   * @return The world position of the end of the chain.
+   */
+  public double[] end() {
+    return this.end;
+  }
+
+  /**
+   * Gets the distance from the end of the chain to the target of the most
+   * recent solution.
+   *
+   * @return The remaining distance to the target.
+   */
+  public double error() {
+    return this.error;
+  }
+
+  /**
+   * Copies the current angles, extents, and base transformation of the
+   * chain from its components.
+   *
+   * This method must be called on the thread which owns the components.
+   */
+  public void load() {
+    final Component parent = this.joints[0].parent();
+    if (parent == null) {
+      Matrix4d.identity(this.base, 0);
+    } else {
+      System.arraycopy(parent.worldTransform(), 0, this.base, 0,
+          Matrix4d.SIZE);
+    }
+    for (int i = 0; i < this.joints.length; ++i) {
+      final Component joint = this.joints[i];
+      this.angles[3 * i] = joint.xAngle();
+      this.angles[3 * i + 1] = joint.yAngle();
+      this.angles[3 * i + 2] = joint.zAngle();
+      final int e = EXTENTS_PER_JOINT * i;
+      this.extents[e] = joint.xNegativeExtent();
+      this.extents[e + 1] = joint.xPositiveExtent();
+      this.extents[e + 2] = joint.yNegativeExtent();
+      this.extents[e + 3] = joint.yPositiveExtent();
+      this.extents[e + 4] = joint.zNegativeExtent();
+      this.extents[e + 5] = joint.zPositiveExtent();
+    }
+    this.updateTransforms(0);
+  }
+
+  /**
+   * Turns the specified joint around the specified axis so that the end of
+   * the chain points as nearly as possible at the target.
+   *
+   * @param joint
+   *          The index of the joint.
+   * @param axis
+   *          The ordinal of the axis.
+   * @param ax
+   *          The x component of the world direction of the axis.
+   * @param ay
+   *          The y component of the world direction of the axis.
+   * @param az
+   *          The z component of the world direction of the axis.
+   * @param tx
+   *          The x component of the target.
+   * @param ty
+   *          The y component of the target.
+   * @param tz
+   *          The z component of the target.
+   */
+  private void rotateToward(final int joint, final int axis, final double ax,
+      final double ay, final double az, final double tx, final double ty,
+      final double tz) {
+    final int m = Matrix4d.SIZE * joint;
+    final double px = this.world[m + 12];
+    final double py = this.world[m + 13];
+    final double pz = this.world[m + 14];
+
+    // the directions from the joint to the end and to the target, projected
+    // onto the plane of rotation
+    double ex = this.end[0] - px;
+    double ey = this.end[1] - py;
+    double ez = this.end[2] - pz;
+    double d = ex * ax + ey * ay + ez * az;
+    ex -= d * ax;
+    ey -= d * ay;
+    ez -= d * az;
+    double gx = tx - px;
+    double gy = ty - py;
+    double gz = tz - pz;
+    d = gx * ax + gy * ay + gz * az;
+    gx -= d * ax;
+    gy -= d * ay;
+    gz -= d * az;
+    if (ex * ex + ey * ey + ez * ez < EPSILON
+        || gx * gx + gy * gy + gz * gz < EPSILON) {
+      return;
+    }
+
+    final double sine = ax * (ey * gz - ez * gy) + ay * (ez * gx - ex * gz)
+        + az * (ex * gy - ey * gx);
+    final double cosine = ex * gx + ey * gy + ez * gz;
+    final int a = 3 * joint + axis;
+    final int e = EXTENTS_PER_JOINT * joint + 2 * axis;
+    final double angle = Math.max(this.extents[e], Math.min(this.extents[e + 1],
+        this.angles[a] + Math.toDegrees(Math.atan2(sine, cosine))));
+    if (angle != this.angles[a]) {
+      this.angles[a] = angle;
+      this.updateTransforms(joint);
+    }
+  }
+
+  /**
+   * Solves for the angles which bring the end of the chain to the specified
+   * target, starting from the angles most recently loaded or solved.
+   *
+   * @param tx
+   *          The x component of the target, in world coordinates.
+   * @param ty
+   *          The y component of the target, in world coordinates.
+   * @param tz
+   *          The z component of the target, in world coordinates.
+   * @param maximumIterations
+   *          The largest number of passes over the chain.
+   * @param tolerance
+   *          The distance from the target at which to stop.
+   * @return The number of passes made.
+   */
+  public int solve(final double tx, final double ty, final double tz,
+      final int maximumIterations, final double tolerance) {
+    int iteration = 0;
+    int restarts = 0;
+    this.error = this.distanceTo(tx, ty, tz);
+    double bestError = this.error;
+    System.arraycopy(this.angles, 0, this.bestAngles, 0, this.angles.length);
+    while (iteration < maximumIterations && this.error > tolerance) {
+      final double previousError = this.error;
+      this.pass(tx, ty, tz);
+      iteration += 1;
+      this.error = this.distanceTo(tx, ty, tz);
+      if (this.error < bestError) {
+        bestError = this.error;
+        System.arraycopy(this.angles, 0, this.bestAngles, 0,
+            this.angles.length);
+      }
+
+      // escape from a local minimum by starting again elsewhere within the
+      // extents, keeping the best solution found so far
+      if (this.error > tolerance
+          && previousError - this.error < STALL_FRACTION * previousError) {
+        restarts += 1;
+        this.restart(restarts);
+        this.error = this.distanceTo(tx, ty, tz);
+      }
+    }
+    if (bestError < this.error) {
+      System.arraycopy(this.bestAngles, 0, this.angles, 0,
+          this.angles.length);
+      this.updateTransforms(0);
+      this.error = bestError;
+    }
+    return iteration;
+  }
+
+  /**
+   * Makes one pass of cyclic coordinate descent over the chain, from its end
+   * to its base.
+   *
+   * @param tx
+   *          The x component of the target.
+   * @param ty
+   *          The y component of the target.
+   * @param tz
+   *          The z component of the target.
+   */
+  private void pass(final double tx, final double ty, final double tz) {
+    for (int i = this.joints.length - 1; i >= 0; --i) {
+      final int e = EXTENTS_PER_JOINT * i;
+      final double[] parent = i == 0 ? this.base : this.world;
+      final int p = i == 0 ? 0 : Matrix4d.SIZE * (i - 1);
+      final int m = Matrix4d.SIZE * i;
+
+      // the z axis is turned last, so it is that of the joint itself
+      if (this.extents[e + 4] < this.extents[e + 5]) {
+        this.rotateToward(i, 2, this.world[m + 8], this.world[m + 9],
+            this.world[m + 10], tx, ty, tz);
+      }
+      // the y axis is turned after the x axis
+      if (this.extents[e + 2] < this.extents[e + 3]) {
+        Matrix4d.setLocalTransform(this.scratch, 0, 0, 0, 0,
+            this.angles[3 * i], 0, 0);
+        final double ax = parent[p] * this.scratch[4] + parent[p + 4]
+            * this.scratch[5] + parent[p + 8] * this.scratch[6];
+        final double ay = parent[p + 1] * this.scratch[4] + parent[p + 5]
+            * this.scratch[5] + parent[p + 9] * this.scratch[6];
+        final double az = parent[p + 2] * this.scratch[4] + parent[p + 6]
+            * this.scratch[5] + parent[p + 10] * this.scratch[6];
+        this.rotateToward(i, 1, ax, ay, az, tx, ty, tz);
+      }
+      // the x axis is that of the parent
+      if (this.extents[e] < this.extents[e + 1]) {
+        this.rotateToward(i, 0, parent[p], parent[p + 1], parent[p + 2], tx,
+            ty, tz);
+      }
+    }
+  }
+
+  /**
+   * Moves every unlocked angle to a point within its extents which depends
+   * on the specified number, spreading successive restarts evenly over the
+   * extents.
+   *
+   * @param restart
+   *          The number of the restart, starting from 1.
+   */
+  private void restart(final int restart) {
+    for (int a = 0; a < this.angles.length; ++a) {
+      final int e = 2 * a;
+      final double range = this.extents[e + 1] - this.extents[e];
+      if (range > 0) {
+        final double fraction = (restart * GOLDEN_RATIO_FRACTION + a
+            * GOLDEN_RATIO_FRACTION * GOLDEN_RATIO_FRACTION) % 1;
+        this.angles[a] = this.extents[e] + fraction * range;
+      }
+    }
+    this.updateTransforms(0);
+  }
+
+  /**
+   * Computes the distance from the end of the chain to the specified point.
+   *
+   * @param x
+   *          The x component of the point.
+   * @param y
+   *          The y component of the point.
+   * @param z
+   *          The z component of the point.
+   * @return The distance from the end of the chain to the point.
+   */
+  private double distanceTo(final double x, final double y, final double z) {
+    final double dx = this.end[0] - x;
+    final double dy = this.end[1] - y;
+    final double dz = this.end[2] - z;
+    return Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
+
+  /**
+   * Sets the angles of the components of the chain to those most recently
+   * solved, ignoring the extents since the solution already respects them.
+   *
+   * This method must be called on the thread which owns the components.
+   */
+  public void store() {
+    for (int i = 0; i < this.joints.length; ++i) {
+      this.joints[i].setAngles(this.angles[3 * i], this.angles[3 * i + 1],
+          this.angles[3 * i + 2]);
+    }
+  }
+
+  /**
+   * Recomputes the world transformations of the specified joint and all the
+   * joints after it, and the position of the end of the chain.
+   *
+   * @param first
+   *          The index of the first joint to recompute.
+   */
+  private void updateTransforms(final int first) {
+    for (int i = first; i < this.joints.length; ++i) {
+      Matrix4d.setLocalTransform(this.scratch, 0, this.offsets[3 * i],
+          this.offsets[3 * i + 1], this.offsets[3 * i + 2],
+          this.angles[3 * i], this.angles[3 * i + 1], this.angles[3 * i + 2]);
+      if (i == 0) {
+        Matrix4d.multiply(this.base, 0, this.scratch, 0, this.world, 0);
+      } else {
+        Matrix4d.multiply(this.world, Matrix4d.SIZE * (i - 1), this.scratch,
+            0, this.world, Matrix4d.SIZE * i);
+      }
+    }
+    Matrix4d.transformPoint(this.world, Matrix4d.SIZE
+        * (this.joints.length - 1), this.effector[0], this.effector[1],
+        this.effector[2], this.end, 0);
+  }
+}
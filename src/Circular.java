@@ -12,8 +12,47 @@ import com.jogamp.opengl.util.gl2.GLUT;//for new version of gl
  * @since Spring 2011
  */
 public class Circular {
+  /**
+   * The fraction by which the projected radius must pass a threshold in
+   * {@link #LEVEL_THRESHOLDS} before the level of detail changes, which
+   * prevents the level from alternating when the radius is near a threshold.
+   */
+  public static final double HYSTERESIS = 0.15;
+  /** The number of levels of detail at which circular objects are drawn. */
+  public static final int LEVEL_COUNT = 4;
+  /**
+   * The projected radius, in pixels, above which each level of detail is
+   * replaced by the next finer one; level {@code i} is drawn while the radius
+   * is between {@code LEVEL_THRESHOLDS[i]} and {@code LEVEL_THRESHOLDS[i - 1]}.
+   */
+  public static final double[] LEVEL_THRESHOLDS = { 48, 16, 6 };
+
+  /**
+   * Gets the number of subdivisions to use at the specified level of detail,
+   * halving the number at full detail for each coarser level.
+   * 
+   * @param full
+   *          The number of subdivisions at level 0, the finest level.
+   * @param level
+   *          The level of detail.
+   * @param minimum
+   *          The smallest number of subdivisions to use at any level.
+   * @return The number of subdivisions to use at the specified level.
+   */
+  protected static int subdivisions(final int full, final int level,
+      final int minimum) {
+    return Math.max(minimum, full >> level);
+  }
+
+  /**
+   * The cache in which to share compiled geometry with other objects, or
+   * {@code null} if this object compiles its own geometry.
+   */
+  private final GeometryCache geometryCache;
   /** The OpenGL utility toolkit object to use to draw this object. */
   private final GLUT glut;
+  /** The current level of detail, where 0 is the finest. */
+  private int level = 0;
   /** The radius of this object. */
   private final double radius;
 
@@ -24,8 +63,126 @@ public class Circular {
    *          The radius of this object.
    */
   public Circular(final double radius, final GLUT glut) {
+    this(radius, glut, null);
+  }
+
+  /**
+   * Instantiates this object with the specified radius, sharing compiled
+   * geometry with other objects through the specified cache.
+   * 
+   * @param radius
+   *          The radius of this object.
+   * @param glut
+   *          The OpenGL utility toolkit object to use to draw this object.
+   * @param geometryCache
+   *          The cache in which to share compiled geometry, or {@code null} if
+   *          this object should compile its own geometry.
+   */
+  public Circular(final double radius, final GLUT glut,
+      final GeometryCache geometryCache) {
     this.radius = radius;
     this.glut = glut;
+    this.geometryCache = geometryCache;
+  }
+
+  /**
+   * Gets the handle of the specified geometry prepared by the specified
+   * backend, either from the geometry cache of this object or, if it has
+   * none, by preparing the mesh of the geometry.
+   * 
+   * @param backend
+   *          The backend with which to prepare the geometry.
+   * @param shape
+   *          The type of the shape.
+   * @param height
+   *          The height of the shape.
+   * @param slices
+   *          The number of slices in the tessellation of the shape.
+   * @param stacks
+   *          The number of stacks in the tessellation of the shape.
+   * @param geometry
+   *          The geometry to prepare if necessary.
+   * @return The handle with which the backend draws the geometry.
+   */
+  protected int prepareMesh(final RenderBackend backend,
+      final GeometryCache.Shape shape, final double height, final int slices,
+      final int stacks, final GeometryCache.Geometry geometry) {
+    if (this.geometryCache == null) {
+      return backend.prepareMesh(geometry.mesh());
+    }
+    return this.geometryCache.handle(backend, shape, this.radius, height,
+        slices, stacks, geometry);
+  }
+
+  /**
+   * Gets the z coordinate of the center of a sphere which encloses this
+   * object; the center lies on the z axis.
+   * 
+   * @return The z coordinate of the center of the bounding sphere.
+   */
+  public double boundingCenterZ() {
+    return 0;
+  }
+
+  /**
+   * Gets the radius of a sphere centered at {@link #boundingCenterZ()} which
+   * encloses this object.
+   * 
+   * @return The radius of the bounding sphere.
+   */
+  public double boundingRadius() {
+    return this.radius;
+  }
+
+  /**
+   * Gets the current level of detail of this object, between 0 (the finest)
+   * and {@link #LEVEL_COUNT} - 1 (the coarsest).
+   * 
+   * @return The current level of detail of this object.
+   */
+  public int level() {
+    return this.level;
+  }
+
+  /**
+   * Chooses the level of detail of this object from the radius of its
+   * bounding sphere when projected onto the screen.
+   * 
+   * The level only changes when the radius has passed the threshold between
+   * two levels by more than {@link #HYSTERESIS}.
+   * 
+   * @param projectedRadius
+   *          The radius of the bounding sphere of this object on the screen, in
+   *          pixels.
+   * @return Whether the level of detail changed.
+   */
+  public boolean selectLevel(final double projectedRadius) {
+    int target = this.level;
+    while (target > 0
+        && projectedRadius >= LEVEL_THRESHOLDS[target - 1] * (1 + HYSTERESIS)) {
+      target -= 1;
+    }
+    while (target < LEVEL_COUNT - 1
+        && projectedRadius < LEVEL_THRESHOLDS[target] * (1 - HYSTERESIS)) {
+      target += 1;
+    }
+    if (target == this.level) {
+      return false;
+    }
+    this.level = target;
+    return true;
+  }
+
+  /**
+   * Gets the triangle mesh of this object at the specified level of detail.
+   * 
+   * @param level
+   *          The level of detail of the mesh.
+   * @return The triangle mesh of this object, or {@code null} if this object
+   *         does not provide one.
+   */
+  public Mesh mesh(final int level) {
+    return null;
   }
 
   /**
@@ -0,0 +1,643 @@
+/**
+ * CollisionDetector.java - finds where the parts of a model interpenetrate
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * Finds the parts of a hierarchy of components which interpenetrate, such as
+ * fingers passing through each other or through the palm.
+ *
+ * The components are modeled as capsules and ellipsoids by a
+ * {@link ShapeHierarchy}, whose bounding spheres are the broadphase: each
+ * component has a sphere enclosing its own shape and a sphere enclosing its
+ * whole subtree, refit by {@link #detect()} where the components have moved.
+ * Pairs of subtrees whose spheres do not overlap are never visited, and the
+ * children of each component are swept along the x axis so that only those
+ * whose spheres overlap in x are paired at all. So separate hands, for
+ * example, cost little more than a test of their bounding spheres.
+ *
+ * The narrowphase computes the exact distance between the axes of two
+ * capsules. The distance from a capsule to an ellipsoid is measured along
+ * the ray from the center of the ellipsoid through the point of the axis of
+ * the capsule nearest to it, once the ellipsoid is scaled to a sphere,
+ * which is exact along the axes of the ellipsoid and close elsewhere. Two
+ * ellipsoids are tested as one ellipsoid against the largest sphere inside
+ * the other.
+ *
+ * A joint always touches the joints next to it in the hierarchy, so a
+ * component is never tested against its descendants up to
+ * {@link #DEFAULT_IGNORED_GENERATIONS} generations down.
+ */
+public class CollisionDetector {
+  /** The number of generations of descendants not tested by default. */
+  public static final int DEFAULT_IGNORED_GENERATIONS = 2;
+  /** The initial capacity of the arrays of contacts. */
+  private static final int INITIAL_CONTACT_CAPACITY = 16;
+  /** The smallest squared length of a segment which is not a point. */
+  private static final double EPSILON = 1e-12;
+  /** The number of values in a sphere. */
+  private static final int SPHERE_LENGTH = ShapeHierarchy.SPHERE_LENGTH;
+
+  /**
+   * Gets the smallest x coordinate of the specified sphere.
+   *
+   * @param spheres
+   *          The array of spheres.
+   * @param index
+   *          The index of the sphere.
+   * @return The x coordinate of the center of the sphere less its radius.
+   */
+  private static double minimumX(final double[] spheres, final int index) {
+    return spheres[SPHERE_LENGTH * index]
+        - spheres[SPHERE_LENGTH * index + 3];
+  }
+
+  /**
+   * Determines whether two spheres overlap. Empty spheres overlap nothing.
+   *
+   * @param spheres
+   *          The array containing the first sphere.
+   * @param offset
+   *          The index of the center of the first sphere.
+   * @param others
+   *          The array containing the second sphere.
+   * @param otherOffset
+   *          The index of the center of the second sphere.
+   * @return Whether the spheres overlap.
+   */
+  private static boolean overlaps(final double[] spheres, final int offset,
+      final double[] others, final int otherOffset) {
+    final double r1 = spheres[offset + 3];
+    final double r2 = others[otherOffset + 3];
+    if (r1 < 0 || r2 < 0) {
+      return false;
+    }
+    final double dx = others[otherOffset] - spheres[offset];
+    final double dy = others[otherOffset + 1] - spheres[offset + 1];
+    final double dz = others[otherOffset + 2] - spheres[offset + 2];
+    return dx * dx + dy * dy + dz * dz < (r1 + r2) * (r1 + r2);
+  }
+
+  /**
+   * The children of each component, in order of the smallest x coordinate
+   * of their subtree spheres as of the latest detection; the children of
+   * component {@code i} start at index {@code childStarts[i]}.
+   */
+  private final int[] childOrder;
+  /** The number of children of each component. */
+  private final int[] childCounts;
+  /** The index in {@link #childOrder} of the children of each component. */
+  private final int[] childStarts;
+  /** The nearest points on two segments, as found by the narrowphase. */
+  private final double[] closest = new double[6];
+  /** The depth of each contact found by the latest detection. */
+  private double[] contactDepths = new double[INITIAL_CONTACT_CAPACITY];
+  /** The index of the first component of each contact. */
+  private int[] contactFirsts = new int[INITIAL_CONTACT_CAPACITY];
+  /** The world position of each contact, three per contact. */
+  private double[] contactPoints = new double[3 * INITIAL_CONTACT_CAPACITY];
+  /** The index of the second component of each contact. */
+  private int[] contactSeconds = new int[INITIAL_CONTACT_CAPACITY];
+  /** The number of contacts found by the latest detection. */
+  private int contactCount = 0;
+  /** The depth of each component below the root. */
+  private final int[] depths;
+  /** The index after the last descendant of each component. */
+  private final int[] ends;
+  /** The shapes of the components and their bounding spheres. */
+  private final ShapeHierarchy hierarchy;
+  /** The number of generations of descendants not tested. */
+  private final int ignoredGenerations;
+  /** The number of narrowphase tests made by the latest detection. */
+  private int narrowTests = 0;
+  /** The radius of the capsule of each component, or of its inner sphere. */
+  private final double[] radii;
+  /** The semi-axes of the ellipsoid of each component, three each. */
+  private final double[] semiAxes;
+  /** The local center of the ellipsoid of each component, six each. */
+  private final double[] localSegments;
+  /** The ends of the axis of each capsule in world coordinates, six each. */
+  private final double[] segments;
+  /** The sphere enclosing the shape of each component. */
+  private final double[] shapeSpheres;
+  /** The kind of shape of each component. */
+  private final int[] shapes;
+  /** The sphere enclosing the shapes of each subtree. */
+  private final double[] subtreeSpheres;
+  /** The sum of the depths of the contacts of the latest detection. */
+  private double totalDepth = 0;
+  /** The world transformation of each component. */
+  private final double[] transforms;
+
+  /**
+   * Instantiates this detector for the hierarchy rooted at the specified
+   * component, ignoring {@link #DEFAULT_IGNORED_GENERATIONS} generations of
+   * descendants of each component.
+   *
+   * @param root
+   *          The root of the hierarchy.
+   */
+  public CollisionDetector(final Component root) {
+    this(new ShapeHierarchy(root), DEFAULT_IGNORED_GENERATIONS);
+  }
+
+  /**
+   * Instantiates this detector for the specified shapes, which may be
+   * shared with other queries.
+   *
+   * @param hierarchy
+   *          The shapes of the components and their bounding spheres.
+   * @param ignoredGenerations
+   *          The number of generations of descendants of each component not
+   *          tested against it; 1 ignores only children.
+   */
+  public CollisionDetector(final ShapeHierarchy hierarchy,
+      final int ignoredGenerations) {
+    this.hierarchy = hierarchy;
+    this.ignoredGenerations = ignoredGenerations;
+    this.depths = hierarchy.depths();
+    this.ends = hierarchy.ends();
+    this.shapes = hierarchy.shapes();
+    this.radii = hierarchy.radii();
+    this.semiAxes = hierarchy.semiAxes();
+    this.localSegments = hierarchy.localSegments();
+    this.segments = hierarchy.segments();
+    this.transforms = hierarchy.transforms();
+    this.shapeSpheres = hierarchy.shapeSpheres();
+    this.subtreeSpheres = hierarchy.subtreeSpheres();
+    final int size = hierarchy.size();
+    this.childOrder = new int[size];
+    this.childCounts = new int[size];
+    this.childStarts = new int[size];
+    int start = 0;
+    for (int i = 0; i < size; ++i) {
+      this.childStarts[i] = start;
+      for (int child = i + 1; child < this.ends[i]; child = this.ends[child]) {
+        this.childOrder[start + this.childCounts[i]] = child;
+        this.childCounts[i] += 1;
+      }
+      start += this.childCounts[i];
+    }
+  }
+
+  /**
+   * Records a contact between the specified components.
+   *
+   * @param first
+   *          The index of the first component.
+   * @param second
+   *          The index of the second component.
+   * @param depth
+   *          The depth of the contact.
+   * @param x
+   *          The x component of the position of the contact.
+   * @param y
+   *          The y component of the position of the contact.
+   * @param z
+   *          The z component of the position of the contact.
+   */
+  private void addContact(final int first, final int second,
+      final double depth, final double x, final double y, final double z) {
+    if (this.contactCount == this.contactFirsts.length) {
+      final int capacity = 2 * this.contactCount;
+      this.contactFirsts = Arrays.copyOf(this.contactFirsts, capacity);
+      this.contactSeconds = Arrays.copyOf(this.contactSeconds, capacity);
+      this.contactDepths = Arrays.copyOf(this.contactDepths, capacity);
+      this.contactPoints = Arrays.copyOf(this.contactPoints, 3 * capacity);
+    }
+    final int k = this.contactCount;
+    this.contactFirsts[k] = first;
+    this.contactSeconds[k] = second;
+    this.contactDepths[k] = depth;
+    this.contactPoints[3 * k] = x;
+    this.contactPoints[3 * k + 1] = y;
+    this.contactPoints[3 * k + 2] = z;
+    this.contactCount += 1;
+    this.totalDepth += depth;
+  }
+
+  /**
+   * Tests two capsules, recording a contact if they interpenetrate.
+   *
+   * @param a
+   *          The index of the first component.
+   * @param b
+   *          The index of the second component.
+   */
+  private void capsuleCapsule(final int a, final int b) {
+    final double distance = Math.sqrt(this.closestPoints(a, b));
+    final double depth = this.radii[a] + this.radii[b] - distance;
+    if (depth > 0) {
+      final double[] c = this.closest;
+      this.addContact(a, b, depth, (c[0] + c[3]) / 2, (c[1] + c[4]) / 2,
+          (c[2] + c[5]) / 2);
+    }
+  }
+
+  /**
+   * Finds the nearest points on the world axes of two capsules and stores
+   * them in {@link #closest}.
+   *
+   * @param a
+   *          The index of the first component.
+   * @param b
+   *          The index of the second component.
+   * @return The squared distance between the nearest points.
+   */
+  private double closestPoints(final int a, final int b) {
+    final double[] s = this.segments;
+    final int p = 6 * a;
+    final int q = 6 * b;
+    final double d1x = s[p + 3] - s[p];
+    final double d1y = s[p + 4] - s[p + 1];
+    final double d1z = s[p + 5] - s[p + 2];
+    final double d2x = s[q + 3] - s[q];
+    final double d2y = s[q + 4] - s[q + 1];
+    final double d2z = s[q + 5] - s[q + 2];
+    final double rx = s[p] - s[q];
+    final double ry = s[p + 1] - s[q + 1];
+    final double rz = s[p + 2] - s[q + 2];
+    final double aa = d1x * d1x + d1y * d1y + d1z * d1z;
+    final double ee = d2x * d2x + d2y * d2y + d2z * d2z;
+    final double f = d2x * rx + d2y * ry + d2z * rz;
+    double u;
+    double v;
+    if (aa <= EPSILON && ee <= EPSILON) {
+      u = 0;
+      v = 0;
+    } else if (aa <= EPSILON) {
+      u = 0;
+      v = Math.max(0, Math.min(1, f / ee));
+    } else {
+      final double c = d1x * rx + d1y * ry + d1z * rz;
+      if (ee <= EPSILON) {
+        v = 0;
+        u = Math.max(0, Math.min(1, -c / aa));
+      } else {
+        // the parameters of the nearest points of the infinite lines, clamped
+        // first on the first segment and then on the second
+        final double bb = d1x * d2x + d1y * d2y + d1z * d2z;
+        final double denominator = aa * ee - bb * bb;
+        u = denominator > EPSILON ? Math.max(0,
+            Math.min(1, (bb * f - c * ee) / denominator)) : 0;
+        v = (bb * u + f) / ee;
+        if (v < 0) {
+          v = 0;
+          u = Math.max(0, Math.min(1, -c / aa));
+        } else if (v > 1) {
+          v = 1;
+          u = Math.max(0, Math.min(1, (bb - c) / aa));
+        }
+      }
+    }
+    final double[] c = this.closest;
+    c[0] = s[p] + u * d1x;
+    c[1] = s[p + 1] + u * d1y;
+    c[2] = s[p + 2] + u * d1z;
+    c[3] = s[q] + v * d2x;
+    c[4] = s[q + 1] + v * d2y;
+    c[5] = s[q + 2] + v * d2z;
+    final double dx = c[3] - c[0];
+    final double dy = c[4] - c[1];
+    final double dz = c[5] - c[2];
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  /**
+   * Tests the shape of the specified component against the shapes of every
+   * component in the subtree of another, which is either a descendant of it
+   * or in a separate subtree.
+   *
+   * @param shape
+   *          The index of the component whose shape to test.
+   * @param node
+   *          The index of the root of the subtree.
+   */
+  private void collideShape(final int shape, final int node) {
+    if (!overlaps(this.shapeSpheres, SPHERE_LENGTH * shape,
+        this.subtreeSpheres, SPHERE_LENGTH * node)) {
+      return;
+    }
+    final boolean descendant = node > shape && node < this.ends[shape];
+    if (!descendant
+        || this.depths[node] - this.depths[shape] > this.ignoredGenerations) {
+      this.narrowphase(shape, node);
+    }
+    final int end = this.ends[node];
+    for (int child = node + 1; child < end; child = this.ends[child]) {
+      this.collideShape(shape, child);
+    }
+  }
+
+  /**
+   * Tests every shape in the subtree of the first component against every
+   * shape in the subtree of the second, which must be separate subtrees.
+   *
+   * @param a
+   *          The index of the root of the first subtree.
+   * @param b
+   *          The index of the root of the second subtree.
+   */
+  private void collideSubtrees(final int a, final int b) {
+    if (!overlaps(this.subtreeSpheres, SPHERE_LENGTH * a,
+        this.subtreeSpheres, SPHERE_LENGTH * b)) {
+      return;
+    }
+    this.collideShape(a, b);
+    for (int child = a + 1; child < this.ends[a]; child = this.ends[child]) {
+      this.collideSubtrees(child, b);
+    }
+  }
+
+  /**
+   * Tests every pair of shapes within the subtree of the specified
+   * component.
+   *
+   * @param node
+   *          The index of the root of the subtree.
+   */
+  private void collideWithin(final int node) {
+    final int end = this.ends[node];
+    for (int child = node + 1; child < end; child = this.ends[child]) {
+      this.collideShape(node, child);
+      this.collideWithin(child);
+    }
+
+    // sweep the subtrees of the children along the x axis, so that only
+    // those whose spheres overlap in x are tested against each other
+    final double[] spheres = this.subtreeSpheres;
+    final int first = this.childStarts[node];
+    final int last = first + this.childCounts[node];
+    this.sortChildren(first, last);
+    for (int k = first; k < last; ++k) {
+      final int a = this.childOrder[k];
+      final double maximumX = spheres[SPHERE_LENGTH * a]
+          + spheres[SPHERE_LENGTH * a + 3];
+      for (int l = k + 1; l < last; ++l) {
+        final int b = this.childOrder[l];
+        if (minimumX(spheres, b) >= maximumX) {
+          break;
+        }
+        this.collideSubtrees(a, b);
+      }
+    }
+  }
+
+  /**
+   * Gets the number of contacts found by the most recent detection.
+   *
+   * @return The number of pairs of components which interpenetrate.
+   */
+  public int contactCount() {
+    return this.contactCount;
+  }
+
+  /**
+   * Gets the depth of the specified contact, that is, the distance by which
+   * its components would have to move apart to only touch.
+   *
+   * @param contact
+   *          The index of the contact.
+   * @return The depth of the contact.
+   */
+  public double contactDepth(final int contact) {
+    return this.contactDepths[contact];
+  }
+
+  /**
+   * Gets the first component of the specified contact.
+   *
+   * @param contact
+   *          The index of the contact.
+   * @return The first component of the contact.
+   */
+  public Component contactFirst(final int contact) {
+    return this.hierarchy.component(this.contactFirsts[contact]);
+  }
+
+  /**
+   * Stores the world position of the specified contact, between the nearest
+   * points of its components.
+   *
+   * @param contact
+   *          The index of the contact.
+   * @param dest
+   *          The array in which to store the position.
+   * @param destOffset
+   *          The index at which to store its x component.
+   */
+  public void contactPoint(final int contact, final double[] dest,
+      final int destOffset) {
+    System.arraycopy(this.contactPoints, 3 * contact, dest, destOffset, 3);
+  }
+
+  /**
+   * Gets the second component of the specified contact.
+   *
+   * @param contact
+   *          The index of the contact.
+   * @return The second component of the contact.
+   */
+  public Component contactSecond(final int contact) {
+    return this.hierarchy.component(this.contactSeconds[contact]);
+  }
+
+  /**
+   * Refits the shapes of the components which have moved since the previous
+   * refit and finds every pair of components which interpenetrate.
+   *
+   * This method must be called on the thread which owns the components.
+   * Unless more contacts are found than ever before, it does not allocate
+   * any memory.
+   *
+   * @return The number of contacts found.
+   */
+  public int detect() {
+    this.hierarchy.refit();
+    this.contactCount = 0;
+    this.narrowTests = 0;
+    this.totalDepth = 0;
+    this.collideWithin(0);
+    return this.contactCount;
+  }
+
+  /**
+   * Tests an ellipsoid against a capsule, or against the sphere inside
+   * another ellipsoid, recording a contact if they interpenetrate.
+   *
+   * @param e
+   *          The index of the component with the ellipsoid.
+   * @param c
+   *          The index of the other component.
+   */
+  private void ellipsoidCapsule(final int e, final int c) {
+    final double[] m = this.transforms;
+    final int o = Matrix4d.SIZE * e;
+    final int a = 3 * e;
+    final double cx = this.localSegments[6 * e];
+    final double cy = this.localSegments[6 * e + 1];
+    final double cz = this.localSegments[6 * e + 2];
+
+    // both ends of the axis of the capsule, relative to the center of the
+    // ellipsoid and scaled so that the ellipsoid is the unit sphere
+    final double[] u = this.closest;
+    for (int end = 0; end < 2; ++end) {
+      final int p = 6 * c + 3 * end;
+      final double px = this.segments[p] - m[o + 12];
+      final double py = this.segments[p + 1] - m[o + 13];
+      final double pz = this.segments[p + 2] - m[o + 14];
+      u[3 * end] = (m[o] * px + m[o + 1] * py + m[o + 2] * pz - cx)
+          / this.semiAxes[a];
+      u[3 * end + 1] = (m[o + 4] * px + m[o + 5] * py + m[o + 6] * pz - cy)
+          / this.semiAxes[a + 1];
+      u[3 * end + 2] = (m[o + 8] * px + m[o + 9] * py + m[o + 10] * pz - cz)
+          / this.semiAxes[a + 2];
+    }
+    final double dx = u[3] - u[0];
+    final double dy = u[4] - u[1];
+    final double dz = u[5] - u[2];
+    final double lengthSquared = dx * dx + dy * dy + dz * dz;
+    final double t = lengthSquared <= EPSILON ? 0 : Math.max(0,
+        Math.min(1, -(u[0] * dx + u[1] * dy + u[2] * dz) / lengthSquared));
+    final double sx = u[0] + t * dx;
+    final double sy = u[1] + t * dy;
+    final double sz = u[2] + t * dz;
+    final double scaled = Math.sqrt(sx * sx + sy * sy + sz * sz);
+
+    // the point on the surface of the ellipsoid in the same direction
+    double vx = this.semiAxes[a];
+    double vy = 0;
+    double vz = 0;
+    double distance = -vx;
+    if (scaled > EPSILON) {
+      vx = sx * this.semiAxes[a] / scaled;
+      vy = sy * this.semiAxes[a + 1] / scaled;
+      vz = sz * this.semiAxes[a + 2] / scaled;
+      distance = (scaled - 1) * Math.sqrt(vx * vx + vy * vy + vz * vz);
+    }
+    final double depth = this.radii[c] - distance;
+    if (depth > 0) {
+      vx += cx;
+      vy += cy;
+      vz += cz;
+      this.addContact(e, c, depth, m[o] * vx + m[o + 4] * vy + m[o + 8] * vz
+          + m[o + 12], m[o + 1] * vx + m[o + 5] * vy + m[o + 9] * vz
+          + m[o + 13], m[o + 2] * vx + m[o + 6] * vy + m[o + 10] * vz
+          + m[o + 14]);
+    }
+  }
+
+  /**
+   * Tests the shapes of two components, recording a contact if they
+   * interpenetrate.
+   *
+   * @param a
+   *          The index of the first component.
+   * @param b
+   *          The index of the second component.
+   */
+  private void narrowphase(final int a, final int b) {
+    if (this.shapes[a] == ShapeHierarchy.NONE
+        || this.shapes[b] == ShapeHierarchy.NONE) {
+      return;
+    }
+    this.narrowTests += 1;
+    if (this.shapes[a] == ShapeHierarchy.ELLIPSOID) {
+      this.ellipsoidCapsule(a, b);
+    } else if (this.shapes[b] == ShapeHierarchy.ELLIPSOID) {
+      this.ellipsoidCapsule(b, a);
+    } else {
+      this.capsuleCapsule(a, b);
+    }
+  }
+
+  /**
+   * Rotates the specified component as by
+   * {@link Component#rotate(Axis, double)}, unless doing so would make the
+   * components interpenetrate more deeply, in which case its angles are
+   * left unchanged.
+   *
+   * A rotation which lessens the interpenetration of a pose which is
+   * already in collision is allowed, so that such a pose can be undone.
+   * The contacts of this detector are those of the resulting pose.
+   *
+   * @param component
+   *          The component to rotate, which must be in the hierarchy of this
+   *          detector.
+   * @param axis
+   *          The axis around which to rotate.
+   * @param angleDelta
+   *          The angle by which to rotate.
+   * @return Whether the component was rotated.
+   */
+  public boolean rotateIfFree(final Component component, final Axis axis,
+      final double angleDelta) {
+    this.detect();
+    final double before = this.totalDepth;
+    final double x = component.xAngle();
+    final double y = component.yAngle();
+    final double z = component.zAngle();
+    component.rotate(axis, angleDelta);
+    this.detect();
+    if (this.totalDepth > before + EPSILON) {
+      component.setAngles(x, y, z);
+      this.detect();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Sorts a range of {@link #childOrder} by the smallest x coordinate of the
+   * subtree spheres of the children, by insertion, which takes linear time
+   * when the order has hardly changed since the previous detection.
+   *
+   * @param first
+   *          The index of the first child in the range.
+   * @param last
+   *          The index after the last child in the range.
+   */
+  private void sortChildren(final int first, final int last) {
+    final int[] order = this.childOrder;
+    for (int k = first + 1; k < last; ++k) {
+      final int child = order[k];
+      final double key = minimumX(this.subtreeSpheres, child);
+      int l = k - 1;
+      while (l >= first && minimumX(this.subtreeSpheres, order[l]) > key) {
+        order[l + 1] = order[l];
+        l -= 1;
+      }
+      order[l + 1] = child;
+    }
+  }
+
+  /**
+   * Gets the sum of the depths of the contacts found by the most recent
+   * detection, a measure of how deeply the model interpenetrates.
+   *
+   * @return The total depth of the contacts.
+   */
+  public double totalDepth() {
+    return this.totalDepth;
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder("CollisionDetector[shapes="
+        + this.hierarchy.size() + ", tests=" + this.narrowTests
+        + ", contacts=" + this.contactCount);
+    for (int k = 0; k < this.contactCount; ++k) {
+      builder.append(k == 0 ? ": " : ", ").append(this.contactFirst(k).name())
+          .append("/").append(this.contactSecond(k).name()).append(" ")
+          .append(String.format("%.3f", this.contactDepths[k]));
+    }
+    return builder.append("]").toString();
+  }
+}
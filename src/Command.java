@@ -0,0 +1,19 @@
+/**
+ * Command.java - an action to be performed later on another thread
+ */
+
+
+/**
+ * An action which is created on one thread and performed later on another,
+ * typically an input event which is received on the AWT event thread and
+ * applied to the model on the thread which draws it.
+ *
+ * @see CommandQueue
+ */
+public interface Command {
+
+  /**
+   * Performs this action.
+   */
+  void execute();
+}
@@ -0,0 +1,467 @@
+/**
+ * CommandBuffer.java - records and replays an optimized stream of commands
+ */
+
+
+import java.util.Arrays;
+
+import javax.media.opengl.GL2;
+
+/**
+ * A render backend which records the drawing of a whole hierarchy into a
+ * compact buffer of primitive commands, removing redundant state changes as
+ * it records, and which can replay the commands on an OpenGL object.
+ *
+ * Child components are rendered in place, so the recording is one flat
+ * stream of commands for the whole hierarchy. While recording, the following
+ * redundant operations are eliminated:
+ * <ul>
+ * <li>Transformations are not issued until something is drawn, so a chain of
+ * transformations with nothing drawn between them is collapsed into a single
+ * matrix, and a transformation with nothing drawn under it is dropped.</li>
+ * <li>A collapsed transformation which is the identity is dropped, along with
+ * the pop which would have matched it.</li>
+ * <li>Materials are not pushed and popped on the attribute stack; instead the
+ * color is set immediately before each draw, and only if it differs from the
+ * color set most recently.</li>
+ * </ul>
+ * The whole replay is wrapped in a single push and pop of the current color,
+ * so replaying leaves the color as it was.
+ *
+ * The buffers are kept between recordings, so recording the same hierarchy
+ * repeatedly does not allocate memory.
+ */
+public class CommandBuffer implements RenderBackend {
+  /** The number of OpenGL calls issued by the replay of a color command. */
+  private static final int COLOR_CALLS = 1;
+  /** The number of OpenGL calls issued by the replay of a draw command. */
+  private static final int DRAW_CALLS = 1;
+  /** The initial capacity of each of the buffers. */
+  private static final int INITIAL_CAPACITY = 64;
+  /** The command which sets the color, followed by three float arguments. */
+  private static final int OP_COLOR = 0;
+  /** The command which draws the mesh at the following index and handle. */
+  private static final int OP_DRAW = 1;
+  /** The command which pops the current matrix. */
+  private static final int OP_POP_TRANSFORM = 2;
+  /** The command which pushes and multiplies by a 16-float matrix. */
+  private static final int OP_PUSH_TRANSFORM = 3;
+  /** The number of OpenGL calls issued by the replay of a pop command. */
+  private static final int POP_CALLS = 1;
+  /** The number of OpenGL calls issued by the replay of a push command. */
+  private static final int PUSH_CALLS = 2;
+  /** The number of OpenGL calls which wrap the whole replay. */
+  private static final int REPLAY_CALLS = 2;
+  /** A transformation which has not been issued. */
+  private static final int PENDING = 0;
+  /** A transformation issued as part of a collapsed one higher up. */
+  private static final int COVERED = 1;
+  /** The innermost transformation of an issued collapsed one. */
+  private static final int OWNER = 2;
+  /** The innermost transformation of a collapsed one which was dropped. */
+  private static final int OWNER_IDENTITY = 3;
+
+  /** The float arguments of the commands. */
+  private float[] args = new float[INITIAL_CAPACITY * Matrix4d.SIZE];
+  /** The number of float arguments in the buffer. */
+  private int argCount = 0;
+  /** Whether a color command has been recorded since recording began. */
+  private boolean colorRecorded = false;
+  /** The red, green, and blue components of the color recorded last. */
+  private final float[] lastColor = new float[3];
+  /** The number of materials on the material stack. */
+  private int materialDepth = 0;
+  /** The red, green, and blue components of each pushed material. */
+  private float[] materials = new float[3 * INITIAL_CAPACITY];
+  /** The number of meshes referenced by draw commands. */
+  private int meshCount = 0;
+  /** The meshes referenced by draw commands. */
+  private Mesh[] meshes = new Mesh[INITIAL_CAPACITY];
+  /** The commands and their integer arguments. */
+  private int[] ops = new int[INITIAL_CAPACITY];
+  /** The number of ints in the command buffer. */
+  private int opCount = 0;
+  /** Scratch space for a product of transformations. */
+  private final double[] product = new double[Matrix4d.SIZE];
+  /** The number of OpenGL calls the last recording would have made. */
+  private long recordedCalls = 0;
+  /** The number of OpenGL calls the replay of the last recording makes. */
+  private long replayedCalls = 0;
+  /** Scratch space for a product of transformations. */
+  private final double[] scratch = new double[Matrix4d.SIZE];
+  /** The number of transformations on the transformation stack. */
+  private int transformDepth = 0;
+  /**
+   * For the owner of a collapsed transformation, the index on the stack of
+   * the outermost transformation which it covers.
+   */
+  private int[] transformGroups = new int[INITIAL_CAPACITY];
+  /** The state of each transformation on the transformation stack. */
+  private int[] transformStates = new int[INITIAL_CAPACITY];
+  /** Each pushed transformation, as a column major 4 by 4 matrix. */
+  private double[] transforms = new double[INITIAL_CAPACITY * Matrix4d.SIZE];
+
+  /**
+   * Appends the specified command to the command buffer.
+   *
+   * @param op
+   *          The command or integer argument to append.
+   */
+  private void appendOp(final int op) {
+    if (this.opCount == this.ops.length) {
+      this.ops = Arrays.copyOf(this.ops, 2 * this.ops.length);
+    }
+    this.ops[this.opCount++] = op;
+  }
+
+  /**
+   * Ensures that the argument buffer has room for the specified number of
+   * additional arguments.
+   *
+   * @param more
+   *          The number of arguments which will be appended.
+   */
+  private void ensureArgs(final int more) {
+    if (this.argCount + more > this.args.length) {
+      this.args = Arrays.copyOf(this.args, Math.max(2 * this.args.length,
+          this.argCount + more));
+    }
+  }
+
+  /**
+   * Gets the number of ints in the command buffer of the last recording.
+   *
+   * @return The number of ints in the command buffer.
+   */
+  public int commandCount() {
+    return this.opCount;
+  }
+
+  /**
+   * Renders the specified component in place, so that its commands become
+   * part of this recording.
+   *
+   * @param component
+   *          {@inheritDoc}
+   */
+  @Override
+  public void drawComponent(final Component component) {
+    // a call list would have been called for the component
+    this.recordedCalls += 1;
+    component.render(this);
+  }
+
+  /**
+   * Lets the specified object emit the meshes which it draws.
+   *
+   * @param displayable
+   *          {@inheritDoc}
+   */
+  @Override
+  public void drawDisplayable(final Displayable displayable) {
+    displayable.draw(this);
+  }
+
+  /**
+   * Records the transformation and color needed to draw the specified mesh,
+   * then records the drawing of it.
+   *
+   * @param mesh
+   *          {@inheritDoc}
+   * @param handle
+   *          {@inheritDoc}
+   */
+  @Override
+  public void drawMesh(final Mesh mesh, final int handle) {
+    this.recordedCalls += DRAW_CALLS;
+    this.flushTransforms();
+    this.flushColor();
+
+    if (this.meshCount == this.meshes.length) {
+      this.meshes = Arrays.copyOf(this.meshes, 2 * this.meshes.length);
+    }
+    this.meshes[this.meshCount] = mesh;
+    this.appendOp(OP_DRAW);
+    this.appendOp(this.meshCount);
+    this.appendOp(handle);
+    this.meshCount += 1;
+    this.replayedCalls += DRAW_CALLS;
+  }
+
+  /**
+   * Gets the number of OpenGL calls eliminated from the last recording.
+   *
+   * @return The number of calls which the hierarchy would have made, less the
+   *         number made when the recording is replayed.
+   */
+  public long eliminatedCalls() {
+    return this.recordedCalls - this.replayedCalls;
+  }
+
+  /**
+   * Records a color command for the current material if it differs from the
+   * color recorded last.
+   */
+  private void flushColor() {
+    if (this.materialDepth == 0) {
+      return;
+    }
+    final int m = 3 * (this.materialDepth - 1);
+    final float red = this.materials[m];
+    final float green = this.materials[m + 1];
+    final float blue = this.materials[m + 2];
+    if (this.colorRecorded && red == this.lastColor[0]
+        && green == this.lastColor[1] && blue == this.lastColor[2]) {
+      return;
+    }
+    this.ensureArgs(3);
+    this.appendOp(OP_COLOR);
+    this.args[this.argCount++] = red;
+    this.args[this.argCount++] = green;
+    this.args[this.argCount++] = blue;
+    this.lastColor[0] = red;
+    this.lastColor[1] = green;
+    this.lastColor[2] = blue;
+    this.colorRecorded = true;
+    this.replayedCalls += COLOR_CALLS;
+  }
+
+  /**
+   * Records a single push of the product of all the pending transformations
+   * on top of the stack, unless that product is the identity.
+   */
+  private void flushTransforms() {
+    int first = this.transformDepth;
+    while (first > 0 && this.transformStates[first - 1] == PENDING) {
+      first -= 1;
+    }
+    if (first == this.transformDepth) {
+      return;
+    }
+
+    final int owner = this.transformDepth - 1;
+    System.arraycopy(this.transforms, first * Matrix4d.SIZE, this.product, 0,
+        Matrix4d.SIZE);
+    for (int i = first + 1; i <= owner; ++i) {
+      Matrix4d.multiply(this.product, 0, this.transforms, i * Matrix4d.SIZE,
+          this.scratch, 0);
+      System.arraycopy(this.scratch, 0, this.product, 0, Matrix4d.SIZE);
+    }
+    for (int i = first; i < owner; ++i) {
+      this.transformStates[i] = COVERED;
+    }
+    this.transformGroups[owner] = first;
+
+    if (Matrix4d.isIdentity(this.product, 0)) {
+      this.transformStates[owner] = OWNER_IDENTITY;
+      return;
+    }
+    this.transformStates[owner] = OWNER;
+    this.ensureArgs(Matrix4d.SIZE);
+    this.appendOp(OP_PUSH_TRANSFORM);
+    for (int i = 0; i < Matrix4d.SIZE; ++i) {
+      this.args[this.argCount++] = (float) this.product[i];
+    }
+    this.replayedCalls += PUSH_CALLS;
+  }
+
+  /**
+   * Pops the current material without recording anything.
+   *
+   * @throws IllegalStateException
+   *           If no material has been pushed.
+   */
+  @Override
+  public void popMaterial() {
+    if (this.materialDepth == 0) {
+      throw new IllegalStateException("Material stack underflow");
+    }
+    this.recordedCalls += POP_CALLS;
+    this.materialDepth -= 1;
+  }
+
+  /**
+   * Pops the current transformation, recording a pop only if its push was
+   * recorded.
+   *
+   * The transformations covered by a collapsed transformation which is popped
+   * become pending again, since the matrix which included them is no longer
+   * on the stack.
+   *
+   * @throws IllegalStateException
+   *           If no transformation has been pushed.
+   */
+  @Override
+  public void popTransform() {
+    if (this.transformDepth == 0) {
+      throw new IllegalStateException("Transform stack underflow");
+    }
+    this.recordedCalls += POP_CALLS;
+    final int top = this.transformDepth - 1;
+    final int state = this.transformStates[top];
+    if (state == OWNER || state == OWNER_IDENTITY) {
+      for (int i = this.transformGroups[top]; i < top; ++i) {
+        this.transformStates[i] = PENDING;
+      }
+      if (state == OWNER) {
+        this.appendOp(OP_POP_TRANSFORM);
+        this.replayedCalls += POP_CALLS;
+      }
+    }
+    this.transformDepth = top;
+  }
+
+  /**
+   * Does nothing, since the meshes are only drawn when the recording is
+   * replayed, with the handles with which they were recorded.
+   *
+   * @param mesh
+   *          {@inheritDoc}
+   * @return 0, since this buffer keeps no prepared meshes.
+   */
+  @Override
+  public int prepareMesh(final Mesh mesh) {
+    return 0;
+  }
+
+  /**
+   * Pushes the specified color onto the material stack without recording
+   * anything.
+   *
+   * @param color
+   *          {@inheritDoc}
+   */
+  @Override
+  public void pushMaterial(final FloatColor color) {
+    this.recordedCalls += PUSH_CALLS;
+    if (3 * (this.materialDepth + 1) > this.materials.length) {
+      this.materials = Arrays.copyOf(this.materials,
+          2 * this.materials.length);
+    }
+    final int m = 3 * this.materialDepth;
+    this.materials[m] = color.red();
+    this.materials[m + 1] = color.green();
+    this.materials[m + 2] = color.blue();
+    this.materialDepth += 1;
+  }
+
+  /**
+   * Pushes the specified transformation onto the transformation stack as a
+   * pending transformation, without recording anything.
+   *
+   * @param matrix
+   *          {@inheritDoc}
+   * @param offset
+   *          {@inheritDoc}
+   */
+  @Override
+  public void pushTransform(final double[] matrix, final int offset) {
+    this.recordedCalls += PUSH_CALLS;
+    if (this.transformDepth == this.transformStates.length) {
+      final int capacity = 2 * this.transformStates.length;
+      this.transformStates = Arrays.copyOf(this.transformStates, capacity);
+      this.transformGroups = Arrays.copyOf(this.transformGroups, capacity);
+      this.transforms = Arrays.copyOf(this.transforms, capacity
+          * Matrix4d.SIZE);
+    }
+    System.arraycopy(matrix, offset, this.transforms, this.transformDepth
+        * Matrix4d.SIZE, Matrix4d.SIZE);
+    this.transformStates[this.transformDepth] = PENDING;
+    this.transformDepth += 1;
+  }
+
+  /**
+   * Replaces the contents of this buffer with the optimized commands which
+   * draw the hierarchy rooted at the specified component.
+   *
+   * @param root
+   *          The root of the hierarchy to record.
+   * @throws IllegalStateException
+   *           If the hierarchy does not pop everything it pushes.
+   */
+  public void record(final Component root) {
+    this.opCount = 0;
+    this.argCount = 0;
+    Arrays.fill(this.meshes, 0, this.meshCount, null);
+    this.meshCount = 0;
+    this.colorRecorded = false;
+    this.recordedCalls = 0;
+    this.replayedCalls = REPLAY_CALLS;
+
+    this.drawComponent(root);
+
+    if (this.transformDepth != 0 || this.materialDepth != 0) {
+      throw new IllegalStateException("Unbalanced recording of " + root);
+    }
+  }
+
+  /**
+   * Gets the number of OpenGL calls which the hierarchy would have made
+   * through its call lists when the last recording was made.
+   *
+   * @return The number of calls before redundant ones were eliminated.
+   */
+  public long recordedCalls() {
+    return this.recordedCalls;
+  }
+
+  /**
+   * Issues the recorded commands on the specified OpenGL object.
+   *
+   * @param gl
+   *          The OpenGL object on which to issue the commands.
+   */
+  public void replay(final GL2 gl) {
+    gl.glPushAttrib(GL2.GL_CURRENT_BIT);
+    int a = 0;
+    for (int i = 0; i < this.opCount; ++i) {
+      switch (this.ops[i]) {
+      case OP_COLOR:
+        gl.glColor3f(this.args[a], this.args[a + 1], this.args[a + 2]);
+        a += 3;
+        break;
+      case OP_DRAW:
+        if (this.ops[i + 2] != 0) {
+          gl.glCallList(this.ops[i + 2]);
+        } else {
+          DisplayListBackend.drawArrays(gl, this.meshes[this.ops[i + 1]]);
+        }
+        i += 2;
+        break;
+      case OP_POP_TRANSFORM:
+        gl.glPopMatrix();
+        break;
+      case OP_PUSH_TRANSFORM:
+        gl.glPushMatrix();
+        gl.glMultMatrixf(this.args, a);
+        a += Matrix4d.SIZE;
+        break;
+      default:
+        throw new IllegalStateException("Unknown command " + this.ops[i]);
+      }
+    }
+    gl.glPopAttrib();
+  }
+
+  /**
+   * Gets the number of OpenGL calls made when the last recording is replayed.
+   *
+   * @return The number of calls after redundant ones were eliminated.
+   */
+  public long replayedCalls() {
+    return this.replayedCalls;
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    return "CommandBuffer[commands=" + this.opCount + ", args="
+        + this.argCount + ", recordedCalls=" + this.recordedCalls
+        + ", replayedCalls=" + this.replayedCalls + ", eliminatedCalls="
+        + this.eliminatedCalls() + "]";
+  }
+}
@@ -0,0 +1,236 @@
+/**
+ * CommandQueue.java - a bounded lock-free queue of commands
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded queue of commands which any number of threads may offer to
+ * without locking, and from which a single thread executes them in batches.
+ *
+ * The queue is a ring buffer in which each slot has a sequence number, as in
+ * Dmitry Vyukov's bounded queue. A producer claims a slot by advancing the
+ * tail with a compare-and-set, fills it, and then publishes it by setting its
+ * sequence number; the consumer takes the slot at the head once its sequence
+ * number shows that it has been published, and then releases it to producers
+ * one lap later. No producer ever waits for another, and an offer to a full
+ * queue fails immediately instead of blocking.
+ *
+ * The time at which each command is offered is recorded, so that the queue
+ * can report how long commands wait before they are executed.
+ */
+public class CommandQueue {
+  /** The slots of the ring buffer; only accessed through sequence numbers. */
+  private final Command[] commands;
+  /** The number of commands executed. */
+  private long executed = 0;
+  /** The index of the next slot from which to take a command. */
+  private volatile long head = 0;
+  /** The largest number of commands executed in a single batch. */
+  private int largestBatch = 0;
+  /** The mask which reduces a position to an index in the ring buffer. */
+  private final int mask;
+  /** The longest time any command waited before it was executed. */
+  private long maximumLatencyNanos = 0;
+  /** The time at which the command in each slot was offered. */
+  private final long[] offerTimes;
+  /** The number of commands rejected because the queue was full. */
+  private final AtomicLong rejected = new AtomicLong();
+  /**
+   * The sequence number of each slot, which is its position when it is free
+   * for a producer and one more than its position when it holds a command.
+   */
+  private final AtomicLongArray sequences;
+  /** The index of the next slot to be claimed by a producer. */
+  private final AtomicLong tail = new AtomicLong();
+  /** The total time all executed commands waited before execution. */
+  private long totalLatencyNanos = 0;
+
+  /**
+   * Instantiates this queue with room for at least the specified number of
+   * commands.
+   *
+   * @param capacity
+   *          The minimum number of commands the queue can hold, which is
+   *          rounded up to a power of two.
+   * @throws IllegalArgumentException
+   *           If the capacity is not positive or is too large.
+   */
+  public CommandQueue(final int capacity) {
+    if (capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+    final int size = Integer.highestOneBit(capacity) == capacity ? capacity
+        : Integer.highestOneBit(capacity) << 1;
+    this.mask = size - 1;
+    this.commands = new Command[size];
+    this.offerTimes = new long[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; ++i) {
+      this.sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Gets the average time the executed commands waited in the queue.
+   *
+   * This method must only be called by the consuming thread.
+   *
+   * @return The average latency, in seconds, or 0 if no command has been
+   *         executed.
+   */
+  public double averageLatencySeconds() {
+    return this.executed == 0 ? 0 : this.totalLatencyNanos / 1e9
+        / this.executed;
+  }
+
+  /**
+   * Gets the number of commands which the queue can hold.
+   *
+   * @return The capacity of the queue.
+   */
+  public int capacity() {
+    return this.commands.length;
+  }
+
+  /**
+   * Gets the approximate number of commands waiting in the queue.
+   *
+   * @return The number of commands which have been offered but not yet
+   *         taken.
+   */
+  public int depth() {
+    final long depth = this.tail.get() - this.head;
+    return (int) Math.max(0, Math.min(depth, this.commands.length));
+  }
+
+  /**
+   * Executes, in the order in which they were offered, the commands which
+   * are in the queue when this method is called.
+   *
+   * Commands offered while the batch is being executed are left for the next
+   * batch, so producers cannot keep the consumer executing indefinitely.
+   * This method must only be called by the consuming thread.
+   *
+   * @return The number of commands executed.
+   */
+  public int drain() {
+    final int batch = this.depth();
+    int count = 0;
+    while (count < batch) {
+      final Command command = this.poll();
+      if (command == null) {
+        break;
+      }
+      command.execute();
+      count += 1;
+    }
+    this.largestBatch = Math.max(this.largestBatch, count);
+    return count;
+  }
+
+  /**
+   * Gets the number of commands executed since this queue was created.
+   *
+   * This method must only be called by the consuming thread.
+   *
+   * @return The number of commands executed.
+   */
+  public long executed() {
+    return this.executed;
+  }
+
+  /**
+   * Gets the longest time any executed command waited in the queue.
+   *
+   * This method must only be called by the consuming thread.
+   *
+   * @return The maximum latency, in seconds.
+   */
+  public double maximumLatencySeconds() {
+    return this.maximumLatencyNanos / 1e9;
+  }
+
+  /**
+   * Adds the specified command to the tail of the queue if there is room.
+   *
+   * This method may be called from any thread.
+   *
+   * @param command
+   *          The command to add.
+   * @return Whether the command was added; {@code false} if the queue was
+   *         full.
+   */
+  public boolean offer(final Command command) {
+    while (true) {
+      final long position = this.tail.get();
+      final int index = (int) position & this.mask;
+      final long difference = this.sequences.get(index) - position;
+      if (difference == 0) {
+        if (this.tail.compareAndSet(position, position + 1)) {
+          this.commands[index] = command;
+          this.offerTimes[index] = System.nanoTime();
+          // publishes the command and its time to the consumer
+          this.sequences.set(index, position + 1);
+          return true;
+        }
+      } else if (difference < 0) {
+        this.rejected.incrementAndGet();
+        return false;
+      }
+      // another producer claimed this slot first, so try the next one
+    }
+  }
+
+  /**
+   * Removes the command at the head of the queue, if it has been published.
+   *
+   * @return The command at the head of the queue, or {@code null} if there is
+   *         none.
+   */
+  private Command poll() {
+    final long position = this.head;
+    final int index = (int) position & this.mask;
+    if (this.sequences.get(index) != position + 1) {
+      return null;
+    }
+    final Command command = this.commands[index];
+    final long latency = System.nanoTime() - this.offerTimes[index];
+    this.commands[index] = null;
+    // releases the slot to the producers for the next lap
+    this.sequences.set(index, position + this.commands.length);
+    this.head = position + 1;
+
+    this.executed += 1;
+    this.totalLatencyNanos += latency;
+    this.maximumLatencyNanos = Math.max(this.maximumLatencyNanos, latency);
+    return command;
+  }
+
+  /**
+   * Gets the number of commands rejected because the queue was full.
+   *
+   * @return The number of commands rejected.
+   */
+  public long rejected() {
+    return this.rejected.get();
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * This method must only be called by the consuming thread.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    return "CommandQueue[depth=" + this.depth() + ", executed="
+        + this.executed + ", rejected=" + this.rejected()
+        + ", largestBatch=" + this.largestBatch + ", averageLatency="
+        + this.averageLatencySeconds() + "s, maximumLatency="
+        + this.maximumLatencySeconds() + "s]";
+  }
+}
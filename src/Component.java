@@ -3,8 +3,7 @@
  */
 
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
@@ -15,21 +14,64 @@ import javax.media.opengl.GL2;
  * @author Jeffrey Finkelstein <jeffrey.finkelstein@gmail.com>
  * @since Spring 2011
  */
-public class Component implements Rotatable, Nameable, UpdatingDisplayable,
+public class Component implements Rotatable, Nameable, Displayable,
     Colorable {
+  /** The initial capacity of the array containing the children. */
+  private static final int INITIAL_CHILD_CAPACITY = 4;
   /** The handle to the OpenGL call list to use to draw this component. */
   private int callListHandle;
+  /**
+   * Whether the call list of this component must be recompiled on the next
+   * call to {@link #update(GL2, DisplayListBackend)}.
+   */
+  private boolean dirty = true;
+  /**
+   * Whether this component or any of its descendants must have its call list
+   * recompiled on the next call to {@link #update(GL2, DisplayListBackend)}.
+   */
+  private boolean subtreeDirty = true;
+  /**
+   * The transformation of this component relative to its parent, as a column
+   * major 4 by 4 matrix.
+   */
+  private final double[] localTransform = new double[Matrix4d.SIZE];
+  /** Whether {@link #localTransform} must be recomputed before it is read. */
+  private boolean localTransformStale = true;
+  /** The parent of this component, or {@code null} if it has no parent. */
+  private Component parent = null;
+  /**
+   * The number of times the state of this component has changed, which is
+   * incremented each time this component is marked dirty.
+   */
+  private long version = 0;
   /**
    * The children of this component, which will be drawn respecting the
    * translation and rotation of this component.
+   * 
+   * Only the first {@link #childCount} elements of this array are children;
+   * they are kept in the order in which they are traversed.
    */
-  private Set<Component> children = new HashSet<Component>();
+  private Component[] children = new Component[INITIAL_CHILD_CAPACITY];
+  /** The number of children of this component. */
+  private int childCount = 0;
   /** The color of this component. */
   private FloatColor color = FloatColor.ORANGE;
   /** The displayable object which this component draws. */
   private final Displayable displayable;
   /** The position of this component. */
   private final Point3D position;
+  /**
+   * The transformation of this component relative to the coordinate system of
+   * the root of its hierarchy, as a column major 4 by 4 matrix.
+   */
+  private final double[] worldTransform = new double[Matrix4d.SIZE];
+  /**
+   * Whether {@link #worldTransform} must be recomputed before it is read.
+   * 
+   * If this is {@code true}, it is also {@code true} for each of the
+   * descendants of this component.
+   */
+  private boolean worldTransformStale = true;
   /** The current angle at which this joint is rotated around the x axis. */
   private double xAngle = 0.0;
   /** The minimum angle to which this joint can be rotated around the x axis. */
@@ -83,13 +125,198 @@ public class Component implements Rotatable, Nameable, UpdatingDisplayable,
   private final String name;
 
   /**
-   * Adds the specified child to the set of children of this component.
+   * Adds the specified child after the last child of this component.
+   * 
+   * If the specified component is already a child of this component, this
+   * method does nothing.
    * 
    * @param component
    *          The component to add as a child of this component.
+   * @throws IllegalArgumentException
+   *           If the specified component is this component or one of its
+   *           ancestors.
    */
   public void addChild(final Component component) {
-    this.children.add(component);
+    if (component.parent != this) {
+      this.insertChild(this.childCount, component);
+    }
+  }
+
+  /**
+   * Gets the child of this component at the specified index.
+   * 
+   * @param index
+   *          The index of the child, between 0 (inclusive) and
+   *          {@link #childCount()} (exclusive).
+   * @return The child of this component at the specified index.
+   * @throws IndexOutOfBoundsException
+   *           If the index is out of range.
+   */
+  public Component child(final int index) {
+    if (index < 0 || index >= this.childCount) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + this.childCount);
+    }
+    return this.children[index];
+  }
+
+  /**
+   * Gets the number of children of this component.
+   * 
+   * @return The number of children of this component.
+   */
+  public int childCount() {
+    return this.childCount;
+  }
+
+  /**
+   * Gets the index of the specified component among the children of this
+   * component.
+   * 
+   * @param component
+   *          The component to find.
+   * @return The index of the specified component, or -1 if it is not a child
+   *         of this component.
+   */
+  public int indexOfChild(final Component component) {
+    for (int i = 0; i < this.childCount; ++i) {
+      if (this.children[i] == component) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Inserts the specified component as a child of this component at the
+   * specified index, shifting the children at and after that index.
+   * 
+   * If the specified component is already the child of some component, it is
+   * first removed from that component.
+   * 
+   * @param index
+   *          The index at which to insert the child, between 0 and
+   *          {@link #childCount()} (both inclusive).
+   * @param component
+   *          The component to insert as a child of this component.
+   * @throws IndexOutOfBoundsException
+   *           If the index is out of range.
+   * @throws IllegalArgumentException
+   *           If the specified component is this component or one of its
+   *           ancestors, which would make the hierarchy a cycle.
+   */
+  public void insertChild(final int index, final Component component) {
+    if (index < 0 || index > this.childCount) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + this.childCount);
+    }
+    for (Component ancestor = this; ancestor != null;
+        ancestor = ancestor.parent) {
+      if (ancestor == component) {
+        throw new IllegalArgumentException("Cannot add " + component.name
+            + " beneath itself");
+      }
+    }
+
+    // removing the component from this component shifts the later children
+    int target = index;
+    if (component.parent == this && this.indexOfChild(component) < index) {
+      target -= 1;
+    }
+    if (component.parent != null) {
+      component.parent.removeChild(component);
+    }
+
+    if (this.childCount == this.children.length) {
+      this.children = Arrays.copyOf(this.children, 2 * this.children.length);
+    }
+    System.arraycopy(this.children, target, this.children, target + 1,
+        this.childCount - target);
+    this.children[target] = component;
+    this.childCount += 1;
+
+    component.parent = this;
+    component.invalidateWorldTransform();
+    component.markDirty();
+    this.markDirty();
+  }
+
+  /**
+   * Moves the child of this component at the specified index to another index,
+   * shifting the children in between.
+   * 
+   * @param fromIndex
+   *          The current index of the child to move.
+   * @param toIndex
+   *          The index to which to move the child.
+   * @throws IndexOutOfBoundsException
+   *           If either index is out of range.
+   */
+  public void moveChild(final int fromIndex, final int toIndex) {
+    final Component component = this.child(fromIndex);
+    this.child(toIndex);
+    if (fromIndex < toIndex) {
+      System.arraycopy(this.children, fromIndex + 1, this.children, fromIndex,
+          toIndex - fromIndex);
+    } else {
+      System.arraycopy(this.children, toIndex, this.children, toIndex + 1,
+          fromIndex - toIndex);
+    }
+    this.children[toIndex] = component;
+    this.markDirty();
+  }
+
+  /**
+   * Emits the operations which draw this component to the specified backend.
+   * 
+   * This component is translated and rotated (using the cached
+   * {@link #localTransform()}), then its {@link Displayable} is drawn in its
+   * color, and finally each of its children is drawn with respect to that
+   * translation and rotation. The children are not rendered by this method;
+   * the backend decides how to draw them.
+   * 
+   * @param backend
+   *          The backend to which to emit the operations.
+   */
+  public void render(final RenderBackend backend) {
+    backend.pushTransform(this.localTransform(), 0);
+
+    if (this.displayable != null) {
+      backend.pushMaterial(this.color);
+      backend.drawDisplayable(this.displayable);
+      backend.popMaterial();
+    }
+
+    for (int i = 0; i < this.childCount; ++i) {
+      backend.drawComponent(this.children[i]);
+    }
+
+    backend.popTransform();
+  }
+
+  /**
+   * Removes the specified component from the children of this component,
+   * shifting the children after it.
+   * 
+   * @param component
+   *          The component to remove.
+   * @return Whether the specified component was a child of this component.
+   */
+  public boolean removeChild(final Component component) {
+    final int index = this.indexOfChild(component);
+    if (index < 0) {
+      return false;
+    }
+    System.arraycopy(this.children, index + 1, this.children, index,
+        this.childCount - index - 1);
+    this.childCount -= 1;
+    this.children[this.childCount] = null;
+
+    component.parent = null;
+    component.invalidateWorldTransform();
+    component.markDirty();
+    this.markDirty();
+    return true;
   }
 
   /**
@@ -99,6 +326,9 @@ public class Component implements Rotatable, Nameable, UpdatingDisplayable,
    * 
    * @param components
    *          The components to add as children of this component.
+   * @throws IllegalArgumentException
+   *           If any of the specified components is this component or one of
+   *           its ancestors.
    */
   public void addChildren(final Component... components) {
     for (final Component component : components) {
@@ -112,36 +342,66 @@ public class Component implements Rotatable, Nameable, UpdatingDisplayable,
    * 
    * @param gl
    *          The OpenGL object with which to perform the drawing.
-   * 
-   * @see edu.bu.cs.cs480.Displayable#draw(javax.media.opengl.GL)
    */
-  @Override
   public void draw(final GL2 gl) {
     gl.glCallList(this.callListHandle);
   }
 
+  /**
+   * Asks the specified backend to draw this component, including all of its
+   * descendants.
+   * 
+   * @param backend
+   *          {@inheritDoc}
+   */
+  @Override
+  public void draw(final RenderBackend backend) {
+    backend.drawComponent(this);
+  }
+
   /**
    * Initializes the call list which this component uses for drawing, then
    * calls the corresponding method on the children of this component.
    * 
-   * @param gl
-   *          The OpenGL object with which to perform the drawing.
+   * The displayable objects are initialized through the specified backend,
+   * which compiles their meshes into call lists of their own.
    * 
-   * @see edu.bu.cs.cs480.Displayable#initialize(javax.media.opengl.GL)
+   * @param gl
+   *          The OpenGL object with which to create the call lists.
+   * @param backend
+   *          The backend which issues commands on the same OpenGL object,
+   *          created once for its context.
    */
-  @Override
-  public void initialize(final GL2 gl) {
+  public void initialize(final GL2 gl, final DisplayListBackend backend) {
     // create a new OpenGL call list handle
     this.callListHandle = gl.glGenLists(1);
+    this.markDirty();
 
     // initialize the displayable object which this component represents
     if (this.displayable != null) {
-      this.displayable.initialize(gl);
+      this.displayable.initialize(backend);
     }
 
     // initialize each of the children of this component
-    for (final Component child : this.children) {
-      child.initialize(gl);
+    for (int i = 0; i < this.childCount; ++i) {
+      this.children[i].initialize(gl, backend);
+    }
+  }
+
+  /**
+   * Initializes the displayable objects of this component and of each of its
+   * descendants for drawing on the specified backend.
+   * 
+   * @param backend
+   *          {@inheritDoc}
+   */
+  @Override
+  public void initialize(final RenderBackend backend) {
+    if (this.displayable != null) {
+      this.displayable.initialize(backend);
+    }
+    for (int i = 0; i < this.childCount; ++i) {
+      this.children[i].initialize(backend);
     }
   }
 
@@ -154,25 +414,111 @@ public class Component implements Rotatable, Nameable, UpdatingDisplayable,
    *          {@inheritDoc}
    */
   public void rotate(final Axis axis, final double angleDelta) {
+    double x = this.xAngle;
+    double y = this.yAngle;
+    double z = this.zAngle;
     if (axis.equals(Axis.X)) {
-      this.xAngle += angleDelta;
-      this.xAngle = Math.min(this.xAngle, this.xPositiveExtent);
-      this.xAngle = Math.max(this.xAngle, this.xNegativeExtent);
+      x += angleDelta;
+      x = Math.min(x, this.xPositiveExtent);
+      x = Math.max(x, this.xNegativeExtent);
     } else if (axis.equals(Axis.Y)) {
-      this.yAngle += angleDelta;
-      this.yAngle = Math.min(this.yAngle, this.yPositiveExtent);
-      this.yAngle = Math.max(this.yAngle, this.yNegativeExtent);
+      y += angleDelta;
+      y = Math.min(y, this.yPositiveExtent);
+      y = Math.max(y, this.yNegativeExtent);
     } else if (axis.equals(Axis.Z)) {
-      this.zAngle += angleDelta;
-      this.zAngle = Math.min(this.zAngle, this.zPositiveExtent);
-      this.zAngle = Math.max(this.zAngle, this.zNegativeExtent);
+      z += angleDelta;
+      z = Math.min(z, this.zPositiveExtent);
+      z = Math.max(z, this.zNegativeExtent);
     }
+    this.setAngles(x, y, z);
   }
 
+  /**
+   * Sets the angles of this joint around each of the three axes, ignoring the
+   * extents of this joint.
+   * 
+   * This component is only marked dirty if at least one of the angles
+   * actually changes.
+   * 
+   * @param x
+   *          The angle around the x axis.
+   * @param y
+   *          The angle around the y axis.
+   * @param z
+   *          The angle around the z axis.
+   */
   public void setAngles(final double x, final double y, final double z) {
+    if (x == this.xAngle && y == this.yAngle && z == this.zAngle) {
+      return;
+    }
     this.xAngle = x;
     this.yAngle = y;
     this.zAngle = z;
+    this.localTransformStale = true;
+    this.invalidateWorldTransform();
+    this.markDirty();
+  }
+
+  /**
+   * Marks the world transformation of this component and each of its
+   * descendants as stale, stopping at any descendant which is already stale.
+   */
+  private void invalidateWorldTransform() {
+    if (this.worldTransformStale) {
+      return;
+    }
+    this.worldTransformStale = true;
+    for (int i = 0; i < this.childCount; ++i) {
+      this.children[i].invalidateWorldTransform();
+    }
+  }
+
+  /**
+   * Gets the transformation of this component relative to its parent: the
+   * translation to the position of this component followed by the rotations
+   * around the x, y, and z axes, in that order.
+   * 
+   * The matrix is recomputed only if the angles of this component have
+   * changed since it was last computed. The returned array is owned by this
+   * component and must not be modified.
+   * 
+   * @return The column major 4 by 4 matrix representing the transformation of
+   *         this component relative to its parent.
+   */
+  public double[] localTransform() {
+    if (this.localTransformStale) {
+      Matrix4d.setLocalTransform(this.localTransform, 0, this.position.x(),
+          this.position.y(), this.position.z(), this.xAngle, this.yAngle,
+          this.zAngle);
+      this.localTransformStale = false;
+    }
+    return this.localTransform;
+  }
+
+  /**
+   * Gets the transformation of this component relative to the coordinate
+   * system of the root of its hierarchy, that is, the product of the local
+   * transformations of all of its ancestors and itself.
+   * 
+   * The matrix is recomputed only if the angles of this component or of one
+   * of its ancestors have changed since it was last computed. The returned
+   * array is owned by this component and must not be modified.
+   * 
+   * @return The column major 4 by 4 matrix representing the transformation of
+   *         this component relative to the root of its hierarchy.
+   */
+  public double[] worldTransform() {
+    if (this.worldTransformStale) {
+      if (this.parent == null) {
+        System.arraycopy(this.localTransform(), 0, this.worldTransform, 0,
+            Matrix4d.SIZE);
+      } else {
+        Matrix4d.multiply(this.parent.worldTransform(), 0,
+            this.localTransform(), 0, this.worldTransform, 0);
+      }
+      this.worldTransformStale = false;
+    }
+    return this.worldTransform;
   }
 
   public void setAngles(final Angled angledObject) {
@@ -190,7 +536,43 @@ public class Component implements Rotatable, Nameable, UpdatingDisplayable,
    */
   @Override
   public void setColor(final FloatColor color) {
+    if (this.color.equals(color)) {
+      return;
+    }
     this.color = color;
+    this.markDirty();
+  }
+
+  /**
+   * Marks the call list of this component as needing to be recompiled, and
+   * marks each of the ancestors of this component as having a dirty subtree so
+   * that the next call to {@link #update(GL2, DisplayListBackend)} on the root
+   * reaches this component.
+   * 
+   * The ancestors themselves are not recompiled: their call lists refer to the
+   * call list of this component by handle, so they pick up the new contents
+   * of this call list without being redefined.
+   */
+  void markDirty() {
+    this.dirty = true;
+    this.subtreeDirty = true;
+    this.version += 1;
+
+    // stop at the first ancestor which already knows of a dirty descendant
+    Component ancestor = this.parent;
+    while (ancestor != null && !ancestor.subtreeDirty) {
+      ancestor.subtreeDirty = true;
+      ancestor = ancestor.parent;
+    }
+  }
+
+  /**
+   * Gets the number of times the state of this component has changed.
+   * 
+   * @return The number of times the state of this component has changed.
+   */
+  public long version() {
+    return this.version;
   }
 
   /**
@@ -256,51 +638,140 @@ public class Component implements Rotatable, Nameable, UpdatingDisplayable,
   /**
    * Updates the call list used to when this component is drawn.
    * 
+   * Only the subtrees which contain a component marked dirty since the last
+   * update are visited, and only the call lists of the dirty components are
+   * recompiled; all other call lists are left as they were compiled.
+   * 
    * This method first calls the corresponding method on the children of this
-   * component. Then this component is translated, rotated, and colored
-   * appropriately. Next this component is drawn using the {@link Displayable}
-   * specified in the constructor of this class. Finally, the children of this
-   * component are drawn with respect to the rotation and translation done to
-   * this component.
+   * component. Then the call list of this component is compiled from the
+   * operations emitted by {@link #render(RenderBackend)}, issued through the
+   * specified backend.
    * 
    * @param gl
-   *          The OpenGL object with which to perform the drawing.
-   * 
-   * @see edu.bu.cs.cs480.UpdatingDisplayable#update(javax.media.opengl.GL)
+   *          The OpenGL object with which to compile the call lists.
+   * @param backend
+   *          The backend which issues commands on the same OpenGL object,
+   *          created once for its context.
    */
-  @Override
-  public void update(final GL2 gl) {
+  public void update(final GL2 gl, final DisplayListBackend backend) {
+    // nothing in this subtree has changed since it was last compiled
+    if (!this.subtreeDirty) {
+      return;
+    }
+
     // update each of the children of this component
-    for (final Component child : this.children) {
-      child.update(gl);
+    for (int i = 0; i < this.childCount; ++i) {
+      this.children[i].update(gl, backend);
+    }
+    this.subtreeDirty = false;
+
+    if (!this.dirty) {
+      return;
     }
+    this.dirty = false;
 
     gl.glNewList(this.callListHandle, GL2.GL_COMPILE);
-    gl.glPushMatrix();
+    this.render(backend);
+    gl.glEndList();
+  }
 
-    // translate this component to where it will be located in the scene
-    gl.glTranslated(this.position.x(), this.position.y(), this.position.z());
+  /**
+   * Gets the color of this component.
+   * 
+   * @return The color of this component.
+   */
+  public FloatColor color() {
+    return this.color;
+  }
 
-    // first, rotate this component around each of the three axes
-    gl.glRotated(this.xAngle, 1, 0, 0);
-    gl.glRotated(this.yAngle, 0, 1, 0);
-    gl.glRotated(this.zAngle, 0, 0, 1);
+  /**
+   * Gets the displayable object which this component draws.
+   * 
+   * @return The displayable object which this component draws, or
+   *         {@code null} if this component only provides a position and
+   *         rotation.
+   */
+  public Displayable displayable() {
+    return this.displayable;
+  }
 
-    // draw the displayable which this component represents in its color
-    if (this.displayable != null) {
-      gl.glPushAttrib(GL2.GL_CURRENT_BIT);
-      gl.glColor3f(this.color.red(), this.color.green(), this.color.blue());
-      this.displayable.draw(gl);
-      gl.glPopAttrib();
-    }
+  /**
+   * Gets the parent of this component.
+   * 
+   * @return The parent of this component, or {@code null} if this component
+   *         has no parent.
+   */
+  public Component parent() {
+    return this.parent;
+  }
 
-    // draw all the children of this component
-    for (final Component child : this.children) {
-      child.draw(gl);
-    }
+  /**
+   * Gets the position of this component relative to its parent.
+   * 
+   * @return The position of this component relative to its parent.
+   */
+  public Point3D position() {
+    return this.position;
+  }
 
-    gl.glPopMatrix();
-    gl.glEndList();
+  /**
+   * Gets the minimum angle to which this joint can be rotated around the x
+   * axis.
+   * 
+   * @return The minimum angle around the x axis.
+   */
+  public double xNegativeExtent() {
+    return this.xNegativeExtent;
+  }
+
+  /**
+   * Gets the maximum angle to which this joint can be rotated around the x
+   * axis.
+   * 
+   * @return The maximum angle around the x axis.
+   */
+  public double xPositiveExtent() {
+    return this.xPositiveExtent;
+  }
+
+  /**
+   * Gets the minimum angle to which this joint can be rotated around the y
+   * axis.
+   * 
+   * @return The minimum angle around the y axis.
+   */
+  public double yNegativeExtent() {
+    return this.yNegativeExtent;
+  }
+
+  /**
+   * Gets the maximum angle to which this joint can be rotated around the y
+   * axis.
+   * 
+   * @return The maximum angle around the y axis.
+   */
+  public double yPositiveExtent() {
+    return this.yPositiveExtent;
+  }
+
+  /**
+   * Gets the minimum angle to which this joint can be rotated around the z
+   * axis.
+   * 
+   * @return The minimum angle around the z axis.
+   */
+  public double zNegativeExtent() {
+    return this.zNegativeExtent;
+  }
+
+  /**
+   * Gets the maximum angle to which this joint can be rotated around the z
+   * axis.
+   * 
+   * @return The maximum angle around the z axis.
+   */
+  public double zPositiveExtent() {
+    return this.zPositiveExtent;
   }
 
   /**
@@ -0,0 +1,216 @@
+/**
+ * CountingBackend.java - traverses a hierarchy without drawing anything
+ */
+
+
+/**
+ * A render backend which draws nothing, but traverses the whole hierarchy and
+ * counts the operations it receives.
+ *
+ * Unlike {@link DisplayListBackend}, this backend renders each child
+ * component in place when asked to draw it, so a single call to
+ * {@link #traverse(Component)} visits every component in the hierarchy. This
+ * measures the cost of traversing the scene without the cost of a driver.
+ */
+public class CountingBackend implements RenderBackend {
+  /** The number of components drawn. */
+  private long components = 0;
+  /** The number of displayable objects drawn. */
+  private long displayables = 0;
+  /** The current depth of the material stack. */
+  private int materialDepth = 0;
+  /** The number of materials pushed. */
+  private long materials = 0;
+  /** The current depth of the transformation stack. */
+  private int transformDepth = 0;
+  /** The number of transformations pushed. */
+  private long transforms = 0;
+  /** The number of triangles in the meshes of the displayables drawn. */
+  private long triangles = 0;
+
+  /**
+   * Gets the number of components drawn since the counts were last reset.
+   *
+   * @return The number of components drawn.
+   */
+  public long components() {
+    return this.components;
+  }
+
+  /**
+   * Gets the number of displayable objects drawn since the counts were last
+   * reset.
+   *
+   * @return The number of displayable objects drawn.
+   */
+  public long displayables() {
+    return this.displayables;
+  }
+
+  /**
+   * Counts the specified component and then renders it in place.
+   *
+   * @param component
+   *          {@inheritDoc}
+   */
+  @Override
+  public void drawComponent(final Component component) {
+    this.components += 1;
+    component.render(this);
+  }
+
+  /**
+   * Counts the specified object and then lets it emit the meshes which it
+   * draws.
+   *
+   * @param displayable
+   *          {@inheritDoc}
+   */
+  @Override
+  public void drawDisplayable(final Displayable displayable) {
+    this.displayables += 1;
+    displayable.draw(this);
+  }
+
+  /**
+   * Counts the triangles in the specified mesh.
+   *
+   * @param mesh
+   *          {@inheritDoc}
+   * @param handle
+   *          {@inheritDoc}
+   */
+  @Override
+  public void drawMesh(final Mesh mesh, final int handle) {
+    this.triangles += mesh.triangleCount();
+  }
+
+  /**
+   * Gets the number of materials pushed since the counts were last reset.
+   *
+   * @return The number of materials pushed.
+   */
+  public long materials() {
+    return this.materials;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalStateException
+   *           If no material has been pushed.
+   */
+  @Override
+  public void popMaterial() {
+    if (this.materialDepth == 0) {
+      throw new IllegalStateException("Material stack underflow");
+    }
+    this.materialDepth -= 1;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalStateException
+   *           If no transformation has been pushed.
+   */
+  @Override
+  public void popTransform() {
+    if (this.transformDepth == 0) {
+      throw new IllegalStateException("Transform stack underflow");
+    }
+    this.transformDepth -= 1;
+  }
+
+  /**
+   * Does nothing, since this backend does not draw meshes.
+   *
+   * @param mesh
+   *          {@inheritDoc}
+   * @return 0, since this backend keeps no prepared meshes.
+   */
+  @Override
+  public int prepareMesh(final Mesh mesh) {
+    return 0;
+  }
+
+  /**
+   * Counts the pushed material.
+   *
+   * @param color
+   *          {@inheritDoc}
+   */
+  @Override
+  public void pushMaterial(final FloatColor color) {
+    this.materialDepth += 1;
+    this.materials += 1;
+  }
+
+  /**
+   * Counts the pushed transformation.
+   *
+   * @param matrix
+   *          {@inheritDoc}
+   * @param offset
+   *          {@inheritDoc}
+   */
+  @Override
+  public void pushTransform(final double[] matrix, final int offset) {
+    this.transformDepth += 1;
+    this.transforms += 1;
+  }
+
+  /**
+   * Sets all the counts to zero.
+   */
+  public void reset() {
+    this.components = 0;
+    this.displayables = 0;
+    this.materials = 0;
+    this.transforms = 0;
+    this.triangles = 0;
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    return "CountingBackend[components=" + this.components + ", displayables="
+        + this.displayables + ", transforms=" + this.transforms
+        + ", materials=" + this.materials + ", triangles=" + this.triangles
+        + "]";
+  }
+
+  /**
+   * Gets the number of transformations pushed since the counts were last
+   * reset.
+   *
+   * @return The number of transformations pushed.
+   */
+  public long transforms() {
+    return this.transforms;
+  }
+
+  /**
+   * Renders the whole hierarchy rooted at the specified component.
+   *
+   * @param root
+   *          The root of the hierarchy to traverse.
+   */
+  public void traverse(final Component root) {
+    this.drawComponent(root);
+  }
+
+  /**
+   * Gets the number of triangles in the meshes of the displayable objects
+   * drawn since the counts were last reset.
+   *
+   * @return The number of triangles drawn.
+   */
+  public long triangles() {
+    return this.triangles;
+  }
+}
@@ -15,6 +15,21 @@ public class CyclicIterator<E> implements Iterator<E> {
 
   private List<E> elements = new ArrayList<E>();
 
+  /**
+   * Gets the element at the specified index, in the order in which the
+   * elements were added, without moving this iterator.
+   * 
+   * @param index
+   *          The index of the element, between 0 (inclusive) and
+   *          {@link #size()} (exclusive).
+   * @return The element at the specified index.
+   * @throws IndexOutOfBoundsException
+   *           If the index is out of range.
+   */
+  public E get(final int index) {
+    return this.elements.get(index);
+  }
+
   public boolean add(final E element) {
     return this.elements.add(element);
   }
@@ -48,6 +63,18 @@ public class CyclicIterator<E> implements Iterator<E> {
 
   private int current = 0;
 
+  /**
+   * Gets the number of elements through which this iterator cycles.
+   * 
+   * The first call to {@link #next()} returns the element at index 1, not
+   * the first element added; the first element is returned after the last.
+   * 
+   * @return The number of elements through which this iterator cycles.
+   */
+  public int size() {
+    return this.elements.size();
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -0,0 +1,162 @@
+/**
+ * DisplayListBackend.java - draws a hierarchy with fixed-function OpenGL
+ */
+
+
+import java.nio.FloatBuffer;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+/**
+ * A render backend which issues each operation immediately as fixed-function
+ * OpenGL commands, typically while a call list is being compiled.
+ *
+ * Child components are drawn by calling their own call lists, so compiling
+ * the call list of a component does not include the commands of its
+ * children, only a reference to them. Likewise a prepared mesh is compiled
+ * into a call list of its own, which is called wherever the mesh is drawn.
+ */
+public class DisplayListBackend implements RenderBackend {
+
+  /**
+   * Draws the specified mesh using vertex arrays.
+   * 
+   * The vertex data is read when this method is called, so this method may be
+   * used while compiling a call list.
+   * 
+   * @param gl
+   *          The OpenGL object with which to draw the mesh.
+   * @param mesh
+   *          The mesh to draw.
+   */
+  static void drawArrays(final GL2 gl, final Mesh mesh) {
+    final FloatBuffer vertices = mesh.vertices();
+    final FloatBuffer normals = vertices.duplicate();
+    normals.position(3);
+    final int stride = Mesh.FLOATS_PER_VERTEX * 4;
+
+    gl.glPushClientAttrib(GL2.GL_CLIENT_VERTEX_ARRAY_BIT);
+    gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+    gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+    gl.glVertexPointer(3, GL.GL_FLOAT, stride, vertices);
+    gl.glNormalPointer(GL.GL_FLOAT, stride, normals);
+    gl.glDrawElements(GL.GL_TRIANGLES, mesh.indexCount(), GL.GL_UNSIGNED_INT,
+        mesh.indices());
+    gl.glPopClientAttrib();
+  }
+
+  /** The OpenGL object on which to issue commands. */
+  private final GL2 gl;
+
+  /**
+   * Instantiates this backend which issues commands on the specified OpenGL
+   * object.
+   *
+   * @param gl
+   *          The OpenGL object on which to issue commands.
+   */
+  public DisplayListBackend(final GL2 gl) {
+    this.gl = gl;
+  }
+
+  /**
+   * Calls the call list of the specified component.
+   *
+   * @param component
+   *          {@inheritDoc}
+   */
+  @Override
+  public void drawComponent(final Component component) {
+    component.draw(this.gl);
+  }
+
+  /**
+   * Lets the specified object emit the meshes which it draws.
+   *
+   * @param displayable
+   *          {@inheritDoc}
+   */
+  @Override
+  public void drawDisplayable(final Displayable displayable) {
+    displayable.draw(this);
+  }
+
+  /**
+   * Calls the call list of the specified mesh, or draws it using vertex
+   * arrays if it was not prepared.
+   *
+   * @param mesh
+   *          {@inheritDoc}
+   * @param handle
+   *          {@inheritDoc}
+   */
+  @Override
+  public void drawMesh(final Mesh mesh, final int handle) {
+    if (handle != 0) {
+      this.gl.glCallList(handle);
+    } else {
+      drawArrays(this.gl, mesh);
+    }
+  }
+
+  /**
+   * Pops the current color from the attribute stack.
+   */
+  @Override
+  public void popMaterial() {
+    this.gl.glPopAttrib();
+  }
+
+  /**
+   * Pops the current matrix from the matrix stack.
+   */
+  @Override
+  public void popTransform() {
+    this.gl.glPopMatrix();
+  }
+
+  /**
+   * Compiles the specified mesh into a new call list.
+   *
+   * @param mesh
+   *          {@inheritDoc}
+   * @return The handle of the new call list.
+   */
+  @Override
+  public int prepareMesh(final Mesh mesh) {
+    final int handle = this.gl.glGenLists(1);
+    this.gl.glNewList(handle, GL2.GL_COMPILE);
+    drawArrays(this.gl, mesh);
+    this.gl.glEndList();
+    return handle;
+  }
+
+  /**
+   * Pushes the current color onto the attribute stack and sets the specified
+   * color, which is applied to the material by {@code GL_COLOR_MATERIAL}.
+   *
+   * @param color
+   *          {@inheritDoc}
+   */
+  @Override
+  public void pushMaterial(final FloatColor color) {
+    this.gl.glPushAttrib(GL2.GL_CURRENT_BIT);
+    this.gl.glColor3f(color.red(), color.green(), color.blue());
+  }
+
+  /**
+   * Pushes the current matrix onto the matrix stack and multiplies it by the
+   * specified matrix.
+   *
+   * @param matrix
+   *          {@inheritDoc}
+   * @param offset
+   *          {@inheritDoc}
+   */
+  @Override
+  public void pushTransform(final double[] matrix, final int offset) {
+    this.gl.glPushMatrix();
+    this.gl.glMultMatrixd(matrix, offset);
+  }
+}
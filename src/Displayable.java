@@ -1,12 +1,11 @@
 /**
- * Displayable.java - an object which can draw itself using OpenGL
+ * Displayable.java - an object which can draw itself through a render backend
  */
 
 
-import javax.media.opengl.GL2;
-
 /**
- * An object which can draw itself using OpenGL.
+ * An object which can draw itself by emitting operations to a
+ * {@link RenderBackend}, independent of how they are carried out.
  * 
  * @author Jeffrey Finkelstein <jeffrey.finkelstein@gmail.com>
  * @since Spring 2011
@@ -14,26 +13,27 @@ import javax.media.opengl.GL2;
 public interface Displayable {
 
   /**
-   * Draws this object using the specified OpenGL object.
+   * Draws this object by emitting operations to the specified backend, with
+   * the current transformation and material of the backend.
    * 
    * Implementing classes should require that this method be called after the
-   * {@link #initialize(GL)} method.
+   * {@link #initialize(RenderBackend)} method.
    * 
-   * @param gl
-   *          The OpenGL object on which to draw this object.
+   * @param backend
+   *          The backend to which to emit the operations.
    */
-  void draw(final GL2 gl);
+  void draw(final RenderBackend backend);
 
   /**
-   * Performs initialization required by this object (for example defining a GL
-   * call list).
+   * Performs initialization required by this object (for example preparing
+   * its meshes to be drawn by the backend).
    * 
    * Implementing classes should require that this method be called before the
-   * {@link #draw(GL)} method.
+   * {@link #draw(RenderBackend)} method.
    * 
-   * @param gl
-   *          The OpenGL object on which to draw this object.
+   * @param backend
+   *          The backend on which this object will be drawn.
    */
-  void initialize(final GL2 gl);
+  void initialize(final RenderBackend backend);
 
-}
\ No newline at end of file
+}
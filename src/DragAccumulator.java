@@ -0,0 +1,124 @@
+/**
+ * DragAccumulator.java - sums mouse drag distances across threads
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sums the horizontal and vertical distances of mouse drag events as they
+ * arrive, so that they can be applied all at once when the next frame is
+ * drawn.
+ *
+ * Both sums are packed into a single {@link AtomicLong}, the horizontal sum
+ * in the high 32 bits and the vertical sum in the low 32 bits, so adding a
+ * drag is a single atomic addition and taking the sums is a single atomic
+ * exchange, with no locking between the thread which receives input events
+ * and the thread which draws.
+ */
+public class DragAccumulator {
+
+  /**
+   * Packs the specified distances into a single value which can be added to
+   * other packed values.
+   *
+   * @param dx
+   *          The horizontal distance.
+   * @param dy
+   *          The vertical distance.
+   * @return The packed distances.
+   */
+  static long pack(final int dx, final int dy) {
+    return ((long) dx << 32) + dy;
+  }
+
+  /**
+   * Gets the horizontal distance from the specified packed distances.
+   *
+   * @param packed
+   *          The packed distances.
+   * @return The horizontal distance.
+   */
+  public static int dx(final long packed) {
+    return (int) ((packed - dy(packed)) >> 32);
+  }
+
+  /**
+   * Gets the vertical distance from the specified packed distances.
+   *
+   * @param packed
+   *          The packed distances.
+   * @return The vertical distance.
+   */
+  public static int dy(final long packed) {
+    return (int) packed;
+  }
+
+  /** The sums of the distances, packed as described by {@link #pack}. */
+  private final AtomicLong sums = new AtomicLong();
+
+  /**
+   * Adds the specified distances to the sums.
+   *
+   * This method may be called from any thread.
+   *
+   * @param dx
+   *          The horizontal distance dragged.
+   * @param dy
+   *          The vertical distance dragged.
+   */
+  public void add(final int dx, final int dy) {
+    this.sums.addAndGet(pack(dx, dy));
+  }
+
+  /**
+   * Takes the sums of the distances added since they were last taken and
+   * rotates the specified rotation by a single rotation, proportional to the
+   * total distance dragged, around the axis perpendicular to the direction of
+   * the drag in the plane of the screen.
+   *
+   * The rotation is normalized afterward to counteract accumulating round-off
+   * error. This method does not allocate any objects.
+   *
+   * @param rotation
+   *          The rotation to which to apply the drag.
+   * @param scratch
+   *          The quaternion in which to compute the rotation of the drag.
+   * @param degreesPerPixel
+   *          The angle of rotation for each pixel dragged, in degrees.
+   * @return Whether there was any drag to apply.
+   */
+  public boolean applyTo(final Quaternion rotation, final Quaternion scratch,
+      final double degreesPerPixel) {
+    final long drag = this.drain();
+    if (drag == 0) {
+      return false;
+    }
+    final int dx = dx(drag);
+    final int dy = dy(drag);
+
+    // create a unit vector in the direction of the vector (dy, dx, 0)
+    final double magnitude = Math.sqrt(dx * dx + dy * dy);
+    final float axisX = (float) (dy / magnitude);
+    final float axisY = (float) (dx / magnitude);
+
+    final float angle = (float) Math.toRadians(degreesPerPixel * magnitude);
+    scratch.setRotation(angle, axisX, axisY, 0);
+    rotation.preMultiply(scratch);
+    rotation.normalize();
+    return true;
+  }
+
+  /**
+   * Gets the sums of the distances added since the last call to this method
+   * and resets them to zero.
+   *
+   * The sums are returned packed; use {@link #dx(long)} and
+   * {@link #dy(long)} to unpack them.
+   *
+   * @return The packed sums of the distances.
+   */
+  public long drain() {
+    return this.sums.getAndSet(0);
+  }
+}
@@ -0,0 +1,50 @@
+/**
+ * Easing.java - functions which shape the progress of an animation
+ */
+
+
+/**
+ * A function which maps the linear progress of an animation between two
+ * keyframes to the fraction of the way from the first pose to the second.
+ * 
+ * Every easing function maps 0 to 0 and 1 to 1.
+ */
+public enum Easing {
+  /** Constant speed from start to end. */
+  LINEAR {
+    @Override
+    public double apply(final double t) {
+      return t;
+    }
+  },
+  /** Starts slowly and speeds up. */
+  EASE_IN {
+    @Override
+    public double apply(final double t) {
+      return t * t;
+    }
+  },
+  /** Starts quickly and slows down. */
+  EASE_OUT {
+    @Override
+    public double apply(final double t) {
+      return t * (2 - t);
+    }
+  },
+  /** Starts slowly, speeds up, then slows down (the smoothstep function). */
+  EASE_IN_OUT {
+    @Override
+    public double apply(final double t) {
+      return t * t * (3 - 2 * t);
+    }
+  };
+
+  /**
+   * Applies this easing function to the specified linear progress.
+   * 
+   * @param t
+   *          The linear progress, between 0 and 1.
+   * @return The eased progress, between 0 and 1.
+   */
+  public abstract double apply(final double t);
+}
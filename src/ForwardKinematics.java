@@ -0,0 +1,361 @@
+/**
+ * ForwardKinematics.java - computes where the joints of a model are
+ */
+
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the world position and orientation of every joint of a model for
+ * many poses at once, without OpenGL, splitting the poses among the threads
+ * of a fork/join pool.
+ *
+ * The joints are those of a {@link BakedSkeleton} of the model, indexed in
+ * the same pre-order as by a {@link JointRegistry}, and poses are laid out
+ * as in a {@link JointRegistry}: joint {@code j} of pose {@code p} has its
+ * angles at index {@code poseLength() * p + 3 * j}. The world transformation
+ * of each joint is computed with the same {@link Matrix4d} operations as
+ * {@link Component#worldTransform()}, that is, the translation to the
+ * position of the joint followed by the rotations around the x, y, and z
+ * axes, so the results are identical to those of the components.
+ *
+ * For each joint of each pose, the position of the origin of the joint is
+ * stored as three consecutive values, and its orientation as a unit
+ * quaternion of four consecutive values with the scalar component first, as
+ * in {@link Quaternion}. A point {@code (x, y, z)} in the coordinate system
+ * of a joint, such as the tip of a finger at {@code (0, 0, height)}, is at
+ * its position plus the point rotated by its orientation.
+ */
+public class ForwardKinematics {
+
+  /** Computes the poses in a range, splitting it among threads if large. */
+  private final class Task extends RecursiveAction {
+    /** Randomly generated serial version UID. */
+    private static final long serialVersionUID = 4217940235467851634L;
+
+    /** The number of poses in the range. */
+    private final int count;
+    /** The index of the first pose in the range. */
+    private final int first;
+    /** The array in which to store orientations, or {@code null}. */
+    private final double[] orientations;
+    /** The poses. */
+    private final double[] poses;
+    /** The array in which to store positions, or {@code null}. */
+    private final double[] positions;
+
+    /**
+     * Instantiates this task which computes the specified range of poses.
+     *
+     * @param poses
+     *          The poses.
+     * @param first
+     *          The index of the first pose in the range.
+     * @param count
+     *          The number of poses in the range.
+     * @param positions
+     *          The array in which to store positions, or {@code null}.
+     * @param orientations
+     *          The array in which to store orientations, or {@code null}.
+     */
+    Task(final double[] poses, final int first, final int count,
+        final double[] positions, final double[] orientations) {
+      this.poses = poses;
+      this.first = first;
+      this.count = count;
+      this.positions = positions;
+      this.orientations = orientations;
+    }
+
+    /**
+     * Computes the poses in the range, directly if there are few of them and
+     * otherwise by splitting the range in two.
+     */
+    @Override
+    protected void compute() {
+      if (this.count <= POSES_PER_TASK) {
+        final double[] local = new double[Matrix4d.SIZE];
+        final double[] world = new double[Matrix4d.SIZE
+            * ForwardKinematics.this.size];
+        for (int p = this.first; p < this.first + this.count; ++p) {
+          ForwardKinematics.this.computePose(this.poses, p, local, world,
+              this.positions, this.orientations);
+        }
+        return;
+      }
+      final int half = this.count / 2;
+      invokeAll(new Task(this.poses, this.first, half, this.positions,
+          this.orientations), new Task(this.poses, this.first + half,
+          this.count - half, this.positions, this.orientations));
+    }
+  }
+
+  /** The number of values in the orientation of a joint. */
+  public static final int ORIENTATION_LENGTH = 4;
+  /** The number of values in the position of a joint. */
+  public static final int POSITION_LENGTH = 3;
+  /** The largest number of poses computed by a single task. */
+  public static final int POSES_PER_TASK = 64;
+
+  /**
+   * Checks that the specified output array is large enough.
+   *
+   * @param array
+   *          The array to check, or {@code null}.
+   * @param length
+   *          The number of values which will be stored in the array.
+   * @throws IllegalArgumentException
+   *           If the array is too small.
+   */
+  private static void checkLength(final double[] array, final long length) {
+    if (array != null && array.length < length) {
+      throw new IllegalArgumentException("Array of length " + array.length
+          + " cannot hold " + length + " values");
+    }
+  }
+
+  /**
+   * Stores the rotation of the specified matrix as a unit quaternion with a
+   * non-negative scalar component.
+   *
+   * @param m
+   *          The array containing the matrix, whose upper left 3 by 3 part
+   *          must be a rotation.
+   * @param offset
+   *          The index of the first element of the matrix.
+   * @param dest
+   *          The array in which to store the quaternion.
+   * @param destOffset
+   *          The index at which to store the scalar component.
+   */
+  static void rotationToQuaternion(final double[] m, final int offset,
+      final double[] dest, final int destOffset) {
+    final double r00 = m[offset];
+    final double r10 = m[offset + 1];
+    final double r20 = m[offset + 2];
+    final double r01 = m[offset + 4];
+    final double r11 = m[offset + 5];
+    final double r21 = m[offset + 6];
+    final double r02 = m[offset + 8];
+    final double r12 = m[offset + 9];
+    final double r22 = m[offset + 10];
+    final double trace = r00 + r11 + r22;
+    double s;
+    double x;
+    double y;
+    double z;
+    // use the largest component as the divisor, for numerical stability
+    if (trace > 0) {
+      final double t = 2 * Math.sqrt(trace + 1);
+      s = t / 4;
+      x = (r21 - r12) / t;
+      y = (r02 - r20) / t;
+      z = (r10 - r01) / t;
+    } else if (r00 > r11 && r00 > r22) {
+      final double t = 2 * Math.sqrt(1 + r00 - r11 - r22);
+      s = (r21 - r12) / t;
+      x = t / 4;
+      y = (r01 + r10) / t;
+      z = (r02 + r20) / t;
+    } else if (r11 > r22) {
+      final double t = 2 * Math.sqrt(1 + r11 - r00 - r22);
+      s = (r02 - r20) / t;
+      x = (r01 + r10) / t;
+      y = t / 4;
+      z = (r12 + r21) / t;
+    } else {
+      final double t = 2 * Math.sqrt(1 + r22 - r00 - r11);
+      s = (r10 - r01) / t;
+      x = (r02 + r20) / t;
+      y = (r12 + r21) / t;
+      z = t / 4;
+    }
+    if (s < 0) {
+      s = -s;
+      x = -x;
+      y = -y;
+      z = -z;
+    }
+    dest[destOffset] = s;
+    dest[destOffset + 1] = x;
+    dest[destOffset + 2] = y;
+    dest[destOffset + 3] = z;
+  }
+
+  /** The position of each joint relative to its parent. */
+  private final double[] offsets;
+  /** The index of the parent of each joint, or -1 for the root. */
+  private final int[] parents;
+  /** The pool of threads among which batches are split. */
+  private final ForkJoinPool pool;
+  /** The skeleton whose joints are computed. */
+  private final BakedSkeleton skeleton;
+  /** The number of joints. */
+  private final int size;
+
+  /**
+   * Instantiates this object for the hierarchy rooted at the specified
+   * component, using as many threads as there are processors.
+   *
+   * @param root
+   *          The root of the hierarchy.
+   */
+  public ForwardKinematics(final Component root) {
+    this(root, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Instantiates this object for the hierarchy rooted at the specified
+   * component, using the specified number of threads.
+   *
+   * The positions and dimensions of the joints are copied, so later changes
+   * to the hierarchy do not affect this object.
+   *
+   * @param root
+   *          The root of the hierarchy.
+   * @param threads
+   *          The number of threads among which to split batches.
+   */
+  public ForwardKinematics(final Component root, final int threads) {
+    this.skeleton = BakedSkeleton.bake(root);
+    this.size = this.skeleton.size();
+    this.offsets = this.skeleton.offsets().clone();
+    this.parents = new int[this.size];
+    for (int i = 0; i < this.size; ++i) {
+      this.parents[i] = this.skeleton.parent(i);
+    }
+    this.pool = new ForkJoinPool(threads);
+  }
+
+  /**
+   * Computes the positions and orientations of every joint for each of the
+   * specified poses, in parallel.
+   *
+   * @param poses
+   *          The poses, each of {@link #poseLength()} angles.
+   * @param count
+   *          The number of poses.
+   * @param positions
+   *          The array in which to store the position of each joint of each
+   *          pose, or {@code null} if positions are not needed.
+   * @param orientations
+   *          The array in which to store the orientation of each joint of
+   *          each pose, or {@code null} if orientations are not needed.
+   * @throws IllegalArgumentException
+   *           If any of the arrays is too small for the number of poses.
+   */
+  public void compute(final double[] poses, final int count,
+      final double[] positions, final double[] orientations) {
+    checkLength(poses, (long) count * this.poseLength());
+    checkLength(positions, (long) count * POSITION_LENGTH * this.size);
+    checkLength(orientations, (long) count * ORIENTATION_LENGTH * this.size);
+    final Task task = new Task(poses, 0, count, positions, orientations);
+    if (count <= POSES_PER_TASK) {
+      task.compute();
+    } else {
+      this.pool.invoke(task);
+    }
+  }
+
+  /**
+   * Computes the world transformation of every joint of the specified pose,
+   * and stores the position and orientation of each joint.
+   *
+   * @param poses
+   *          The poses.
+   * @param p
+   *          The index of the pose to compute.
+   * @param local
+   *          An array in which to compute the transformation of each joint
+   *          relative to its parent.
+   * @param world
+   *          An array in which to compute the world transformation of every
+   *          joint.
+   * @param positions
+   *          The array in which to store positions, or {@code null}.
+   * @param orientations
+   *          The array in which to store orientations, or {@code null}.
+   */
+  private void computePose(final double[] poses, final int p,
+      final double[] local, final double[] world, final double[] positions,
+      final double[] orientations) {
+    final int pose = this.poseLength() * p;
+    for (int i = 0; i < this.size; ++i) {
+      final int angle = pose + JointRegistry.AXES * i;
+      final int matrix = Matrix4d.SIZE * i;
+      final int parent = this.parents[i];
+      if (parent < 0) {
+        Matrix4d.setLocalTransform(world, matrix, this.offsets[3 * i],
+            this.offsets[3 * i + 1], this.offsets[3 * i + 2], poses[angle],
+            poses[angle + 1], poses[angle + 2]);
+      } else {
+        Matrix4d.setLocalTransform(local, 0, this.offsets[3 * i],
+            this.offsets[3 * i + 1], this.offsets[3 * i + 2], poses[angle],
+            poses[angle + 1], poses[angle + 2]);
+        Matrix4d.multiply(world, Matrix4d.SIZE * parent, local, 0, world,
+            matrix);
+      }
+
+      final int joint = this.size * p + i;
+      if (positions != null) {
+        positions[POSITION_LENGTH * joint] = world[matrix + 12];
+        positions[POSITION_LENGTH * joint + 1] = world[matrix + 13];
+        positions[POSITION_LENGTH * joint + 2] = world[matrix + 14];
+      }
+      if (orientations != null) {
+        rotationToQuaternion(world, matrix, orientations, ORIENTATION_LENGTH
+            * joint);
+      }
+    }
+  }
+
+  /**
+   * Gets the index of the joint with the specified name.
+   *
+   * @param name
+   *          The name of the joint.
+   * @return The index of the joint, or -1 if there is no joint with that
+   *         name.
+   */
+  public int indexOf(final String name) {
+    return this.skeleton.indexOf(name);
+  }
+
+  /**
+   * Gets the number of angles in each pose.
+   *
+   * @return The length of a pose.
+   */
+  public int poseLength() {
+    return JointRegistry.AXES * this.size;
+  }
+
+  /**
+   * Stops the threads used to split batches. This object must not be used
+   * afterwards.
+   */
+  public void shutdown() {
+    this.pool.shutdown();
+  }
+
+  /**
+   * Gets the number of joints.
+   *
+   * @return The number of joints.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    return "ForwardKinematics[joints=" + this.size + ", threads="
+        + this.pool.getParallelism() + "]";
+  }
+}
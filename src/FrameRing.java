@@ -0,0 +1,193 @@
+/**
+ * FrameRing.java - a bounded queue of pose frames between two threads
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue of pose frames, through which a single producing thread
+ * hands frames to a single consuming thread without either thread locking.
+ *
+ * The angles of all the frames are stored as floats in one preallocated
+ * array, so the memory used by the queue depends only on its capacity and
+ * the length of a frame. Each frame carries the index of the frame in its
+ * stream and an epoch, with which the consumer can recognize frames read
+ * before the stream was last repositioned. A frame index of
+ * {@link #END_OF_STREAM} marks the end of the stream.
+ *
+ * The producer writes a slot and then advances the tail with an ordered
+ * store, and the consumer reads a slot and then advances the head, so each
+ * side sees a slot only once the other has finished with it. The head is
+ * advanced with a volatile store, so a producer which announces through a
+ * volatile field that it is waiting for room, and then finds the queue full,
+ * is seen waiting by a consumer which reads that field after removing a
+ * frame, and no wakeup is lost.
+ */
+public class FrameRing {
+  /** The frame index which marks the end of a stream. */
+  public static final long END_OF_STREAM = -1;
+
+  /** The angles of the frame in each slot. */
+  private final float[] angles;
+  /** The epoch of the frame in each slot. */
+  private final int[] epochs;
+  /** The index in its stream of the frame in each slot. */
+  private final long[] frames;
+  /** The number of angles in each frame. */
+  private final int frameLength;
+  /** The position of the next slot from which to take a frame. */
+  private final AtomicLong head = new AtomicLong();
+  /** The mask which reduces a position to the index of a slot. */
+  private final int mask;
+  /** The position of the next slot into which to put a frame. */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Instantiates this queue with room for at least the specified number of
+   * frames of the specified length.
+   *
+   * @param capacity
+   *          The minimum number of frames the queue can hold, which is
+   *          rounded up to a power of two.
+   * @param frameLength
+   *          The number of angles in each frame.
+   * @throws IllegalArgumentException
+   *           If the capacity is not positive or is too large.
+   */
+  public FrameRing(final int capacity, final int frameLength) {
+    if (capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+    final int size = Integer.highestOneBit(capacity) == capacity ? capacity
+        : Integer.highestOneBit(capacity) << 1;
+    this.mask = size - 1;
+    this.frameLength = frameLength;
+    this.angles = new float[size * frameLength];
+    this.epochs = new int[size];
+    this.frames = new long[size];
+  }
+
+  /**
+   * Gets the number of frames which the queue can hold.
+   *
+   * @return The capacity of the queue.
+   */
+  public int capacity() {
+    return this.frames.length;
+  }
+
+  /**
+   * Gets the approximate number of frames waiting in the queue.
+   *
+   * @return The number of frames which have been put but not yet taken.
+   */
+  public int depth() {
+    return (int) (this.tail.get() - this.head.get());
+  }
+
+  /**
+   * Gets the epoch of the frame at the head of the queue.
+   *
+   * This method must only be called by the consuming thread, and only when
+   * the queue is not empty.
+   *
+   * @return The epoch of the oldest frame.
+   */
+  public int epoch() {
+    return this.epochs[(int) this.head.get() & this.mask];
+  }
+
+  /**
+   * Gets the index in its stream of the frame at the head of the queue.
+   *
+   * This method must only be called by the consuming thread, and only when
+   * the queue is not empty.
+   *
+   * @return The index of the oldest frame, or {@link #END_OF_STREAM}.
+   */
+  public long frame() {
+    return this.frames[(int) this.head.get() & this.mask];
+  }
+
+  /**
+   * Gets whether the queue holds no frames.
+   *
+   * @return Whether the queue is empty.
+   */
+  public boolean isEmpty() {
+    return this.head.get() == this.tail.get();
+  }
+
+  /**
+   * Gets whether the queue has no room for another frame.
+   *
+   * @return Whether the queue is full.
+   */
+  public boolean isFull() {
+    return this.tail.get() - this.head.get() == this.frames.length;
+  }
+
+  /**
+   * Puts the specified frame at the tail of the queue if there is room.
+   *
+   * This method must only be called by the producing thread.
+   *
+   * @param pose
+   *          The angles of the frame, or {@code null} for the end of a
+   *          stream.
+   * @param frame
+   *          The index of the frame in its stream, or {@link #END_OF_STREAM}.
+   * @param epoch
+   *          The epoch of the frame.
+   * @return Whether the frame was put; {@code false} if the queue was full.
+   */
+  public boolean offer(final double[] pose, final long frame, final int epoch) {
+    final long position = this.tail.get();
+    if (position - this.head.get() == this.frames.length) {
+      return false;
+    }
+    final int index = (int) position & this.mask;
+    if (pose != null) {
+      final int offset = index * this.frameLength;
+      for (int i = 0; i < this.frameLength; ++i) {
+        this.angles[offset + i] = (float) pose[i];
+      }
+    }
+    this.frames[index] = frame;
+    this.epochs[index] = epoch;
+    // publishes the slot to the consumer
+    this.tail.lazySet(position + 1);
+    return true;
+  }
+
+  /**
+   * Removes the frame at the head of the queue without reading it.
+   *
+   * This method must only be called by the consuming thread, and only when
+   * the queue is not empty.
+   */
+  public void skip() {
+    // releases the slot to the producer
+    this.head.set(this.head.get() + 1);
+  }
+
+  /**
+   * Removes the frame at the head of the queue, copying its angles into the
+   * specified pose.
+   *
+   * This method must only be called by the consuming thread, and only when
+   * the queue is not empty and its head is not the end of a stream.
+   *
+   * @param pose
+   *          The array into which to copy the angles.
+   */
+  public void take(final double[] pose) {
+    final long position = this.head.get();
+    final int offset = ((int) position & this.mask) * this.frameLength;
+    for (int i = 0; i < this.frameLength; ++i) {
+      pose[i] = this.angles[offset + i];
+    }
+    this.head.set(position + 1);
+  }
+}
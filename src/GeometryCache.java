@@ -0,0 +1,223 @@
+/**
+ * GeometryCache.java - a cache of prepared meshes for shared shapes
+ */
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.media.opengl.GL2;
+
+/**
+ * A cache of the handles of tessellated shapes prepared by a
+ * {@link RenderBackend}, keyed by the type of the shape and the parameters of
+ * its tessellation.
+ *
+ * Shapes with identical parameters are tessellated and prepared only once; all
+ * objects which request such a shape share the same handle. Handles are only
+ * valid for the backend which prepared them (for a {@link DisplayListBackend},
+ * in the OpenGL context in which the call lists were compiled), so a single
+ * cache should only be used with a single backend.
+ *
+ * @see Circular
+ */
+public class GeometryCache {
+
+  /**
+   * Geometry which can be prepared by a backend.
+   */
+  public interface Geometry {
+    /**
+     * Gets the triangle mesh of this geometry, tessellating it if necessary.
+     *
+     * This method is only called when the shape is not yet in the cache.
+     *
+     * @return The triangle mesh of this geometry.
+     */
+    Mesh mesh();
+  }
+
+  /** The type of a shape stored in the cache. */
+  public enum Shape {
+    /** A cylinder with a sphere at its top, as in {@link RoundedCylinder}. */
+    ROUNDED_CYLINDER,
+    /** A sphere scaled along its axes, as in {@link Palm}. */
+    ELLIPSOID;
+  }
+
+  /**
+   * The key under which a prepared shape is stored.
+   */
+  private static final class Key {
+    /** The height of the shape. */
+    private final double height;
+    /** The radius of the shape. */
+    private final double radius;
+    /** The type of the shape. */
+    private final Shape shape;
+    /** The number of slices in the tessellation of the shape. */
+    private final int slices;
+    /** The number of stacks in the tessellation of the shape. */
+    private final int stacks;
+
+    /**
+     * Instantiates this key with the specified shape parameters.
+     *
+     * @param shape
+     *          The type of the shape.
+     * @param radius
+     *          The radius of the shape.
+     * @param height
+     *          The height of the shape.
+     * @param slices
+     *          The number of slices in the tessellation of the shape.
+     * @param stacks
+     *          The number of stacks in the tessellation of the shape.
+     */
+    Key(final Shape shape, final double radius, final double height,
+        final int slices, final int stacks) {
+      this.shape = shape;
+      this.radius = radius;
+      this.height = height;
+      this.slices = slices;
+      this.stacks = stacks;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param object
+     *          {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object object) {
+      if (!(object instanceof Key)) {
+        return false;
+      }
+      final Key that = (Key) object;
+      return this.shape == that.shape
+          && Double.compare(this.radius, that.radius) == 0
+          && Double.compare(this.height, that.height) == 0
+          && this.slices == that.slices && this.stacks == that.stacks;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+      final long radiusBits = Double.doubleToLongBits(this.radius);
+      final long heightBits = Double.doubleToLongBits(this.height);
+      int result = this.shape.hashCode();
+      result = 31 * result + (int) (radiusBits ^ (radiusBits >>> 32));
+      result = 31 * result + (int) (heightBits ^ (heightBits >>> 32));
+      result = 31 * result + this.slices;
+      result = 31 * result + this.stacks;
+      return result;
+    }
+  }
+
+  /** The handles of the prepared shapes, keyed by shape parameters. */
+  private final Map<Key, Integer> handles = new HashMap<Key, Integer>();
+  /** The number of requests which were satisfied by a prepared shape. */
+  private int hits = 0;
+  /** The number of requests which required preparing a new shape. */
+  private int misses = 0;
+
+  /**
+   * Gets the handle of the prepared shape with the specified parameters,
+   * preparing the mesh of the specified geometry on the specified backend if
+   * no such shape has been prepared yet.
+   *
+   * @param backend
+   *          The backend with which to prepare the geometry.
+   * @param shape
+   *          The type of the shape.
+   * @param radius
+   *          The radius of the shape.
+   * @param height
+   *          The height of the shape.
+   * @param slices
+   *          The number of slices in the tessellation of the shape.
+   * @param stacks
+   *          The number of stacks in the tessellation of the shape.
+   * @param geometry
+   *          The geometry to prepare if the shape is not yet in this cache.
+   * @return The handle with which the backend draws the shape.
+   */
+  public int handle(final RenderBackend backend, final Shape shape,
+      final double radius, final double height, final int slices,
+      final int stacks, final Geometry geometry) {
+    final Key key = new Key(shape, radius, height, slices, stacks);
+    final Integer cached = this.handles.get(key);
+    if (cached != null) {
+      this.hits += 1;
+      return cached;
+    }
+
+    this.misses += 1;
+    final int handle = backend.prepareMesh(geometry.mesh());
+    this.handles.put(key, handle);
+    return handle;
+  }
+
+  /**
+   * Deletes all the call lists in this cache, which must have been prepared
+   * by a {@link DisplayListBackend}, and resets its statistics.
+   *
+   * @param gl
+   *          The OpenGL object in which the call lists were compiled.
+   */
+  public void clear(final GL2 gl) {
+    for (final int handle : this.handles.values()) {
+      if (handle != 0) {
+        gl.glDeleteLists(handle, 1);
+      }
+    }
+    this.handles.clear();
+    this.hits = 0;
+    this.misses = 0;
+  }
+
+  /**
+   * Gets the number of requests which were satisfied by an already prepared
+   * shape.
+   *
+   * @return The number of cache hits.
+   */
+  public int hits() {
+    return this.hits;
+  }
+
+  /**
+   * Gets the number of requests which required preparing a new shape.
+   *
+   * @return The number of cache misses.
+   */
+  public int misses() {
+    return this.misses;
+  }
+
+  /**
+   * Gets the number of distinct shapes prepared in this cache.
+   *
+   * @return The number of distinct shapes prepared in this cache.
+   */
+  public int size() {
+    return this.handles.size();
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    return "GeometryCache[shapes=" + this.size() + ", hits=" + this.hits
+        + ", misses=" + this.misses + "]";
+  }
+}
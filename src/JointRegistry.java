@@ -0,0 +1,256 @@
+/**
+ * JointRegistry.java - dense integer ids for the joints of a model
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns a dense integer id to each joint in a hierarchy of components, so
+ * that a pose can be stored as a flat array of angles rather than as a map
+ * from joint names to angles.
+ *
+ * Ids are assigned in pre-order, so they are the same as the indices of the
+ * joints in a {@link BakedSkeleton} of the same hierarchy. A pose is an array
+ * of {@link #poseLength()} angles in degrees, in which the angle of the joint
+ * with id {@code i} around the axis with ordinal {@code a} is at index
+ * {@code AXES * i + a}.
+ */
+public class JointRegistry {
+  /** The number of angles stored for each joint. */
+  public static final int AXES = 3;
+
+  /**
+   * Adds the specified component and all of its descendants to the specified
+   * list in pre-order.
+   *
+   * @param component
+   *          The root of the hierarchy to add.
+   * @param order
+   *          The list to which to add the components.
+   */
+  private static void collect(final Component component,
+      final List<Component> order) {
+    order.add(component);
+    for (int i = 0; i < component.childCount(); ++i) {
+      collect(component.child(i), order);
+    }
+  }
+
+  /**
+   * Computes the difference {@code to - from} of each angle of two poses.
+   *
+   * The destination may be the same array as either pose.
+   *
+   * @param from
+   *          The pose to subtract.
+   * @param to
+   *          The pose from which to subtract.
+   * @param dest
+   *          The array in which to store the differences.
+   * @return The number of joints for which any angle differs.
+   */
+  public static int diff(final double[] from, final double[] to,
+      final double[] dest) {
+    int changed = 0;
+    for (int i = 0; i < dest.length; i += AXES) {
+      final double dx = to[i] - from[i];
+      final double dy = to[i + 1] - from[i + 1];
+      final double dz = to[i + 2] - from[i + 2];
+      dest[i] = dx;
+      dest[i + 1] = dy;
+      dest[i + 2] = dz;
+      if (dx != 0 || dy != 0 || dz != 0) {
+        changed += 1;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Linearly interpolates each angle of two poses.
+   *
+   * The destination may be the same array as either pose.
+   *
+   * @param from
+   *          The pose at {@code t = 0}.
+   * @param to
+   *          The pose at {@code t = 1}.
+   * @param t
+   *          The interpolation parameter.
+   * @param dest
+   *          The array in which to store the interpolated pose.
+   */
+  public static void lerp(final double[] from, final double[] to,
+      final double t, final double[] dest) {
+    for (int i = 0; i < dest.length; ++i) {
+      dest[i] = from[i] + t * (to[i] - from[i]);
+    }
+  }
+
+  /** The id of each joint, keyed by name. */
+  private final Map<String, Integer> ids;
+  /** The joints, indexed by id. */
+  private final Component[] joints;
+
+  /**
+   * Instantiates this registry, assigning ids to all the components in the
+   * hierarchy rooted at the specified component.
+   *
+   * @param root
+   *          The root of the hierarchy.
+   * @throws IllegalArgumentException
+   *           If two components in the hierarchy have the same name.
+   */
+  public JointRegistry(final Component root) {
+    final List<Component> order = new ArrayList<Component>();
+    collect(root, order);
+    this.joints = order.toArray(new Component[order.size()]);
+    this.ids = new HashMap<String, Integer>(2 * this.joints.length);
+    for (int i = 0; i < this.joints.length; ++i) {
+      if (this.ids.put(this.joints[i].name(), i) != null) {
+        throw new IllegalArgumentException("Duplicate joint name "
+            + this.joints[i].name());
+      }
+    }
+  }
+
+  /**
+   * Sets the angles of every joint to those in the specified pose.
+   *
+   * Joints whose angles do not change are not marked dirty.
+   *
+   * @param pose
+   *          The pose to apply.
+   */
+  public void apply(final double[] pose) {
+    for (int i = 0; i < this.joints.length; ++i) {
+      this.joints[i].setAngles(pose[AXES * i], pose[AXES * i + 1],
+          pose[AXES * i + 2]);
+    }
+  }
+
+  /**
+   * Writes the current angles of every joint into the specified pose.
+   *
+   * @param pose
+   *          The array into which to write the angles.
+   * @return The specified array.
+   */
+  public double[] capture(final double[] pose) {
+    for (int i = 0; i < this.joints.length; ++i) {
+      final Component joint = this.joints[i];
+      pose[AXES * i] = joint.xAngle();
+      pose[AXES * i + 1] = joint.yAngle();
+      pose[AXES * i + 2] = joint.zAngle();
+    }
+    return pose;
+  }
+
+  /**
+   * Writes the angles of each joint named in the specified map into the
+   * specified pose, leaving the angles of joints not in the map as they are.
+   *
+   * @param map
+   *          The angles of some joints, keyed by joint name.
+   * @param pose
+   *          The array into which to write the angles.
+   * @return The specified array.
+   * @throws IllegalArgumentException
+   *           If a name in the map is not the name of a joint.
+   */
+  public double[] fromMap(final Map<String, Angled> map, final double[] pose) {
+    for (final Map.Entry<String, Angled> entry : map.entrySet()) {
+      final int id = this.id(entry.getKey());
+      if (id < 0) {
+        throw new IllegalArgumentException("Unknown joint " + entry.getKey());
+      }
+      final Angled angled = entry.getValue();
+      pose[AXES * id] = angled.xAngle();
+      pose[AXES * id + 1] = angled.yAngle();
+      pose[AXES * id + 2] = angled.zAngle();
+    }
+    return pose;
+  }
+
+  /**
+   * Gets the id of the joint with the specified name.
+   *
+   * @param name
+   *          The name of the joint.
+   * @return The id of the joint, or -1 if there is no joint with that name.
+   */
+  public int id(final String name) {
+    final Integer id = this.ids.get(name);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Gets the joint with the specified id.
+   *
+   * @param id
+   *          The id of the joint.
+   * @return The joint with the specified id.
+   */
+  public Component joint(final int id) {
+    return this.joints[id];
+  }
+
+  /**
+   * Gets all the joints, in order of id.
+   *
+   * @return An unmodifiable list of the joints.
+   */
+  public List<Component> joints() {
+    return Collections.unmodifiableList(Arrays.asList(this.joints));
+  }
+
+  /**
+   * Creates a new pose containing the current angles of the joints.
+   *
+   * @return A new pose containing the current angles.
+   */
+  public double[] newPose() {
+    return this.capture(new double[this.poseLength()]);
+  }
+
+  /**
+   * Gets the number of angles in a pose of these joints.
+   *
+   * @return The length of a pose array.
+   */
+  public int poseLength() {
+    return AXES * this.joints.length;
+  }
+
+  /**
+   * Gets the number of joints in this registry.
+   *
+   * @return The number of joints.
+   */
+  public int size() {
+    return this.joints.length;
+  }
+
+  /**
+   * Converts the specified pose to a map from joint names to angles.
+   *
+   * @param pose
+   *          The pose to convert.
+   * @return A new map containing the angles of every joint in the pose.
+   */
+  public Map<String, Angled> toMap(final double[] pose) {
+    final Map<String, Angled> map = new HashMap<String, Angled>(
+        2 * this.joints.length);
+    for (int i = 0; i < this.joints.length; ++i) {
+      map.put(this.joints[i].name(), new BaseAngled(pose[AXES * i],
+          pose[AXES * i + 1], pose[AXES * i + 2]));
+    }
+    return map;
+  }
+}
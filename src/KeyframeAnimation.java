@@ -0,0 +1,354 @@
+/**
+ * KeyframeAnimation.java - smooth interpolation between poses of a model
+ */
+
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An animation of a fixed list of joints which interpolates smoothly between
+ * keyframes, each of which is a pose of the joints at a point in time.
+ *
+ * The rotation of each joint is interpolated as a {@link Quaternion} rather
+ * than angle by angle, so that a joint takes the shortest path between the
+ * orientations of consecutive keyframes. The animation is evaluated at an
+ * arbitrary time, so its speed does not depend on the rate at which frames
+ * are drawn, and evaluating it does not allocate any objects.
+ */
+public class KeyframeAnimation {
+
+  /** The method used to interpolate between two rotations. */
+  public enum Interpolation {
+    /** Spherical linear interpolation, which has constant angular speed. */
+    SLERP,
+    /** Normalized linear interpolation, which is cheaper than SLERP. */
+    NLERP;
+  }
+
+  /** The initial number of keyframes for which to allocate room. */
+  private static final int INITIAL_CAPACITY = 4;
+
+  /** The angles of each joint in each keyframe, in degrees. */
+  private double[] angles;
+  /** The easing function applied to the progress between keyframes. */
+  private Easing easing = Easing.EASE_IN_OUT;
+  /** Scratch space for the rotation at the start of a segment. */
+  private final Quaternion from = new Quaternion();
+  /** The method used to interpolate between rotations. */
+  private Interpolation interpolation = Interpolation.SLERP;
+  /** The joints which this animation moves. */
+  private final Component[] joints;
+  /** The number of keyframes in this animation. */
+  private int keyframeCount = 0;
+  /** Scratch space for the interpolated angles of every joint. */
+  private final double[] pose;
+  /** Scratch space for the interpolated rotation. */
+  private final Quaternion result = new Quaternion();
+  /** The rotation of each joint in each keyframe, as (s, x, y, z). */
+  private float[] rotations;
+  /** The time of each keyframe, in seconds, in increasing order. */
+  private double[] times;
+  /** Scratch space for the rotation at the end of a segment. */
+  private final Quaternion to = new Quaternion();
+
+  /**
+   * Instantiates this animation of the specified joints with no keyframes.
+   *
+   * @param joints
+   *          The joints which this animation moves.
+   */
+  public KeyframeAnimation(final List<Component> joints) {
+    this.joints = joints.toArray(new Component[joints.size()]);
+    this.times = new double[INITIAL_CAPACITY];
+    this.angles = new double[INITIAL_CAPACITY * 3 * this.joints.length];
+    this.rotations = new float[INITIAL_CAPACITY * 4 * this.joints.length];
+    this.pose = new double[3 * this.joints.length];
+  }
+
+  /**
+   * Adds a keyframe at the specified time containing the current angles of
+   * the joints.
+   *
+   * @param time
+   *          The time of the keyframe, in seconds, which must be later than
+   *          that of every other keyframe.
+   * @throws IllegalArgumentException
+   *           If the time is not later than that of the last keyframe.
+   */
+  public void addKeyframe(final double time) {
+    this.addKeyframe(time, (Map<String, Angled>) null);
+  }
+
+  /**
+   * Adds a keyframe at the specified time containing the specified pose.
+   *
+   * Joints whose names are not in the pose keep their current angles in the
+   * new keyframe.
+   *
+   * @param time
+   *          The time of the keyframe, in seconds, which must be later than
+   *          that of every other keyframe.
+   * @param pose
+   *          The angles of the joints in the keyframe, keyed by joint name, or
+   *          {@code null} to use the current angles of all the joints.
+   * @throws IllegalArgumentException
+   *           If the time is not later than that of the last keyframe.
+   */
+  public void addKeyframe(final double time, final Map<String, Angled> pose) {
+    final int keyframe = this.newKeyframe(time);
+    for (int j = 0; j < this.joints.length; ++j) {
+      final Component joint = this.joints[j];
+      final Angled angled = pose == null ? null : pose.get(joint.name());
+      if (angled == null) {
+        this.setKeyframeAngles(keyframe, j, joint.xAngle(), joint.yAngle(),
+            joint.zAngle());
+      } else {
+        this.setKeyframeAngles(keyframe, j, angled.xAngle(), angled.yAngle(),
+            angled.zAngle());
+      }
+    }
+    this.keyframeCount += 1;
+  }
+
+  /**
+   * Adds a keyframe at the specified time containing the specified pose.
+   *
+   * @param time
+   *          The time of the keyframe, in seconds, which must be later than
+   *          that of every other keyframe.
+   * @param pose
+   *          The x, y, and z angles of each joint in the keyframe, in the
+   *          order of the list given to the constructor.
+   * @throws IllegalArgumentException
+   *           If the time is not later than that of the last keyframe.
+   */
+  public void addKeyframe(final double time, final double[] pose) {
+    final int keyframe = this.newKeyframe(time);
+    for (int j = 0; j < this.joints.length; ++j) {
+      this.setKeyframeAngles(keyframe, j, pose[3 * j], pose[3 * j + 1],
+          pose[3 * j + 2]);
+    }
+    this.keyframeCount += 1;
+  }
+
+  /**
+   * Gets the index of the x angle of the specified joint in the specified
+   * keyframe.
+   *
+   * @param keyframe
+   *          The index of the keyframe.
+   * @param joint
+   *          The index of the joint.
+   * @return The index in {@link #angles} of the x angle of the joint.
+   */
+  private int angleIndex(final int keyframe, final int joint) {
+    return 3 * (keyframe * this.joints.length + joint);
+  }
+
+  /**
+   * Removes all keyframes from this animation, keeping the space allocated
+   * for them.
+   */
+  public void clear() {
+    this.keyframeCount = 0;
+  }
+
+  /**
+   * Gets the time of the last keyframe, or 0 if there are no keyframes.
+   *
+   * @return The time of the last keyframe, in seconds.
+   */
+  public double duration() {
+    return this.keyframeCount == 0 ? 0 : this.times[this.keyframeCount - 1];
+  }
+
+  /**
+   * Sets the angles of the joints to their interpolated values at the
+   * specified time.
+   *
+   * @param time
+   *          The time at which to evaluate this animation, in seconds.
+   * @see #evaluate(double, double[])
+   */
+  public void evaluate(final double time) {
+    if (this.keyframeCount == 0) {
+      return;
+    }
+    this.evaluate(time, this.pose);
+    for (int j = 0; j < this.joints.length; ++j) {
+      this.joints[j].setAngles(this.pose[3 * j], this.pose[3 * j + 1],
+          this.pose[3 * j + 2]);
+    }
+  }
+
+  /**
+   * Writes the interpolated angles of the joints at the specified time into
+   * the specified pose, without reading or changing the joints themselves.
+   *
+   * Before the first keyframe and after the last one, the pose is that of the
+   * first and last keyframes, respectively. A joint whose angles are the same
+   * at both ends of the current segment is given those angles exactly. If
+   * there are no keyframes, the pose is left unchanged.
+   *
+   * @param time
+   *          The time at which to evaluate this animation, in seconds.
+   * @param pose
+   *          The array into which to write the x, y, and z angles of each
+   *          joint, in the order of the list given to the constructor.
+   */
+  public void evaluate(final double time, final double[] pose) {
+    if (this.keyframeCount == 0) {
+      return;
+    }
+    if (time <= this.times[0]) {
+      System.arraycopy(this.angles, this.angleIndex(0, 0), pose, 0,
+          3 * this.joints.length);
+      return;
+    }
+    if (time >= this.times[this.keyframeCount - 1]) {
+      System.arraycopy(this.angles,
+          this.angleIndex(this.keyframeCount - 1, 0), pose, 0,
+          3 * this.joints.length);
+      return;
+    }
+
+    // find the segment containing the specified time
+    int start = 0;
+    while (this.times[start + 1] <= time) {
+      start += 1;
+    }
+    final double progress = (time - this.times[start])
+        / (this.times[start + 1] - this.times[start]);
+    final float t = (float) this.easing.apply(progress);
+
+    for (int j = 0; j < this.joints.length; ++j) {
+      final int a0 = this.angleIndex(start, j);
+      final int a1 = this.angleIndex(start + 1, j);
+      if (this.angles[a0] == this.angles[a1]
+          && this.angles[a0 + 1] == this.angles[a1 + 1]
+          && this.angles[a0 + 2] == this.angles[a1 + 2]) {
+        pose[3 * j] = this.angles[a0];
+        pose[3 * j + 1] = this.angles[a0 + 1];
+        pose[3 * j + 2] = this.angles[a0 + 2];
+        continue;
+      }
+
+      final int r0 = this.rotationIndex(start, j);
+      final int r1 = this.rotationIndex(start + 1, j);
+      this.from.set(this.rotations[r0], this.rotations[r0 + 1],
+          this.rotations[r0 + 2], this.rotations[r0 + 3]);
+      this.to.set(this.rotations[r1], this.rotations[r1 + 1],
+          this.rotations[r1 + 2], this.rotations[r1 + 3]);
+      if (this.interpolation == Interpolation.SLERP) {
+        Quaternion.slerp(this.from, this.to, t, this.result);
+      } else {
+        Quaternion.nlerp(this.from, this.to, t, this.result);
+      }
+      this.result.toEulerAngles(pose, 3 * j);
+    }
+  }
+
+  /**
+   * Returns whether the specified time is at or after the last keyframe.
+   *
+   * @param time
+   *          The time, in seconds.
+   * @return Whether this animation has finished at the specified time.
+   */
+  public boolean isFinished(final double time) {
+    return time >= this.duration();
+  }
+
+  /**
+   * Checks the time of a new keyframe and makes room for it.
+   *
+   * @param time
+   *          The time of the new keyframe, in seconds.
+   * @return The index of the new keyframe.
+   * @throws IllegalArgumentException
+   *           If the time is not later than that of the last keyframe.
+   */
+  private int newKeyframe(final double time) {
+    if (this.keyframeCount > 0 && time <= this.times[this.keyframeCount - 1]) {
+      throw new IllegalArgumentException("Keyframe at " + time
+          + " is not after the last keyframe at "
+          + this.times[this.keyframeCount - 1]);
+    }
+    if (this.keyframeCount == this.times.length) {
+      final int capacity = 2 * this.times.length;
+      this.times = Arrays.copyOf(this.times, capacity);
+      this.angles = Arrays.copyOf(this.angles, capacity * 3
+          * this.joints.length);
+      this.rotations = Arrays.copyOf(this.rotations, capacity * 4
+          * this.joints.length);
+    }
+    this.times[this.keyframeCount] = time;
+    return this.keyframeCount;
+  }
+
+  /**
+   * Gets the index of the scalar component of the rotation of the specified
+   * joint in the specified keyframe.
+   *
+   * @param keyframe
+   *          The index of the keyframe.
+   * @param joint
+   *          The index of the joint.
+   * @return The index in {@link #rotations} of the scalar component.
+   */
+  private int rotationIndex(final int keyframe, final int joint) {
+    return 4 * (keyframe * this.joints.length + joint);
+  }
+
+  /**
+   * Sets the angles of the specified joint in the specified keyframe, along
+   * with the equivalent rotation.
+   *
+   * @param keyframe
+   *          The index of the keyframe.
+   * @param joint
+   *          The index of the joint.
+   * @param xAngle
+   *          The angle around the x axis, in degrees.
+   * @param yAngle
+   *          The angle around the y axis, in degrees.
+   * @param zAngle
+   *          The angle around the z axis, in degrees.
+   */
+  private void setKeyframeAngles(final int keyframe, final int joint,
+      final double xAngle, final double yAngle, final double zAngle) {
+    final int a = this.angleIndex(keyframe, joint);
+    this.angles[a] = xAngle;
+    this.angles[a + 1] = yAngle;
+    this.angles[a + 2] = zAngle;
+
+    this.result.setEulerAngles(xAngle, yAngle, zAngle);
+    final int r = this.rotationIndex(keyframe, joint);
+    this.rotations[r] = this.result.s();
+    this.rotations[r + 1] = this.result.x();
+    this.rotations[r + 2] = this.result.y();
+    this.rotations[r + 3] = this.result.z();
+  }
+
+  /**
+   * Sets the easing function applied to the progress between keyframes.
+   *
+   * @param easing
+   *          The easing function.
+   */
+  public void setEasing(final Easing easing) {
+    this.easing = easing;
+  }
+
+  /**
+   * Sets the method used to interpolate between rotations.
+   *
+   * @param interpolation
+   *          The method used to interpolate between rotations.
+   */
+  public void setInterpolation(final Interpolation interpolation) {
+    this.interpolation = interpolation;
+  }
+}
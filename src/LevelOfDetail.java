@@ -0,0 +1,130 @@
+/**
+ * LevelOfDetail.java - chooses how finely to draw each circular object
+ */
+
+
+/**
+ * Chooses the level of detail at which to draw each {@link Circular} object in
+ * a hierarchy of components, based on how large its bounding sphere appears
+ * on the screen.
+ *
+ * The projection is described by the same parameters as the perspective set
+ * up in {@link PA2#reshape}: a vertical field of view, the height of the
+ * viewport, and the distance along the z axis from the camera to the origin,
+ * at which the camera is looking.
+ */
+public class LevelOfDetail {
+  /** The distance from the camera to the origin of the scene. */
+  private double eyeDistance;
+  /** The number of times the level of any object has changed. */
+  private long levelChanges = 0;
+  /** Scratch space for the center of a bounding sphere in world space. */
+  private final double[] center = new double[3];
+  /**
+   * The number of pixels per unit of distance at a distance of one unit from
+   * the camera, which is half the viewport height divided by the tangent of
+   * half the field of view.
+   */
+  private double pixelsPerUnit;
+
+  /**
+   * Instantiates this object with the specified perspective parameters.
+   *
+   * @param fieldOfView
+   *          The vertical field of view, in degrees.
+   * @param viewportHeight
+   *          The height of the viewport, in pixels.
+   * @param eyeDistance
+   *          The distance from the camera to the origin of the scene.
+   */
+  public LevelOfDetail(final double fieldOfView, final int viewportHeight,
+      final double eyeDistance) {
+    this.setPerspective(fieldOfView, viewportHeight, eyeDistance);
+  }
+
+  /**
+   * Gets the number of times the level of any object has changed since this
+   * object was created.
+   *
+   * @return The number of level changes.
+   */
+  public long levelChanges() {
+    return this.levelChanges;
+  }
+
+  /**
+   * Sets the perspective parameters with which to project bounding spheres.
+   *
+   * @param fieldOfView
+   *          The vertical field of view, in degrees.
+   * @param viewportHeight
+   *          The height of the viewport, in pixels.
+   * @param eyeDistance
+   *          The distance from the camera to the origin of the scene.
+   */
+  public void setPerspective(final double fieldOfView,
+      final int viewportHeight, final double eyeDistance) {
+    this.pixelsPerUnit = (viewportHeight / 2.0)
+        / Math.tan(Math.toRadians(fieldOfView) / 2);
+    this.eyeDistance = eyeDistance;
+  }
+
+  /**
+   * Chooses the level of detail of each circular object in the hierarchy
+   * rooted at the specified component, marking each component whose level
+   * changed as dirty so that its call list is recompiled.
+   *
+   * @param root
+   *          The root of the hierarchy.
+   * @param viewingMatrix
+   *          The column major rotation matrix applied to the whole scene
+   *          before the camera transformation.
+   * @return Whether the level of any object changed.
+   */
+  public boolean update(final Component root, final float[] viewingMatrix) {
+    boolean changed = false;
+    final Displayable displayable = root.displayable();
+    if (displayable instanceof Circular) {
+      final Circular circular = (Circular) displayable;
+      final double radius = this.projectedRadius(root, circular,
+          viewingMatrix);
+      if (circular.selectLevel(radius)) {
+        root.markDirty();
+        this.levelChanges += 1;
+        changed = true;
+      }
+    }
+    for (int i = 0; i < root.childCount(); ++i) {
+      changed |= this.update(root.child(i), viewingMatrix);
+    }
+    return changed;
+  }
+
+  /**
+   * Computes the radius in pixels of the bounding sphere of the specified
+   * circular object drawn by the specified component.
+   *
+   * @param component
+   *          The component which draws the object.
+   * @param circular
+   *          The object drawn by the component.
+   * @param viewingMatrix
+   *          The column major rotation matrix applied to the whole scene.
+   * @return The radius in pixels of the projected bounding sphere.
+   */
+  private double projectedRadius(final Component component,
+      final Circular circular, final float[] viewingMatrix) {
+    Matrix4d.transformPoint(component.worldTransform(), 0, 0, 0,
+        circular.boundingCenterZ(), this.center, 0);
+
+    // only the z component after the viewing rotation is needed for depth
+    final double z = viewingMatrix[2] * this.center[0] + viewingMatrix[6]
+        * this.center[1] + viewingMatrix[10] * this.center[2];
+    final double depth = this.eyeDistance - z;
+    final double radius = circular.boundingRadius();
+    if (depth <= radius) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return radius * this.pixelsPerUnit / depth;
+  }
+}
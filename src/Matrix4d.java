@@ -0,0 +1,188 @@
+/**
+ * Matrix4d.java - operations on 4 by 4 matrices of doubles
+ */
+
+
+/**
+ * Operations on 4 by 4 matrices of doubles stored in arrays.
+ *
+ * Matrices are stored in column major order, the same order in which OpenGL
+ * expects them, so that they can be passed directly to methods like
+ * {@code glMultMatrixd}. Each method takes an offset into its arrays so that
+ * many matrices may be packed into a single array.
+ */
+public final class Matrix4d {
+  /** The number of elements in a single matrix. */
+  public static final int SIZE = 16;
+
+  /**
+   * Sets the matrix at the specified offset to the identity matrix.
+   *
+   * @param m
+   *          The array containing the matrix.
+   * @param offset
+   *          The index of the first element of the matrix.
+   */
+  public static void identity(final double[] m, final int offset) {
+    for (int i = 0; i < SIZE; ++i) {
+      m[offset + i] = 0;
+    }
+    m[offset] = 1;
+    m[offset + 5] = 1;
+    m[offset + 10] = 1;
+    m[offset + 15] = 1;
+  }
+
+  /**
+   * Returns whether the matrix at the specified offset is exactly the
+   * identity matrix.
+   *
+   * @param m
+   *          The array containing the matrix.
+   * @param offset
+   *          The index of the first element of the matrix.
+   * @return Whether the matrix is the identity matrix.
+   */
+  public static boolean isIdentity(final double[] m, final int offset) {
+    for (int i = 0; i < SIZE; ++i) {
+      final double expected = (i % 5 == 0) ? 1 : 0;
+      if (m[offset + i] != expected) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Computes the product {@code a * b} and stores it in {@code dest}.
+   *
+   * The destination matrix must not overlap either of the operands.
+   *
+   * @param a
+   *          The array containing the left operand.
+   * @param aOffset
+   *          The index of the first element of the left operand.
+   * @param b
+   *          The array containing the right operand.
+   * @param bOffset
+   *          The index of the first element of the right operand.
+   * @param dest
+   *          The array in which to store the product.
+   * @param destOffset
+   *          The index at which to store the first element of the product.
+   */
+  public static void multiply(final double[] a, final int aOffset,
+      final double[] b, final int bOffset, final double[] dest,
+      final int destOffset) {
+    for (int column = 0; column < 4; ++column) {
+      final double b0 = b[bOffset + 4 * column];
+      final double b1 = b[bOffset + 4 * column + 1];
+      final double b2 = b[bOffset + 4 * column + 2];
+      final double b3 = b[bOffset + 4 * column + 3];
+      for (int row = 0; row < 4; ++row) {
+        dest[destOffset + 4 * column + row] = a[aOffset + row] * b0
+            + a[aOffset + 4 + row] * b1 + a[aOffset + 8 + row] * b2
+            + a[aOffset + 12 + row] * b3;
+      }
+    }
+  }
+
+  /**
+   * Sets the matrix at the specified offset to the transformation of a
+   * {@link Component}: a translation by {@code (tx, ty, tz)} followed by a
+   * rotation around the x axis, then the y axis, then the z axis.
+   *
+   * This is the same matrix which results from calling {@code glTranslated},
+   * then {@code glRotated} for each of the x, y, and z axes, in that order.
+   *
+   * @param m
+   *          The array in which to store the matrix.
+   * @param offset
+   *          The index at which to store the first element of the matrix.
+   * @param tx
+   *          The x component of the translation.
+   * @param ty
+   *          The y component of the translation.
+   * @param tz
+   *          The z component of the translation.
+   * @param xAngle
+   *          The angle of rotation around the x axis, in degrees.
+   * @param yAngle
+   *          The angle of rotation around the y axis, in degrees.
+   * @param zAngle
+   *          The angle of rotation around the z axis, in degrees.
+   */
+  public static void setLocalTransform(final double[] m, final int offset,
+      final double tx, final double ty, final double tz, final double xAngle,
+      final double yAngle, final double zAngle) {
+    final double xRadians = Math.toRadians(xAngle);
+    final double yRadians = Math.toRadians(yAngle);
+    final double zRadians = Math.toRadians(zAngle);
+    final double sa = Math.sin(xRadians);
+    final double ca = Math.cos(xRadians);
+    final double sb = Math.sin(yRadians);
+    final double cb = Math.cos(yRadians);
+    final double sc = Math.sin(zRadians);
+    final double cc = Math.cos(zRadians);
+
+    // first column
+    m[offset] = cb * cc;
+    m[offset + 1] = sa * sb * cc + ca * sc;
+    m[offset + 2] = -ca * sb * cc + sa * sc;
+    m[offset + 3] = 0;
+
+    // second column
+    m[offset + 4] = -cb * sc;
+    m[offset + 5] = -sa * sb * sc + ca * cc;
+    m[offset + 6] = ca * sb * sc + sa * cc;
+    m[offset + 7] = 0;
+
+    // third column
+    m[offset + 8] = sb;
+    m[offset + 9] = -sa * cb;
+    m[offset + 10] = ca * cb;
+    m[offset + 11] = 0;
+
+    // fourth column
+    m[offset + 12] = tx;
+    m[offset + 13] = ty;
+    m[offset + 14] = tz;
+    m[offset + 15] = 1;
+  }
+
+  /**
+   * Transforms the point {@code (x, y, z)} by the matrix at the specified
+   * offset and stores the resulting three components in {@code dest}.
+   *
+   * @param m
+   *          The array containing the matrix.
+   * @param offset
+   *          The index of the first element of the matrix.
+   * @param x
+   *          The x component of the point.
+   * @param y
+   *          The y component of the point.
+   * @param z
+   *          The z component of the point.
+   * @param dest
+   *          The array in which to store the transformed point.
+   * @param destOffset
+   *          The index at which to store the x component of the transformed
+   *          point.
+   */
+  public static void transformPoint(final double[] m, final int offset,
+      final double x, final double y, final double z, final double[] dest,
+      final int destOffset) {
+    dest[destOffset] = m[offset] * x + m[offset + 4] * y + m[offset + 8] * z
+        + m[offset + 12];
+    dest[destOffset + 1] = m[offset + 1] * x + m[offset + 5] * y
+        + m[offset + 9] * z + m[offset + 13];
+    dest[destOffset + 2] = m[offset + 2] * x + m[offset + 6] * y
+        + m[offset + 10] * z + m[offset + 14];
+  }
+
+  /** Instantiation is disallowed. */
+  private Matrix4d() {
+    // intentionally unimplemented
+  }
+}
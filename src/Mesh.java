@@ -0,0 +1,245 @@
+/**
+ * Mesh.java - an indexed triangle mesh stored in direct buffers
+ */
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * An indexed triangle mesh whose vertices are stored as interleaved position
+ * and normal data in a direct {@link FloatBuffer}, and whose triangles are
+ * stored as triples of vertex indices in a direct {@link IntBuffer}.
+ *
+ * Each vertex occupies {@link #FLOATS_PER_VERTEX} consecutive floats: the x, y,
+ * and z components of its position followed by the x, y, and z components of
+ * its unit normal. The buffers of a mesh are reused when it is cleared and
+ * filled again, and are only reallocated when they must grow.
+ *
+ * @see Tessellator
+ */
+public class Mesh {
+  /** The number of bytes in a float or an int. */
+  private static final int BYTES_PER_ELEMENT = 4;
+  /** The number of floats which make up a single vertex. */
+  public static final int FLOATS_PER_VERTEX = 6;
+  /** The number of indices which make up a single triangle. */
+  public static final int INDICES_PER_TRIANGLE = 3;
+
+  /**
+   * Allocates a new direct float buffer in native byte order.
+   *
+   * @param capacity
+   *          The number of floats in the buffer.
+   * @return The new buffer.
+   */
+  private static FloatBuffer newFloatBuffer(final int capacity) {
+    return ByteBuffer.allocateDirect(capacity * BYTES_PER_ELEMENT)
+        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+  }
+
+  /**
+   * Allocates a new direct int buffer in native byte order.
+   *
+   * @param capacity
+   *          The number of ints in the buffer.
+   * @return The new buffer.
+   */
+  private static IntBuffer newIntBuffer(final int capacity) {
+    return ByteBuffer.allocateDirect(capacity * BYTES_PER_ELEMENT)
+        .order(ByteOrder.nativeOrder()).asIntBuffer();
+  }
+
+  /** The number of indices in this mesh. */
+  private int indexCount = 0;
+  /** The indices of the vertices of each triangle. */
+  private IntBuffer indices;
+  /** The number of vertices in this mesh. */
+  private int vertexCount = 0;
+  /** The interleaved positions and normals of the vertices. */
+  private FloatBuffer vertices;
+
+  /**
+   * Instantiates this mesh with no initial capacity.
+   */
+  public Mesh() {
+    this(0, 0);
+  }
+
+  /**
+   * Instantiates this mesh with buffers large enough to hold the specified
+   * number of vertices and triangles.
+   *
+   * @param vertexCapacity
+   *          The number of vertices for which to allocate room.
+   * @param triangleCapacity
+   *          The number of triangles for which to allocate room.
+   */
+  public Mesh(final int vertexCapacity, final int triangleCapacity) {
+    this.vertices = newFloatBuffer(vertexCapacity * FLOATS_PER_VERTEX);
+    this.indices = newIntBuffer(triangleCapacity * INDICES_PER_TRIANGLE);
+  }
+
+  /**
+   * Adds a triangle with the vertices at the specified indices, which must be
+   * given in counterclockwise order when viewed from the front.
+   *
+   * @param a
+   *          The index of the first vertex.
+   * @param b
+   *          The index of the second vertex.
+   * @param c
+   *          The index of the third vertex.
+   */
+  public void addTriangle(final int a, final int b, final int c) {
+    this.ensureCapacity(0, 1);
+    this.indices.put(this.indexCount, a);
+    this.indices.put(this.indexCount + 1, b);
+    this.indices.put(this.indexCount + 2, c);
+    this.indexCount += INDICES_PER_TRIANGLE;
+  }
+
+  /**
+   * Adds a vertex with the specified position and normal.
+   *
+   * @param x
+   *          The x component of the position.
+   * @param y
+   *          The y component of the position.
+   * @param z
+   *          The z component of the position.
+   * @param nx
+   *          The x component of the unit normal.
+   * @param ny
+   *          The y component of the unit normal.
+   * @param nz
+   *          The z component of the unit normal.
+   * @return The index of the new vertex.
+   */
+  public int addVertex(final float x, final float y, final float z,
+      final float nx, final float ny, final float nz) {
+    this.ensureCapacity(1, 0);
+    final int offset = this.vertexCount * FLOATS_PER_VERTEX;
+    this.vertices.put(offset, x);
+    this.vertices.put(offset + 1, y);
+    this.vertices.put(offset + 2, z);
+    this.vertices.put(offset + 3, nx);
+    this.vertices.put(offset + 4, ny);
+    this.vertices.put(offset + 5, nz);
+    return this.vertexCount++;
+  }
+
+  /**
+   * Removes all vertices and triangles from this mesh, keeping its buffers
+   * for reuse.
+   */
+  public void clear() {
+    this.vertexCount = 0;
+    this.indexCount = 0;
+    this.vertices.clear();
+    this.indices.clear();
+  }
+
+  /**
+   * Ensures that the buffers of this mesh have room for the specified number
+   * of additional vertices and triangles, growing them if necessary.
+   *
+   * The limits which {@link #indices()} and {@link #vertices()} set on the
+   * buffers are reset to their capacities, since vertices and triangles are
+   * written past them.
+   *
+   * @param moreVertices
+   *          The number of vertices which will be added.
+   * @param moreTriangles
+   *          The number of triangles which will be added.
+   */
+  public void ensureCapacity(final int moreVertices, final int moreTriangles) {
+    this.vertices.clear();
+    this.indices.clear();
+    final int neededFloats = (this.vertexCount + moreVertices)
+        * FLOATS_PER_VERTEX;
+    if (neededFloats > this.vertices.capacity()) {
+      final FloatBuffer grown = newFloatBuffer(Math.max(neededFloats,
+          2 * this.vertices.capacity()));
+      for (int i = 0; i < this.vertexCount * FLOATS_PER_VERTEX; ++i) {
+        grown.put(i, this.vertices.get(i));
+      }
+      this.vertices = grown;
+    }
+    final int neededIndices = this.indexCount + moreTriangles
+        * INDICES_PER_TRIANGLE;
+    if (neededIndices > this.indices.capacity()) {
+      final IntBuffer grown = newIntBuffer(Math.max(neededIndices,
+          2 * this.indices.capacity()));
+      for (int i = 0; i < this.indexCount; ++i) {
+        grown.put(i, this.indices.get(i));
+      }
+      this.indices = grown;
+    }
+  }
+
+  /**
+   * Gets the number of indices in this mesh, which is three times the number
+   * of triangles.
+   *
+   * @return The number of indices in this mesh.
+   */
+  public int indexCount() {
+    return this.indexCount;
+  }
+
+  /**
+   * Gets the buffer of triangle indices, with its position at zero and its
+   * limit at {@link #indexCount()}. The limit only holds until the next
+   * triangle or vertex is added.
+   *
+   * @return The buffer of triangle indices.
+   */
+  public IntBuffer indices() {
+    this.indices.limit(this.indexCount).position(0);
+    return this.indices;
+  }
+
+  /**
+   * Gets the number of triangles in this mesh.
+   *
+   * @return The number of triangles in this mesh.
+   */
+  public int triangleCount() {
+    return this.indexCount / INDICES_PER_TRIANGLE;
+  }
+
+  /**
+   * Gets the number of vertices in this mesh.
+   *
+   * @return The number of vertices in this mesh.
+   */
+  public int vertexCount() {
+    return this.vertexCount;
+  }
+
+  /**
+   * Gets the buffer of interleaved vertex positions and normals, with its
+   * position at zero and its limit at the end of the last vertex. The limit
+   * only holds until the next triangle or vertex is added.
+   *
+   * @return The buffer of interleaved vertex positions and normals.
+   */
+  public FloatBuffer vertices() {
+    this.vertices.limit(this.vertexCount * FLOATS_PER_VERTEX).position(0);
+    return this.vertices;
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    return "Mesh[vertices=" + this.vertexCount + ", triangles="
+        + this.triangleCount() + "]";
+  }
+}
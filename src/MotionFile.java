@@ -0,0 +1,783 @@
+/**
+ * MotionFile.java - reads recorded joint angles from a BVH or CSV file
+ */
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the frames of a motion capture recording one at a time, in either
+ * the BVH format or as comma-separated joint angles, so that files of any
+ * size can be read with a constant amount of memory.
+ *
+ * The channels of the recording are matched to the joints of a
+ * {@link JointRegistry} by name, ignoring case, spaces, and punctuation, so
+ * that a BVH joint named {@code Index_Palm} or a CSV column named
+ * {@code index palm.x} is matched to the joint named
+ * {@link PA2#INDEX_PALM_NAME}. Rotation channels are read as the angles of
+ * the matched joint around the same axes; position channels and channels of
+ * unknown joints are ignored.
+ *
+ * A BVH joint rotates around its axes in the order in which its channels
+ * are declared, often z, then x, then y, whereas a {@link Component} rotates
+ * around x, then y, then z. The angles of a joint whose rotation channels
+ * are in any other order than x, y, z are converted to the equivalent
+ * angles in that order as each frame is read.
+ *
+ * A CSV file has a header row naming its columns, each of which is a joint
+ * name followed by an axis, {@code x}, {@code y}, or {@code z}, or by an axis
+ * and {@code rotation}. A column named {@code time} gives the time of each
+ * frame in seconds, from which the frame time is taken; without one, frames
+ * are {@link #DEFAULT_FRAME_SECONDS} apart.
+ *
+ * The offset in the file of every {@link #SEEK_INTERVAL}th frame is recorded
+ * as it is read, so that seeking to a frame which has already been read only
+ * skips the frames since the nearest recorded one.
+ */
+public class MotionFile implements Closeable {
+  /** The size of the buffer through which the file is read, in bytes. */
+  private static final int BUFFER_SIZE = 1 << 16;
+  /** The time between frames of a CSV file without times, in seconds. */
+  public static final double DEFAULT_FRAME_SECONDS = 1.0 / 30;
+  /** The number of frames between the offsets recorded for seeking. */
+  public static final int SEEK_INTERVAL = 256;
+  /** The number of values describing each reordered joint. */
+  private static final int REORDER_LENGTH = 1 + JointRegistry.AXES;
+  /** Exact powers of ten, for converting decimal numbers. */
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+      1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+      1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  /**
+   * Gets the axis named by the specified channel suffix.
+   *
+   * @param suffix
+   *          The normalized suffix.
+   * @return The ordinal of the axis, or -1 if the suffix is not an axis.
+   */
+  private static int axis(final String suffix) {
+    if (suffix.equals("x") || suffix.equals("xrotation")) {
+      return 0;
+    } else if (suffix.equals("y") || suffix.equals("yrotation")) {
+      return 1;
+    } else if (suffix.equals("z") || suffix.equals("zrotation")) {
+      return 2;
+    }
+    return -1;
+  }
+
+  /**
+   * Reduces the specified name to lower-case letters and digits, so that
+   * names which differ only in case, spacing, or punctuation are equal.
+   *
+   * @param name
+   *          The name to normalize.
+   * @return The normalized name.
+   */
+  public static String normalize(final String name) {
+    final StringBuilder builder = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); ++i) {
+      final char c = name.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        builder.append(Character.toLowerCase(c));
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Opens the specified motion file, matching its channels to the joints in
+   * the specified registry.
+   *
+   * The file is read as BVH if its first line is {@code HIERARCHY}, and as
+   * CSV otherwise.
+   *
+   * @param file
+   *          The motion file.
+   * @param registry
+   *          The registry whose ids the frames are read into.
+   * @return The opened file, positioned at its first frame.
+   * @throws IOException
+   *           If the file cannot be read or is not a valid motion file.
+   */
+  public static MotionFile open(final File file, final JointRegistry registry)
+      throws IOException {
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      return new MotionFile(file, randomAccessFile.getChannel(), registry);
+    } catch (final IOException exception) {
+      randomAccessFile.close();
+      throw exception;
+    } catch (final RuntimeException exception) {
+      randomAccessFile.close();
+      throw exception;
+    }
+  }
+
+  /**
+   * Reads the decimal numbers separated by whitespace, commas, or semicolons
+   * in the specified bytes, without creating any objects.
+   *
+   * @param bytes
+   *          The bytes to parse.
+   * @param length
+   *          The number of bytes to parse.
+   * @param values
+   *          The array into which to store the numbers.
+   * @return The number of numbers in the bytes, which may be more than the
+   *         length of the array.
+   * @throws NumberFormatException
+   *           If the bytes contain anything other than numbers and
+   *           separators.
+   */
+  static int parseNumbers(final byte[] bytes, final int length,
+      final double[] values) {
+    int count = 0;
+    int i = 0;
+    while (true) {
+      while (i < length
+          && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == ','
+              || bytes[i] == ';')) {
+        i += 1;
+      }
+      if (i == length) {
+        return count;
+      }
+
+      final int start = i;
+      boolean negative = false;
+      if (bytes[i] == '-' || bytes[i] == '+') {
+        negative = bytes[i] == '-';
+        i += 1;
+      }
+      long mantissa = 0;
+      int digits = 0;
+      int exponent = 0;
+      boolean point = false;
+      boolean any = false;
+      for (; i < length; ++i) {
+        final int b = bytes[i];
+        if (b >= '0' && b <= '9') {
+          any = true;
+          if (digits < 18) {
+            mantissa = 10 * mantissa + (b - '0');
+            if (mantissa != 0) {
+              digits += 1;
+            }
+            if (point) {
+              exponent -= 1;
+            }
+          } else if (!point) {
+            exponent += 1;
+          }
+        } else if (b == '.' && !point) {
+          point = true;
+        } else {
+          break;
+        }
+      }
+      if (i < length && (bytes[i] == 'e' || bytes[i] == 'E') && any) {
+        i += 1;
+        boolean negativeExponent = false;
+        if (i < length && (bytes[i] == '-' || bytes[i] == '+')) {
+          negativeExponent = bytes[i] == '-';
+          i += 1;
+        }
+        int power = 0;
+        boolean anyPower = false;
+        for (; i < length && bytes[i] >= '0' && bytes[i] <= '9'; ++i) {
+          power = Math.min(10 * power + (bytes[i] - '0'), 1000);
+          anyPower = true;
+        }
+        if (!anyPower) {
+          any = false;
+        }
+        exponent += negativeExponent ? -power : power;
+      }
+      if (!any
+          || (i < length && bytes[i] != ' ' && bytes[i] != '\t'
+              && bytes[i] != ',' && bytes[i] != ';')) {
+        throw new NumberFormatException("Invalid number "
+            + new String(bytes, start, Math.min(i + 1, length) - start));
+      }
+
+      double value = mantissa;
+      if (exponent < 0) {
+        value = -exponent < POWERS_OF_TEN.length ? value
+            / POWERS_OF_TEN[-exponent] : value / Math.pow(10, -exponent);
+      } else if (exponent > 0) {
+        value = exponent < POWERS_OF_TEN.length ? value
+            * POWERS_OF_TEN[exponent] : value * Math.pow(10, exponent);
+      }
+      if (count < values.length) {
+        values[count] = negative ? -value : value;
+      }
+      count += 1;
+    }
+  }
+
+  /** The buffer through which the file is read. */
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  /** The rotation of a reordered joint, as it is composed. */
+  private final Quaternion composed = new Quaternion();
+  /** The rotation around a single axis of a reordered joint. */
+  private final Quaternion step = new Quaternion();
+  /** The channel from which the file is read. */
+  private final FileChannel channel;
+  /** The name of the file. */
+  private final String fileName;
+  /** Whether the file is in the BVH format rather than CSV. */
+  private final boolean bvh;
+  /** The number of frames in the file, or -1 if it is not known. */
+  private final long frameCount;
+  /** The time between frames, in seconds. */
+  private final double frameSeconds;
+  /** The bytes of the line most recently read. */
+  private byte[] line = new byte[256];
+  /** The offset in the file of the start of the line most recently read. */
+  private long lineStart = 0;
+  /** The number of channels matched to a joint. */
+  private final int matchedChannels;
+  /** The index of the next frame to be read. */
+  private long nextFrame = 0;
+  /** The offset in the file of the next byte to be read. */
+  private long offset = 0;
+  /** The number of frames whose offsets have been recorded. */
+  private int seekCount = 0;
+  /**
+   * The joints whose rotation channels are not in x, y, z order, each as
+   * the index in a pose of its angle around the x axis followed by the axes
+   * of its rotation channels in their declared order, padded with -1, in
+   * groups of {@link #REORDER_LENGTH}.
+   */
+  private final int[] reorders;
+  /** The offset of every {@link #SEEK_INTERVAL}th frame. */
+  private long[] seekOffsets = new long[16];
+  /**
+   * The index in a pose of the angle read from each channel, or -1 if the
+   * channel is ignored.
+   */
+  private final int[] targets;
+  /** The values of the channels of the frame being read. */
+  private final double[] values;
+
+  /**
+   * Instantiates this file by reading its header and matching its channels
+   * to joints.
+   *
+   * @param file
+   *          The motion file.
+   * @param channel
+   *          The channel from which to read the file.
+   * @param registry
+   *          The registry whose ids the frames are read into.
+   * @throws IOException
+   *           If the file cannot be read or is not a valid motion file.
+   */
+  private MotionFile(final File file, final FileChannel channel,
+      final JointRegistry registry) throws IOException {
+    this.fileName = file.getPath();
+    this.channel = channel;
+    this.buffer.flip();
+
+    final Map<String, Integer> ids = new HashMap<String, Integer>();
+    for (final Component joint : registry.joints()) {
+      ids.put(normalize(joint.name()), registry.id(joint.name()));
+    }
+
+    final List<Integer> targetList = new ArrayList<Integer>();
+    final List<Integer> reorderList = new ArrayList<Integer>();
+    final String first = this.readHeaderLine();
+    this.bvh = first != null && first.equals("HIERARCHY");
+    if (this.bvh) {
+      this.frameCount = this.readBvhHierarchy(ids, targetList, reorderList);
+      this.frameSeconds = this.readBvhFrameTime();
+    } else if (first != null) {
+      final int timeColumn = this.readCsvHeader(first, ids, targetList);
+      this.frameCount = -1;
+      this.frameSeconds = timeColumn < 0 ? DEFAULT_FRAME_SECONDS : this
+          .readCsvFrameTime(timeColumn, targetList.size());
+    } else {
+      throw this.invalid("empty file");
+    }
+
+    this.targets = new int[targetList.size()];
+    int matched = 0;
+    for (int i = 0; i < this.targets.length; ++i) {
+      this.targets[i] = targetList.get(i);
+      if (this.targets[i] >= 0) {
+        matched += 1;
+      }
+    }
+    this.matchedChannels = matched;
+    this.reorders = new int[reorderList.size()];
+    for (int i = 0; i < this.reorders.length; ++i) {
+      this.reorders[i] = reorderList.get(i);
+    }
+    this.values = new double[this.targets.length];
+    this.seekOffsets[0] = this.offset;
+    this.seekCount = 1;
+  }
+
+  /**
+   * Gets the number of channels in each frame.
+   *
+   * @return The number of channels.
+   */
+  public int channelCount() {
+    return this.targets.length;
+  }
+
+  /**
+   * Closes the file.
+   *
+   * @throws IOException
+   *           If the file cannot be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  /**
+   * Gets the index of the next frame to be read.
+   *
+   * @return The index of the next frame.
+   */
+  public long frame() {
+    return this.nextFrame;
+  }
+
+  /**
+   * Gets the number of frames in the file, if it is given in the header.
+   *
+   * @return The number of frames, or -1 if it is not known.
+   */
+  public long frameCount() {
+    return this.frameCount;
+  }
+
+  /**
+   * Gets the time between frames.
+   *
+   * @return The time between frames, in seconds.
+   */
+  public double frameSeconds() {
+    return this.frameSeconds;
+  }
+
+  /**
+   * Creates an exception describing an invalid file.
+   *
+   * @param reason
+   *          Why the file is invalid.
+   * @return The new exception.
+   */
+  private IOException invalid(final String reason) {
+    return new IOException("Invalid motion file " + this.fileName + ": "
+        + reason);
+  }
+
+  /**
+   * Gets the number of channels matched to a joint.
+   *
+   * @return The number of matched channels.
+   */
+  public int matchedChannels() {
+    return this.matchedChannels;
+  }
+
+  /**
+   * Moves to the specified offset in the file, discarding anything buffered.
+   *
+   * @param position
+   *          The offset of the next byte to read.
+   * @throws IOException
+   *           If the file cannot be read.
+   */
+  private void position(final long position) throws IOException {
+    this.channel.position(position);
+    this.buffer.clear();
+    this.buffer.flip();
+    this.offset = position;
+  }
+
+  /**
+   * Reads the BVH {@code Frame Time} line.
+   *
+   * @return The time between frames, in seconds.
+   * @throws IOException
+   *           If the file cannot be read or the line is missing.
+   */
+  private double readBvhFrameTime() throws IOException {
+    final String line = this.readHeaderLine();
+    if (line == null || !line.startsWith("Frame Time:")) {
+      throw this.invalid("missing frame time");
+    }
+    final double seconds;
+    try {
+      seconds = Double.parseDouble(line.substring(11).trim());
+    } catch (final NumberFormatException exception) {
+      throw this.invalid("bad frame time " + line);
+    }
+    if (!(seconds > 0)) {
+      throw this.invalid("bad frame time " + line);
+    }
+    return seconds;
+  }
+
+  /**
+   * Reads the BVH hierarchy, up to and including the {@code Frames} line,
+   * adding the target of each channel to the specified list.
+   *
+   * @param ids
+   *          The ids of the joints, keyed by normalized name.
+   * @param targets
+   *          The list to which to add the target of each channel.
+   * @param reorders
+   *          The list to which to add each matched joint whose rotation
+   *          channels are not in x, y, z order, as in {@link #reorders}.
+   * @return The number of frames.
+   * @throws IOException
+   *           If the file cannot be read or the hierarchy is invalid.
+   */
+  private long readBvhHierarchy(final Map<String, Integer> ids,
+      final List<Integer> targets, final List<Integer> reorders)
+      throws IOException {
+    final List<Integer> stack = new ArrayList<Integer>();
+    Integer pending = null;
+    while (true) {
+      final String line = this.readHeaderLine();
+      if (line == null) {
+        throw this.invalid("missing MOTION section");
+      }
+      final String[] tokens = line.split("\\s+");
+      final String keyword = tokens[0];
+      if (keyword.equals("ROOT") || keyword.equals("JOINT")) {
+        final String name = line.substring(keyword.length()).trim();
+        final Integer id = ids.get(normalize(name));
+        pending = id == null ? -1 : id;
+      } else if (keyword.equals("End")) {
+        pending = -1;
+      } else if (keyword.equals("{")) {
+        stack.add(pending == null ? -1 : pending);
+        pending = null;
+      } else if (keyword.equals("}")) {
+        if (stack.isEmpty()) {
+          throw this.invalid("unbalanced braces");
+        }
+        stack.remove(stack.size() - 1);
+      } else if (keyword.equals("CHANNELS")) {
+        if (stack.isEmpty() || tokens.length < 2) {
+          throw this.invalid("misplaced CHANNELS");
+        }
+        final int id = stack.get(stack.size() - 1);
+        final int[] order = { -1, -1, -1 };
+        int rotations = 0;
+        boolean reordered = false;
+        for (int i = 2; i < tokens.length; ++i) {
+          final String channelName = tokens[i].toLowerCase();
+          final int axis = channelName.endsWith("rotation") ? axis(channelName)
+              : -1;
+          targets.add(id < 0 || axis < 0 ? -1 : JointRegistry.AXES * id
+              + axis);
+          if (axis >= 0 && rotations < order.length) {
+            reordered |= rotations > 0 && axis <= order[rotations - 1];
+            order[rotations] = axis;
+            rotations += 1;
+          }
+        }
+        if (id >= 0 && reordered) {
+          reorders.add(JointRegistry.AXES * id);
+          for (final int axis : order) {
+            reorders.add(axis);
+          }
+        }
+      } else if (keyword.equals("MOTION")) {
+        final String frames = this.readHeaderLine();
+        if (frames == null || !frames.startsWith("Frames:")) {
+          throw this.invalid("missing frame count");
+        }
+        try {
+          return Long.parseLong(frames.substring(7).trim());
+        } catch (final NumberFormatException exception) {
+          throw this.invalid("bad frame count " + frames);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the first two rows of a CSV file to find the time between frames,
+   * and then moves back to the first row.
+   *
+   * @param timeColumn
+   *          The index of the time column.
+   * @param columns
+   *          The number of columns.
+   * @return The time between the first two frames, or
+   *         {@link #DEFAULT_FRAME_SECONDS} if there are fewer than two.
+   * @throws IOException
+   *           If the file cannot be read or the times are invalid.
+   */
+  private double readCsvFrameTime(final int timeColumn, final int columns)
+      throws IOException {
+    final long start = this.offset;
+    final double[] row = new double[columns];
+    final double[] times = new double[2];
+    int rows = 0;
+    while (rows < 2) {
+      final int length = this.readLine();
+      if (length < 0) {
+        break;
+      } else if (length > 0) {
+        parseNumbers(this.line, length, row);
+        times[rows] = row[timeColumn];
+        rows += 1;
+      }
+    }
+    this.position(start);
+    if (rows < 2) {
+      return DEFAULT_FRAME_SECONDS;
+    }
+    final double seconds = times[1] - times[0];
+    if (!(seconds > 0)) {
+      throw this.invalid("times do not increase");
+    }
+    return seconds;
+  }
+
+  /**
+   * Matches the columns named in the specified CSV header row to joints,
+   * adding the target of each column to the specified list.
+   *
+   * @param header
+   *          The header row.
+   * @param ids
+   *          The ids of the joints, keyed by normalized name.
+   * @param targets
+   *          The list to which to add the target of each column.
+   * @return The index of the time column, or -1 if there is none.
+   */
+  private int readCsvHeader(final String header,
+      final Map<String, Integer> ids, final List<Integer> targets) {
+    int timeColumn = -1;
+    final String[] columns = header.split("[,;\t]");
+    for (int i = 0; i < columns.length; ++i) {
+      final String column = normalize(columns[i]);
+      int target = -1;
+      if (column.equals("time") && timeColumn < 0) {
+        timeColumn = i;
+      } else {
+        final int suffix = column.endsWith("rotation") ? column.length()
+            - "xrotation".length() : column.length() - 1;
+        if (suffix > 0) {
+          final int axis = axis(column.substring(suffix));
+          final Integer id = ids.get(column.substring(0, suffix));
+          if (axis >= 0 && id != null) {
+            target = JointRegistry.AXES * id + axis;
+          }
+        }
+      }
+      targets.add(target);
+    }
+    return timeColumn;
+  }
+
+  /**
+   * Reads the next frame, storing the angle from each matched channel in the
+   * specified pose and leaving the other angles as they are.
+   *
+   * @param pose
+   *          The pose into which to read the frame, indexed by joint id.
+   * @return Whether a frame was read; {@code false} at the end of the file.
+   * @throws IOException
+   *           If the file cannot be read or the frame is invalid.
+   */
+  public boolean readFrame(final double[] pose) throws IOException {
+    final int length = this.readFrameLine();
+    if (length < 0) {
+      return false;
+    }
+    final int count;
+    try {
+      count = parseNumbers(this.line, length, this.values);
+    } catch (final NumberFormatException exception) {
+      throw this.invalid("frame " + (this.nextFrame - 1) + ": "
+          + exception.getMessage());
+    }
+    if (count != this.values.length) {
+      throw this.invalid("frame " + (this.nextFrame - 1) + " has " + count
+          + " values instead of " + this.values.length);
+    }
+    for (int i = 0; i < this.targets.length; ++i) {
+      if (this.targets[i] >= 0) {
+        pose[this.targets[i]] = this.values[i];
+      }
+    }
+    this.reorderAngles(pose);
+    return true;
+  }
+
+  /**
+   * Converts the angles of each joint whose rotation channels are not in x,
+   * y, z order to the angles of the same rotation in that order, the order
+   * in which a {@link Component} rotates.
+   *
+   * @param pose
+   *          The pose whose angles to convert, indexed by joint id.
+   */
+  private void reorderAngles(final double[] pose) {
+    for (int r = 0; r < this.reorders.length; r += REORDER_LENGTH) {
+      final int base = this.reorders[r];
+      this.composed.reset();
+      for (int k = 1; k < REORDER_LENGTH && this.reorders[r + k] >= 0; ++k) {
+        final int axis = this.reorders[r + k];
+        this.step.setRotation((float) Math.toRadians(pose[base + axis]),
+            axis == 0 ? 1 : 0, axis == 1 ? 1 : 0, axis == 2 ? 1 : 0);
+        this.composed.multiply(this.step, this.composed);
+      }
+      this.composed.toEulerAngles(pose, base);
+    }
+  }
+
+  /**
+   * Reads the line of the next frame, skipping blank lines, and records its
+   * offset if it is due to be recorded.
+   *
+   * @return The length of the line, or -1 at the end of the file.
+   * @throws IOException
+   *           If the file cannot be read.
+   */
+  private int readFrameLine() throws IOException {
+    if (this.frameCount >= 0 && this.nextFrame >= this.frameCount) {
+      return -1;
+    }
+    int length;
+    do {
+      length = this.readLine();
+    } while (length == 0);
+    if (length < 0) {
+      return -1;
+    }
+    if (this.nextFrame % SEEK_INTERVAL == 0) {
+      final long entry = this.nextFrame / SEEK_INTERVAL;
+      if (entry == this.seekCount) {
+        if (this.seekCount == this.seekOffsets.length) {
+          this.seekOffsets = Arrays.copyOf(this.seekOffsets,
+              2 * this.seekCount);
+        }
+        this.seekOffsets[this.seekCount] = this.lineStart;
+        this.seekCount += 1;
+      }
+    }
+    this.nextFrame += 1;
+    return length;
+  }
+
+  /**
+   * Reads the next non-blank line of the header, trimmed.
+   *
+   * @return The line, or {@code null} at the end of the file.
+   * @throws IOException
+   *           If the file cannot be read.
+   */
+  private String readHeaderLine() throws IOException {
+    while (true) {
+      final int length = this.readLine();
+      if (length < 0) {
+        return null;
+      }
+      final String line = new String(this.line, 0, length, "UTF-8").trim();
+      if (line.length() > 0) {
+        return line;
+      }
+    }
+  }
+
+  /**
+   * Reads the next line of the file into {@link #line}, without its line
+   * terminator.
+   *
+   * @return The length of the line, or -1 at the end of the file.
+   * @throws IOException
+   *           If the file cannot be read.
+   */
+  private int readLine() throws IOException {
+    this.lineStart = this.offset;
+    int length = 0;
+    while (true) {
+      if (!this.buffer.hasRemaining()) {
+        this.buffer.clear();
+        final int read = this.channel.read(this.buffer);
+        this.buffer.flip();
+        if (read <= 0) {
+          return length == 0 && this.offset == this.lineStart ? -1 : length;
+        }
+      }
+      final byte b = this.buffer.get();
+      this.offset += 1;
+      if (b == '\n') {
+        return length;
+      } else if (b != '\r') {
+        if (length == this.line.length) {
+          this.line = Arrays.copyOf(this.line, 2 * length);
+        }
+        this.line[length] = b;
+        length += 1;
+      }
+    }
+  }
+
+  /**
+   * Moves to the specified frame, so that it is the next frame read.
+   *
+   * Frames are skipped from the nearest recorded offset before the frame,
+   * and offsets are recorded as they are skipped. Seeking past the end of
+   * the file moves to its end.
+   *
+   * @param frame
+   *          The index of the frame to which to move.
+   * @throws IOException
+   *           If the file cannot be read.
+   */
+  public void seek(final long frame) throws IOException {
+    final long target = Math.max(0, frame);
+    final int entry = (int) Math.min(target / SEEK_INTERVAL,
+        this.seekCount - 1);
+    final long entryFrame = (long) entry * SEEK_INTERVAL;
+    if (target < this.nextFrame || entryFrame > this.nextFrame) {
+      this.position(this.seekOffsets[entry]);
+      this.nextFrame = entryFrame;
+    }
+    while (this.nextFrame < target) {
+      if (this.readFrameLine() < 0) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    return "MotionFile[file=" + this.fileName + ", format="
+        + (this.bvh ? "BVH" : "CSV") + ", channels=" + this.targets.length
+        + ", matched=" + this.matchedChannels + ", reordered="
+        + this.reorders.length / REORDER_LENGTH + ", frameSeconds="
+        + this.frameSeconds + ", frames=" + this.frameCount + "]";
+  }
+}
@@ -0,0 +1,326 @@
+/**
+ * MotionPlayback.java - plays a motion file as a simulation
+ */
+
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A simulation which plays the frames of a {@link MotionFile}, read ahead on
+ * a thread of its own into a {@link FrameRing}, so that neither the
+ * simulation thread nor the drawing thread ever waits for the file.
+ *
+ * The reading thread parses frames until the ring is full and then waits
+ * for the simulation to take some, so the memory used does not depend on
+ * the length of the file. The simulation advances a playback clock by the
+ * step time multiplied by the playback rate, and takes every frame up to the
+ * clock, holding the last one if the reader falls behind. Seeking is handed
+ * to the reading thread with a new epoch, and frames of earlier epochs still
+ * in the ring are discarded.
+ */
+public class MotionPlayback implements Simulation, Runnable {
+  /** The number of frames read ahead of playback. */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  /** The error which stopped the reading thread, or {@code null}. */
+  private volatile IOException error = null;
+  /** The file from which frames are read. */
+  private final MotionFile file;
+  /** Whether the end of the current epoch has been played. */
+  private boolean finished = false;
+  /** The pose which the reading thread fills before putting it. */
+  private final double[] frame;
+  /** The frame most recently taken, which is written by each step. */
+  private final double[] current;
+  /** The lock guarding the requested seek. */
+  private final Object lock = new Object();
+  /** The epoch of the frames being played. */
+  private int playEpoch = 0;
+  /** The position of the playback clock, in frames. */
+  private double playFrame = 0;
+  /** The time in the file of the frame most recently taken, in seconds. */
+  private volatile double position = 0;
+  /** The rate at which the clock advances, relative to real time. */
+  private volatile double rate = 1;
+  /** The thread which reads frames, or {@code null} if not started. */
+  private volatile Thread reader = null;
+  /** Whether the reading thread is waiting for room in the ring. */
+  private volatile boolean readerWaiting = false;
+  /** The queue of frames read ahead. */
+  private final FrameRing ring;
+  /** Whether the reading thread should keep running. */
+  private volatile boolean running = false;
+  /** The epoch of the most recently requested seek. */
+  private volatile int seekEpoch = 0;
+  /** The frame to which the most recent seek moves. */
+  private long seekFrame = 0;
+  /** Whether the frame sought has not yet been taken. */
+  private boolean seeking = false;
+
+  /**
+   * Instantiates this playback of the specified file, starting from the
+   * specified pose.
+   *
+   * @param file
+   *          The file to play, positioned at its first frame.
+   * @param initialPose
+   *          The pose of the joints not matched to any channel of the file.
+   * @param capacity
+   *          The number of frames to read ahead.
+   */
+  public MotionPlayback(final MotionFile file, final double[] initialPose,
+      final int capacity) {
+    this(file, initialPose, new FrameRing(capacity, initialPose.length));
+  }
+
+  /**
+   * Instantiates this playback of the specified file into the specified
+   * queue, starting from the specified pose.
+   *
+   * @param file
+   *          The file to play, positioned at its first frame.
+   * @param initialPose
+   *          The pose of the joints not matched to any channel of the file.
+   * @param ring
+   *          The queue of frames read ahead, whose frames are the length of
+   *          the pose.
+   */
+  MotionPlayback(final MotionFile file, final double[] initialPose,
+      final FrameRing ring) {
+    this.file = file;
+    this.frame = initialPose.clone();
+    this.current = initialPose.clone();
+    this.ring = ring;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The generation is incremented by each seek.
+   *
+   * @return {@inheritDoc}
+   */
+  @Override
+  public long generation() {
+    return this.seekEpoch;
+  }
+
+  /**
+   * Gets the position of playback.
+   *
+   * @return The time in the file of the frame being played, in seconds.
+   */
+  public double position() {
+    return this.position;
+  }
+
+  /**
+   * Gets the rate of playback.
+   *
+   * @return The rate of playback relative to real time.
+   */
+  public double rate() {
+    return this.rate;
+  }
+
+  /**
+   * Reads frames into the ring until {@link #stop()} is called, waiting
+   * while the ring is full or the end of the file has been read, and moving
+   * within the file whenever a seek is requested.
+   */
+  @Override
+  public void run() {
+    int epoch = 0;
+    boolean ended = false;
+    try {
+      while (this.running) {
+        if (this.seekEpoch != epoch) {
+          final long target;
+          synchronized (this.lock) {
+            epoch = this.seekEpoch;
+            target = this.seekFrame;
+          }
+          this.file.seek(target);
+          ended = false;
+        }
+
+        if (ended || this.ring.isFull()) {
+          this.readerWaiting = true;
+          if (this.running && this.seekEpoch == epoch
+              && (ended || this.ring.isFull())) {
+            LockSupport.park(this);
+          }
+          this.readerWaiting = false;
+          continue;
+        }
+
+        final long index = this.file.frame();
+        if (this.file.readFrame(this.frame)) {
+          this.ring.offer(this.frame, index, epoch);
+        } else {
+          this.ring.offer(null, FrameRing.END_OF_STREAM, epoch);
+          ended = true;
+        }
+      }
+    } catch (final IOException exception) {
+      this.error = exception;
+    }
+  }
+
+  /**
+   * Moves playback to the specified time in the file.
+   *
+   * This method may be called from any thread. The simulation loop must be
+   * woken afterwards so that the new position is shown even while paused.
+   *
+   * @param seconds
+   *          The time to which to move, in seconds.
+   */
+  public void seek(final double seconds) {
+    synchronized (this.lock) {
+      this.seekFrame = Math.max(0,
+          Math.round(seconds / this.file.frameSeconds()));
+      this.seekEpoch += 1;
+    }
+    LockSupport.unpark(this.reader);
+  }
+
+  /**
+   * Sets the rate of playback.
+   *
+   * This method may be called from any thread. The simulation loop must be
+   * woken afterwards if the rate was 0.
+   *
+   * @param rate
+   *          The rate of playback relative to real time, or 0 to pause.
+   * @throws IllegalArgumentException
+   *           If the rate is negative.
+   */
+  public void setRate(final double rate) {
+    if (!(rate >= 0)) {
+      throw new IllegalArgumentException("Invalid rate " + rate);
+    }
+    this.rate = rate;
+  }
+
+  /**
+   * Starts the thread which reads frames.
+   *
+   * @throws IllegalStateException
+   *           If this playback has already been started.
+   */
+  public synchronized void start() {
+    if (this.reader != null) {
+      throw new IllegalStateException("Motion playback already started");
+    }
+    this.running = true;
+    this.reader = new Thread(this, "MotionPlayback");
+    this.reader.setDaemon(true);
+    this.reader.start();
+  }
+
+  /**
+   * Advances the playback clock and writes the latest frame due.
+   *
+   * @param seconds
+   *          {@inheritDoc}
+   * @param pose
+   *          {@inheritDoc}
+   * @return {@inheritDoc}
+   */
+  @Override
+  public boolean step(final double seconds, final double[] pose) {
+    if (this.seekEpoch != this.playEpoch) {
+      synchronized (this.lock) {
+        this.playEpoch = this.seekEpoch;
+        this.playFrame = this.seekFrame;
+      }
+      this.finished = false;
+      this.seeking = true;
+    }
+    final double rate = this.rate;
+    if (this.finished || (rate == 0 && !this.seeking)) {
+      return false;
+    }
+    if (!this.seeking) {
+      this.playFrame += seconds * rate / this.file.frameSeconds();
+    }
+
+    // take every frame up to the clock, discarding those of earlier epochs;
+    // frames of a later epoch mean a seek arrived after the check above, so
+    // they are left for the next step to play once it has moved to the seek
+    boolean removed = false;
+    while (!this.ring.isEmpty()) {
+      final int age = this.playEpoch - this.ring.epoch();
+      if (age > 0) {
+        this.ring.skip();
+        removed = true;
+        continue;
+      } else if (age < 0) {
+        break;
+      }
+      final long index = this.ring.frame();
+      if (index == FrameRing.END_OF_STREAM) {
+        this.ring.skip();
+        removed = true;
+        this.finished = true;
+        this.seeking = false;
+        break;
+      } else if (index > this.playFrame) {
+        break;
+      }
+      this.ring.take(this.current);
+      this.position = index * this.file.frameSeconds();
+      this.seeking = false;
+      removed = true;
+    }
+    if (removed && this.readerWaiting) {
+      LockSupport.unpark(this.reader);
+    }
+    if (this.ring.isEmpty() && this.error != null) {
+      this.finished = true;
+    }
+
+    System.arraycopy(this.current, 0, pose, 0, pose.length);
+    return true;
+  }
+
+  /**
+   * Stops the thread which reads frames and waits for it to finish, then
+   * closes the file.
+   */
+  public void stop() {
+    final Thread stopping;
+    synchronized (this) {
+      this.running = false;
+      stopping = this.reader;
+    }
+    if (stopping != null) {
+      LockSupport.unpark(stopping);
+      try {
+        stopping.join();
+      } catch (final InterruptedException exception) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    try {
+      this.file.close();
+    } catch (final IOException exception) {
+      this.error = exception;
+    }
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    return "MotionPlayback[" + this.file + ", position=" + this.position
+        + "s, rate=" + this.rate + ", buffered=" + this.ring.depth() + "/"
+        + this.ring.capacity() + (this.error == null ? "" : ", error="
+        + this.error.getMessage()) + "]";
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * MotionPlaybackCheck.java - checks that playback survives a racing seek
+ */
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Checks that a {@link MotionPlayback} plays the frame sought when the
+ * reading thread has already put frames of the new seek into the ring by the
+ * time the simulation takes frames from it, which happens when the seek
+ * arrives while the simulation is stepping.
+ *
+ * The ring is filled by this check instead of by the reading thread, so that
+ * the frames of the later epoch are in the ring before the seek is seen. The
+ * check exits with a nonzero status if the frame sought is not played.
+ *
+ * Run with {@code java MotionPlaybackCheck}.
+ */
+public class MotionPlaybackCheck {
+
+  /** The number of frames in the recording. */
+  public static final int FRAMES = 64;
+  /** The frame to which the check seeks. */
+  public static final int TARGET = 40;
+
+  /**
+   * Runs the check and prints the position played after the seek.
+   *
+   * @param args
+   *          This parameter is ignored.
+   * @throws IOException
+   *           If the recording cannot be written or read.
+   */
+  public static void main(final String[] args) throws IOException {
+    final File file = File.createTempFile("motion", ".csv");
+    file.deleteOnExit();
+    final Writer writer = new FileWriter(file);
+    try {
+      writer.write("joint.x\n");
+      for (int i = 0; i < FRAMES; ++i) {
+        writer.write(i + "\n");
+      }
+    } finally {
+      writer.close();
+    }
+
+    final JointRegistry registry = new JointRegistry(new Component(
+        new Point3D(0, 0, 0), "joint"));
+    final MotionFile motion = MotionFile.open(file, registry);
+    final double[] pose = registry.newPose();
+    final FrameRing ring = new FrameRing(MotionPlayback.DEFAULT_CAPACITY,
+        pose.length);
+    final MotionPlayback playback = new MotionPlayback(motion, pose, ring);
+
+    // the frames which the reading thread puts after the first seek
+    for (int i = TARGET; i < FRAMES; ++i) {
+      pose[0] = i;
+      ring.offer(pose, i, 1);
+    }
+    ring.offer(null, FrameRing.END_OF_STREAM, 1);
+
+    // a step which began before the seek, then the seek, then the next step
+    playback.step(MotionFile.DEFAULT_FRAME_SECONDS, pose);
+    playback.seek(TARGET * motion.frameSeconds());
+    playback.step(MotionFile.DEFAULT_FRAME_SECONDS, pose);
+    playback.stop();
+
+    final boolean played = pose[0] == TARGET
+        && playback.position() == TARGET * motion.frameSeconds();
+    System.out.println("position: " + playback.position() + "s, angle: "
+        + pose[0]);
+    System.out.println(played ? "OK" : "FAILED");
+    if (!played) {
+      System.exit(1);
+    }
+  }
+}
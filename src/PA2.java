@@ -23,12 +23,16 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import javax.media.opengl.GL;
@@ -40,7 +44,6 @@ import javax.media.opengl.GLEventListener;
 import javax.media.opengl.glu.GLU;
 import javax.swing.JFrame;
 
-import com.jogamp.opengl.util.FPSAnimator;//for new version of gl
 import com.jogamp.opengl.util.gl2.GLUT;//for new version of gl
 
 /**
@@ -128,49 +131,126 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
 
   /** The color for components which are selected for rotation. */
   public static final FloatColor ACTIVE_COLOR = FloatColor.RED;
-  /** The radius of the components which comprise the arm. */
-  public static final double ARM_RADIUS = 0.25;
   /** The default width of the created window. */
   public static final int DEFAULT_WINDOW_HEIGHT = 512;
   /** The default height of the created window. */
   public static final int DEFAULT_WINDOW_WIDTH = 512;
-  /** The height of the distal joint on each of the fingers. */
-  public static final double DISTAL_JOINT_HEIGHT = 0.2;
-  /** The radius of each joint which comprises the finger. */
-  public static final double FINGER_RADIUS = 0.09;
-  /** The height of the forearm. */
-  public static final double FOREARM_HEIGHT = 1.5;
-  /** The radius of the hand. */
-  public static final double HAND_RADIUS = 0.5;
+  /** The distance from the camera to the origin of the scene. */
+  public static final double EYE_DISTANCE = 12;
+  /** The vertical field of view of the camera, in degrees. */
+  public static final double FIELD_OF_VIEW = 25;
+  /**
+   * The points to which the tips of the pinky, ring, middle, and index
+   * fingers and the thumb are brought to grasp, in the coordinate system of
+   * the hand, three per finger.
+   */
+  private static final double[] GRASP_TARGETS = { -0.3, -0.35, 0.95, -0.1,
+      -0.4, 1.1, 0.1, -0.4, 1.15, 0.3, -0.35, 1.0, 0.3, -0.3, 0.7 };
+  /** The largest number of passes over each finger to solve a grasp. */
+  public static final int GRASP_ITERATIONS = 16;
+  /** The distance from its target at which a fingertip is close enough. */
+  public static final double GRASP_TOLERANCE = 1e-3;
   /** The color for components which are not selected for rotation. */
   public static final FloatColor INACTIVE_COLOR = FloatColor.ORANGE;
-  /** The initial position of the top level component in the scene. */
-  public static final Point3D INITIAL_POSITION = new Point3D(2, 0, 2);
-  /** The height of the middle joint on each of the fingers. */
-  public static final double MIDDLE_JOINT_HEIGHT = 0.25;
-  /** The height of the palm joint on each of the fingers. */
-  public static final double PALM_JOINT_HEIGHT = 0.25;
+  /** The maximum number of input commands waiting to be applied. */
+  public static final int INPUT_QUEUE_CAPACITY = 1024;
+  /** The maximum number of frames drawn per second. */
+  public static final int MAXIMUM_FRAMES_PER_SECOND = 60;
+  /** The time by which to move backward or forward in a motion file. */
+  public static final double MOTION_SEEK_SECONDS = 5;
+  /** The time taken to move smoothly from one test pose to the next. */
+  public static final double POSE_TRANSITION_SECONDS = 0.6;
   /** The angle by which to rotate the joint on user request to rotate. */
   public static final double ROTATION_ANGLE = 13.0;
+  /**
+   * The name of the resource describing the skeleton of the arm, which is
+   * looked up on the class path next to this class. If it is not there, as
+   * when the classes are compiled into a separate directory without copying
+   * the resource, the skeleton is read from {@link #SKELETON_FILES} instead.
+   */
+  public static final String SKELETON_RESOURCE = "hand.skeleton";
+  /**
+   * The paths, relative to the working directory, at which to look for the
+   * skeleton file if {@link #SKELETON_RESOURCE} is not on the class path:
+   * the source directory when run from the root of the project, and the
+   * working directory itself when run from the source directory.
+   */
+  private static final String[] SKELETON_FILES = { "src/hand.skeleton",
+      "hand.skeleton" };
   /** Randomly generated serial version UID. */
   private static final long serialVersionUID = -7060944143920496524L;
-  /** The height of the upper arm. */
-  public static final double UPPER_ARM_HEIGHT = 1.8;
+  /** The length of each step of the simulation thread, in seconds. */
+  public static final double SIMULATION_STEP_SECONDS = 1.0 / 120;
+  /** The angle by which to rotate the world per pixel the mouse is dragged. */
+  public static final double VIEWING_DEGREES_PER_PIXEL = 0.5;
 
   /**
    * Runs the hand simulation in a single JFrame.
    * 
    * @param args
-   *          This parameter is ignored.
+   *          The path of a BVH or CSV motion file to play, or of a pose
+   *          library file through which to cycle instead of the test cases,
+   *          if any.
    */
   public static void main(final String[] args) {
-    new PA2().animator.start();
+    final PA2 pa2 = new PA2();
+    if (args.length > 0) {
+      final File file = new File(args[0]);
+      final String name = file.getName().toLowerCase();
+      try {
+        if (name.endsWith(".bvh") || name.endsWith(".csv")) {
+          pa2.openMotionFile(file);
+        } else {
+          pa2.openPoseLibrary(file);
+        }
+      } catch (final IOException exception) {
+        System.err.println("Using the test cases: " + exception.getMessage());
+      }
+    }
+    pa2.simulationLoop.start();
+    pa2.renderScheduler.start();
   }
 
   /**
-   * The animator which controls the framerate at which the canvas is animated.
+   * Loads the skeleton of the arm from {@link #SKELETON_RESOURCE} on the
+   * class path or, if it is not there, from the first of
+   * {@link #SKELETON_FILES} which exists.
+   * 
+   * @param glut
+   *          The OpenGL utility toolkit object for drawing the shapes.
+   * @param geometryCache
+   *          The cache in which to share the shapes of the joints.
+   * @return The skeleton of the arm.
+   * @throws IOException
+   *           If the skeleton cannot be found, cannot be read, or is invalid.
    */
-  final FPSAnimator animator;
+  private static Skeleton loadSkeleton(final GLUT glut,
+      final GeometryCache geometryCache) throws IOException {
+    final InputStream stream = PA2.class
+        .getResourceAsStream(SKELETON_RESOURCE);
+    if (stream != null) {
+      return Skeleton.load(stream, SKELETON_RESOURCE, glut, geometryCache);
+    }
+    for (final String path : SKELETON_FILES) {
+      final File file = new File(path);
+      if (file.isFile()) {
+        return Skeleton.load(file, glut, geometryCache);
+      }
+    }
+    throw new FileNotFoundException(SKELETON_RESOURCE
+        + " is neither on the class path nor at "
+        + Arrays.toString(SKELETON_FILES));
+  }
+
+  /**
+   * Redraws the canvas when the scene changes or while an animation plays.
+   */
+  final RenderScheduler renderScheduler;
+  /** Advances the pose animation on a thread of its own. */
+  final SimulationLoop simulationLoop;
+  /** Plays the animations which move the model between poses. */
+  private final AnimationSimulation animationSimulation =
+      new AnimationSimulation();
   /** The canvas on which we draw the scene. */
   private final GLCanvas canvas;
   /** The capabilities of the canvas. */
@@ -179,12 +259,39 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
   private final Finger[] fingers;
   /** The forearm to be modeled. */
   private final Component forearm;
+  /** Solves the angles of all the fingers at once to grasp. */
+  private final ParallelChainSolver graspSolver;
+  /** The world positions of the grasp targets of the fingers. */
+  private final double[] graspTargets = new double[GRASP_TARGETS.length];
   /** The OpenGL utility object. */
   private final GLU glu = new GLU();
   /** The OpenGL utility toolkit object. */
   private final GLUT glut = new GLUT();
+  /** Records the model as an optimized stream of commands, if enabled. */
+  private final CommandBuffer commandBuffer = new CommandBuffer();
+  /** Finds where the fingers and the palm interpenetrate. */
+  private final CollisionDetector collisionDetector;
+  /** Finds the component under the mouse. */
+  private final RayPicker rayPicker;
+  /** The shapes of the components, shared by collisions and picking. */
+  private final ShapeHierarchy shapeHierarchy;
+  /**
+   * Whether to look for collisions each time the model changes and reject
+   * rotations which would make the model interpenetrate more deeply.
+   */
+  private boolean detectCollisions = false;
+  /** The backend which compiles call lists in the current OpenGL context. */
+  private DisplayListBackend displayListBackend = null;
+  /** The cache of compiled geometry shared by all the shapes in the model. */
+  private final GeometryCache geometryCache = new GeometryCache();
   /** The hand to be modeled. */
   private final Component hand;
+  /** The input commands waiting to be applied by the drawing thread. */
+  private final CommandQueue inputQueue = new CommandQueue(
+      INPUT_QUEUE_CAPACITY);
+  /** Chooses the level of detail at which to draw each shape. */
+  private final LevelOfDetail levelOfDetail = new LevelOfDetail(
+      FIELD_OF_VIEW, DEFAULT_WINDOW_HEIGHT, EYE_DISTANCE);
   /** The last x and y coordinates of the mouse press. */
   private int last_x = 0, last_y = 0;
   /** Whether the world is being rotated. */
@@ -202,6 +309,11 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
   private final Set<Finger> selectedFingers = new HashSet<Finger>(5);
   /** Whether the state of the model has been changed. */
   private boolean stateChanged = true;
+  /**
+   * Whether to draw the model by replaying {@link #commandBuffer} instead of
+   * calling the call lists of the components.
+   */
+  private boolean useCommandBuffer = false;
   /**
    * The top level component in the scene which controls the positioning and
    * rotation of everything in the scene.
@@ -210,7 +322,17 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
   /** The upper arm to be modeled. */
   private final Component upperArm;
   /** The quaternion which controls the rotation of the world. */
-  private Quaternion viewing_quaternion = new Quaternion();
+  private final Quaternion viewing_quaternion = new Quaternion();
+  /** The rotation of the world as a matrix, recomputed each frame. */
+  private final float[] viewingMatrix = new float[16];
+  /** The height of the viewport, in pixels. */
+  private int viewportHeight = DEFAULT_WINDOW_HEIGHT;
+  /** The width of the viewport, in pixels. */
+  private int viewportWidth = DEFAULT_WINDOW_WIDTH;
+  /** The distance the mouse has been dragged since the last frame. */
+  private final DragAccumulator dragAccumulator = new DragAccumulator();
+  /** Scratch space for the rotation caused by dragging the mouse. */
+  private final Quaternion dragRotation = new Quaternion();
   /** The set of all components. */
   private final List<Component> components;
 
@@ -249,64 +371,42 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
     this.canvas.setAutoSwapBufferMode(true);
     this.getContentPane().add(this.canvas);
 
-    // refresh the scene at 60 frames per second
-    this.animator = new FPSAnimator(this.canvas, 60);
+    // redraw the scene only when it changes, at most 60 frames per second
+    this.renderScheduler = new RenderScheduler(this.canvas,
+        MAXIMUM_FRAMES_PER_SECOND);
 
     this.setTitle("CS480/CS680 : Hand Simulator");
     this.setSize(DEFAULT_WINDOW_WIDTH, DEFAULT_WINDOW_HEIGHT);
     this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     this.setVisible(true);
 
-    // all the distal joints
-    final Component distal1 = new Component(new Point3D(0, 0,
-        MIDDLE_JOINT_HEIGHT), new RoundedCylinder(FINGER_RADIUS,
-        DISTAL_JOINT_HEIGHT, this.glut), PINKY_DISTAL_NAME);
-    final Component distal2 = new Component(new Point3D(0, 0,
-        MIDDLE_JOINT_HEIGHT), new RoundedCylinder(FINGER_RADIUS,
-        DISTAL_JOINT_HEIGHT, this.glut), RING_DISTAL_NAME);
-    final Component distal3 = new Component(new Point3D(0, 0,
-        MIDDLE_JOINT_HEIGHT), new RoundedCylinder(FINGER_RADIUS,
-        DISTAL_JOINT_HEIGHT, this.glut), MIDDLE_DISTAL_NAME);
-    final Component distal4 = new Component(new Point3D(0, 0,
-        MIDDLE_JOINT_HEIGHT), new RoundedCylinder(FINGER_RADIUS,
-        DISTAL_JOINT_HEIGHT, this.glut), INDEX_DISTAL_NAME);
-    final Component distal5 = new Component(new Point3D(0, 0,
-        MIDDLE_JOINT_HEIGHT), new RoundedCylinder(FINGER_RADIUS,
-        DISTAL_JOINT_HEIGHT, this.glut), THUMB_DISTAL_NAME);
-
-    // all the middle joints
-    final Component middle1 = new Component(new Point3D(0, 0,
-        PALM_JOINT_HEIGHT), new RoundedCylinder(FINGER_RADIUS,
-        MIDDLE_JOINT_HEIGHT, this.glut), PINKY_MIDDLE_NAME);
-    final Component middle2 = new Component(new Point3D(0, 0,
-        PALM_JOINT_HEIGHT), new RoundedCylinder(FINGER_RADIUS,
-        MIDDLE_JOINT_HEIGHT, this.glut), RING_MIDDLE_NAME);
-    final Component middle3 = new Component(new Point3D(0, 0,
-        PALM_JOINT_HEIGHT), new RoundedCylinder(FINGER_RADIUS,
-        MIDDLE_JOINT_HEIGHT, this.glut), MIDDLE_MIDDLE_NAME);
-    final Component middle4 = new Component(new Point3D(0, 0,
-        PALM_JOINT_HEIGHT), new RoundedCylinder(FINGER_RADIUS,
-        MIDDLE_JOINT_HEIGHT, this.glut), INDEX_MIDDLE_NAME);
-    final Component middle5 = new Component(new Point3D(0, 0,
-        PALM_JOINT_HEIGHT), new RoundedCylinder(FINGER_RADIUS,
-        MIDDLE_JOINT_HEIGHT, this.glut), THUMB_MIDDLE_NAME);
-
-    // all the palm joints, displaced by various amounts from the palm
-    final Component palm1 = new Component(new Point3D(-0.3, 0, 0.7),
-        new RoundedCylinder(FINGER_RADIUS, PALM_JOINT_HEIGHT, this.glut),
-        PINKY_PALM_NAME);
-    final Component palm2 = new Component(new Point3D(-.1, 0, 0.9),
-        new RoundedCylinder(FINGER_RADIUS, PALM_JOINT_HEIGHT, this.glut),
-        RING_PALM_NAME);
-    final Component palm3 = new Component(new Point3D(0.1, 0, 0.95),
-        new RoundedCylinder(FINGER_RADIUS, PALM_JOINT_HEIGHT, this.glut),
-        MIDDLE_PALM_NAME);
-    final Component palm4 = new Component(new Point3D(0.3, 0, 0.75),
-        new RoundedCylinder(FINGER_RADIUS, PALM_JOINT_HEIGHT, this.glut),
-        INDEX_PALM_NAME);
-    final Component palm5 = new Component(new Point3D(0.24, 0, 0.23),
-        new RoundedCylinder(FINGER_RADIUS, PALM_JOINT_HEIGHT, this.glut),
-        THUMB_PALM_NAME);
+    // build the arm and hand from the skeleton file
+    final Skeleton skeleton;
+    try {
+      skeleton = loadSkeleton(this.glut, this.geometryCache);
+    } catch (final IOException exception) {
+      throw new IllegalStateException("Cannot load the hand skeleton",
+          exception);
+    }
+    this.topLevelComponent = skeleton.joint(TOP_LEVEL_NAME);
+    this.upperArm = skeleton.joint(UPPER_ARM_NAME);
+    this.forearm = skeleton.joint(FOREARM_NAME);
+    this.hand = skeleton.joint(HAND_NAME);
+    final Component palm1 = skeleton.joint(PINKY_PALM_NAME);
+    final Component middle1 = skeleton.joint(PINKY_MIDDLE_NAME);
+    final Component distal1 = skeleton.joint(PINKY_DISTAL_NAME);
+    final Component palm2 = skeleton.joint(RING_PALM_NAME);
+    final Component middle2 = skeleton.joint(RING_MIDDLE_NAME);
+    final Component distal2 = skeleton.joint(RING_DISTAL_NAME);
+    final Component palm3 = skeleton.joint(MIDDLE_PALM_NAME);
+    final Component middle3 = skeleton.joint(MIDDLE_MIDDLE_NAME);
+    final Component distal3 = skeleton.joint(MIDDLE_DISTAL_NAME);
+    final Component palm4 = skeleton.joint(INDEX_PALM_NAME);
+    final Component middle4 = skeleton.joint(INDEX_MIDDLE_NAME);
+    final Component distal4 = skeleton.joint(INDEX_DISTAL_NAME);
+    final Component palm5 = skeleton.joint(THUMB_PALM_NAME);
+    final Component middle5 = skeleton.joint(THUMB_MIDDLE_NAME);
+    final Component distal5 = skeleton.joint(THUMB_DISTAL_NAME);
 
     // put together the fingers for easier selection by keyboard input later on
     this.fingers = new Finger[] { new Finger(palm1, middle1, distal1),
@@ -314,121 +414,53 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
         new Finger(palm3, middle3, distal3),
         new Finger(palm4, middle4, distal4),
         new Finger(palm5, middle5, distal5), };
-
-    // the hand, which models the wrist joint
-    this.hand = new Component(new Point3D(0, 0, FOREARM_HEIGHT), new Palm(
-        HAND_RADIUS, this.glut), HAND_NAME);
-
-    // the forearm, which models the elbow joint
-    this.forearm = new Component(new Point3D(0, 0, UPPER_ARM_HEIGHT),
-        new RoundedCylinder(ARM_RADIUS, FOREARM_HEIGHT, this.glut),
-        FOREARM_NAME);
-
-    // the upper arm which models the shoulder joint
-    this.upperArm = new Component(new Point3D(0, 0, 0), new RoundedCylinder(
-        ARM_RADIUS, UPPER_ARM_HEIGHT, this.glut), UPPER_ARM_NAME);
-
-    // the top level component which provides an initial position and rotation
-    // to the scene (but does not cause anything to be drawn)
-    this.topLevelComponent = new Component(INITIAL_POSITION, TOP_LEVEL_NAME);
-
-    this.topLevelComponent.addChild(this.upperArm);
-    // the funny bone's connected to the...forearm
-    this.upperArm.addChild(this.forearm);
-    // the forearm's connected to the...wrist bone
-    this.forearm.addChild(this.hand);
-    // the wrist bone's connected to the...fingers
-    this.hand.addChildren(palm1, palm2, palm3, palm4, palm5);
-    palm1.addChild(middle1);
-    palm2.addChild(middle2);
-    palm3.addChild(middle3);
-    palm4.addChild(middle4);
-    palm5.addChild(middle5);
-    middle1.addChild(distal1);
-    middle2.addChild(distal2);
-    middle3.addChild(distal3);
-    middle4.addChild(distal4);
-    middle5.addChild(distal5);
-
-    // turn the whole arm to be at an arm-like angle
-    this.topLevelComponent.rotate(Axis.Y, 225);
-    this.topLevelComponent.rotate(Axis.X, -90);
-
-    // rotate the elbow to be half bent
-    this.forearm.rotate(Axis.Y, 90);
-
-    // rotate the thumb so that it is at a thumb-like angle
-    palm5.rotate(Axis.Y, 50);
-    palm5.rotate(Axis.Z, -60);
-    
-    // set rotation limits for the shoulder
-    this.upperArm.setXPositiveExtent(45);
-    this.upperArm.setXNegativeExtent(-45);
-    this.upperArm.setYPositiveExtent(135);
-    this.upperArm.setYNegativeExtent(-135);
-    this.upperArm.setZPositiveExtent(45);
-    this.upperArm.setZNegativeExtent(-90);
-
-    // set rotation limits for the elbow
-    this.forearm.setXPositiveExtent(180);
-    this.forearm.setXNegativeExtent(0);
-    this.forearm.setYPositiveExtent(0);
-    this.forearm.setYNegativeExtent(0);
-    this.forearm.setZPositiveExtent(45);
-    this.forearm.setZNegativeExtent(-90);
-
-    // set rotation limits for the wrist
-    this.hand.setXPositiveExtent(90);
-    this.hand.setXNegativeExtent(-90);
-    this.hand.setYPositiveExtent(12);
-    this.hand.setYNegativeExtent(-12);
-    this.hand.setZPositiveExtent(0);
-    this.hand.setZNegativeExtent(0);
-
-    // set rotation limits for the palm joints of the fingers
-    for (final Component palmJoint : Arrays.asList(palm1, palm2, palm3, palm4)) {
-      palmJoint.setXPositiveExtent(90);
-      palmJoint.setXNegativeExtent(-15);
-      palmJoint.setYPositiveExtent(10);
-      palmJoint.setYNegativeExtent(-10);
-      palmJoint.setZPositiveExtent(0);
-      palmJoint.setZNegativeExtent(0);
-    }
-
-    // and set the rotation limits for the palm joint of the thumb
-    palm5.setXPositiveExtent(80);
-    palm5.setXNegativeExtent(0);
-    palm5.setYPositiveExtent(62);
-    palm5.setYNegativeExtent(38);
-    palm5.setZPositiveExtent(-60);
-    palm5.setZNegativeExtent(-60);
-
-    // set rotation limits for the middle joints of the finger
-    for (final Component middleJoint : Arrays.asList(middle1, middle2,
-        middle3, middle4, middle5)) {
-      middleJoint.setXPositiveExtent(110);
-      middleJoint.setXNegativeExtent(0);
-      middleJoint.setYPositiveExtent(0);
-      middleJoint.setYNegativeExtent(0);
-      middleJoint.setZPositiveExtent(0);
-      middleJoint.setZNegativeExtent(0);
-    }
-
-    // set rotation limits for the distal joints of the finger
-    for (final Component distalJoint : Arrays.asList(distal1, distal2,
-        distal3, distal4, distal5)) {
-      distalJoint.setXPositiveExtent(80);
-      distalJoint.setXNegativeExtent(-5);
-      distalJoint.setYPositiveExtent(0);
-      distalJoint.setYNegativeExtent(0);
-      distalJoint.setZPositiveExtent(0);
-      distalJoint.setZNegativeExtent(0);
+    final List<List<Component>> chains = new ArrayList<List<Component>>(
+        this.fingers.length);
+    for (final Finger finger : this.fingers) {
+      chains.add(finger.joints());
     }
+    this.graspSolver = new ParallelChainSolver(chains);
+    this.shapeHierarchy = new ShapeHierarchy(this.topLevelComponent);
+    this.collisionDetector = new CollisionDetector(this.shapeHierarchy,
+        CollisionDetector.DEFAULT_IGNORED_GENERATIONS);
+    this.rayPicker = new RayPicker(this.shapeHierarchy);
 
     // create the list of all the components for debugging purposes
     this.components = Arrays.asList(palm1, middle1, distal1, palm2, middle2,
         distal2, palm3, middle3, distal3, palm4, middle4, distal4, palm5,
         middle5, distal5, this.hand, this.forearm, this.upperArm);
+
+    // convert the test cases to poses indexed by joint id, in the same order
+    this.jointRegistry = new JointRegistry(this.topLevelComponent);
+    final TestCases testCases = new TestCases();
+    for (int i = 0; i < testCases.size(); ++i) {
+      this.testPoses.add(this.jointRegistry.fromMap(testCases.get(i),
+          this.jointRegistry.newPose()));
+    }
+    this.stopPose = this.jointRegistry.fromMap(testCases.stop(),
+        this.jointRegistry.newPose());
+
+    // animate the model on a separate thread, drawing each pose it publishes
+    this.poseBuffer = new PoseBuffer(this.jointRegistry.poseLength());
+    this.simulationLoop = new SimulationLoop(this.animationSimulation,
+        this.poseBuffer, SIMULATION_STEP_SECONDS, new Runnable() {
+          @Override
+          public void run() {
+            PA2.this.renderScheduler.requestRender();
+          }
+        });
+  }
+
+  /**
+   * Rotates the world by a single rotation for all the mouse drags received
+   * since the last frame, proportional to the total distance dragged.
+   * 
+   * The axis of rotation is perpendicular to the direction of the drag in
+   * the plane of the screen.
+   */
+  private void applyDrag() {
+    this.dragAccumulator.applyTo(this.viewing_quaternion, this.dragRotation,
+        VIEWING_DEGREES_PER_PIXEL);
   }
 
   /**
@@ -449,13 +481,41 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
     // start with the identity matrix initially
     gl.glLoadIdentity();
 
+    // apply all the input received since the last frame
+    this.inputQueue.drain();
+
     // rotate the world by the appropriate rotation quaternion
-    gl.glMultMatrixf(this.viewing_quaternion.toMatrix(), 0);
+    this.applyDrag();
+    this.viewing_quaternion.toMatrix(this.viewingMatrix, 0);
+    gl.glMultMatrixf(this.viewingMatrix, 0);
 
-    // update the position of the components which need to be updated
-    // TODO only need to update the selected and JUST deselected components
+    // move the joints to the latest pose from the simulation threads
+    this.applyPoseSnapshot();
+    this.applyMotionSnapshot();
+
+    // choose how finely to draw each shape given its size on the screen
+    if (this.levelOfDetail.update(this.topLevelComponent, this.viewingMatrix)) {
+      this.stateChanged = true;
+    }
+
+    // find the contacts of the pose about to be drawn, printed with the joints
+    if (this.detectCollisions && this.stateChanged) {
+      this.collisionDetector.detect();
+    }
+
+    if (this.useCommandBuffer) {
+      // record the commands for the whole model again only if it has changed
+      if (this.stateChanged) {
+        this.commandBuffer.record(this.topLevelComponent);
+        this.stateChanged = false;
+      }
+      this.commandBuffer.replay(gl);
+      return;
+    }
+
+    // recompile the call lists of only those components which have changed
     if (this.stateChanged) {
-      this.topLevelComponent.update(gl);
+      this.topLevelComponent.update(gl, this.displayListBackend);
       this.stateChanged = false;
     }
 
@@ -487,11 +547,14 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
   public void init(final GLAutoDrawable drawable) {
     final GL2 gl = (GL2)drawable.getGL();
 
+    // the backend through which call lists are compiled in this context
+    this.displayListBackend = new DisplayListBackend(gl);
+
     // perform any initialization needed by the hand model
-    this.topLevelComponent.initialize(gl);
+    this.topLevelComponent.initialize(gl, this.displayListBackend);
 
     // initially draw the scene
-    this.topLevelComponent.update(gl);
+    this.topLevelComponent.update(gl, this.displayListBackend);
 
     // set up for shaded display of the hand
     final float light0_position[] = { 1, 1, 1, 0 };
@@ -522,23 +585,39 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
    * 
    * up-arrow, down-arrow: increase/decrease rotation angle
    * 
+   * The key press is applied by {@link #pressKey(int)} on the thread which
+   * draws the scene, at the start of the next frame.
+   * 
    * @param key
    *          The key press event object.
    */
   public void keyPressed(final KeyEvent key) {
-    switch (key.getKeyCode()) {
+    final int keyCode = key.getKeyCode();
+    this.enqueue(new Command() {
+      @Override
+      public void execute() {
+        PA2.this.pressKey(keyCode);
+      }
+    });
+  }
+
+  /**
+   * Applies the key press with the specified key code, as described in
+   * {@link #keyPressed(KeyEvent)}.
+   * 
+   * @param keyCode
+   *          The code of the pressed key.
+   */
+  private void pressKey(final int keyCode) {
+    switch (keyCode) {
     case KeyEvent.VK_KP_UP:
     case KeyEvent.VK_UP:
-      for (final Component component : this.selectedComponents) {
-        component.rotate(this.selectedAxis, ROTATION_ANGLE);
-      }
+      this.rotateSelection(ROTATION_ANGLE);
       this.stateChanged = true;
       break;
     case KeyEvent.VK_KP_DOWN:
     case KeyEvent.VK_DOWN:
-      for (final Component component : this.selectedComponents) {
-        component.rotate(this.selectedAxis, -ROTATION_ANGLE);
-      }
+      this.rotateSelection(-ROTATION_ANGLE);
       this.stateChanged = true;
       break;
     default:
@@ -546,6 +625,25 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
     }
   }
 
+  /**
+   * Rotates each selected component around the selected axis by the
+   * specified angle, skipping any rotation which would make the model
+   * interpenetrate more deeply if collisions are being detected.
+   * 
+   * @param angle
+   *          The angle by which to rotate.
+   */
+  private void rotateSelection(final double angle) {
+    for (final Component component : this.selectedComponents) {
+      if (this.detectCollisions) {
+        this.collisionDetector.rotateIfFree(component, this.selectedAxis,
+            angle);
+      } else {
+        component.rotate(this.selectedAxis, angle);
+      }
+    }
+  }
+
   /**
    * This method is intentionally unimplemented.
    * 
@@ -556,28 +654,207 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
     // intentionally unimplemented
   }
 
-  private final TestCases testCases = new TestCases();
-
-  private void setModelState(final Map<String, Angled> state) {
-    this.upperArm.setAngles(state.get(UPPER_ARM_NAME));
-    this.forearm.setAngles(state.get(FOREARM_NAME));
-    this.hand.setAngles(state.get(HAND_NAME));
-    this.fingers[0].palmJoint().setAngles(state.get(PINKY_PALM_NAME));
-    this.fingers[0].middleJoint().setAngles(state.get(PINKY_MIDDLE_NAME));
-    this.fingers[0].distalJoint().setAngles(state.get(PINKY_DISTAL_NAME));
-    this.fingers[1].palmJoint().setAngles(state.get(RING_PALM_NAME));
-    this.fingers[1].middleJoint().setAngles(state.get(RING_MIDDLE_NAME));
-    this.fingers[1].distalJoint().setAngles(state.get(RING_DISTAL_NAME));
-    this.fingers[2].palmJoint().setAngles(state.get(MIDDLE_PALM_NAME));
-    this.fingers[2].middleJoint().setAngles(state.get(MIDDLE_MIDDLE_NAME));
-    this.fingers[2].distalJoint().setAngles(state.get(MIDDLE_DISTAL_NAME));
-    this.fingers[3].palmJoint().setAngles(state.get(INDEX_PALM_NAME));
-    this.fingers[3].middleJoint().setAngles(state.get(INDEX_MIDDLE_NAME));
-    this.fingers[3].distalJoint().setAngles(state.get(INDEX_DISTAL_NAME));
-    this.fingers[4].palmJoint().setAngles(state.get(THUMB_PALM_NAME));
-    this.fingers[4].middleJoint().setAngles(state.get(THUMB_MIDDLE_NAME));
-    this.fingers[4].distalJoint().setAngles(state.get(THUMB_DISTAL_NAME));
-    
+  /** The dense ids of the joints, by which poses are indexed. */
+  private final JointRegistry jointRegistry;
+  /** The pose of the stop sign test case, indexed by joint id. */
+  private final double[] stopPose;
+  /** The poses of the test cases, indexed by joint id. */
+  private final CyclicIterator<double[]> testPoses =
+      new CyclicIterator<double[]>();
+  /** The poses published by the simulation thread, indexed by joint id. */
+  private final PoseBuffer poseBuffer;
+  /** The library of poses to cycle through instead of the test cases. */
+  private PoseLibrary poseLibrary = null;
+  /** Whether the poses of the motion file are applied to the model. */
+  private boolean motionActive = false;
+  /** The poses published by the motion playback thread, or {@code null}. */
+  private PoseBuffer motionBuffer = null;
+  /** Advances the motion playback, or {@code null} if there is none. */
+  private SimulationLoop motionLoop = null;
+  /** Plays the motion file, or {@code null} if there is none. */
+  private MotionPlayback motionPlayback = null;
+  /**
+   * The rate at which the motion playback was last played, at which it
+   * resumes after being paused.
+   */
+  private double motionRate = 1;
+  /**
+   * The generation of the animation currently played, incremented each time
+   * an animation is started or stopped so that poses from an earlier
+   * animation are ignored.
+   */
+  private long poseGeneration = 0;
+
+  /**
+   * Starts moving the model smoothly from its current pose to the specified
+   * pose over {@link #POSE_TRANSITION_SECONDS}, on the simulation thread.
+   * 
+   * @param pose
+   *          The pose at the end of the animation, indexed by joint id.
+   */
+  private void animateModelState(final double[] pose) {
+    this.pauseMotion();
+    final KeyframeAnimation animation = new KeyframeAnimation(
+        this.jointRegistry.joints());
+    animation.addKeyframe(0);
+    animation.addKeyframe(POSE_TRANSITION_SECONDS, pose);
+    this.poseGeneration += 1;
+    this.animationSimulation.play(animation, this.poseGeneration);
+    this.simulationLoop.wake();
+  }
+
+  /**
+   * Bends the fingers so that their tips reach the grasp targets, as nearly
+   * as their extents allow, starting from their current angles.
+   */
+  private void grasp() {
+    this.pauseMotion();
+    this.stopPoseAnimation();
+    final double[] handTransform = this.hand.worldTransform();
+    for (int i = 0; i < GRASP_TARGETS.length; i += 3) {
+      Matrix4d.transformPoint(handTransform, 0, GRASP_TARGETS[i],
+          GRASP_TARGETS[i + 1], GRASP_TARGETS[i + 2], this.graspTargets, i);
+    }
+    this.graspSolver.load();
+    this.graspSolver.solve(this.graspTargets, GRASP_ITERATIONS,
+        GRASP_TOLERANCE);
+    this.graspSolver.store();
+    this.stateChanged = true;
+  }
+
+  /**
+   * Opens the specified pose library, through which the model cycles instead
+   * of the test cases.
+   * 
+   * This method must be called before the render scheduler is started.
+   * 
+   * @param file
+   *          The pose library file.
+   * @throws IOException
+   *           If the file cannot be read or is not a valid pose library.
+   */
+  void openPoseLibrary(final File file) throws IOException {
+    final PoseLibrary library = PoseLibrary.open(file, this.jointRegistry);
+    if (library.poseCount() == 0) {
+      library.close();
+      throw new IOException("Pose library " + file + " is empty");
+    }
+    this.poseLibrary = library;
+  }
+
+  /**
+   * Opens the specified motion file and starts playing it.
+   * 
+   * This method must be called before the render scheduler is started.
+   * 
+   * @param file
+   *          The BVH or CSV motion file.
+   * @throws IOException
+   *           If the file cannot be read or is not a valid motion file.
+   */
+  void openMotionFile(final File file) throws IOException {
+    final MotionFile motionFile = MotionFile.open(file, this.jointRegistry);
+    this.motionPlayback = new MotionPlayback(motionFile,
+        this.jointRegistry.newPose(), MotionPlayback.DEFAULT_CAPACITY);
+    this.motionBuffer = new PoseBuffer(this.jointRegistry.poseLength());
+    this.motionLoop = new SimulationLoop(this.motionPlayback,
+        this.motionBuffer, SIMULATION_STEP_SECONDS, new Runnable() {
+          @Override
+          public void run() {
+            PA2.this.renderScheduler.requestRender();
+          }
+        });
+    this.motionActive = true;
+    this.motionPlayback.start();
+    this.motionLoop.start();
+  }
+
+  /**
+   * Pauses the motion playback, if any, and stops applying its poses.
+   */
+  private void pauseMotion() {
+    if (this.motionPlayback != null) {
+      this.motionPlayback.setRate(0);
+      this.motionActive = false;
+    }
+  }
+
+  /**
+   * Resumes the motion playback, if any, at the specified rate, which is
+   * remembered as the rate at which to resume it after a pause.
+   * 
+   * @param rate
+   *          The rate of playback relative to real time.
+   */
+  private void playMotion(final double rate) {
+    if (this.motionPlayback != null) {
+      this.stopPoseAnimation();
+      this.motionPlayback.setRate(rate);
+      this.motionRate = rate;
+      this.motionActive = true;
+      this.motionLoop.wake();
+    }
+  }
+
+  /**
+   * Moves the motion playback, if any, by the specified time.
+   * 
+   * @param seconds
+   *          The time by which to move, negative to move backward.
+   */
+  private void seekMotion(final double seconds) {
+    if (this.motionPlayback != null) {
+      this.stopPoseAnimation();
+      this.motionPlayback.seek(this.motionPlayback.position() + seconds);
+      this.motionActive = true;
+      this.motionLoop.wake();
+    }
+  }
+
+  /**
+   * Sets the angles of the components to the latest pose published by the
+   * motion playback thread, if it is being applied.
+   */
+  private void applyMotionSnapshot() {
+    if (this.motionBuffer == null || !this.motionBuffer.update()
+        || !this.motionActive) {
+      return;
+    }
+    this.jointRegistry.apply(this.motionBuffer.readBuffer());
+    this.stateChanged = true;
+  }
+
+  /**
+   * Sets the angles of the components to the latest pose published by the
+   * simulation thread, if there is a new one from the current animation.
+   */
+  private void applyPoseSnapshot() {
+    if (!this.poseBuffer.update()
+        || this.poseBuffer.readTag() != this.poseGeneration) {
+      return;
+    }
+    this.jointRegistry.apply(this.poseBuffer.readBuffer());
+    this.stateChanged = true;
+  }
+
+  /**
+   * Stops the current animation, if any, so that none of its poses which are
+   * still to be published are applied.
+   */
+  private void stopPoseAnimation() {
+    this.poseGeneration += 1;
+    this.animationSimulation.play(null, this.poseGeneration);
+    this.simulationLoop.wake();
+  }
+
+  /**
+   * Sets the angles of every joint to those in the specified pose.
+   * 
+   * @param pose
+   *          The pose, indexed by the ids in {@link #jointRegistry}.
+   */
+  private void setModelState(final double[] pose) {
+    this.jointRegistry.apply(pose);
     this.stateChanged = true;
   }
 
@@ -608,6 +885,10 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
    * 
    * C : resets the hand to the stop sign
    * 
+   * G : bends the fingers to grasp
+   * 
+   * N : toggles detecting collisions and rejecting rotations which collide
+   * 
    * P : select joint that connects finger to palm
    * 
    * M : select middle joint
@@ -618,39 +899,119 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
    * 
    * K : prints the angles of the five fingers for debugging purposes
    * 
+   * B : toggles drawing through the optimized command buffer
+   * 
    * Q, Esc : exits the program
    * 
+   * Every key except those which exit is applied by {@link #typeKey(char)}
+   * on the thread which draws the scene, at the start of the next frame.
+   * 
    */
   public void keyTyped(final KeyEvent key) {
-    switch (key.getKeyChar()) {
+    final char keyChar = key.getKeyChar();
+
+    // exit immediately rather than after the commands already queued
+    switch (keyChar) {
     case 'Q':
     case 'q':
     case KeyEvent.VK_ESCAPE:
-      new Thread() {
-        @Override
-        public void run() {
-          PA2.this.animator.stop();
-        }
-      }.start();
+      // every worker thread is a daemon, so none of them keeps the virtual
+      // machine alive, and stopping them here could wait on a frame which
+      // needs this event thread to finish
       System.exit(0);
+      return;
+    default:
       break;
+    }
 
+    this.enqueue(new Command() {
+      @Override
+      public void execute() {
+        PA2.this.typeKey(keyChar);
+      }
+    });
+  }
+
+  /**
+   * Applies the typed key with the specified character, as described in
+   * {@link #keyTyped(KeyEvent)}.
+   * 
+   * @param keyChar
+   *          The character of the typed key.
+   */
+  private void typeKey(final char keyChar) {
+    switch (keyChar) {
     // print the angles of the components
     case 'K':
     case 'k':
       printJoints();
       break;
 
+    // switch between call lists and the optimized command buffer
+    case 'B':
+    case 'b':
+      this.useCommandBuffer = !this.useCommandBuffer;
+      this.stateChanged = true;
+      break;
+
     // resets to the stop sign
     case 'C':
     case 'c':
-      this.setModelState(this.testCases.stop());
+      this.pauseMotion();
+      this.stopPoseAnimation();
+      this.setModelState(this.stopPose);
+      break;
+
+    // bend the fingers to grasp
+    case 'G':
+    case 'g':
+      this.grasp();
+      break;
+
+    // detect collisions and reject rotations which cause them
+    case 'N':
+    case 'n':
+      this.detectCollisions = !this.detectCollisions;
+      this.stateChanged = true;
       break;
 
-    // set the state of the hand to the next test case
+    // move the hand smoothly to the next test case or library pose
     case 'T':
     case 't':
-      this.setModelState(this.testCases.next());
+      if (this.poseLibrary != null) {
+        this.animateModelState(this.poseLibrary.next(this.jointRegistry
+            .newPose()));
+      } else {
+        this.animateModelState(this.testPoses.next());
+      }
+      break;
+
+    // pause or resume the motion file
+    case 'V':
+    case 'v':
+      if (this.motionPlayback != null) {
+        if (this.motionActive && this.motionPlayback.rate() > 0) {
+          this.pauseMotion();
+        } else {
+          this.playMotion(this.motionRate);
+        }
+      }
+      break;
+
+    // play the motion file more slowly or more quickly
+    case '[':
+    case ']':
+      if (this.motionPlayback != null && this.motionPlayback.rate() > 0) {
+        this.playMotion(this.motionPlayback.rate()
+            * (keyChar == '[' ? 0.5 : 2));
+      }
+      break;
+
+    // move backward or forward in the motion file
+    case ',':
+    case '.':
+      this.seekMotion(keyChar == ',' ? -MOTION_SEEK_SECONDS
+          : MOTION_SEEK_SECONDS);
       break;
 
     // set the viewing quaternion to 0 rotation
@@ -724,6 +1085,20 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
     }
   }
 
+  /**
+   * Queues the specified input command to be executed at the start of the
+   * next frame, and requests that frame.
+   * 
+   * If the queue is full, the command is dropped and counted as rejected.
+   * 
+   * @param command
+   *          The command to queue.
+   */
+  private void enqueue(final Command command) {
+    this.inputQueue.offer(command);
+    this.renderScheduler.requestRender();
+  }
+
   /**
    * Prints the joints on the System.out print stream.
    */
@@ -741,20 +1116,82 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
     for (final Component component : this.components) {
       printStream.println(component);
     }
+    printStream.println(this.geometryCache);
+    printStream.println(this.renderScheduler);
+    printStream.println(this.simulationLoop);
+    printStream.println(this.inputQueue);
+    printStream.println(this.graspSolver);
+    if (this.detectCollisions) {
+      printStream.println(this.collisionDetector);
+    }
+    if (this.useCommandBuffer) {
+      printStream.println(this.commandBuffer);
+    }
+    if (this.poseLibrary != null) {
+      printStream.println(this.poseLibrary);
+    }
+    if (this.motionPlayback != null) {
+      printStream.println(this.motionLoop);
+      printStream.println(this.motionPlayback);
+    }
   }
 
   /**
-   * This method is intentionally unimplemented.
+   * Toggles the selection of the component under the mouse, if the left
+   * mouse button was clicked, at the start of the next frame.
    * 
    * @param mouse
-   *          This parameter is ignored.
+   *          The mouse click event object.
    */
-  public void mouseClicked(MouseEvent mouse) {
-    // intentionally unimplemented
+  public void mouseClicked(final MouseEvent mouse) {
+    if (mouse.getButton() != MouseEvent.BUTTON1) {
+      return;
+    }
+    final int x = mouse.getX();
+    final int y = mouse.getY();
+    this.enqueue(new Command() {
+      @Override
+      public void execute() {
+        PA2.this.pick(x, y);
+      }
+    });
   }
 
   /**
-   * Updates the rotation quaternion as the mouse is dragged.
+   * Toggles the selection of the nearest component under the specified
+   * pixel, as the scene was last drawn.
+   * 
+   * The ray from the camera through the pixel is found by undoing the
+   * perspective projection set by {@link #reshape} and then the rotation of
+   * the world, whose inverse is its transpose.
+   * 
+   * @param x
+   *          The x coordinate of the pixel, from the left of the canvas.
+   * @param y
+   *          The y coordinate of the pixel, from the top of the canvas.
+   */
+  private void pick(final int x, final int y) {
+    // the direction through the center of the pixel, relative to the camera
+    final double tangent = Math.tan(Math.toRadians(FIELD_OF_VIEW) / 2);
+    final double cx = (2 * (x + 0.5) / this.viewportWidth - 1) * tangent
+        * this.viewportWidth / this.viewportHeight;
+    final double cy = (1 - 2 * (y + 0.5) / this.viewportHeight) * tangent;
+    final double cz = -1;
+
+    // rotate the camera and the direction back into world coordinates
+    final float[] m = this.viewingMatrix;
+    final Component component = this.rayPicker.pick(EYE_DISTANCE * m[2],
+        EYE_DISTANCE * m[6], EYE_DISTANCE * m[10], m[0] * cx + m[1] * cy
+            + m[2] * cz, m[4] * cx + m[5] * cy + m[6] * cz, m[8] * cx + m[9]
+            * cy + m[10] * cz);
+    if (component != null) {
+      this.toggleSelection(component);
+    }
+  }
+
+  /**
+   * Accumulates the distance the mouse is dragged, to be applied to the
+   * rotation quaternion when the next frame is drawn.
    * 
    * @param mouse
    *          The mouse drag event object.
@@ -765,29 +1202,14 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
 		final int x = mouse.getX();
 		final int y = mouse.getY();
 	
-		// get the change in position from the previous one
-		final int dx = x - this.last_x;
-		final int dy = y - this.last_y;
-	
-		// create a unit vector in the direction of the vector (dy, dx, 0)
-		final double magnitude = Math.sqrt(dx * dx + dy * dy);
-		final float[] axis = magnitude == 0 ? new float[]{1,0,0}: // avoid dividing by 0
-			new float[] { (float) (dy / magnitude),(float) (dx / magnitude), 0 };
-	
-		// calculate appropriate quaternion
-		final float viewing_delta = 3.1415927f / 180.0f;
-		final float s = (float) Math.sin(0.5f * viewing_delta);
-		final float c = (float) Math.cos(0.5f * viewing_delta);
-		final Quaternion Q = new Quaternion(c, s * axis[0], s * axis[1], s
-				* axis[2]);
-		this.viewing_quaternion = Q.multiply(this.viewing_quaternion);
-	
-		// normalize to counteract acccumulating round-off error
-		this.viewing_quaternion.normalize();
+		// accumulate the change in position until the next frame is drawn
+		this.dragAccumulator.add(x - this.last_x, y - this.last_y);
 	
 		// save x, y as last x, y
 		this.last_x = x;
 		this.last_y = y;
+
+		this.renderScheduler.requestRender();
 	}
   }
 
@@ -867,6 +1289,8 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
 
     // prevent division by zero by ensuring window has height 1 at least
     final int newHeight = Math.max(1, height);
+    this.viewportWidth = Math.max(1, width);
+    this.viewportHeight = newHeight;
 
     // compute the aspect ratio
     final double ratio = (double) width / newHeight;
@@ -879,10 +1303,13 @@ public class PA2 extends JFrame implements GLEventListener, KeyListener,
     gl.glViewport(0, 0, width, newHeight);
 
     // set the clipping volume
-    this.glu.gluPerspective(25, ratio, 0.1, 100);
+    this.glu.gluPerspective(FIELD_OF_VIEW, ratio, 0.1, 100);
+
+    // camera positioned at (0,0,12), look at point (0,0,0), up vector (0,1,0)
+    this.glu.gluLookAt(0, 0, EYE_DISTANCE, 0, 0, 0, 0, 1, 0);
 
-    // camera positioned at (0,0,6), look at point (0,0,0), up vector (0,1,0)
-    this.glu.gluLookAt(0, 0, 12, 0, 0, 0, 0, 1, 0);
+    // shapes are drawn more coarsely as they get smaller on the screen
+    this.levelOfDetail.setPerspective(FIELD_OF_VIEW, newHeight, EYE_DISTANCE);
 
     // switch back to model coordinate system
     gl.glMatrixMode(GL2.GL_MODELVIEW);
@@ -3,8 +3,6 @@
  */
 
 
-import javax.media.opengl.GL2;
-
 import com.jogamp.opengl.util.gl2.GLUT;//for new version of gl
 
 /**
@@ -14,12 +12,32 @@ import com.jogamp.opengl.util.gl2.GLUT;//for new version of gl
  * @since Spring 2011
  */
 public class Palm extends Circular implements Displayable {
+  /** The number of slices to use when drawing the sphere. */
+  public static final int DEFAULT_SLICES = 36;
+  /** The number of stacks to use when drawing the sphere. */
+  public static final int DEFAULT_STACKS = 18;
+  /** The factor by which the sphere is scaled along the x axis. */
+  public static final double X_SCALE = 0.9;
+  /** The factor by which the sphere is scaled along the y axis. */
+  public static final double Y_SCALE = 0.5;
+  /** The factor by which the sphere is scaled along the z axis. */
+  public static final double Z_SCALE = 1;
+
+  /** The smallest number of slices to use at any level of detail. */
+  public static final int MINIMUM_SLICES = 6;
+  /** The smallest number of stacks to use at any level of detail. */
+  public static final int MINIMUM_STACKS = 3;
 
   /**
-   * The OpenGL handle to the display list which contains all the components
-   * which comprise this cylinder.
+   * The handles with which the backend draws the scaled sphere, one for each
+   * level of detail.
+   */
+  private final int[] meshHandles = new int[LEVEL_COUNT];
+  /**
+   * The triangle meshes of this palm at each level of detail, each created
+   * when first needed.
    */
-  private int callListHandle;
+  private final Mesh[] meshes = new Mesh[LEVEL_COUNT];
 
   /**
    * Instantiates this object with the specified radius and OpenGL utility
@@ -31,43 +49,122 @@ public class Palm extends Circular implements Displayable {
    *          The OpenGL utility toolkit object for drawing the sphere.
    */
   public Palm(final double radius, final GLUT glut) {
-    super(radius, glut);
+    this(radius, glut, null);
   }
 
   /**
-   * {@inheritDoc}
+   * Instantiates this object with the specified radius, sharing the compiled
+   * sphere with other palms of the same radius through the specified cache.
    * 
-   * @param gl
+   * @param radius
+   *          The radius of this object.
+   * @param glut
+   *          The OpenGL utility toolkit object for drawing the sphere.
+   * @param geometryCache
+   *          The cache in which to share the compiled sphere, or {@code null}
+   *          if this object should compile its own.
+   */
+  public Palm(final double radius, final GLUT glut,
+      final GeometryCache geometryCache) {
+    super(radius, glut, geometryCache);
+  }
+
+  /**
+   * Draws the mesh of this object at its current level of detail.
+   * 
+   * @param backend
    *          {@inheritDoc}
-   * @see edu.bu.cs.cs480.Displayable#draw(javax.media.opengl.GL)
    */
   @Override
-  public void draw(GL2 gl) {
-    gl.glCallList(this.callListHandle);
+  public void draw(final RenderBackend backend) {
+    final int level = this.level();
+    backend.drawMesh(this.mesh(level), this.meshHandles[level]);
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * The palm is drawn above the x-y plane, so its center is one radius above
+   * the origin.
+   * 
+   * @return {@inheritDoc}
+   */
+  @Override
+  public double boundingCenterZ() {
+    return this.radius();
   }
 
   /**
-   * Defines the OpenGL call list which draws a scaled sphere.
+   * Prepares the meshes of the scaled sphere to be drawn by the backend.
    * 
-   * @param gl
+   * @param backend
    *          {@inheritDoc}
+   */
+  @Override
+  public void initialize(final RenderBackend backend) {
+    for (int level = 0; level < LEVEL_COUNT; ++level) {
+      final int detail = level;
+      this.meshHandles[level] = this.prepareMesh(backend,
+          GeometryCache.Shape.ELLIPSOID, this.radius(), slices(level),
+          stacks(level), new GeometryCache.Geometry() {
+            @Override
+            public Mesh mesh() {
+              return Palm.this.mesh(detail);
+            }
+          });
+    }
+  }
+
+  /**
+   * Gets the triangle mesh of this palm at the current level of detail.
    * 
-   * @see edu.bu.cs.cs480.Displayable#initialize(javax.media.opengl.GL)
+   * @return The triangle mesh of this object.
+   */
+  public Mesh mesh() {
+    return this.mesh(this.level());
+  }
+
+  /**
+   * Gets the triangle mesh of this palm at the specified level of detail,
+   * tessellating it the first time it is requested.
+   * 
+   * The mesh is an ellipsoid created by scaling a sphere, positioned so that
+   * it lies above the x-y plane instead of being centered at the origin.
+   * 
+   * @param level
+   *          The level of detail of the mesh.
+   * @return The triangle mesh of this object at the specified level.
    */
   @Override
-  public void initialize(final GL2 gl) {
-    this.callListHandle = gl.glGenLists(1);
+  public Mesh mesh(final int level) {
+    if (this.meshes[level] == null) {
+      this.meshes[level] = new Mesh();
+      Tessellator.ellipsoid(this.meshes[level], this.radius(), X_SCALE,
+          Y_SCALE, Z_SCALE, this.radius(), slices(level), stacks(level));
+    }
+    return this.meshes[level];
+  }
+
+  /**
+   * Gets the number of slices to use at the specified level of detail.
+   * 
+   * @param level
+   *          The level of detail.
+   * @return The number of slices to use at the specified level.
+   */
+  private static int slices(final int level) {
+    return subdivisions(DEFAULT_SLICES, level, MINIMUM_SLICES);
+  }
 
-    // create an ellipsoid for the palm by scaling a sphere
-    gl.glNewList(this.callListHandle, GL2.GL_COMPILE);
-    gl.glPushMatrix();
-    // position this so that the sphere is drawn above the x-y plane, not at
-    // the origin
-    gl.glTranslated(0, 0, this.radius());
-    gl.glScalef(0.9f, 0.5f, 1);
-    this.glut().glutSolidSphere(this.radius(), 36, 18);
-    gl.glPopMatrix();
-    gl.glEndList();
+  /**
+   * Gets the number of stacks to use at the specified level of detail.
+   * 
+   * @param level
+   *          The level of detail.
+   * @return The number of stacks to use at the specified level.
+   */
+  private static int stacks(final int level) {
+    return subdivisions(DEFAULT_STACKS, level, MINIMUM_STACKS);
   }
 
 }
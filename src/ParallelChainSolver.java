@@ -0,0 +1,208 @@
+/**
+ * ParallelChainSolver.java - solves several chains of joints at once
+ */
+
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Solves the inverse kinematics of several independent chains of joints at
+ * the same time, such as the five fingers of a hand, each on a thread of a
+ * fork/join pool.
+ *
+ * The tasks which solve each chain are created once and reused for every
+ * solution, so solving does not allocate any memory. Loading and storing
+ * the angles of the chains is done on the calling thread, which must be the
+ * thread which owns the components.
+ */
+public class ParallelChainSolver {
+
+  /** Solves one chain toward its target. */
+  private final class ChainTask extends RecursiveAction {
+    /** Randomly generated serial version UID. */
+    private static final long serialVersionUID = -3419007541298306724L;
+
+    /** The index of the chain. */
+    private final int index;
+
+    /**
+     * Instantiates this task which solves the chain with the specified
+     * index.
+     *
+     * @param index
+     *          The index of the chain.
+     */
+    ChainTask(final int index) {
+      this.index = index;
+    }
+
+    /** Solves the chain toward its target. */
+    @Override
+    protected void compute() {
+      final ParallelChainSolver outer = ParallelChainSolver.this;
+      final int t = 3 * this.index;
+      outer.iterations[this.index] = outer.solvers[this.index].solve(
+          outer.targets[t], outer.targets[t + 1], outer.targets[t + 2],
+          outer.maximumIterations, outer.tolerance);
+    }
+  }
+
+  /** Solves every chain, each in a task of its own. */
+  private final class SolveTask extends RecursiveAction {
+    /** Randomly generated serial version UID. */
+    private static final long serialVersionUID = 2785236651498870139L;
+
+    /** Solves every chain and waits for all of them. */
+    @Override
+    protected void compute() {
+      final ChainTask[] tasks = ParallelChainSolver.this.tasks;
+      for (final ChainTask task : tasks) {
+        task.reinitialize();
+      }
+      invokeAll(tasks);
+    }
+  }
+
+  /** The number of passes made over each chain by the latest solution. */
+  private final int[] iterations;
+  /** The largest number of passes over each chain. */
+  private int maximumIterations = 0;
+  /** The pool of threads on which the chains are solved. */
+  private final ForkJoinPool pool;
+  /** The solvers of each chain. */
+  private final ChainSolver[] solvers;
+  /** The task which solves every chain. */
+  private final SolveTask solveTask = new SolveTask();
+  /** The targets of each chain, three per chain. */
+  private double[] targets = null;
+  /** The tasks which solve each chain. */
+  private final ChainTask[] tasks;
+  /** The distance from each target at which to stop. */
+  private double tolerance = 0;
+
+  /**
+   * Instantiates this solver for the specified chains, using as many
+   * threads as there are chains or processors, whichever is fewer.
+   *
+   * @param chains
+   *          The chains to solve, each ending at the tip of its last joint.
+   */
+  public ParallelChainSolver(final List<List<Component>> chains) {
+    this.solvers = new ChainSolver[chains.size()];
+    this.tasks = new ChainTask[chains.size()];
+    this.iterations = new int[chains.size()];
+    for (int i = 0; i < this.solvers.length; ++i) {
+      this.solvers[i] = new ChainSolver(chains.get(i));
+      this.tasks[i] = new ChainTask(i);
+    }
+    this.pool = new ForkJoinPool(Math.max(1, Math.min(this.solvers.length,
+        Runtime.getRuntime().availableProcessors())));
+  }
+
+  /**
+   * Gets the solver of the specified chain.
+   *
+   * @param index
+   *          The index of the chain.
+   * @return The solver of the chain.
+   */
+  public ChainSolver chain(final int index) {
+    return this.solvers[index];
+  }
+
+  /**
+   * Gets the number of chains.
+   *
+   * @return The number of chains.
+   */
+  public int chainCount() {
+    return this.solvers.length;
+  }
+
+  /**
+   * Gets the number of passes made over the specified chain by the most
+   * recent solution.
+   *
+   * @param index
+   *          The index of the chain.
+   * @return The number of passes made.
+   */
+  public int iterations(final int index) {
+    return this.iterations[index];
+  }
+
+  /**
+   * Copies the current angles of every chain from its components.
+   *
+   * This method must be called on the thread which owns the components.
+   */
+  public void load() {
+    for (final ChainSolver solver : this.solvers) {
+      solver.load();
+    }
+  }
+
+  /**
+   * Stops the threads on which the chains are solved. This object must not
+   * be used afterwards.
+   */
+  public void shutdown() {
+    this.pool.shutdown();
+  }
+
+  /**
+   * Solves every chain toward its target at the same time, starting from
+   * the angles most recently loaded or solved, and waits for all of them.
+   *
+   * @param targets
+   *          The world position of the target of each chain, three per
+   *          chain.
+   * @param maximumIterations
+   *          The largest number of passes over each chain.
+   * @param tolerance
+   *          The distance from each target at which to stop.
+   * @throws IllegalArgumentException
+   *           If there are not three targets per chain.
+   */
+  public void solve(final double[] targets, final int maximumIterations,
+      final double tolerance) {
+    if (targets.length != 3 * this.solvers.length) {
+      throw new IllegalArgumentException(targets.length
+          + " target values for " + this.solvers.length + " chains");
+    }
+    this.targets = targets;
+    this.maximumIterations = maximumIterations;
+    this.tolerance = tolerance;
+    this.solveTask.reinitialize();
+    this.pool.invoke(this.solveTask);
+  }
+
+  /**
+   * Sets the angles of the components of every chain to those most
+   * recently solved.
+   *
+   * This method must be called on the thread which owns the components.
+   */
+  public void store() {
+    for (final ChainSolver solver : this.solvers) {
+      solver.store();
+    }
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder(
+        "ParallelChainSolver[chains=" + this.solvers.length + ", errors=");
+    for (int i = 0; i < this.solvers.length; ++i) {
+      builder.append(i == 0 ? "" : ",").append(this.solvers[i].error());
+    }
+    return builder.append("]").toString();
+  }
+}
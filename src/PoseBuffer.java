@@ -0,0 +1,120 @@
+/**
+ * PoseBuffer.java - hands complete poses from one thread to another
+ */
+
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A triple buffer of poses, through which one thread publishes complete
+ * poses and another thread reads the latest one, without either thread ever
+ * waiting for the other.
+ *
+ * A pose is an array of joint angles, three per joint. The writing thread
+ * owns one of the three arrays and the reading thread owns another; the
+ * third is the most recently published pose. Publishing swaps the writer's
+ * array with the published one, and taking a new pose swaps the reader's
+ * array with the published one, each with a single atomic exchange. A flag
+ * stored with the index of the published array records whether it has been
+ * published since the reader last took it.
+ *
+ * Each published pose carries a tag chosen by the writer, which the reader
+ * can use to recognize poses which are out of date.
+ */
+public class PoseBuffer {
+  /** The flag set while the published array has not yet been taken. */
+  private static final int FRESH = 4;
+  /** The mask which extracts the index of an array from the shared state. */
+  private static final int INDEX_MASK = 3;
+
+  /** The three arrays of joint angles. */
+  private final double[][] poses;
+  /** The index of the array owned by the reading thread. */
+  private int readIndex = 0;
+  /**
+   * The index of the published array, combined with {@link #FRESH} if it has
+   * not been taken by the reader.
+   */
+  private final AtomicInteger shared = new AtomicInteger(1);
+  /** The tag of the pose in each array. */
+  private final long[] tags = new long[3];
+  /** The index of the array owned by the writing thread. */
+  private int writeIndex = 2;
+
+  /**
+   * Instantiates this buffer with three arrays of the specified length.
+   *
+   * @param length
+   *          The number of angles in each pose.
+   */
+  public PoseBuffer(final int length) {
+    this.poses = new double[3][length];
+  }
+
+  /**
+   * Publishes the array returned by {@link #writeBuffer()} with the specified
+   * tag, replacing any published pose which has not been taken.
+   *
+   * This method must only be called by the writing thread. After it returns,
+   * {@link #writeBuffer()} returns a different array, whose contents are an
+   * older pose.
+   *
+   * @param tag
+   *          The tag with which to publish the pose.
+   */
+  public void publish(final long tag) {
+    this.tags[this.writeIndex] = tag;
+    this.writeIndex = this.shared.getAndSet(this.writeIndex | FRESH)
+        & INDEX_MASK;
+  }
+
+  /**
+   * Gets the pose most recently taken by {@link #update()}.
+   *
+   * This method must only be called by the reading thread.
+   *
+   * @return The array containing the pose.
+   */
+  public double[] readBuffer() {
+    return this.poses[this.readIndex];
+  }
+
+  /**
+   * Gets the tag of the pose most recently taken by {@link #update()}.
+   *
+   * This method must only be called by the reading thread.
+   *
+   * @return The tag with which the pose was published.
+   */
+  public long readTag() {
+    return this.tags[this.readIndex];
+  }
+
+  /**
+   * Takes the most recently published pose, if one has been published since
+   * this method last took one.
+   *
+   * This method must only be called by the reading thread.
+   *
+   * @return Whether a new pose was taken, in which case it is returned by
+   *         {@link #readBuffer()}.
+   */
+  public boolean update() {
+    if ((this.shared.get() & FRESH) == 0) {
+      return false;
+    }
+    this.readIndex = this.shared.getAndSet(this.readIndex) & INDEX_MASK;
+    return true;
+  }
+
+  /**
+   * Gets the array into which the writing thread should write the next pose.
+   *
+   * This method must only be called by the writing thread.
+   *
+   * @return The array into which to write the next pose.
+   */
+  public double[] writeBuffer() {
+    return this.poses[this.writeIndex];
+  }
+}
@@ -0,0 +1,447 @@
+/**
+ * PoseLibrary.java - a memory-mapped file containing many poses
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A library of poses stored in a binary file which is memory-mapped, so that
+ * poses are read directly from the file as they are needed rather than
+ * parsed when the library is opened.
+ *
+ * The file consists of a header, a table of joint names, and fixed-size pose
+ * records, all in big-endian byte order:
+ * <ol>
+ * <li>the magic number {@code "HPOS"} in ASCII;</li>
+ * <li>the version of the format, an int, currently {@link #VERSION};</li>
+ * <li>the number of joints, an int;</li>
+ * <li>a reserved int, which must be 0;</li>
+ * <li>the number of poses, a long;</li>
+ * <li>for each joint, the length in bytes of its name as an unsigned short,
+ * followed by the name in UTF-8;</li>
+ * <li>padding up to a multiple of four bytes from the start of the file;</li>
+ * <li>for each pose, the x, y, and z angles in degrees of each joint as
+ * floats, in the order of the name table.</li>
+ * </ol>
+ *
+ * When the library is opened, each joint in its name table is matched by
+ * name to a joint in a {@link JointRegistry}; joints in the library which
+ * are not in the registry are ignored, and joints in the registry which are
+ * not in the library are left as they are when a pose is read. Since a single
+ * mapping cannot exceed 2 GB, the records are mapped in segments, each of
+ * which contains a whole number of records.
+ */
+public class PoseLibrary implements Closeable {
+
+  /**
+   * Writes poses to a new pose library file one at a time, so that a library
+   * of any size can be written without holding all its poses in memory.
+   */
+  public static class Writer implements Closeable {
+    /** The file being written. */
+    private final File file;
+    /** The number of joints in each pose. */
+    private final int jointCount;
+    /** The stream to which to write the file. */
+    private final DataOutputStream output;
+    /** The number of poses written. */
+    private long poseCount = 0;
+
+    /**
+     * Creates the specified file and writes the header and name table.
+     *
+     * @param file
+     *          The file to write.
+     * @param jointNames
+     *          The names of the joints, in the order in which their angles
+     *          will be given.
+     * @throws IOException
+     *           If the file cannot be written.
+     */
+    public Writer(final File file, final String[] jointNames)
+        throws IOException {
+      this.file = file;
+      this.jointCount = jointNames.length;
+      this.output = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file)));
+      this.output.write(MAGIC);
+      this.output.writeInt(VERSION);
+      this.output.writeInt(this.jointCount);
+      this.output.writeInt(0);
+      this.output.writeLong(0);
+      int position = HEADER_SIZE;
+      for (final String name : jointNames) {
+        final byte[] bytes = name.getBytes(UTF_8);
+        if (bytes.length > MAXIMUM_NAME_LENGTH) {
+          throw new IllegalArgumentException("Joint name too long: " + name);
+        }
+        this.output.writeShort(bytes.length);
+        this.output.write(bytes);
+        position += 2 + bytes.length;
+      }
+      while (position % ALIGNMENT != 0) {
+        this.output.writeByte(0);
+        position += 1;
+      }
+    }
+
+    /**
+     * Appends the specified pose to the file.
+     *
+     * @param pose
+     *          The x, y, and z angles of each joint, in the order of the
+     *          names given to the constructor.
+     * @throws IOException
+     *           If the pose cannot be written.
+     */
+    public void add(final double[] pose) throws IOException {
+      for (int i = 0; i < JointRegistry.AXES * this.jointCount; ++i) {
+        this.output.writeFloat((float) pose[i]);
+      }
+      this.poseCount += 1;
+    }
+
+    /**
+     * Finishes the file by recording the number of poses in its header.
+     *
+     * @throws IOException
+     *           If the file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+      this.output.close();
+      final RandomAccessFile header = new RandomAccessFile(this.file, "rw");
+      try {
+        header.seek(POSE_COUNT_OFFSET);
+        header.writeLong(this.poseCount);
+      } finally {
+        header.close();
+      }
+    }
+  }
+
+  /** The alignment of the first pose record, in bytes. */
+  private static final int ALIGNMENT = 4;
+  /** The number of bytes in a float. */
+  private static final int BYTES_PER_FLOAT = 4;
+  /** The number of bytes in the fixed part of the header. */
+  private static final int HEADER_SIZE = 24;
+  /** The magic number at the start of every pose library file. */
+  private static final byte[] MAGIC = { 'H', 'P', 'O', 'S' };
+  /** The length in bytes of the longest joint name. */
+  private static final int MAXIMUM_NAME_LENGTH = 0xffff;
+  /** The largest number of bytes in a single mapped segment. */
+  private static final long MAXIMUM_SEGMENT_SIZE = Integer.MAX_VALUE;
+  /** The offset in the header of the number of poses. */
+  private static final int POSE_COUNT_OFFSET = 16;
+  /** The character set of joint names. */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  /** The version of the format written by this class. */
+  public static final int VERSION = 1;
+
+  /**
+   * Opens the specified pose library file, matching its joints to those in
+   * the specified registry.
+   *
+   * @param file
+   *          The pose library file.
+   * @param registry
+   *          The registry whose ids the poses are read into.
+   * @return The opened library.
+   * @throws IOException
+   *           If the file cannot be read or is not a valid pose library.
+   */
+  public static PoseLibrary open(final File file, final JointRegistry registry)
+      throws IOException {
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      return new PoseLibrary(file, randomAccessFile.getChannel(), registry);
+    } catch (final IOException exception) {
+      randomAccessFile.close();
+      throw exception;
+    } catch (final RuntimeException exception) {
+      randomAccessFile.close();
+      throw exception;
+    }
+  }
+
+  /** The channel from which the file is mapped. */
+  private final FileChannel channel;
+  /** The index of the pose returned by the next call to {@link #next}. */
+  private long cursor = 0;
+  /** The name of the file, for error messages. */
+  private final String fileName;
+  /** The id in the registry of each joint in the library, or -1. */
+  private final int[] ids;
+  /** The number of joints in each pose. */
+  private final int jointCount;
+  /** The names of the joints in the library, in the order of the records. */
+  private final String[] names;
+  /** The number of poses in the library. */
+  private final long poseCount;
+  /** The registry into whose ids poses are read. */
+  private final JointRegistry registry;
+  /** The number of records in each mapped segment, except perhaps the last. */
+  private final long recordsPerSegment;
+  /** The mapped segments of the records. */
+  private final MappedByteBuffer[] segments;
+  /** The number of bytes in each pose record. */
+  private final int stride;
+
+  /**
+   * Instantiates this library by reading the header and name table of the
+   * specified file and mapping its records.
+   *
+   * @param file
+   *          The pose library file.
+   * @param channel
+   *          The channel from which to read the file.
+   * @param registry
+   *          The registry whose ids the poses are read into.
+   * @throws IOException
+   *           If the file cannot be read or is not a valid pose library.
+   */
+  private PoseLibrary(final File file, final FileChannel channel,
+      final JointRegistry registry) throws IOException {
+    this.fileName = file.getPath();
+    this.channel = channel;
+    this.registry = registry;
+    final long size = channel.size();
+    if (size < HEADER_SIZE) {
+      throw this.invalid("file too short");
+    }
+
+    // the header is read through a mapping of its own
+    final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+        HEADER_SIZE);
+    for (int i = 0; i < MAGIC.length; ++i) {
+      if (header.get() != MAGIC[i]) {
+        throw this.invalid("bad magic number");
+      }
+    }
+    final int version = header.getInt();
+    if (version != VERSION) {
+      throw this.invalid("unsupported version " + version);
+    }
+    this.jointCount = header.getInt();
+    header.getInt();
+    this.poseCount = header.getLong();
+    if (this.jointCount < 0 || this.poseCount < 0) {
+      throw this.invalid("negative joint or pose count");
+    }
+    if (HEADER_SIZE + 2L * this.jointCount > size) {
+      throw this.invalid("too many joints for the file size");
+    }
+
+    // the name table is read through a mapping no longer than the longest
+    // table of that many joints
+    final long tableSize = Math.min(Math.min(size - HEADER_SIZE,
+        (long) this.jointCount * (2 + MAXIMUM_NAME_LENGTH)),
+        MAXIMUM_SEGMENT_SIZE);
+    final ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY,
+        HEADER_SIZE, tableSize);
+    this.names = new String[this.jointCount];
+    this.ids = new int[this.jointCount];
+    for (int i = 0; i < this.jointCount; ++i) {
+      if (table.remaining() < 2) {
+        throw this.invalid("truncated name table");
+      }
+      final int length = table.getShort() & MAXIMUM_NAME_LENGTH;
+      if (table.remaining() < length) {
+        throw this.invalid("truncated name table");
+      }
+      final byte[] bytes = new byte[length];
+      table.get(bytes);
+      this.names[i] = new String(bytes, UTF_8);
+      this.ids[i] = registry.id(this.names[i]);
+    }
+    final long start = (HEADER_SIZE + table.position() + ALIGNMENT - 1)
+        / ALIGNMENT * ALIGNMENT;
+
+    final long stride = (long) JointRegistry.AXES * BYTES_PER_FLOAT
+        * this.jointCount;
+    if (stride > MAXIMUM_SEGMENT_SIZE) {
+      throw this.invalid("pose records too large");
+    }
+    this.stride = (int) stride;
+    if (start > size || this.stride != 0
+        && this.poseCount > (size - start) / this.stride) {
+      throw this.invalid("truncated pose records");
+    }
+    this.recordsPerSegment = this.stride == 0 ? Math.max(1, this.poseCount)
+        : MAXIMUM_SEGMENT_SIZE / this.stride;
+    final int segmentCount = this.poseCount == 0 ? 0
+        : (int) ((this.poseCount + this.recordsPerSegment - 1)
+            / this.recordsPerSegment);
+    this.segments = new MappedByteBuffer[segmentCount];
+    for (int i = 0; i < segmentCount; ++i) {
+      final long first = i * this.recordsPerSegment;
+      final long count = Math.min(this.recordsPerSegment, this.poseCount
+          - first);
+      this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start
+          + first * this.stride, count * this.stride);
+    }
+  }
+
+  /**
+   * Sets the angles of the joints in the hierarchy to those in the specified
+   * pose, reading them directly from the file.
+   *
+   * @param index
+   *          The index of the pose.
+   */
+  public void apply(final long index) {
+    final ByteBuffer segment = this.segment(index);
+    int offset = this.offset(index);
+    for (int i = 0; i < this.jointCount; ++i) {
+      final int id = this.ids[i];
+      if (id >= 0) {
+        this.registry.joint(id).setAngles(segment.getFloat(offset),
+            segment.getFloat(offset + BYTES_PER_FLOAT),
+            segment.getFloat(offset + 2 * BYTES_PER_FLOAT));
+      }
+      offset += JointRegistry.AXES * BYTES_PER_FLOAT;
+    }
+  }
+
+  /**
+   * Closes the file of this library.
+   *
+   * Poses must not be read after this library is closed.
+   *
+   * @throws IOException
+   *           If the file cannot be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  /**
+   * Creates an exception describing an invalid file.
+   *
+   * @param reason
+   *          Why the file is invalid.
+   * @return The new exception.
+   */
+  private IOException invalid(final String reason) {
+    return new IOException("Invalid pose library " + this.fileName + ": "
+        + reason);
+  }
+
+  /**
+   * Gets the names of the joints in this library, in the order in which
+   * their angles are stored.
+   *
+   * @return A copy of the joint names.
+   */
+  public String[] jointNames() {
+    return this.names.clone();
+  }
+
+  /**
+   * Reads the next pose into the specified array, cycling back to the first
+   * pose after the last.
+   *
+   * @param pose
+   *          The array into which to read the pose, indexed by joint id.
+   * @return The specified array.
+   * @throws IllegalStateException
+   *           If this library is empty.
+   */
+  public double[] next(final double[] pose) {
+    if (this.poseCount == 0) {
+      throw new IllegalStateException("Pose library is empty");
+    }
+    this.read(this.cursor, pose);
+    this.cursor = (this.cursor + 1) % this.poseCount;
+    return pose;
+  }
+
+  /**
+   * Gets the offset of the specified pose within its segment.
+   *
+   * @param index
+   *          The index of the pose.
+   * @return The offset in bytes of the pose record.
+   */
+  private int offset(final long index) {
+    return (int) (index % this.recordsPerSegment) * this.stride;
+  }
+
+  /**
+   * Gets the number of poses in this library.
+   *
+   * @return The number of poses.
+   */
+  public long poseCount() {
+    return this.poseCount;
+  }
+
+  /**
+   * Reads the specified pose into the specified array.
+   *
+   * Joints in the registry which are not in this library are left as they
+   * are in the array.
+   *
+   * @param index
+   *          The index of the pose.
+   * @param pose
+   *          The array into which to read the pose, indexed by joint id.
+   * @return The specified array.
+   */
+  public double[] read(final long index, final double[] pose) {
+    final ByteBuffer segment = this.segment(index);
+    int offset = this.offset(index);
+    for (int i = 0; i < this.jointCount; ++i) {
+      final int id = this.ids[i];
+      if (id >= 0) {
+        final int p = JointRegistry.AXES * id;
+        pose[p] = segment.getFloat(offset);
+        pose[p + 1] = segment.getFloat(offset + BYTES_PER_FLOAT);
+        pose[p + 2] = segment.getFloat(offset + 2 * BYTES_PER_FLOAT);
+      }
+      offset += JointRegistry.AXES * BYTES_PER_FLOAT;
+    }
+    return pose;
+  }
+
+  /**
+   * Gets the segment containing the specified pose.
+   *
+   * @param index
+   *          The index of the pose.
+   * @return The mapped segment containing the pose.
+   * @throws IndexOutOfBoundsException
+   *           If there is no pose with the specified index.
+   */
+  private ByteBuffer segment(final long index) {
+    if (index < 0 || index >= this.poseCount) {
+      throw new IndexOutOfBoundsException("Pose " + index + " of "
+          + this.poseCount);
+    }
+    return this.segments[(int) (index / this.recordsPerSegment)];
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    return "PoseLibrary[file=" + this.fileName + ", joints="
+        + this.jointCount + ", poses=" + this.poseCount + "]";
+  }
+}
@@ -29,13 +29,89 @@
  * @since Spring 2008
  */
 public class Quaternion {
+  /**
+   * The dot product above which two quaternions are considered close enough
+   * that spherical interpolation between them falls back to normalized linear
+   * interpolation.
+   */
+  public static final float SLERP_THRESHOLD = 0.9995f;
   /** The threshold below which to renormalize this quaternion, if necessary. */
   public static final float ROUND_OFF_THRESHOLD = 0.0001f;
+
+  /**
+   * Computes the normalized linear interpolation between the two specified
+   * quaternions along the shorter arc, and stores it in the specified
+   * destination quaternion.
+   * 
+   * @param from
+   *          The quaternion at {@code t = 0}.
+   * @param to
+   *          The quaternion at {@code t = 1}.
+   * @param t
+   *          The interpolation parameter, between 0 and 1.
+   * @param dest
+   *          The quaternion in which to store the result, which may be either
+   *          of the other two quaternions.
+   * @return The destination quaternion.
+   */
+  public static Quaternion nlerp(final Quaternion from, final Quaternion to,
+      final float t, final Quaternion dest) {
+    final float sign = from.dot(to) < 0 ? -1 : 1;
+    final float u = 1 - t;
+    dest.set(u * from.s + sign * t * to.s, u * from.x + sign * t * to.x, u
+        * from.y + sign * t * to.y, u * from.z + sign * t * to.z);
+    dest.normalize();
+    return dest;
+  }
+
+  /**
+   * Computes the spherical linear interpolation between the two specified
+   * unit quaternions along the shorter arc, and stores it in the specified
+   * destination quaternion.
+   * 
+   * If the quaternions are nearly equal, this falls back to
+   * {@link #nlerp(Quaternion, Quaternion, float, Quaternion)} to avoid
+   * dividing by a vanishing sine.
+   * 
+   * @param from
+   *          The quaternion at {@code t = 0}.
+   * @param to
+   *          The quaternion at {@code t = 1}.
+   * @param t
+   *          The interpolation parameter, between 0 and 1.
+   * @param dest
+   *          The quaternion in which to store the result, which may be either
+   *          of the other two quaternions.
+   * @return The destination quaternion.
+   */
+  public static Quaternion slerp(final Quaternion from, final Quaternion to,
+      final float t, final Quaternion dest) {
+    float dot = from.dot(to);
+    float sign = 1;
+    if (dot < 0) {
+      dot = -dot;
+      sign = -1;
+    }
+    if (dot > SLERP_THRESHOLD) {
+      return nlerp(from, to, t, dest);
+    }
+
+    final double theta = Math.acos(dot);
+    final double sin = Math.sin(theta);
+    final float a = (float) (Math.sin((1 - t) * theta) / sin);
+    final float b = sign * (float) (Math.sin(t * theta) / sin);
+    dest.set(a * from.s + b * to.s, a * from.x + b * to.x, a * from.y + b
+        * to.y, a * from.z + b * to.z);
+    return dest;
+  }
   /** The scalar component of this quaternion. */
   private float s;
-
-  /** The vector components of this quaternion. */
-  private final float[] v = new float[3];
+  /** The first vector component of this quaternion. */
+  private float x;
+  /** The second vector component of this quaternion. */
+  private float y;
+  /** The third vector component of this quaternion. */
+  private float z;
 
   /**
    * Instantiates this quaternion with an initial value of (1, 0, 0, 0).
@@ -61,6 +137,19 @@ public class Quaternion {
     this.set(s, v0, v1, v2);
   }
 
+  /**
+   * Returns the dot product of this and the specified other quaternion, viewed
+   * as four-dimensional vectors.
+   * 
+   * @param that
+   *          The other quaternion.
+   * @return The dot product of the two quaternions.
+   */
+  public float dot(final Quaternion that) {
+    return this.s * that.s + this.x * that.x + this.y * that.y + this.z
+        * that.z;
+  }
+
   /**
    * Returns a new quaternion representing the product of this and the specified
    * other quaternion.
@@ -70,20 +159,38 @@ public class Quaternion {
    * @return The product of this and the specified other quaternion.
    */
   public Quaternion multiply(final Quaternion that) {
+    return this.multiply(that, new Quaternion());
+  }
+
+  /**
+   * Computes the product of this and the specified other quaternion and stores
+   * it in the specified destination quaternion, without allocating any
+   * objects.
+   * 
+   * The destination may be this quaternion or the other quaternion.
+   * 
+   * @param that
+   *          The other quaternion with which to multiply this one.
+   * @param dest
+   *          The quaternion in which to store the product.
+   * @return The destination quaternion.
+   */
+  public Quaternion multiply(final Quaternion that, final Quaternion dest) {
 
     // s = s1*s2 - v1.v2
-    final float newS = this.s * that.s - this.v[0] * that.v[0] - this.v[1]
-        * that.v[1] - this.v[2] * that.v[2];
+    final float newS = this.s * that.s - this.x * that.x - this.y * that.y
+        - this.z * that.z;
 
     // v = s1 v2 + s2 v1 + v1 x v2
-    float i = (this.s * that.v[0]) + (that.s * this.v[0])
-        + (this.v[1] * that.v[2] - this.v[2] * that.v[1]);
-    float j = (this.s * that.v[1]) + (that.s * this.v[1])
-        + (this.v[2] * that.v[0] - this.v[0] * that.v[2]);
-    float k = (this.s * that.v[2]) + (that.s * this.v[2])
-        + (this.v[0] * that.v[1] - this.v[1] * that.v[0]);
+    final float i = (this.s * that.x) + (that.s * this.x)
+        + (this.y * that.z - this.z * that.y);
+    final float j = (this.s * that.y) + (that.s * this.y)
+        + (this.z * that.x - this.x * that.z);
+    final float k = (this.s * that.z) + (that.s * this.z)
+        + (this.x * that.y - this.y * that.x);
 
-    return new Quaternion(newS, i, j, k);
+    dest.set(newS, i, j, k);
+    return dest;
   }
 
   /**
@@ -92,8 +199,8 @@ public class Quaternion {
    * @return The norm (magnitude) of this quaternion.
    */
   private float norm() {
-    return (float) Math.sqrt(this.s * this.s + this.v[0] * this.v[0]
-        + this.v[1] * this.v[1] + this.v[2] * this.v[2]);
+    return (float) Math.sqrt(this.s * this.s + this.x * this.x + this.y
+        * this.y + this.z * this.z);
   }
 
   /**
@@ -106,12 +213,26 @@ public class Quaternion {
 
     if (mag > ROUND_OFF_THRESHOLD) {
       this.s /= mag;
-      this.v[0] /= mag;
-      this.v[1] /= mag;
-      this.v[2] /= mag;
+      this.x /= mag;
+      this.y /= mag;
+      this.z /= mag;
     }
   }
 
+  /**
+   * Replaces this quaternion with the product of the specified other
+   * quaternion and this one, in that order, without allocating any objects.
+   * 
+   * This is the operation used to apply an additional rotation after the one
+   * already represented by this quaternion.
+   * 
+   * @param that
+   *          The quaternion by which to multiply this one on the left.
+   */
+  public void preMultiply(final Quaternion that) {
+    that.multiply(this, this);
+  }
+
   /**
    * Resets this quaternion to (1, 0, 0, 0).
    */
@@ -119,6 +240,15 @@ public class Quaternion {
     this.set(1f, 0f, 0f, 0f);
   }
 
+  /**
+   * Gets the scalar component of this quaternion.
+   * 
+   * @return The scalar component of this quaternion.
+   */
+  public float s() {
+    return this.s;
+  }
+
   /**
    * Sets the components of this quaternion to the specified values.
    * 
@@ -131,11 +261,111 @@ public class Quaternion {
    * @param v2
    *          The third vector component of this quaternion.
    */
-  private void set(float s, float v0, float v1, float v2) {
+  public void set(float s, float v0, float v1, float v2) {
     this.s = s;
-    this.v[0] = v0;
-    this.v[1] = v1;
-    this.v[2] = v2;
+    this.x = v0;
+    this.y = v1;
+    this.z = v2;
+  }
+
+  /**
+   * Sets the components of this quaternion to those of the specified other
+   * quaternion.
+   * 
+   * @param that
+   *          The quaternion whose components to copy.
+   */
+  public void set(final Quaternion that) {
+    this.set(that.s, that.x, that.y, that.z);
+  }
+
+  /**
+   * Sets this quaternion to represent the same rotation as a
+   * {@link Component} with the specified angles: a rotation around the x axis,
+   * then the y axis, then the z axis.
+   * 
+   * @param xAngle
+   *          The angle of rotation around the x axis, in degrees.
+   * @param yAngle
+   *          The angle of rotation around the y axis, in degrees.
+   * @param zAngle
+   *          The angle of rotation around the z axis, in degrees.
+   */
+  public void setEulerAngles(final double xAngle, final double yAngle,
+      final double zAngle) {
+    final double hx = Math.toRadians(xAngle) / 2;
+    final double hy = Math.toRadians(yAngle) / 2;
+    final double hz = Math.toRadians(zAngle) / 2;
+    final double sx = Math.sin(hx);
+    final double cx = Math.cos(hx);
+    final double sy = Math.sin(hy);
+    final double cy = Math.cos(hy);
+    final double sz = Math.sin(hz);
+    final double cz = Math.cos(hz);
+
+    // the product of the rotations around x, then y, then z
+    this.set((float) (cx * cy * cz - sx * sy * sz),
+        (float) (sx * cy * cz + cx * sy * sz),
+        (float) (cx * sy * cz - sx * cy * sz),
+        (float) (cx * cy * sz + sx * sy * cz));
+  }
+
+  /**
+   * Stores the angles of a rotation around the x axis, then the y axis, then
+   * the z axis, equivalent to this unit quaternion, in the specified array.
+   * 
+   * The angle around the y axis is between -90 and 90 degrees. When it is
+   * exactly at either end of this range, the rotation around the z axis is
+   * taken to be 0.
+   * 
+   * @param dest
+   *          The array in which to store the angles, in degrees.
+   * @param offset
+   *          The index at which to store the angle around the x axis; the
+   *          angles around the y and z axes follow it.
+   * @return The specified array.
+   */
+  public double[] toEulerAngles(final double[] dest, final int offset) {
+    final double a = this.x;
+    final double b = this.y;
+    final double c = this.z;
+    final double m02 = 2 * (a * c + this.s * b);
+    final double sinY = Math.max(-1, Math.min(1, m02));
+    dest[offset + 1] = Math.toDegrees(Math.asin(sinY));
+    if (Math.abs(sinY) < 1 - 1e-6) {
+      final double m00 = 1 - 2 * (b * b + c * c);
+      final double m01 = 2 * (a * b - this.s * c);
+      final double m12 = 2 * (b * c - this.s * a);
+      final double m22 = 1 - 2 * (a * a + b * b);
+      dest[offset] = Math.toDegrees(Math.atan2(-m12, m22));
+      dest[offset + 2] = Math.toDegrees(Math.atan2(-m01, m00));
+    } else {
+      final double m11 = 1 - 2 * (a * a + c * c);
+      final double m21 = 2 * (b * c + this.s * a);
+      dest[offset] = Math.toDegrees(Math.atan2(m21, m11));
+      dest[offset + 2] = 0;
+    }
+    return dest;
+  }
+
+  /**
+   * Sets this quaternion to represent a rotation by the specified angle
+   * around the specified axis.
+   * 
+   * @param angle
+   *          The angle of rotation, in radians.
+   * @param axisX
+   *          The x component of the unit vector along the axis of rotation.
+   * @param axisY
+   *          The y component of the unit vector along the axis of rotation.
+   * @param axisZ
+   *          The z component of the unit vector along the axis of rotation.
+   */
+  public void setRotation(final float angle, final float axisX,
+      final float axisY, final float axisZ) {
+    final float sin = (float) Math.sin(0.5f * angle);
+    final float cos = (float) Math.cos(0.5f * angle);
+    this.set(cos, sin * axisX, sin * axisY, sin * axisZ);
   }
 
   /**
@@ -149,34 +379,74 @@ public class Quaternion {
    * @return
    */
   public float[] toMatrix() {
-    final float[] M = new float[16];
+    return this.toMatrix(new float[16], 0);
+  }
 
-    final float a = this.v[0];
-    final float b = this.v[1];
-    final float c = this.v[2];
+  /**
+   * Stores a 4 by 4 matrix which represents a transformation equivalent to
+   * that of this quaternion in the specified array, in column major order,
+   * without allocating any objects.
+   * 
+   * @param M
+   *          The array in which to store the matrix.
+   * @param offset
+   *          The index at which to store the first element of the matrix.
+   * @return The specified array.
+   */
+  public float[] toMatrix(final float[] M, final int offset) {
+    final float a = this.x;
+    final float b = this.y;
+    final float c = this.z;
 
     // Specify the matrix in column major
-    M[0] = 1 - 2 * b * b - 2 * c * c; // M[0][0]
-    M[1] = 2 * a * b + 2 * this.s * c; // M[1][0]
-    M[2] = 2 * a * c - 2 * this.s * b; // M[2][0]
-    M[3] = 0.0f; // M[3][0]
-
-    M[4] = 2 * a * b - 2 * this.s * c; // M[0][1]
-    M[5] = 1 - 2 * a * a - 2 * c * c; // M[1][1]
-    M[6] = 2 * b * c + 2 * this.s * a; // M[2][1]
-    M[7] = 0.0f; // M[3][1]
-
-    M[8] = 2 * a * c + 2 * this.s * b; // M[0][2]
-    M[9] = 2 * b * c - 2 * this.s * a; // M[1][2]
-    M[10] = 1 - 2 * a * a - 2 * b * b; // M[2][2]
-    M[11] = 0.0f; // M[3][2]
-
-    M[12] = 0.0f; // M[0][3]
-    M[13] = 0.0f; // M[1][3]
-    M[14] = 0.0f; // M[2][3]
-    M[15] = 1.0f; // M[3][3]
+    M[offset] = 1 - 2 * b * b - 2 * c * c; // M[0][0]
+    M[offset + 1] = 2 * a * b + 2 * this.s * c; // M[1][0]
+    M[offset + 2] = 2 * a * c - 2 * this.s * b; // M[2][0]
+    M[offset + 3] = 0.0f; // M[3][0]
+
+    M[offset + 4] = 2 * a * b - 2 * this.s * c; // M[0][1]
+    M[offset + 5] = 1 - 2 * a * a - 2 * c * c; // M[1][1]
+    M[offset + 6] = 2 * b * c + 2 * this.s * a; // M[2][1]
+    M[offset + 7] = 0.0f; // M[3][1]
+
+    M[offset + 8] = 2 * a * c + 2 * this.s * b; // M[0][2]
+    M[offset + 9] = 2 * b * c - 2 * this.s * a; // M[1][2]
+    M[offset + 10] = 1 - 2 * a * a - 2 * b * b; // M[2][2]
+    M[offset + 11] = 0.0f; // M[3][2]
+
+    M[offset + 12] = 0.0f; // M[0][3]
+    M[offset + 13] = 0.0f; // M[1][3]
+    M[offset + 14] = 0.0f; // M[2][3]
+    M[offset + 15] = 1.0f; // M[3][3]
 
     return M;
   }
 
+  /**
+   * Gets the first vector component of this quaternion.
+   * 
+   * @return The first vector component of this quaternion.
+   */
+  public float x() {
+    return this.x;
+  }
+
+  /**
+   * Gets the second vector component of this quaternion.
+   * 
+   * @return The second vector component of this quaternion.
+   */
+  public float y() {
+    return this.y;
+  }
+
+  /**
+   * Gets the third vector component of this quaternion.
+   * 
+   * @return The third vector component of this quaternion.
+   */
+  public float z() {
+    return this.z;
+  }
+
 }
@@ -0,0 +1,290 @@
+/**
+ * RayPicker.java - finds the component under a ray, such as the mouse
+ */
+
+
+/**
+ * Finds the nearest component hit by a ray, such as the ray from the camera
+ * through the mouse, among the shapes of a {@link ShapeHierarchy}.
+ *
+ * The ray is tested against the sphere enclosing each subtree before any of
+ * the shapes in it, and subtrees which the ray only enters beyond the
+ * nearest hit found so far are skipped, so picking among thousands of
+ * components tests only the few whose spheres lie along the ray. The
+ * hierarchy is refit before each pick, which recomputes only the shapes of
+ * components which have moved.
+ *
+ * Capsules are intersected exactly, as a cylinder and the spheres at both
+ * ends of its axis, and ellipsoids exactly by scaling the ray so that the
+ * ellipsoid becomes the unit sphere.
+ */
+public class RayPicker {
+  /** The smallest squared length of a vector which is not zero. */
+  private static final double EPSILON = 1e-12;
+  /** The number of values in a sphere. */
+  private static final int SPHERE_LENGTH = ShapeHierarchy.SPHERE_LENGTH;
+
+  /**
+   * Intersects a ray with a sphere.
+   *
+   * @param ox
+   *          The x component of the origin of the ray.
+   * @param oy
+   *          The y component of the origin of the ray.
+   * @param oz
+   *          The z component of the origin of the ray.
+   * @param dx
+   *          The x component of the unit direction of the ray.
+   * @param dy
+   *          The y component of the unit direction of the ray.
+   * @param dz
+   *          The z component of the unit direction of the ray.
+   * @param cx
+   *          The x component of the center of the sphere.
+   * @param cy
+   *          The y component of the center of the sphere.
+   * @param cz
+   *          The z component of the center of the sphere.
+   * @param radius
+   *          The radius of the sphere.
+   * @return The distance along the ray to where it enters the sphere, 0 if
+   *         it starts inside the sphere, or infinity if it misses.
+   */
+  private static double sphere(final double ox, final double oy,
+      final double oz, final double dx, final double dy, final double dz,
+      final double cx, final double cy, final double cz, final double radius) {
+    final double px = ox - cx;
+    final double py = oy - cy;
+    final double pz = oz - cz;
+    final double b = px * dx + py * dy + pz * dz;
+    final double c = px * px + py * py + pz * pz - radius * radius;
+    if (c <= 0) {
+      return 0;
+    }
+    final double h = b * b - c;
+    if (b > 0 || h < 0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return -b - Math.sqrt(h);
+  }
+
+  /** The distance along the ray to the nearest hit found so far. */
+  private double distance = Double.POSITIVE_INFINITY;
+  /** The x component of the unit direction of the current ray. */
+  private double dx = 0;
+  /** The y component of the unit direction of the current ray. */
+  private double dy = 0;
+  /** The z component of the unit direction of the current ray. */
+  private double dz = 0;
+  /** The shapes of the components and their bounding spheres. */
+  private final ShapeHierarchy hierarchy;
+  /** The index of the nearest component hit so far, or -1. */
+  private int hit = -1;
+  /** The x component of the origin of the current ray. */
+  private double ox = 0;
+  /** The y component of the origin of the current ray. */
+  private double oy = 0;
+  /** The z component of the origin of the current ray. */
+  private double oz = 0;
+  /** The number of shapes tested by the latest pick. */
+  private int shapeTests = 0;
+
+  /**
+   * Instantiates this picker for the specified shapes, which may be shared
+   * with other queries.
+   *
+   * @param hierarchy
+   *          The shapes of the components and their bounding spheres.
+   */
+  public RayPicker(final ShapeHierarchy hierarchy) {
+    this.hierarchy = hierarchy;
+  }
+
+  /**
+   * Intersects the current ray with the capsule of the specified component.
+   *
+   * @param i
+   *          The index of the component.
+   * @return The distance along the ray to the capsule, or infinity if it
+   *         misses.
+   */
+  private double capsule(final int i) {
+    final double[] s = this.hierarchy.segments();
+    final double radius = this.hierarchy.radii()[i];
+    final int p = 6 * i;
+    double nearest = Math.min(
+        sphere(this.ox, this.oy, this.oz, this.dx, this.dy, this.dz, s[p],
+            s[p + 1], s[p + 2], radius),
+        sphere(this.ox, this.oy, this.oz, this.dx, this.dy, this.dz,
+            s[p + 3], s[p + 4], s[p + 5], radius));
+
+    // the side of the cylinder, between the planes through both ends
+    final double ax = s[p + 3] - s[p];
+    final double ay = s[p + 4] - s[p + 1];
+    final double az = s[p + 5] - s[p + 2];
+    final double qx = this.ox - s[p];
+    final double qy = this.oy - s[p + 1];
+    final double qz = this.oz - s[p + 2];
+    final double aa = ax * ax + ay * ay + az * az;
+    final double ad = ax * this.dx + ay * this.dy + az * this.dz;
+    final double aq = ax * qx + ay * qy + az * qz;
+    final double dq = this.dx * qx + this.dy * qy + this.dz * qz;
+    final double a = aa - ad * ad;
+    if (a > EPSILON) {
+      final double b = aa * dq - aq * ad;
+      final double c = aa * (qx * qx + qy * qy + qz * qz) - aq * aq - radius
+          * radius * aa;
+      final double h = b * b - a * c;
+      if (h >= 0) {
+        final double t = (-b - Math.sqrt(h)) / a;
+        final double along = aq + t * ad;
+        if (t >= 0 && along > 0 && along < aa) {
+          nearest = Math.min(nearest, t);
+        }
+      }
+    }
+    return nearest;
+  }
+
+  /**
+   * Gets the distance along the ray from its origin to the component found
+   * by the most recent pick.
+   *
+   * @return The distance to the component hit, or infinity if none was.
+   */
+  public double distance() {
+    return this.distance;
+  }
+
+  /**
+   * Intersects the current ray with the ellipsoid of the specified
+   * component.
+   *
+   * @param i
+   *          The index of the component.
+   * @return The distance along the ray to the ellipsoid, or infinity if it
+   *         misses.
+   */
+  private double ellipsoid(final int i) {
+    final double[] m = this.hierarchy.transforms();
+    final double[] axes = this.hierarchy.semiAxes();
+    final double[] l = this.hierarchy.localSegments();
+    final int o = Matrix4d.SIZE * i;
+    final int a = 3 * i;
+
+    // the ray in the coordinate system of the component, scaled so that the
+    // ellipsoid is the unit sphere, which keeps distances along the ray
+    final double px = this.ox - m[o + 12];
+    final double py = this.oy - m[o + 13];
+    final double pz = this.oz - m[o + 14];
+    final double sx = (m[o] * px + m[o + 1] * py + m[o + 2] * pz - l[6 * i])
+        / axes[a];
+    final double sy = (m[o + 4] * px + m[o + 5] * py + m[o + 6] * pz
+        - l[6 * i + 1]) / axes[a + 1];
+    final double sz = (m[o + 8] * px + m[o + 9] * py + m[o + 10] * pz
+        - l[6 * i + 2]) / axes[a + 2];
+    final double ux = (m[o] * this.dx + m[o + 1] * this.dy + m[o + 2]
+        * this.dz) / axes[a];
+    final double uy = (m[o + 4] * this.dx + m[o + 5] * this.dy + m[o + 6]
+        * this.dz) / axes[a + 1];
+    final double uz = (m[o + 8] * this.dx + m[o + 9] * this.dy + m[o + 10]
+        * this.dz) / axes[a + 2];
+    final double uu = ux * ux + uy * uy + uz * uz;
+    final double b = sx * ux + sy * uy + sz * uz;
+    final double c = sx * sx + sy * sy + sz * sz - 1;
+    if (c <= 0) {
+      return 0;
+    }
+    final double h = b * b - uu * c;
+    if (b > 0 || h < 0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return (-b - Math.sqrt(h)) / uu;
+  }
+
+  /**
+   * Finds the nearest component whose shape is hit by the specified ray.
+   *
+   * This method must be called on the thread which owns the components. It
+   * does not allocate any memory.
+   *
+   * @param originX
+   *          The x component of the origin of the ray.
+   * @param originY
+   *          The y component of the origin of the ray.
+   * @param originZ
+   *          The z component of the origin of the ray.
+   * @param directionX
+   *          The x component of the direction of the ray.
+   * @param directionY
+   *          The y component of the direction of the ray.
+   * @param directionZ
+   *          The z component of the direction of the ray.
+   * @return The nearest component hit, or {@code null} if the ray hits none.
+   */
+  public Component pick(final double originX, final double originY,
+      final double originZ, final double directionX,
+      final double directionY, final double directionZ) {
+    this.hierarchy.refit();
+    final double length = Math.sqrt(directionX * directionX + directionY
+        * directionY + directionZ * directionZ);
+    this.ox = originX;
+    this.oy = originY;
+    this.oz = originZ;
+    this.dx = directionX / length;
+    this.dy = directionY / length;
+    this.dz = directionZ / length;
+    this.distance = Double.POSITIVE_INFINITY;
+    this.hit = -1;
+    this.shapeTests = 0;
+    if (length > 0) {
+      this.visit(0);
+    }
+    return this.hit < 0 ? null : this.hierarchy.component(this.hit);
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    return "RayPicker[components=" + this.hierarchy.size() + ", tests="
+        + this.shapeTests + ", hit="
+        + (this.hit < 0 ? "none" : this.hierarchy.component(this.hit).name())
+        + "]";
+  }
+
+  /**
+   * Tests the current ray against the shapes in the subtree of the
+   * specified component which lie nearer than the nearest hit so far.
+   *
+   * @param node
+   *          The index of the root of the subtree.
+   */
+  private void visit(final int node) {
+    final double[] spheres = this.hierarchy.subtreeSpheres();
+    final int s = SPHERE_LENGTH * node;
+    if (spheres[s + 3] < 0
+        || sphere(this.ox, this.oy, this.oz, this.dx, this.dy, this.dz,
+            spheres[s], spheres[s + 1], spheres[s + 2], spheres[s + 3])
+            >= this.distance) {
+      return;
+    }
+    final int shape = this.hierarchy.shapes()[node];
+    if (shape != ShapeHierarchy.NONE) {
+      this.shapeTests += 1;
+      final double t = shape == ShapeHierarchy.CAPSULE ? this.capsule(node)
+          : this.ellipsoid(node);
+      if (t < this.distance) {
+        this.distance = t;
+        this.hit = node;
+      }
+    }
+    final int[] ends = this.hierarchy.ends();
+    for (int child = node + 1; child < ends[node]; child = ends[child]) {
+      this.visit(child);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * RenderBackend.java - the drawing operations needed by a hierarchy
+ */
+
+
+/**
+ * The drawing operations with which a hierarchy of components describes
+ * itself, independent of how (or whether) they are carried out.
+ *
+ * A component emits its transformation, its color, its displayable object,
+ * and references to its children as a sequence of calls to these methods in
+ * {@link Component#render(RenderBackend)}, and a displayable object in turn
+ * emits the meshes which it draws. Transformations and materials are pushed
+ * and popped in nested pairs, so each applies only to what is drawn between
+ * the push and the corresponding pop.
+ *
+ * A mesh may be prepared once, before any component is drawn, which gives a
+ * handle by which the backend can draw it more cheaply than from its
+ * vertices, such as the handle of a call list into which it was compiled.
+ *
+ * @see DisplayListBackend
+ * @see CountingBackend
+ */
+public interface RenderBackend {
+
+  /**
+   * Draws the specified child component, including all of its descendants,
+   * with the current transformation.
+   *
+   * @param component
+   *          The component to draw.
+   */
+  void drawComponent(final Component component);
+
+  /**
+   * Draws the specified object with the current transformation and material.
+   *
+   * @param displayable
+   *          The object to draw.
+   */
+  void drawDisplayable(final Displayable displayable);
+
+  /**
+   * Draws the specified triangle mesh with the current transformation and
+   * material.
+   *
+   * @param mesh
+   *          The mesh to draw.
+   * @param handle
+   *          The handle returned when the mesh was prepared by
+   *          {@link #prepareMesh(Mesh)}, or 0 if it was not prepared.
+   */
+  void drawMesh(final Mesh mesh, final int handle);
+
+  /**
+   * Restores the material which was current before the last call to
+   * {@link #pushMaterial(FloatColor)}.
+   */
+  void popMaterial();
+
+  /**
+   * Restores the transformation which was current before the last call to
+   * {@link #pushTransform(double[], int)}.
+   */
+  void popTransform();
+
+  /**
+   * Prepares the specified triangle mesh to be drawn repeatedly.
+   *
+   * This method must not be called while the operations of a component are
+   * being emitted.
+   *
+   * @param mesh
+   *          The mesh to prepare.
+   * @return The handle with which to draw the mesh, or 0 if this backend
+   *         draws meshes directly from their vertices.
+   */
+  int prepareMesh(final Mesh mesh);
+
+  /**
+   * Saves the current material and replaces it with the specified color.
+   *
+   * @param color
+   *          The color with which to draw until the material is popped.
+   */
+  void pushMaterial(final FloatColor color);
+
+  /**
+   * Saves the current transformation and then multiplies it on the right by
+   * the specified matrix.
+   *
+   * @param matrix
+   *          The array containing the column major 4 by 4 matrix.
+   * @param offset
+   *          The index of the first element of the matrix in the array.
+   */
+  void pushTransform(final double[] matrix, final int offset);
+}
@@ -0,0 +1,212 @@
+/**
+ * RenderScheduler.java - redraws a drawable only when something has changed
+ */
+
+
+import javax.media.opengl.GLAutoDrawable;
+
+/**
+ * Redraws a drawable on a dedicated thread only when a redraw has been
+ * requested, so that no frames are drawn while the scene is idle. While an
+ * animation is playing, the thread which advances it requests a redraw after
+ * each step.
+ *
+ * Requests made while a redraw is already pending are merged into it, and
+ * frames are never drawn more often than the maximum frame rate given in the
+ * constructor, so a burst of input events causes at most one frame per frame
+ * period.
+ */
+public class RenderScheduler implements Runnable {
+  /** The drawable to redraw. */
+  private final GLAutoDrawable drawable;
+  /** The number of frames drawn since this scheduler was started. */
+  private long framesRendered = 0;
+  /** The total time spent waiting for a request, in nanoseconds. */
+  private long idleNanos = 0;
+  /** The value of {@link System#nanoTime()} when the last frame was drawn. */
+  private long lastFrameTime = 0;
+  /** The lock guarding the state shared with the requesting threads. */
+  private final Object lock = new Object();
+  /** The minimum time between the starts of two frames, in nanoseconds. */
+  private final long minimumFrameNanos;
+  /** The number of requests merged into a redraw which was already pending. */
+  private long mergedRequests = 0;
+  /** Whether a redraw has been requested since the last frame. */
+  private boolean requested = false;
+  /** The number of times a redraw has been requested. */
+  private long requests = 0;
+  /** Whether the scheduling thread should keep running. */
+  private boolean running = false;
+  /** The thread which draws the frames, or {@code null} if not started. */
+  private Thread thread = null;
+
+  /**
+   * Instantiates this scheduler which redraws the specified drawable at most
+   * the specified number of times per second.
+   *
+   * @param drawable
+   *          The drawable to redraw.
+   * @param maximumFramesPerSecond
+   *          The maximum number of frames to draw per second.
+   */
+  public RenderScheduler(final GLAutoDrawable drawable,
+      final int maximumFramesPerSecond) {
+    this.drawable = drawable;
+    this.minimumFrameNanos = 1000000000L / maximumFramesPerSecond;
+  }
+
+  /**
+   * Gets the number of frames drawn since this scheduler was started.
+   *
+   * @return The number of frames drawn.
+   */
+  public long framesRendered() {
+    synchronized (this.lock) {
+      return this.framesRendered;
+    }
+  }
+
+  /**
+   * Gets the total time the scheduling thread has spent waiting for a
+   * redraw to be requested.
+   *
+   * @return The idle time, in seconds.
+   */
+  public double idleSeconds() {
+    synchronized (this.lock) {
+      return this.idleNanos / 1e9;
+    }
+  }
+
+  /**
+   * Requests that the drawable be redrawn as soon as the frame rate allows.
+   *
+   * This method may be called from any thread.
+   */
+  public void requestRender() {
+    synchronized (this.lock) {
+      this.requests += 1;
+      if (this.requested) {
+        this.mergedRequests += 1;
+        return;
+      }
+      this.requested = true;
+      this.lock.notifyAll();
+    }
+  }
+
+  /**
+   * Gets the number of redraws requested since this scheduler was created.
+   *
+   * @return The number of redraws requested.
+   */
+  public long requests() {
+    synchronized (this.lock) {
+      return this.requests;
+    }
+  }
+
+  /**
+   * Draws a frame whenever one has been requested, waiting otherwise, until
+   * {@link #stop()} is called.
+   */
+  @Override
+  public void run() {
+    while (true) {
+      synchronized (this.lock) {
+        // wait until there is something to draw
+        while (this.running && !this.requested) {
+          final long start = System.nanoTime();
+          try {
+            this.lock.wait();
+          } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return;
+          } finally {
+            this.idleNanos += System.nanoTime() - start;
+          }
+        }
+
+        // wait until the frame period since the last frame has elapsed
+        long remaining = this.lastFrameTime + this.minimumFrameNanos
+            - System.nanoTime();
+        while (this.running && remaining > 0) {
+          try {
+            this.lock.wait(remaining / 1000000, (int) (remaining % 1000000));
+          } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+          remaining = this.lastFrameTime + this.minimumFrameNanos
+              - System.nanoTime();
+        }
+
+        if (!this.running) {
+          return;
+        }
+        this.requested = false;
+        this.lastFrameTime = System.nanoTime();
+        this.framesRendered += 1;
+      }
+
+      // draw outside the lock so that requests are never blocked by a frame
+      this.drawable.display();
+    }
+  }
+
+  /**
+   * Starts the thread which draws frames, drawing the first frame as soon as
+   * possible.
+   *
+   * @throws IllegalStateException
+   *           If this scheduler has already been started.
+   */
+  public void start() {
+    synchronized (this.lock) {
+      if (this.thread != null) {
+        throw new IllegalStateException("Scheduler already started");
+      }
+      this.running = true;
+      this.requested = true;
+      this.thread = new Thread(this, "RenderScheduler");
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+  }
+
+  /**
+   * Stops the thread which draws frames and waits for it to finish the frame
+   * it is drawing, if any.
+   *
+   * This method must not be called from within the drawing of a frame.
+   */
+  public void stop() {
+    final Thread stopping;
+    synchronized (this.lock) {
+      this.running = false;
+      this.lock.notifyAll();
+      stopping = this.thread;
+    }
+    if (stopping != null && stopping != Thread.currentThread()) {
+      try {
+        stopping.join();
+      } catch (final InterruptedException exception) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    synchronized (this.lock) {
+      return "RenderScheduler[frames=" + this.framesRendered + ", requests="
+          + this.requests + ", mergedRequests=" + this.mergedRequests
+          + ", idleSeconds=" + this.idleNanos / 1e9 + "]";
+    }
+  }
+}
@@ -3,8 +3,6 @@
  */
 
 
-import javax.media.opengl.GL2;
-
 import com.jogamp.opengl.util.gl2.GLUT;//for new version of gl
 
 /**
@@ -25,13 +23,23 @@ public class RoundedCylinder extends Circular implements Displayable {
    */
   public static final int DEFAULT_STACKS = 28;
 
+  /** The smallest number of slices to use at any level of detail. */
+  public static final int MINIMUM_SLICES = 6;
+  /** The smallest number of stacks to use at any level of detail. */
+  public static final int MINIMUM_STACKS = 4;
+
   /**
-   * The OpenGL handle to the display list which contains all the components
-   * which comprise this cylinder.
+   * The handles with which the backend draws the meshes of this cylinder,
+   * one for each level of detail.
    */
-  private int callListHandle;
+  private final int[] meshHandles = new int[LEVEL_COUNT];
   /** The height of this cylinder. */
   private final double height;
+  /**
+   * The triangle meshes of this object at each level of detail, each created
+   * when first needed.
+   */
+  private final Mesh[] meshes = new Mesh[LEVEL_COUNT];
 
   /**
    * Instantiates this object with the specified radius and height of the
@@ -48,43 +56,144 @@ public class RoundedCylinder extends Circular implements Displayable {
    */
   public RoundedCylinder(final double radius, final double height,
       final GLUT glut) {
-    super(radius, glut);
+    this(radius, height, glut, null);
+  }
+
+  /**
+   * Instantiates this object with the specified radius and height of the
+   * cylinder, sharing the compiled cylinder with other objects of the same
+   * dimensions through the specified cache.
+   * 
+   * @param radius
+   *          The radius of this cylinder.
+   * @param height
+   *          The height of this cylinder.
+   * @param glut
+   *          The OpenGL utility toolkit object to use to draw the cylinder and
+   *          the sphere at the top.
+   * @param geometryCache
+   *          The cache in which to share the compiled cylinder, or
+   *          {@code null} if this object should compile its own.
+   */
+  public RoundedCylinder(final double radius, final double height,
+      final GLUT glut, final GeometryCache geometryCache) {
+    super(radius, glut, geometryCache);
     this.height = height;
   }
 
   /**
-   * {@inheritDoc}
+   * Draws the mesh of this object at its current level of detail.
    * 
-   * @param gl
+   * @param backend
    *          {@inheritDoc}
-   * @see edu.bu.cs.cs480.Displayable#draw(javax.media.opengl.GL)
    */
   @Override
-  public void draw(final GL2 gl) {
-    gl.glCallList(this.callListHandle);
+  public void draw(final RenderBackend backend) {
+    final int level = this.level();
+    backend.drawMesh(this.mesh(level), this.meshHandles[level]);
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * The bounding sphere is centered halfway between the base of the cylinder
+   * and the top of the sphere.
+   * 
+   * @return {@inheritDoc}
+   */
+  @Override
+  public double boundingCenterZ() {
+    return (this.height + this.radius()) / 2;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * @return {@inheritDoc}
+   */
+  @Override
+  public double boundingRadius() {
+    final double halfLength = (this.height + this.radius()) / 2;
+    return Math.sqrt(halfLength * halfLength + this.radius() * this.radius());
+  }
+
+  /**
+   * Gets the height of this cylinder, not including the sphere at its top.
+   * 
+   * @return The height of this cylinder.
+   */
+  public double height() {
+    return this.height;
   }
 
   /**
    * {@inheritDoc}
    * 
-   * @param gl
+   * @param backend
    *          {@inheritDoc}
-   * @see edu.bu.cs.cs480.Displayable#initialize(javax.media.opengl.GL)
    */
   @Override
-  public void initialize(final GL2 gl) {
-    this.callListHandle = gl.glGenLists(1);
+  public void initialize(final RenderBackend backend) {
+    for (int level = 0; level < LEVEL_COUNT; ++level) {
+      final int detail = level;
+      this.meshHandles[level] = this.prepareMesh(backend,
+          GeometryCache.Shape.ROUNDED_CYLINDER, this.height, slices(level),
+          stacks(level), new GeometryCache.Geometry() {
+            @Override
+            public Mesh mesh() {
+              return RoundedCylinder.this.mesh(detail);
+            }
+          });
+    }
+  }
 
-    gl.glNewList(this.callListHandle, GL2.GL_COMPILE);
+  /**
+   * Gets the triangle mesh of this cylinder and the sphere at its top at the
+   * current level of detail.
+   * 
+   * @return The triangle mesh of this object.
+   */
+  public Mesh mesh() {
+    return this.mesh(this.level());
+  }
 
-    this.glut().glutSolidCylinder(this.radius(), this.height, DEFAULT_SLICES,
-        DEFAULT_STACKS);
+  /**
+   * Gets the triangle mesh of this cylinder and the sphere at its top at the
+   * specified level of detail, tessellating it the first time it is requested.
+   * 
+   * @param level
+   *          The level of detail of the mesh.
+   * @return The triangle mesh of this object at the specified level.
+   */
+  @Override
+  public Mesh mesh(final int level) {
+    if (this.meshes[level] == null) {
+      this.meshes[level] = new Mesh();
+      Tessellator.roundedCylinder(this.meshes[level], this.radius(),
+          this.height, slices(level), stacks(level));
+    }
+    return this.meshes[level];
+  }
 
-    gl.glPushMatrix();
-    gl.glTranslated(0, 0, this.height);
-    this.glut().glutSolidSphere(this.radius(), DEFAULT_SLICES, DEFAULT_STACKS);
-    gl.glPopMatrix();
+  /**
+   * Gets the number of slices to use at the specified level of detail.
+   * 
+   * @param level
+   *          The level of detail.
+   * @return The number of slices to use at the specified level.
+   */
+  private static int slices(final int level) {
+    return subdivisions(DEFAULT_SLICES, level, MINIMUM_SLICES);
+  }
 
-    gl.glEndList();
+  /**
+   * Gets the number of stacks to use at the specified level of detail.
+   * 
+   * @param level
+   *          The level of detail.
+   * @return The number of stacks to use at the specified level.
+   */
+  private static int stacks(final int level) {
+    return subdivisions(DEFAULT_STACKS, level, MINIMUM_STACKS);
   }
 }
@@ -0,0 +1,453 @@
+/**
+ * ShapeHierarchy.java - bounding volumes of the shapes of a model
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The shapes of a hierarchy of components in world coordinates, with a
+ * hierarchy of bounding spheres of the same shape as the tree of components,
+ * for queries such as collision detection and picking.
+ *
+ * Each component which draws a {@link RoundedCylinder} is modeled as a
+ * capsule, that is, the segment from its origin to the top of its cylinder
+ * swept by a sphere of its radius, and each component which draws a
+ * {@link Palm} as the ellipsoid of the palm. Other components have no
+ * volume. Each component has a sphere enclosing its own shape and a sphere
+ * enclosing the shapes of its whole subtree.
+ *
+ * The components are indexed in pre-order, so the descendants of the
+ * component at index {@code i} are those from {@code i + 1} up to but not
+ * including {@code end(i)}. The arrays returned by this object are owned by
+ * it, laid out by index with the stride given by each accessor, and must not
+ * be modified.
+ *
+ * {@link #refit()} recomputes only the shapes of components whose angles, or
+ * those of an ancestor, have changed since the previous refit, and the
+ * spheres of only the subtrees which contain them. Changes to the angles of
+ * ancestors of the root are not noticed.
+ */
+public class ShapeHierarchy {
+  /** The kind of shape of a component which draws a rounded cylinder. */
+  public static final int CAPSULE = 1;
+  /** The kind of shape of a component which draws a palm. */
+  public static final int ELLIPSOID = 2;
+  /** The kind of shape of a component without a volume. */
+  public static final int NONE = 0;
+  /** The number of values in a sphere: its center, then its radius. */
+  public static final int SPHERE_LENGTH = 4;
+
+  /**
+   * Sets the specified sphere to the smallest sphere which encloses both it
+   * and another sphere. A sphere with a negative radius is empty.
+   *
+   * @param spheres
+   *          The array containing the sphere to grow.
+   * @param offset
+   *          The index of the center of the sphere to grow.
+   * @param others
+   *          The array containing the sphere to enclose.
+   * @param otherOffset
+   *          The index of the center of the sphere to enclose.
+   */
+  private static void enclose(final double[] spheres, final int offset,
+      final double[] others, final int otherOffset) {
+    final double r2 = others[otherOffset + 3];
+    if (r2 < 0) {
+      return;
+    }
+    final double r1 = spheres[offset + 3];
+    if (r1 < 0) {
+      System.arraycopy(others, otherOffset, spheres, offset, SPHERE_LENGTH);
+      return;
+    }
+    final double dx = others[otherOffset] - spheres[offset];
+    final double dy = others[otherOffset + 1] - spheres[offset + 1];
+    final double dz = others[otherOffset + 2] - spheres[offset + 2];
+    final double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+    if (distance + r2 <= r1) {
+      return;
+    }
+    if (distance + r1 <= r2) {
+      System.arraycopy(others, otherOffset, spheres, offset, SPHERE_LENGTH);
+      return;
+    }
+    final double radius = (distance + r1 + r2) / 2;
+    final double shift = (radius - r1) / distance;
+    spheres[offset] += shift * dx;
+    spheres[offset + 1] += shift * dy;
+    spheres[offset + 2] += shift * dz;
+    spheres[offset + 3] = radius;
+  }
+
+  /**
+   * Adds the components in the subtree rooted at the specified component to
+   * the specified list, in pre-order.
+   *
+   * @param component
+   *          The root of the subtree.
+   * @param list
+   *          The list to which to add the components.
+   */
+  private static void preOrder(final Component component,
+      final List<Component> list) {
+    list.add(component);
+    for (int i = 0; i < component.childCount(); ++i) {
+      preOrder(component.child(i), list);
+    }
+  }
+
+  /** The components, in pre-order. */
+  private final Component[] components;
+  /** The depth of each component below the root. */
+  private final int[] depths;
+  /** The index after the last descendant of each component. */
+  private final int[] ends;
+  /**
+   * The ends of the axis of each capsule, or the center of each ellipsoid
+   * twice, in the coordinate system of its component, six each.
+   */
+  private final double[] localSegments;
+  /** Whether the shape of each component changed during the latest refit. */
+  private final boolean[] moved;
+  /** The index of the parent of each component, or -1 for the root. */
+  private final int[] parents;
+  /** The radius of the capsule of each component, or of its inner sphere. */
+  private final double[] radii;
+  /** The number of shapes recomputed by the latest refit. */
+  private int refitCount = 0;
+  /** The ends of the axis of each capsule in world coordinates, six each. */
+  private final double[] segments;
+  /** The semi-axes of the ellipsoid of each component, three each. */
+  private final double[] semiAxes;
+  /** The sphere enclosing the shape of each component. */
+  private final double[] shapeSpheres;
+  /** The kind of shape of each component. */
+  private final int[] shapes;
+  /** The sphere enclosing the shapes of each subtree. */
+  private final double[] subtreeSpheres;
+  /** The world transformation of each component. */
+  private final double[] transforms;
+  /** The version of each component as of the latest refit. */
+  private final long[] versions;
+
+  /**
+   * Instantiates this hierarchy for the tree rooted at the specified
+   * component.
+   *
+   * The shapes of the components are copied, but their angles are read on
+   * each refit.
+   *
+   * @param root
+   *          The root of the tree.
+   */
+  public ShapeHierarchy(final Component root) {
+    final List<Component> list = new ArrayList<Component>();
+    preOrder(root, list);
+    this.components = list.toArray(new Component[list.size()]);
+    final int size = this.components.length;
+    this.depths = new int[size];
+    this.ends = new int[size];
+    this.parents = new int[size];
+    this.shapes = new int[size];
+    this.radii = new double[size];
+    this.semiAxes = new double[3 * size];
+    this.localSegments = new double[6 * size];
+    this.segments = new double[6 * size];
+    this.transforms = new double[Matrix4d.SIZE * size];
+    this.shapeSpheres = new double[SPHERE_LENGTH * size];
+    this.subtreeSpheres = new double[SPHERE_LENGTH * size];
+    this.moved = new boolean[size];
+    this.versions = new long[size];
+    for (int i = 0; i < size; ++i) {
+      for (Component c = this.components[i]; c != root; c = c.parent()) {
+        this.depths[i] += 1;
+      }
+      this.initializeShape(i, this.components[i].displayable());
+    }
+    for (int i = size - 1; i >= 0; --i) {
+      this.parents[i] = -1;
+      int end = i + 1;
+      while (end < size && this.depths[end] > this.depths[i]) {
+        this.parents[end] = i;
+        end = this.ends[end];
+      }
+      this.ends[i] = end;
+    }
+    this.refitAll();
+  }
+
+  /**
+   * Gets the component with the specified index.
+   *
+   * @param index
+   *          The index of the component.
+   * @return The component.
+   */
+  public Component component(final int index) {
+    return this.components[index];
+  }
+
+  /**
+   * Gets the depth of each component below the root, one per component.
+   *
+   * @return The depth of each component.
+   */
+  public int[] depths() {
+    return this.depths;
+  }
+
+  /**
+   * Gets the index after the last descendant of each component, one per
+   * component.
+   *
+   * @return The index after the subtree of each component.
+   */
+  public int[] ends() {
+    return this.ends;
+  }
+
+  /**
+   * Records the shape of the specified component.
+   *
+   * @param i
+   *          The index of the component.
+   * @param displayable
+   *          The object drawn by the component, or {@code null}.
+   */
+  private void initializeShape(final int i, final Displayable displayable) {
+    if (displayable instanceof RoundedCylinder) {
+      final RoundedCylinder cylinder = (RoundedCylinder) displayable;
+      this.shapes[i] = CAPSULE;
+      this.radii[i] = cylinder.radius();
+      this.localSegments[6 * i + 5] = cylinder.height();
+    } else if (displayable instanceof Palm) {
+      final Palm palm = (Palm) displayable;
+      this.shapes[i] = ELLIPSOID;
+      this.semiAxes[3 * i] = Palm.X_SCALE * palm.radius();
+      this.semiAxes[3 * i + 1] = Palm.Y_SCALE * palm.radius();
+      this.semiAxes[3 * i + 2] = Palm.Z_SCALE * palm.radius();
+      this.radii[i] = Math.min(this.semiAxes[3 * i],
+          Math.min(this.semiAxes[3 * i + 1], this.semiAxes[3 * i + 2]));
+      this.localSegments[6 * i + 2] = palm.boundingCenterZ();
+      this.localSegments[6 * i + 5] = palm.boundingCenterZ();
+    } else {
+      this.shapes[i] = NONE;
+    }
+  }
+
+  /**
+   * Gets the ends of the axis of the capsule of each component, or the
+   * center of its ellipsoid twice, in the coordinate system of the
+   * component, six per component.
+   *
+   * @return The local axis of each shape.
+   */
+  public double[] localSegments() {
+    return this.localSegments;
+  }
+
+  /**
+   * Gets the radius of the capsule of each component, or the radius of the
+   * largest sphere inside its ellipsoid, one per component.
+   *
+   * @return The radius of each shape.
+   */
+  public double[] radii() {
+    return this.radii;
+  }
+
+  /**
+   * Recomputes the world shape and bounding spheres of those components
+   * which have moved since the previous refit.
+   *
+   * This method must be called on the thread which owns the components.
+   *
+   * @return Whether any component had moved.
+   */
+  public boolean refit() {
+    final int size = this.components.length;
+    this.refitCount = 0;
+    for (int i = 0; i < size; ++i) {
+      final long version = this.components[i].version();
+      final int parent = this.parents[i];
+      this.moved[i] = version != this.versions[i]
+          || (parent >= 0 && this.moved[parent]);
+      if (this.moved[i]) {
+        this.versions[i] = version;
+        this.refitShape(i);
+      }
+    }
+    if (this.refitCount == 0) {
+      return false;
+    }
+
+    // children follow their parents in pre-order, so refit from the end
+    for (int i = size - 1; i >= 0; --i) {
+      if (this.moved[i]) {
+        this.refitSubtree(i);
+        if (this.parents[i] >= 0) {
+          this.moved[this.parents[i]] = true;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Recomputes the world shape and bounding spheres of every component.
+   */
+  public void refitAll() {
+    final int size = this.components.length;
+    this.refitCount = 0;
+    for (int i = 0; i < size; ++i) {
+      this.versions[i] = this.components[i].version();
+      this.refitShape(i);
+    }
+    for (int i = size - 1; i >= 0; --i) {
+      this.refitSubtree(i);
+    }
+  }
+
+  /**
+   * Gets the number of shapes recomputed by the most recent refit.
+   *
+   * @return The number of shapes recomputed.
+   */
+  public int refitCount() {
+    return this.refitCount;
+  }
+
+  /**
+   * Recomputes the world shape of the specified component and the sphere
+   * which encloses it.
+   *
+   * @param i
+   *          The index of the component.
+   */
+  private void refitShape(final int i) {
+    final int o = Matrix4d.SIZE * i;
+    final int s = SPHERE_LENGTH * i;
+    final double[] m = this.components[i].worldTransform();
+    System.arraycopy(m, 0, this.transforms, o, Matrix4d.SIZE);
+    this.refitCount += 1;
+    if (this.shapes[i] == NONE) {
+      this.shapeSpheres[s + 3] = -1;
+      return;
+    }
+    final int p = 6 * i;
+    final double[] l = this.localSegments;
+    final double[] w = this.segments;
+    Matrix4d.transformPoint(m, 0, l[p], l[p + 1], l[p + 2], w, p);
+    Matrix4d.transformPoint(m, 0, l[p + 3], l[p + 4], l[p + 5], w, p + 3);
+    this.shapeSpheres[s] = (w[p] + w[p + 3]) / 2;
+    this.shapeSpheres[s + 1] = (w[p + 1] + w[p + 4]) / 2;
+    this.shapeSpheres[s + 2] = (w[p + 2] + w[p + 5]) / 2;
+    if (this.shapes[i] == ELLIPSOID) {
+      this.shapeSpheres[s + 3] = Math.max(this.semiAxes[3 * i],
+          Math.max(this.semiAxes[3 * i + 1], this.semiAxes[3 * i + 2]));
+    } else {
+      this.shapeSpheres[s + 3] = (l[p + 5] - l[p + 2]) / 2 + this.radii[i];
+    }
+  }
+
+  /**
+   * Recomputes the sphere enclosing the subtree of the specified component
+   * from its own sphere and those of the subtrees of its children.
+   *
+   * @param i
+   *          The index of the component.
+   */
+  private void refitSubtree(final int i) {
+    final int s = SPHERE_LENGTH * i;
+    System.arraycopy(this.shapeSpheres, s, this.subtreeSpheres, s,
+        SPHERE_LENGTH);
+    for (int child = i + 1; child < this.ends[i]; child = this.ends[child]) {
+      enclose(this.subtreeSpheres, s, this.subtreeSpheres, SPHERE_LENGTH
+          * child);
+    }
+  }
+
+  /**
+   * Gets the ends of the axis of the capsule of each component, or the
+   * center of its ellipsoid twice, in world coordinates, six per component.
+   *
+   * @return The world axis of each shape.
+   */
+  public double[] segments() {
+    return this.segments;
+  }
+
+  /**
+   * Gets the semi-axes of the ellipsoid of each component, three per
+   * component.
+   *
+   * @return The semi-axes of each ellipsoid.
+   */
+  public double[] semiAxes() {
+    return this.semiAxes;
+  }
+
+  /**
+   * Gets the kind of shape of each component, {@link #NONE},
+   * {@link #CAPSULE}, or {@link #ELLIPSOID}, one per component.
+   *
+   * @return The kind of shape of each component.
+   */
+  public int[] shapes() {
+    return this.shapes;
+  }
+
+  /**
+   * Gets the sphere enclosing the shape of each component, as its center
+   * followed by its radius, which is negative if the component has no
+   * shape, {@link #SPHERE_LENGTH} values per component.
+   *
+   * @return The sphere enclosing each shape.
+   */
+  public double[] shapeSpheres() {
+    return this.shapeSpheres;
+  }
+
+  /**
+   * Gets the number of components.
+   *
+   * @return The number of components.
+   */
+  public int size() {
+    return this.components.length;
+  }
+
+  /**
+   * Gets the sphere enclosing the shapes of the subtree of each component,
+   * laid out as in {@link #shapeSpheres()}.
+   *
+   * @return The sphere enclosing each subtree.
+   */
+  public double[] subtreeSpheres() {
+    return this.subtreeSpheres;
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    return "ShapeHierarchy[components=" + this.components.length
+        + ", refit=" + this.refitCount + "]";
+  }
+
+  /**
+   * Gets the world transformation of each component as of the latest
+   * refit, {@link Matrix4d#SIZE} values per component.
+   *
+   * @return The world transformation of each component.
+   */
+  public double[] transforms() {
+    return this.transforms;
+  }
+}
@@ -0,0 +1,38 @@
+/**
+ * Simulation.java - something which moves the joints of a model over time
+ */
+
+
+/**
+ * Something which moves the joints of a model over time, advanced in fixed
+ * steps by a {@link SimulationLoop} on a thread of its own.
+ *
+ * A simulation keeps its own state and never reads or changes the
+ * components of the model; it only writes the angles of the joints into the
+ * pose arrays given to it.
+ */
+public interface Simulation {
+
+  /**
+   * Gets the generation of the state of this simulation, with which the
+   * poses it writes are tagged, so that a reader can ignore poses written
+   * before the simulation was last restarted.
+   *
+   * @return The current generation.
+   */
+  long generation();
+
+  /**
+   * Advances this simulation by the specified time and writes the resulting
+   * angles of every joint into the specified pose.
+   *
+   * @param seconds
+   *          The time by which to advance, in seconds.
+   * @param pose
+   *          The array into which to write the x, y, and z angles of each
+   *          joint, in degrees.
+   * @return Whether the pose was written; {@code false} if this simulation
+   *         is idle and wrote nothing.
+   */
+  boolean step(final double seconds, final double[] pose);
+}
@@ -0,0 +1,231 @@
+/**
+ * SimulationLoop.java - advances a simulation in fixed steps on its own thread
+ */
+
+
+/**
+ * Advances a {@link Simulation} in fixed time steps on a thread of its own,
+ * publishing the resulting poses through a {@link PoseBuffer}.
+ *
+ * The loop keeps the simulation in step with real time: if it falls behind,
+ * it takes several steps before publishing, up to
+ * {@link #MAXIMUM_STEPS_PER_PUBLISH}, and drops any remaining backlog rather
+ * than falling further behind. When the simulation reports that it is idle,
+ * the loop waits without using the processor until {@link #wake()} is
+ * called.
+ */
+public class SimulationLoop implements Runnable {
+  /** The largest number of steps taken between two publications. */
+  public static final int MAXIMUM_STEPS_PER_PUBLISH = 8;
+
+  /** Whether the simulation may be active, so that the loop should run. */
+  private boolean awake = false;
+  /** The buffer through which to publish poses. */
+  private final PoseBuffer buffer;
+  /** The lock guarding the state shared with other threads. */
+  private final Object lock = new Object();
+  /** Called after each pose is published, or {@code null}. */
+  private final Runnable publishListener;
+  /** The number of poses published. */
+  private volatile long publishes = 0;
+  /** Whether the thread should keep running. */
+  private boolean running = false;
+  /** The simulation to advance. */
+  private final Simulation simulation;
+  /** The length of each step, in nanoseconds. */
+  private final long stepNanos;
+  /** The length of each step, in seconds. */
+  private final double stepSeconds;
+  /** The number of steps taken. */
+  private volatile long steps = 0;
+  /** The thread which runs the loop, or {@code null} if not started. */
+  private Thread thread = null;
+  /** Whether {@link #wake()} was called since the loop last checked. */
+  private boolean woken = false;
+
+  /**
+   * Instantiates this loop which advances the specified simulation in steps
+   * of the specified length.
+   *
+   * @param simulation
+   *          The simulation to advance.
+   * @param buffer
+   *          The buffer through which to publish poses.
+   * @param stepSeconds
+   *          The length of each step, in seconds.
+   * @param publishListener
+   *          Called on the simulation thread after each pose is published, or
+   *          {@code null}.
+   */
+  public SimulationLoop(final Simulation simulation, final PoseBuffer buffer,
+      final double stepSeconds, final Runnable publishListener) {
+    if (stepSeconds <= 0) {
+      throw new IllegalArgumentException("Invalid step " + stepSeconds);
+    }
+    this.simulation = simulation;
+    this.buffer = buffer;
+    this.stepSeconds = stepSeconds;
+    this.stepNanos = (long) (stepSeconds * 1e9);
+    this.publishListener = publishListener;
+  }
+
+  /**
+   * Gets the number of poses published since this loop was started.
+   *
+   * @return The number of poses published.
+   */
+  public long publishes() {
+    return this.publishes;
+  }
+
+  /**
+   * Advances the simulation and publishes poses until {@link #stop()} is
+   * called, waiting while the simulation is idle.
+   */
+  @Override
+  public void run() {
+    long next = System.nanoTime();
+    while (true) {
+      synchronized (this.lock) {
+        if (!this.awake) {
+          while (this.running && !this.awake) {
+            try {
+              this.lock.wait();
+            } catch (final InterruptedException exception) {
+              Thread.currentThread().interrupt();
+              return;
+            }
+          }
+          // do not try to catch up on the time spent idle
+          next = System.nanoTime();
+        }
+
+        // wait until the next step is due
+        long remaining = next - System.nanoTime();
+        while (this.running && remaining > 0) {
+          try {
+            this.lock.wait(remaining / 1000000, (int) (remaining % 1000000));
+          } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+          remaining = next - System.nanoTime();
+        }
+        if (!this.running) {
+          return;
+        }
+        this.woken = false;
+      }
+
+      // take every step which is due, up to the maximum
+      final long now = System.nanoTime();
+      final double[] pose = this.buffer.writeBuffer();
+      boolean written = false;
+      boolean idle = false;
+      int taken = 0;
+      while (next <= now && taken < MAXIMUM_STEPS_PER_PUBLISH) {
+        next += this.stepNanos;
+        taken += 1;
+        if (this.simulation.step(this.stepSeconds, pose)) {
+          written = true;
+        } else {
+          idle = true;
+          break;
+        }
+      }
+      if (next <= now) {
+        next = now + this.stepNanos;
+      }
+      this.steps += taken;
+
+      if (written) {
+        this.buffer.publish(this.simulation.generation());
+        this.publishes += 1;
+        if (this.publishListener != null) {
+          this.publishListener.run();
+        }
+      }
+
+      if (idle) {
+        synchronized (this.lock) {
+          if (!this.woken) {
+            this.awake = false;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts the thread which runs this loop.
+   *
+   * @throws IllegalStateException
+   *           If this loop has already been started.
+   */
+  public void start() {
+    synchronized (this.lock) {
+      if (this.thread != null) {
+        throw new IllegalStateException("Simulation loop already started");
+      }
+      this.running = true;
+      this.awake = true;
+      this.thread = new Thread(this, "SimulationLoop");
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+  }
+
+  /**
+   * Gets the number of steps taken since this loop was started.
+   *
+   * @return The number of steps taken.
+   */
+  public long steps() {
+    return this.steps;
+  }
+
+  /**
+   * Stops the thread which runs this loop and waits for it to finish the
+   * step it is taking, if any.
+   */
+  public void stop() {
+    final Thread stopping;
+    synchronized (this.lock) {
+      this.running = false;
+      this.lock.notifyAll();
+      stopping = this.thread;
+    }
+    if (stopping != null && stopping != Thread.currentThread()) {
+      try {
+        stopping.join();
+      } catch (final InterruptedException exception) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Returns the String representation of this object.
+   *
+   * @return The String representation of this object.
+   */
+  @Override
+  public String toString() {
+    return "SimulationLoop[step=" + this.stepSeconds + "s, steps="
+        + this.steps + ", publishes=" + this.publishes + "]";
+  }
+
+  /**
+   * Resumes the loop if it is waiting because the simulation was idle, as it
+   * should be whenever the simulation is given something new to do.
+   *
+   * This method may be called from any thread.
+   */
+  public void wake() {
+    synchronized (this.lock) {
+      this.woken = true;
+      this.awake = true;
+      this.lock.notifyAll();
+    }
+  }
+}
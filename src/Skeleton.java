@@ -0,0 +1,460 @@
+/**
+ * Skeleton.java - a hierarchy of components described by a skeleton file
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jogamp.opengl.util.gl2.GLUT;
+
+/**
+ * A hierarchy of components read from a skeleton file, which describes the
+ * joints of a model declaratively rather than in code, so that different
+ * models can be loaded without recompiling.
+ *
+ * A skeleton file is a text file with one declaration per line; text after a
+ * {@code #} is a comment, and names containing spaces are enclosed in double
+ * quotes. Shapes are declared once and may be shared by any number of
+ * joints:
+ *
+ * <pre>
+ * shape ID cylinder RADIUS HEIGHT
+ * shape ID palm RADIUS
+ * joint NAME PARENT X Y Z [shape=ID] [angles=X,Y,Z]
+ *     [extents=X_MIN,X_MAX,Y_MIN,Y_MAX,Z_MIN,Z_MAX]
+ * </pre>
+ *
+ * The parent of the root joint is given as {@link #NO_PARENT}.
+ *
+ * A joint is positioned at the given point relative to its parent, which
+ * must be declared before it; exactly one joint has no parent. Its initial
+ * angles are set before its extents, so they are not limited by them.
+ *
+ * The file is read in a single pass, creating each component as its line is
+ * read. Each joint gets its own shape object, so that its level of detail
+ * can be chosen independently, but shapes with the same dimensions share
+ * their tessellations through the {@link GeometryCache}, which creates them
+ * only when they are first drawn.
+ */
+public class Skeleton {
+
+  /** A shape declared in a skeleton file. */
+  private static final class ShapeDefinition {
+    /** The height of the shape, or 0 for a palm. */
+    private final double height;
+    /** The radius of the shape. */
+    private final double radius;
+    /** The type of the shape. */
+    private final GeometryCache.Shape shape;
+
+    /**
+     * Instantiates this definition with the specified dimensions.
+     *
+     * @param shape
+     *          The type of the shape.
+     * @param radius
+     *          The radius of the shape.
+     * @param height
+     *          The height of the shape, or 0 for a palm.
+     */
+    ShapeDefinition(final GeometryCache.Shape shape, final double radius,
+        final double height) {
+      this.shape = shape;
+      this.radius = radius;
+      this.height = height;
+    }
+
+    /**
+     * Creates a new object which draws this shape.
+     *
+     * @param glut
+     *          The OpenGL utility toolkit object with which to draw.
+     * @param geometryCache
+     *          The cache of shared tessellations, or {@code null}.
+     * @return A new shape object.
+     */
+    Displayable create(final GLUT glut, final GeometryCache geometryCache) {
+      if (this.shape == GeometryCache.Shape.ELLIPSOID) {
+        return new Palm(this.radius, glut, geometryCache);
+      }
+      return new RoundedCylinder(this.radius, this.height, glut,
+          geometryCache);
+    }
+  }
+
+  /** The number of values in the {@code extents} option. */
+  private static final int EXTENT_COUNT = 6;
+  /** The name given in place of a parent for the root joint. */
+  public static final String NO_PARENT = "-";
+
+  /**
+   * Reads the skeleton described by the specified file.
+   *
+   * @param file
+   *          The skeleton file, in UTF-8.
+   * @param glut
+   *          The OpenGL utility toolkit object with which to draw shapes.
+   * @param geometryCache
+   *          The cache of shared tessellations, or {@code null}.
+   * @return The skeleton described by the file.
+   * @throws IOException
+   *           If the file cannot be read or is not a valid skeleton file.
+   */
+  public static Skeleton load(final File file, final GLUT glut,
+      final GeometryCache geometryCache) throws IOException {
+    return load(new FileInputStream(file), file.getPath(), glut,
+        geometryCache);
+  }
+
+  /**
+   * Reads the skeleton described by the specified stream, and closes it.
+   *
+   * @param stream
+   *          The stream from which to read the skeleton, in UTF-8, or
+   *          {@code null} if the source could not be found.
+   * @param sourceName
+   *          The name of the source of the stream, for error messages.
+   * @param glut
+   *          The OpenGL utility toolkit object with which to draw shapes.
+   * @param geometryCache
+   *          The cache of shared tessellations, or {@code null}.
+   * @return The skeleton described by the stream.
+   * @throws IOException
+   *           If the stream cannot be read or is not a valid skeleton file.
+   */
+  public static Skeleton load(final InputStream stream,
+      final String sourceName, final GLUT glut,
+      final GeometryCache geometryCache) throws IOException {
+    if (stream == null) {
+      throw new FileNotFoundException(sourceName);
+    }
+    final Reader reader = new InputStreamReader(stream, "UTF-8");
+    try {
+      return new Skeleton(new BufferedReader(reader), sourceName, glut,
+          geometryCache);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Splits the specified line into tokens separated by whitespace, treating
+   * text in double quotes as a single token and ignoring comments.
+   *
+   * @param line
+   *          The line to split.
+   * @return The tokens in the line.
+   */
+  private static List<String> tokenize(final String line) {
+    final List<String> tokens = new ArrayList<String>();
+    final StringBuilder token = new StringBuilder();
+    boolean quoted = false;
+    boolean inToken = false;
+    for (int i = 0; i < line.length(); ++i) {
+      final char c = line.charAt(i);
+      if (quoted) {
+        if (c == '"') {
+          quoted = false;
+        } else {
+          token.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+        inToken = true;
+      } else if (c == '#') {
+        break;
+      } else if (Character.isWhitespace(c)) {
+        if (inToken) {
+          tokens.add(token.toString());
+          token.setLength(0);
+          inToken = false;
+        }
+      } else {
+        token.append(c);
+        inToken = true;
+      }
+    }
+    if (inToken) {
+      tokens.add(token.toString());
+    }
+    return tokens;
+  }
+
+  /** The joints, keyed by name. */
+  private final Map<String, Component> jointsByName =
+      new HashMap<String, Component>();
+  /** The joints, in the order in which they were declared. */
+  private final List<Component> joints = new ArrayList<Component>();
+  /** The line being read, for error messages. */
+  private int lineNumber = 0;
+  /** The root of the hierarchy. */
+  private Component root = null;
+  /** The declared shapes, keyed by id. */
+  private final Map<String, ShapeDefinition> shapes =
+      new HashMap<String, ShapeDefinition>();
+  /** The name of the source being read, for error messages. */
+  private final String sourceName;
+
+  /**
+   * Instantiates this skeleton by reading the declarations in the specified
+   * reader.
+   *
+   * @param reader
+   *          The reader from which to read the declarations.
+   * @param sourceName
+   *          The name of the source of the reader, for error messages.
+   * @param glut
+   *          The OpenGL utility toolkit object with which to draw shapes.
+   * @param geometryCache
+   *          The cache of shared tessellations, or {@code null}.
+   * @throws IOException
+   *           If the reader cannot be read or the declarations are invalid.
+   */
+  private Skeleton(final BufferedReader reader, final String sourceName,
+      final GLUT glut, final GeometryCache geometryCache) throws IOException {
+    this.sourceName = sourceName;
+    for (String line = reader.readLine(); line != null; line = reader
+        .readLine()) {
+      this.lineNumber += 1;
+      final List<String> tokens = tokenize(line);
+      if (tokens.isEmpty()) {
+        continue;
+      }
+      final String keyword = tokens.get(0);
+      if (keyword.equals("shape")) {
+        this.readShape(tokens);
+      } else if (keyword.equals("joint")) {
+        this.readJoint(tokens, glut, geometryCache);
+      } else {
+        throw this.invalid("unknown declaration " + keyword);
+      }
+    }
+    if (this.root == null) {
+      throw this.invalid("no root joint");
+    }
+  }
+
+  /**
+   * Creates an exception describing an error on the current line.
+   *
+   * @param reason
+   *          What is wrong with the line.
+   * @return The new exception.
+   */
+  private IOException invalid(final String reason) {
+    return new IOException(this.sourceName + ":" + this.lineNumber + ": "
+        + reason);
+  }
+
+  /**
+   * Gets the joint with the specified name.
+   *
+   * @param name
+   *          The name of the joint.
+   * @return The joint with the specified name.
+   * @throws IllegalArgumentException
+   *           If there is no joint with that name.
+   */
+  public Component joint(final String name) {
+    final Component joint = this.jointsByName.get(name);
+    if (joint == null) {
+      throw new IllegalArgumentException("No joint named " + name + " in "
+          + this.sourceName);
+    }
+    return joint;
+  }
+
+  /**
+   * Gets all the joints, in the order in which they were declared.
+   *
+   * @return An unmodifiable list of the joints.
+   */
+  public List<Component> joints() {
+    return Collections.unmodifiableList(this.joints);
+  }
+
+  /**
+   * Parses the specified number.
+   *
+   * @param token
+   *          The number to parse.
+   * @return The number.
+   * @throws IOException
+   *           If the token is not a number.
+   */
+  private double parseNumber(final String token) throws IOException {
+    try {
+      return Double.parseDouble(token);
+    } catch (final NumberFormatException exception) {
+      throw this.invalid("invalid number " + token);
+    }
+  }
+
+  /**
+   * Parses the specified comma-separated list of numbers.
+   *
+   * @param option
+   *          The name of the option containing the list.
+   * @param list
+   *          The list to parse.
+   * @param count
+   *          The number of numbers which must be in the list.
+   * @return The numbers.
+   * @throws IOException
+   *           If the list does not contain the right number of numbers.
+   */
+  private double[] parseNumbers(final String option, final String list,
+      final int count) throws IOException {
+    final String[] tokens = list.split(",");
+    if (tokens.length != count) {
+      throw this.invalid(option + " needs " + count + " values");
+    }
+    final double[] numbers = new double[count];
+    for (int i = 0; i < count; ++i) {
+      numbers[i] = this.parseNumber(tokens[i].trim());
+    }
+    return numbers;
+  }
+
+  /**
+   * Creates the joint declared by the specified tokens and attaches it to
+   * its parent.
+   *
+   * @param tokens
+   *          The tokens of the declaration.
+   * @param glut
+   *          The OpenGL utility toolkit object with which to draw shapes.
+   * @param geometryCache
+   *          The cache of shared tessellations, or {@code null}.
+   * @throws IOException
+   *           If the declaration is invalid.
+   */
+  private void readJoint(final List<String> tokens, final GLUT glut,
+      final GeometryCache geometryCache) throws IOException {
+    if (tokens.size() < 6) {
+      throw this.invalid("joint needs a name, a parent, and a position");
+    }
+    final String name = tokens.get(1);
+    if (this.jointsByName.containsKey(name)) {
+      throw this.invalid("duplicate joint " + name);
+    }
+    final String parentName = tokens.get(2);
+    final Component parent;
+    if (parentName.equals(NO_PARENT)) {
+      if (this.root != null) {
+        throw this.invalid("second root joint " + name);
+      }
+      parent = null;
+    } else {
+      parent = this.jointsByName.get(parentName);
+      if (parent == null) {
+        throw this.invalid("unknown parent " + parentName);
+      }
+    }
+    final Point3D position = new Point3D(this.parseNumber(tokens.get(3)),
+        this.parseNumber(tokens.get(4)), this.parseNumber(tokens.get(5)));
+
+    ShapeDefinition shape = null;
+    double[] angles = null;
+    double[] extents = null;
+    for (int i = 6; i < tokens.size(); ++i) {
+      final String option = tokens.get(i);
+      final int equals = option.indexOf('=');
+      final String key = equals < 0 ? option : option.substring(0, equals);
+      final String value = equals < 0 ? "" : option.substring(equals + 1);
+      if (key.equals("shape")) {
+        shape = this.shapes.get(value);
+        if (shape == null) {
+          throw this.invalid("unknown shape " + value);
+        }
+      } else if (key.equals("angles")) {
+        angles = this.parseNumbers(key, value, JointRegistry.AXES);
+      } else if (key.equals("extents")) {
+        extents = this.parseNumbers(key, value, EXTENT_COUNT);
+      } else {
+        throw this.invalid("unknown option " + key);
+      }
+    }
+
+    final Component joint = new Component(position, shape == null ? null
+        : shape.create(glut, geometryCache), name);
+    if (angles != null) {
+      joint.setAngles(angles[0], angles[1], angles[2]);
+    }
+    if (extents != null) {
+      joint.setXNegativeExtent(extents[0]);
+      joint.setXPositiveExtent(extents[1]);
+      joint.setYNegativeExtent(extents[2]);
+      joint.setYPositiveExtent(extents[3]);
+      joint.setZNegativeExtent(extents[4]);
+      joint.setZPositiveExtent(extents[5]);
+    }
+    if (parent == null) {
+      this.root = joint;
+    } else {
+      parent.addChild(joint);
+    }
+    this.jointsByName.put(name, joint);
+    this.joints.add(joint);
+  }
+
+  /**
+   * Defines the shape declared by the specified tokens.
+   *
+   * @param tokens
+   *          The tokens of the declaration.
+   * @throws IOException
+   *           If the declaration is invalid.
+   */
+  private void readShape(final List<String> tokens) throws IOException {
+    if (tokens.size() < 3) {
+      throw this.invalid("shape needs an id and a type");
+    }
+    final String id = tokens.get(1);
+    if (this.shapes.containsKey(id)) {
+      throw this.invalid("duplicate shape " + id);
+    }
+    final String type = tokens.get(2);
+    final ShapeDefinition shape;
+    if (type.equals("cylinder") && tokens.size() == 5) {
+      shape = new ShapeDefinition(GeometryCache.Shape.ROUNDED_CYLINDER,
+          this.parseNumber(tokens.get(3)), this.parseNumber(tokens.get(4)));
+    } else if (type.equals("palm") && tokens.size() == 4) {
+      shape = new ShapeDefinition(GeometryCache.Shape.ELLIPSOID,
+          this.parseNumber(tokens.get(3)), 0);
+    } else {
+      throw this.invalid("invalid shape " + id);
+    }
+    this.shapes.put(id, shape);
+  }
+
+  /**
+   * Gets the root of the hierarchy.
+   *
+   * @return The joint which has no parent.
+   */
+  public Component root() {
+    return this.root;
+  }
+
+  /**
+   * Gets the number of shapes declared.
+   *
+   * @return The number of shapes.
+   */
+  public int shapeCount() {
+    return this.shapes.size();
+  }
+}
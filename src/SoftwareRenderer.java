@@ -0,0 +1,577 @@
+/**
+ * SoftwareRenderer.java - draws a hierarchy of components without OpenGL
+ */
+
+
+import java.awt.image.BufferedImage;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Draws a hierarchy of components into an array of pixels entirely in Java,
+ * so that images of the model can be produced on machines without a graphics
+ * card.
+ *
+ * The scene is drawn as {@link PA2} draws it: the whole hierarchy is rotated
+ * by a viewing rotation, viewed from {@link PA2#EYE_DISTANCE} along the
+ * positive z axis with a vertical field of view of {@link PA2#FIELD_OF_VIEW},
+ * lit by the single directional light set up in {@link PA2#init}, and depth
+ * buffered. Vertices are lit individually and their colors interpolated
+ * across each triangle, as with smooth shading in OpenGL.
+ *
+ * Each frame is drawn in two passes. First, every triangle of every
+ * {@link Circular} object is transformed to the screen, lit, and added to the
+ * bin of each square tile of the image which its bounding box overlaps. Then
+ * the tiles are filled in parallel by a pool of threads; since no two tiles
+ * share a pixel, the threads need no synchronization. The buffers used by
+ * both passes are kept between frames, so drawing the same scene repeatedly
+ * does not allocate memory.
+ */
+public class SoftwareRenderer {
+  /** The ambient intensity of the light model, the OpenGL default. */
+  private static final float GLOBAL_AMBIENT = 0.2f;
+  /** The ambient intensity of the light, as set in {@link PA2#init}. */
+  private static final float LIGHT_AMBIENT = 0.25f;
+  /** The diffuse intensity of the light, as set in {@link PA2#init}. */
+  private static final float LIGHT_DIFFUSE = 1;
+  /** The direction toward the light in eye space, as set in PA2. */
+  private static final float[] LIGHT_DIRECTION = { 1, 1, 1 };
+  /** The distance to the far clipping plane, as set in PA2. */
+  private static final double FAR = 100;
+  /** The distance to the near clipping plane, as set in PA2. */
+  private static final double NEAR = 0.1;
+  /** The color of pixels not covered by any triangle, opaque black. */
+  private static final int BACKGROUND = 0xff000000;
+  /** The number of floats stored for each vertex after it is transformed. */
+  private static final int FLOATS_PER_SCREEN_VERTEX = 6;
+  /** The width and height of a tile, in pixels. */
+  public static final int TILE_SIZE = 32;
+
+  /**
+   * Converts a color component in the range 0 to 1 to an 8-bit integer,
+   * clamping values outside the range.
+   *
+   * @param value
+   *          The color component.
+   * @return The color component as an integer from 0 to 255.
+   */
+  private static int toByte(final float value) {
+    if (value <= 0) {
+      return 0;
+    }
+    if (value >= 1) {
+      return 255;
+    }
+    return (int) (value * 255 + 0.5f);
+  }
+
+  /** The color of each pixel, in ARGB form, row by row from the top. */
+  private final int[] colors;
+  /**
+   * The depth of each pixel, stored as the reciprocal of its distance in
+   * front of the camera, so that larger values are nearer.
+   */
+  private final float[] depths;
+  /** The distance from the camera to the origin of the scene. */
+  private final double eyeDistance;
+  /** The height of the image, in pixels. */
+  private final int height;
+  /** The scale from view space to normalized device x coordinates. */
+  private final double xScale;
+  /** The scale from view space to normalized device y coordinates. */
+  private final double yScale;
+  /** The threads which fill the tiles. */
+  private final ExecutorService pool;
+  /** The task which fills each tile. */
+  private final List<Callable<Void>> tasks;
+  /** The number of tiles across the image. */
+  private final int tilesAcross;
+  /** The indices of the triangles which overlap each tile. */
+  private final int[][] tileTriangles;
+  /** The number of triangles which overlap each tile. */
+  private final int[] tileTriangleCounts;
+  /** The number of triangles drawn in the current frame. */
+  private int triangleCount = 0;
+  /** The indices of the screen vertices of each triangle. */
+  private int[] triangles = new int[3 * 1024];
+  /** The number of vertices transformed in the current frame. */
+  private int vertexCount = 0;
+  /**
+   * The screen x and y coordinates, reciprocal depth, and color components
+   * divided by depth of each transformed vertex.
+   */
+  private float[] vertices = new float[FLOATS_PER_SCREEN_VERTEX * 1024];
+  /** Scratch space for the rotation matrix of the viewing quaternion. */
+  private final float[] viewingMatrix = new float[Matrix4d.SIZE];
+  /** Scratch space for the viewing matrix in double precision. */
+  private final double[] view = new double[Matrix4d.SIZE];
+  /** Scratch space for the transformation from model space to eye space. */
+  private final double[] modelView = new double[Matrix4d.SIZE];
+  /** The width of the image, in pixels. */
+  private final int width;
+
+  /**
+   * Instantiates this renderer with the same size and projection as the
+   * default window of PA2, using one thread per available processor.
+   */
+  public SoftwareRenderer() {
+    this(PA2.DEFAULT_WINDOW_WIDTH, PA2.DEFAULT_WINDOW_HEIGHT, Runtime
+        .getRuntime().availableProcessors());
+  }
+
+  /**
+   * Instantiates this renderer with the projection of PA2 and the specified
+   * image size and number of threads.
+   *
+   * @param width
+   *          The width of the image, in pixels.
+   * @param height
+   *          The height of the image, in pixels.
+   * @param threads
+   *          The number of threads with which to fill tiles.
+   */
+  public SoftwareRenderer(final int width, final int height,
+      final int threads) {
+    if (width <= 0 || height <= 0 || threads <= 0) {
+      throw new IllegalArgumentException("Invalid renderer size " + width
+          + "x" + height + " with " + threads + " threads");
+    }
+    this.width = width;
+    this.height = height;
+    this.eyeDistance = PA2.EYE_DISTANCE;
+    this.yScale = 1 / Math.tan(Math.toRadians(PA2.FIELD_OF_VIEW) / 2);
+    this.xScale = this.yScale * height / width;
+    this.colors = new int[width * height];
+    this.depths = new float[width * height];
+
+    this.tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+    final int tilesDown = (height + TILE_SIZE - 1) / TILE_SIZE;
+    final int tileCount = this.tilesAcross * tilesDown;
+    this.tileTriangles = new int[tileCount][64];
+    this.tileTriangleCounts = new int[tileCount];
+    this.tasks = new ArrayList<Callable<Void>>(tileCount);
+    for (int tile = 0; tile < tileCount; ++tile) {
+      final int index = tile;
+      this.tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          SoftwareRenderer.this.fillTile(index);
+          return null;
+        }
+      });
+    }
+
+    this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(runnable, "SoftwareRenderer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Adds the triangle with the specified screen vertices to the bin of each
+   * tile which its bounding box overlaps.
+   *
+   * @param triangle
+   *          The index of the triangle.
+   * @param v0
+   *          The index of the first screen vertex.
+   * @param v1
+   *          The index of the second screen vertex.
+   * @param v2
+   *          The index of the third screen vertex.
+   */
+  private void binTriangle(final int triangle, final int v0, final int v1,
+      final int v2) {
+    final float[] v = this.vertices;
+    final int a = v0 * FLOATS_PER_SCREEN_VERTEX;
+    final int b = v1 * FLOATS_PER_SCREEN_VERTEX;
+    final int c = v2 * FLOATS_PER_SCREEN_VERTEX;
+    final float minX = Math.min(v[a], Math.min(v[b], v[c]));
+    final float maxX = Math.max(v[a], Math.max(v[b], v[c]));
+    final float minY = Math.min(v[a + 1], Math.min(v[b + 1], v[c + 1]));
+    final float maxY = Math.max(v[a + 1], Math.max(v[b + 1], v[c + 1]));
+    if (maxX < 0 || maxY < 0 || minX >= this.width || minY >= this.height) {
+      return;
+    }
+    final int firstColumn = Math.max(0, (int) minX) / TILE_SIZE;
+    final int lastColumn = Math.min(this.width - 1, (int) maxX) / TILE_SIZE;
+    final int firstRow = Math.max(0, (int) minY) / TILE_SIZE;
+    final int lastRow = Math.min(this.height - 1, (int) maxY) / TILE_SIZE;
+    for (int row = firstRow; row <= lastRow; ++row) {
+      for (int column = firstColumn; column <= lastColumn; ++column) {
+        final int tile = row * this.tilesAcross + column;
+        final int count = this.tileTriangleCounts[tile];
+        if (count == this.tileTriangles[tile].length) {
+          this.tileTriangles[tile] = Arrays.copyOf(this.tileTriangles[tile],
+              2 * count);
+        }
+        this.tileTriangles[tile][count] = triangle;
+        this.tileTriangleCounts[tile] = count + 1;
+      }
+    }
+  }
+
+  /**
+   * Draws the specified hierarchy repeatedly and measures how many frames
+   * are drawn per second.
+   *
+   * @param root
+   *          The root of the hierarchy to draw.
+   * @param viewing
+   *          The rotation applied to the whole scene.
+   * @param frames
+   *          The number of frames to draw.
+   * @return The number of frames drawn per second.
+   */
+  public double benchmark(final Component root, final Quaternion viewing,
+      final int frames) {
+    // draw one frame first so that buffers have grown to their final size
+    this.render(root, viewing);
+    final long start = System.nanoTime();
+    for (int i = 0; i < frames; ++i) {
+      this.render(root, viewing);
+    }
+    final long elapsed = System.nanoTime() - start;
+    return frames / (elapsed / 1e9);
+  }
+
+  /**
+   * Gets the color of each pixel of the last frame, in ARGB form, row by row
+   * from the top of the image.
+   *
+   * This is the internal buffer of this renderer, which is overwritten by the
+   * next frame.
+   *
+   * @return The color of each pixel of the last frame.
+   */
+  public int[] colors() {
+    return this.colors;
+  }
+
+  /**
+   * Fills the pixels of the specified tile with the background and then with
+   * each of the triangles binned to it.
+   *
+   * @param tile
+   *          The index of the tile.
+   */
+  private void fillTile(final int tile) {
+    final int left = (tile % this.tilesAcross) * TILE_SIZE;
+    final int top = (tile / this.tilesAcross) * TILE_SIZE;
+    final int right = Math.min(left + TILE_SIZE, this.width);
+    final int bottom = Math.min(top + TILE_SIZE, this.height);
+    for (int y = top; y < bottom; ++y) {
+      final int row = y * this.width;
+      Arrays.fill(this.colors, row + left, row + right, BACKGROUND);
+      Arrays.fill(this.depths, row + left, row + right, 0);
+    }
+
+    final int[] binned = this.tileTriangles[tile];
+    final int count = this.tileTriangleCounts[tile];
+    for (int i = 0; i < count; ++i) {
+      final int t = 3 * binned[i];
+      this.fillTriangle(this.triangles[t], this.triangles[t + 1],
+          this.triangles[t + 2], left, top, right, bottom);
+    }
+  }
+
+  /**
+   * Fills the pixels of the specified triangle which lie within the specified
+   * rectangle and are nearer than what has already been drawn there.
+   *
+   * A pixel is covered if its center is inside the triangle, as determined by
+   * the signs of the edge functions, which are updated incrementally across
+   * each row. Depth and the color components divided by depth are linear in
+   * screen space, so the color is interpolated with perspective correction.
+   *
+   * @param v0
+   *          The index of the first screen vertex.
+   * @param v1
+   *          The index of the second screen vertex.
+   * @param v2
+   *          The index of the third screen vertex.
+   * @param left
+   *          The leftmost column of the rectangle.
+   * @param top
+   *          The topmost row of the rectangle.
+   * @param right
+   *          The column just after the rightmost column of the rectangle.
+   * @param bottom
+   *          The row just after the bottommost row of the rectangle.
+   */
+  private void fillTriangle(final int v0, final int v1, final int v2,
+      final int left, final int top, final int right, final int bottom) {
+    final float[] v = this.vertices;
+    final int a = v0 * FLOATS_PER_SCREEN_VERTEX;
+    final int b = v1 * FLOATS_PER_SCREEN_VERTEX;
+    final int c = v2 * FLOATS_PER_SCREEN_VERTEX;
+    final float x0 = v[a], y0 = v[a + 1];
+    final float x1 = v[b], y1 = v[b + 1];
+    final float x2 = v[c], y2 = v[c + 1];
+
+    final int minX = Math.max(left, (int) Math.floor(Math.min(x0,
+        Math.min(x1, x2))));
+    final int maxX = Math.min(right - 1, (int) Math.ceil(Math.max(x0,
+        Math.max(x1, x2))));
+    final int minY = Math.max(top, (int) Math.floor(Math.min(y0,
+        Math.min(y1, y2))));
+    final int maxY = Math.min(bottom - 1, (int) Math.ceil(Math.max(y0,
+        Math.max(y1, y2))));
+    if (minX > maxX || minY > maxY) {
+      return;
+    }
+
+    // front faces are clockwise on the screen, since y increases downward
+    final float area = (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+    final float inverseArea = 1 / area;
+
+    // the change in each edge function per pixel to the right and downward
+    final float dx0 = -(y2 - y1) * inverseArea, dy0 = (x2 - x1) * inverseArea;
+    final float dx1 = -(y0 - y2) * inverseArea, dy1 = (x0 - x2) * inverseArea;
+    final float dx2 = -(y1 - y0) * inverseArea, dy2 = (x1 - x0) * inverseArea;
+
+    // the barycentric coordinates of the center of the first pixel
+    final float cx = minX + 0.5f;
+    final float cy = minY + 0.5f;
+    float row0 = ((x2 - x1) * (cy - y1) - (y2 - y1) * (cx - x1)) * inverseArea;
+    float row1 = ((x0 - x2) * (cy - y2) - (y0 - y2) * (cx - x2)) * inverseArea;
+    float row2 = ((x1 - x0) * (cy - y0) - (y1 - y0) * (cx - x0)) * inverseArea;
+
+    final float w0 = v[a + 2], w1 = v[b + 2], w2 = v[c + 2];
+    for (int y = minY; y <= maxY; ++y) {
+      float b0 = row0, b1 = row1, b2 = row2;
+      int pixel = y * this.width + minX;
+      for (int x = minX; x <= maxX; ++x, ++pixel) {
+        if (b0 >= 0 && b1 >= 0 && b2 >= 0) {
+          final float inverseDepth = b0 * w0 + b1 * w1 + b2 * w2;
+          if (inverseDepth > this.depths[pixel]) {
+            this.depths[pixel] = inverseDepth;
+            final float depth = 1 / inverseDepth;
+            final float red = (b0 * v[a + 3] + b1 * v[b + 3] + b2 * v[c + 3])
+                * depth;
+            final float green = (b0 * v[a + 4] + b1 * v[b + 4] + b2
+                * v[c + 4])
+                * depth;
+            final float blue = (b0 * v[a + 5] + b1 * v[b + 5] + b2 * v[c + 5])
+                * depth;
+            this.colors[pixel] = BACKGROUND | (toByte(red) << 16)
+                | (toByte(green) << 8) | toByte(blue);
+          }
+        }
+        b0 += dx0;
+        b1 += dx1;
+        b2 += dx2;
+      }
+      row0 += dy0;
+      row1 += dy1;
+      row2 += dy2;
+    }
+  }
+
+  /**
+   * Gets the height of the image drawn by this renderer.
+   *
+   * @return The height of the image, in pixels.
+   */
+  public int height() {
+    return this.height;
+  }
+
+  /**
+   * Draws the specified hierarchy as seen after rotating it by the specified
+   * viewing rotation, replacing the previous frame.
+   *
+   * @param root
+   *          The root of the hierarchy to draw.
+   * @param viewing
+   *          The rotation applied to the whole scene.
+   */
+  public void render(final Component root, final Quaternion viewing) {
+    viewing.toMatrix(this.viewingMatrix, 0);
+    for (int i = 0; i < Matrix4d.SIZE; ++i) {
+      this.view[i] = this.viewingMatrix[i];
+    }
+
+    this.vertexCount = 0;
+    this.triangleCount = 0;
+    Arrays.fill(this.tileTriangleCounts, 0);
+    this.transform(root);
+
+    try {
+      for (final Future<Void> future : this.pool.invokeAll(this.tasks)) {
+        future.get();
+      }
+    } catch (final InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    } catch (final ExecutionException exception) {
+      throw new RuntimeException(exception.getCause());
+    }
+  }
+
+  /**
+   * Stops the threads of this renderer, after which it can no longer draw.
+   */
+  public void shutdown() {
+    this.pool.shutdown();
+  }
+
+  /**
+   * Copies the last frame into a new image.
+   *
+   * @return An image containing the last frame.
+   */
+  public BufferedImage toImage() {
+    final BufferedImage image = new BufferedImage(this.width, this.height,
+        BufferedImage.TYPE_INT_ARGB);
+    image.setRGB(0, 0, this.width, this.height, this.colors, 0, this.width);
+    return image;
+  }
+
+  /**
+   * Transforms, lights, and bins the triangles drawn by the specified
+   * component and all of its descendants.
+   *
+   * @param component
+   *          The root of the hierarchy to transform.
+   */
+  private void transform(final Component component) {
+    final Displayable displayable = component.displayable();
+    if (displayable instanceof Circular) {
+      final Mesh mesh = ((Circular) displayable).mesh(0);
+      if (mesh != null) {
+        Matrix4d.multiply(this.view, 0, component.worldTransform(), 0,
+            this.modelView, 0);
+        this.transformMesh(mesh, component.color());
+      }
+    }
+    for (int i = 0; i < component.childCount(); ++i) {
+      this.transform(component.child(i));
+    }
+  }
+
+  /**
+   * Transforms and lights the vertices of the specified mesh by the current
+   * model view matrix, then bins each of its triangles which lies entirely in
+   * front of the near plane and faces the camera.
+   *
+   * @param mesh
+   *          The mesh to transform.
+   * @param color
+   *          The color of the mesh.
+   */
+  private void transformMesh(final Mesh mesh, final FloatColor color) {
+    final int first = this.vertexCount;
+    final int count = mesh.vertexCount();
+    if ((first + count) * FLOATS_PER_SCREEN_VERTEX > this.vertices.length) {
+      this.vertices = Arrays.copyOf(this.vertices, Math.max(2
+          * this.vertices.length, (first + count) * FLOATS_PER_SCREEN_VERTEX));
+    }
+
+    final double[] m = this.modelView;
+    final float length = (float) Math.sqrt(3);
+    final float lx = LIGHT_DIRECTION[0] / length;
+    final float ly = LIGHT_DIRECTION[1] / length;
+    final float lz = LIGHT_DIRECTION[2] / length;
+    final float ambient = GLOBAL_AMBIENT + LIGHT_AMBIENT;
+    final FloatBuffer source = mesh.vertices();
+    for (int i = 0; i < count; ++i) {
+      final int s = i * Mesh.FLOATS_PER_VERTEX;
+      final double px = source.get(s);
+      final double py = source.get(s + 1);
+      final double pz = source.get(s + 2);
+      final double nx = source.get(s + 3);
+      final double ny = source.get(s + 4);
+      final double nz = source.get(s + 5);
+
+      // eye space, then view space of the camera at the eye distance
+      final double ex = m[0] * px + m[4] * py + m[8] * pz + m[12];
+      final double ey = m[1] * px + m[5] * py + m[9] * pz + m[13];
+      final double ez = m[2] * px + m[6] * py + m[10] * pz + m[14];
+      final double w = this.eyeDistance - ez;
+
+      // the transformations are rigid, so the normal is only rotated
+      final float mx = (float) (m[0] * nx + m[4] * ny + m[8] * nz);
+      final float my = (float) (m[1] * nx + m[5] * ny + m[9] * nz);
+      final float mz = (float) (m[2] * nx + m[6] * ny + m[10] * nz);
+      final float intensity = ambient + LIGHT_DIFFUSE
+          * Math.max(0, mx * lx + my * ly + mz * lz);
+
+      final int d = (first + i) * FLOATS_PER_SCREEN_VERTEX;
+      final float inverseW = (float) (1 / w);
+      this.vertices[d] = (float) ((1 + this.xScale * ex / w) * 0.5 * this.width);
+      this.vertices[d + 1] = (float) ((1 - this.yScale * ey / w) * 0.5
+          * this.height);
+      this.vertices[d + 2] = w < NEAR ? -1 : inverseW;
+      this.vertices[d + 3] = Math.min(1, color.red() * intensity) * inverseW;
+      this.vertices[d + 4] = Math.min(1, color.green() * intensity)
+          * inverseW;
+      this.vertices[d + 5] = Math.min(1, color.blue() * intensity) * inverseW;
+    }
+    this.vertexCount += count;
+
+    final IntBuffer indices = mesh.indices();
+    final int triangles = mesh.triangleCount();
+    if (3 * (this.triangleCount + triangles) > this.triangles.length) {
+      this.triangles = Arrays.copyOf(this.triangles, Math.max(
+          2 * this.triangles.length, 3 * (this.triangleCount + triangles)));
+    }
+    final float[] v = this.vertices;
+    final float farLimit = (float) (1 / FAR);
+    for (int t = 0; t < triangles; ++t) {
+      final int v0 = first + indices.get(3 * t);
+      final int v1 = first + indices.get(3 * t + 1);
+      final int v2 = first + indices.get(3 * t + 2);
+      final int a = v0 * FLOATS_PER_SCREEN_VERTEX;
+      final int b = v1 * FLOATS_PER_SCREEN_VERTEX;
+      final int c = v2 * FLOATS_PER_SCREEN_VERTEX;
+
+      // triangles crossing the near or far plane are not clipped but skipped
+      if (v[a + 2] < farLimit || v[b + 2] < farLimit || v[c + 2] < farLimit) {
+        continue;
+      }
+      final float area = (v[b] - v[a]) * (v[c + 1] - v[a + 1])
+          - (v[b + 1] - v[a + 1]) * (v[c] - v[a]);
+      if (area >= 0) {
+        continue;
+      }
+
+      final int triangle = this.triangleCount++;
+      this.triangles[3 * triangle] = v0;
+      this.triangles[3 * triangle + 1] = v1;
+      this.triangles[3 * triangle + 2] = v2;
+      this.binTriangle(triangle, v0, v1, v2);
+    }
+  }
+
+  /**
+   * Gets the number of triangles drawn in the last frame, after those facing
+   * away from the camera or outside the clipping volume were discarded.
+   *
+   * @return The number of triangles drawn in the last frame.
+   */
+  public int triangleCount() {
+    return this.triangleCount;
+  }
+
+  /**
+   * Gets the width of the image drawn by this renderer.
+   *
+   * @return The width of the image, in pixels.
+   */
+  public int width() {
+    return this.width;
+  }
+}
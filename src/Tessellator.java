@@ -0,0 +1,209 @@
+/**
+ * Tessellator.java - generates triangle meshes for the primitive shapes
+ */
+
+
+/**
+ * Generates triangle meshes for the primitive shapes from which the model is
+ * built, without using OpenGL.
+ *
+ * The shapes have the same dimensions and orientation as the corresponding
+ * GLUT shapes: cylinders extend from the x-y plane along the positive z axis,
+ * and spheres are centered at the origin with their poles on the z axis. Each
+ * method appends to the specified mesh, so that several shapes can be combined
+ * in one mesh, and so that a single mesh can be cleared and reused.
+ */
+public final class Tessellator {
+
+  /**
+   * Appends a closed cylinder with a sphere on top to the specified mesh, as
+   * drawn by {@link RoundedCylinder}.
+   *
+   * @param mesh
+   *          The mesh to which to append the shape.
+   * @param radius
+   *          The radius of the cylinder and the sphere.
+   * @param height
+   *          The height of the cylinder.
+   * @param slices
+   *          The number of subdivisions around the z axis.
+   * @param stacks
+   *          The number of subdivisions along the z axis.
+   */
+  public static void roundedCylinder(final Mesh mesh, final double radius,
+      final double height, final int slices, final int stacks) {
+    cylinder(mesh, radius, height, slices, stacks);
+    ellipsoid(mesh, radius, 1, 1, 1, height, slices, stacks);
+  }
+
+  /**
+   * Appends a closed cylinder to the specified mesh, equivalent to the one
+   * drawn by {@code glutSolidCylinder}.
+   *
+   * @param mesh
+   *          The mesh to which to append the cylinder.
+   * @param radius
+   *          The radius of the cylinder.
+   * @param height
+   *          The height of the cylinder.
+   * @param slices
+   *          The number of subdivisions around the z axis.
+   * @param stacks
+   *          The number of subdivisions along the z axis.
+   */
+  public static void cylinder(final Mesh mesh, final double radius,
+      final double height, final int slices, final int stacks) {
+    mesh.ensureCapacity((stacks + 1) * (slices + 1) + 2 * (slices + 2),
+        2 * stacks * slices + 2 * slices);
+
+    // the side, as rings of vertices from bottom to top
+    final int side = mesh.vertexCount();
+    for (int ring = 0; ring <= stacks; ++ring) {
+      final float z = (float) (height * ring / stacks);
+      for (int slice = 0; slice <= slices; ++slice) {
+        final double theta = 2 * Math.PI * slice / slices;
+        final float cos = (float) Math.cos(theta);
+        final float sin = (float) Math.sin(theta);
+        mesh.addVertex((float) radius * cos, (float) radius * sin, z, cos, sin,
+            0);
+      }
+    }
+    for (int ring = 0; ring < stacks; ++ring) {
+      for (int slice = 0; slice < slices; ++slice) {
+        final int lower = side + ring * (slices + 1) + slice;
+        final int upper = lower + slices + 1;
+        mesh.addTriangle(lower, lower + 1, upper + 1);
+        mesh.addTriangle(lower, upper + 1, upper);
+      }
+    }
+
+    // the bottom and top caps
+    cap(mesh, radius, 0, -1, slices);
+    cap(mesh, radius, height, 1, slices);
+  }
+
+  /**
+   * Appends a flat disk perpendicular to the z axis to the specified mesh.
+   *
+   * @param mesh
+   *          The mesh to which to append the disk.
+   * @param radius
+   *          The radius of the disk.
+   * @param z
+   *          The z coordinate of the disk.
+   * @param facing
+   *          1 if the disk faces the positive z direction, -1 if it faces the
+   *          negative z direction.
+   * @param slices
+   *          The number of subdivisions around the z axis.
+   */
+  private static void cap(final Mesh mesh, final double radius,
+      final double z, final int facing, final int slices) {
+    final int center = mesh.addVertex(0, 0, (float) z, 0, 0, facing);
+    for (int slice = 0; slice <= slices; ++slice) {
+      final double theta = 2 * Math.PI * slice / slices;
+      mesh.addVertex((float) (radius * Math.cos(theta)),
+          (float) (radius * Math.sin(theta)), (float) z, 0, 0, facing);
+    }
+    for (int slice = 0; slice < slices; ++slice) {
+      final int first = center + 1 + slice;
+      if (facing > 0) {
+        mesh.addTriangle(center, first, first + 1);
+      } else {
+        mesh.addTriangle(center, first + 1, first);
+      }
+    }
+  }
+
+  /**
+   * Appends a sphere centered at the origin to the specified mesh, equivalent
+   * to the one drawn by {@code glutSolidSphere}.
+   *
+   * @param mesh
+   *          The mesh to which to append the sphere.
+   * @param radius
+   *          The radius of the sphere.
+   * @param slices
+   *          The number of subdivisions around the z axis.
+   * @param stacks
+   *          The number of subdivisions along the z axis.
+   */
+  public static void sphere(final Mesh mesh, final double radius,
+      final int slices, final int stacks) {
+    ellipsoid(mesh, radius, 1, 1, 1, 0, slices, stacks);
+  }
+
+  /**
+   * Appends a sphere scaled along each of the axes and then translated along
+   * the z axis to the specified mesh, as drawn by {@link Palm}.
+   *
+   * Normals are transformed by the inverse of the scale, so that they remain
+   * perpendicular to the surface of the ellipsoid.
+   *
+   * @param mesh
+   *          The mesh to which to append the ellipsoid.
+   * @param radius
+   *          The radius of the sphere before scaling.
+   * @param xScale
+   *          The factor by which to scale the sphere along the x axis.
+   * @param yScale
+   *          The factor by which to scale the sphere along the y axis.
+   * @param zScale
+   *          The factor by which to scale the sphere along the z axis.
+   * @param zOffset
+   *          The distance by which to translate the center of the ellipsoid
+   *          along the z axis.
+   * @param slices
+   *          The number of subdivisions around the z axis.
+   * @param stacks
+   *          The number of subdivisions along the z axis.
+   */
+  public static void ellipsoid(final Mesh mesh, final double radius,
+      final double xScale, final double yScale, final double zScale,
+      final double zOffset, final int slices, final int stacks) {
+    mesh.ensureCapacity((stacks + 1) * (slices + 1), 2 * stacks * slices);
+
+    // rings of vertices from the north pole to the south pole
+    final int first = mesh.vertexCount();
+    for (int ring = 0; ring <= stacks; ++ring) {
+      final double phi = Math.PI * ring / stacks;
+      final double sinPhi = Math.sin(phi);
+      final double cosPhi = Math.cos(phi);
+      for (int slice = 0; slice <= slices; ++slice) {
+        final double theta = 2 * Math.PI * slice / slices;
+        final double x = sinPhi * Math.cos(theta);
+        final double y = sinPhi * Math.sin(theta);
+        final double z = cosPhi;
+
+        // the inverse transpose of a scale is the inverse scale
+        final double nx = x / xScale;
+        final double ny = y / yScale;
+        final double nz = z / zScale;
+        final double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+        mesh.addVertex((float) (radius * xScale * x),
+            (float) (radius * yScale * y),
+            (float) (radius * zScale * z + zOffset), (float) (nx / length),
+            (float) (ny / length), (float) (nz / length));
+      }
+    }
+    for (int ring = 0; ring < stacks; ++ring) {
+      for (int slice = 0; slice < slices; ++slice) {
+        final int upper = first + ring * (slices + 1) + slice;
+        final int lower = upper + slices + 1;
+        // skip the triangles which would be degenerate at the poles
+        if (ring != stacks - 1) {
+          mesh.addTriangle(upper, lower, lower + 1);
+        }
+        if (ring != 0) {
+          mesh.addTriangle(upper, lower + 1, upper + 1);
+        }
+      }
+    }
+  }
+
+  /** Instantiation is disallowed. */
+  private Tessellator() {
+    // intentionally unimplemented
+  }
+}